@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persists the inclinometer offsets of each mount profile, so a phone that goes back into a
+ * mount it has been calibrated in doesn't need to be calibrated again.  A mount profile is just a
+ * name, e.g. "dash" or "roll bar"; DEFAULT_PROFILE is used until another one is selected.
+ *
+ * The offsets are kept in SharedPreferences.  Saving uses apply(), which updates the in-memory
+ * copy immediately and writes it to disk on a background thread, so saving is safe from the
+ * sensor thread and never waits on the disk.  The file is small and Android starts loading it
+ * on a background thread as soon as it is opened, so by the time the service reads it in
+ * onCreate() it is normally already in memory.
+ */
+public class CalibrationStore {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public static final String DEFAULT_PROFILE = "default";
+
+    public static final int PITCH_INDEX = 0;
+    public static final int ROLL_INDEX = 1;
+
+    private static final String PREFERENCES_NAME = "calibration";
+    private static final String KEY_PROFILE = "profile";
+    private static final String KEY_PITCH_SUFFIX = ".pitch";
+    private static final String KEY_ROLL_SUFFIX = ".roll";
+    private static final String KEY_TIME_SUFFIX = ".time";
+
+    /* an offset can only rotate the reading half way around */
+    private static final double MAX_OFFSET = 180.0;
+
+    private final SharedPreferences preferences;
+
+    /**
+     * @param context context whose private storage holds the calibrations
+     */
+    public CalibrationStore(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the mount profile that was selected last, or DEFAULT_PROFILE
+     */
+    public String getProfile() {
+        return preferences.getString(KEY_PROFILE, DEFAULT_PROFILE);
+    }
+
+    /**
+     * Remember the selected mount profile
+     *
+     * @param profile name of the profile
+     */
+    public void setProfile(String profile) {
+        preferences.edit().putString(KEY_PROFILE, profile).apply();
+    }
+
+    /**
+     * Load the offsets of a mount profile
+     *
+     * @param profile name of the profile
+     * @param offsets array to fill in (PITCH_INDEX, ROLL_INDEX, degrees)
+     * @return false if the profile hasn't been calibrated, or its calibration isn't valid
+     */
+    public boolean load(String profile, double[] offsets) {
+        HromatkaLog.getInstance().enter(TAG);
+        String pitchKey = profile + KEY_PITCH_SUFFIX;
+        String rollKey = profile + KEY_ROLL_SUFFIX;
+        if (!preferences.contains(pitchKey) || !preferences.contains(rollKey)) {
+            HromatkaLog.getInstance().exit(TAG);
+            return false;
+        }
+
+        /* SharedPreferences has no doubles.  the offsets are stored as their raw bits */
+        double pitch = Double.longBitsToDouble(preferences.getLong(pitchKey, 0));
+        double roll = Double.longBitsToDouble(preferences.getLong(rollKey, 0));
+        if (!isValidOffset(pitch) || !isValidOffset(roll)) {
+            HromatkaLog.getInstance().logError(TAG, "Ignoring invalid calibration for profile " + profile);
+            HromatkaLog.getInstance().exit(TAG);
+            return false;
+        }
+
+        offsets[PITCH_INDEX] = pitch;
+        offsets[ROLL_INDEX] = roll;
+        HromatkaLog.getInstance().exit(TAG);
+        return true;
+    }
+
+    /**
+     * Save the offsets of a mount profile.  Returns without waiting for the disk.
+     *
+     * @param profile name of the profile
+     * @param pitch   pitch offset (degrees)
+     * @param roll    roll offset (degrees)
+     */
+    public void save(String profile, double pitch, double roll) {
+        HromatkaLog.getInstance().enter(TAG);
+        preferences.edit()
+                .putLong(profile + KEY_PITCH_SUFFIX, Double.doubleToRawLongBits(pitch))
+                .putLong(profile + KEY_ROLL_SUFFIX, Double.doubleToRawLongBits(roll))
+                .putLong(profile + KEY_TIME_SUFFIX, System.currentTimeMillis())
+                .apply();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Forget the calibration of a mount profile
+     *
+     * @param profile name of the profile
+     */
+    public void clear(String profile) {
+        preferences.edit()
+                .remove(profile + KEY_PITCH_SUFFIX)
+                .remove(profile + KEY_ROLL_SUFFIX)
+                .remove(profile + KEY_TIME_SUFFIX)
+                .apply();
+    }
+
+    private static boolean isValidOffset(double offset) {
+        return !Double.isNaN(offset) && Math.abs(offset) <= MAX_OFFSET;
+    }
+}
@@ -57,6 +57,20 @@ public class HromatkaLog {
         return instance;
     }
 
+    public boolean isLoggingEnabled() {
+        return enableLogging;
+    }
+
+    /**
+     * Turn the enter/exit and verbose logging on or off, e.g. to measure the sensor pipeline as
+     * it runs in release builds.  It is on by default in debug builds.  Errors are always logged.
+     *
+     * @param enabled true to log
+     */
+    public void setLoggingEnabled(boolean enabled) {
+        enableLogging = enabled;
+    }
+
     /**
      * Log method to call when entering a method
      *
@@ -101,6 +115,20 @@ public class HromatkaLog {
         }
     }
 
+    /**
+     * Log method to call when logging a verbose message with a value from a hot path.  The
+     * string is only built when logging is enabled, so this doesn't allocate in release builds.
+     *
+     * @param tag     Android class tag
+     * @param message Log string
+     * @param value   value appended to the log string
+     */
+    public void logVerbose(String tag, String message, long value) {
+        if (enableLogging) {
+            Log.v(tag, message + value);
+        }
+    }
+
     /**
      * Method to get the name of the calling method
      *
@@ -23,17 +23,89 @@ import android.content.Intent;
 import android.content.res.Configuration;
 import android.hardware.SensorManager;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Debug;
 import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
 
+import com.tomhromatka.service.sensors.AbstractSensor;
+import com.tomhromatka.service.sensors.InclinometerReading;
+import com.tomhromatka.service.sensors.ListenerStats;
 import com.tomhromatka.service.sensors.SensorAccelerometer;
 import com.tomhromatka.service.sensors.SensorApi;
+import com.tomhromatka.service.sensors.SensorAutoCalibration;
+import com.tomhromatka.service.sensors.SensorDecimator;
 import com.tomhromatka.service.sensors.SensorInclinometer;
 import com.tomhromatka.service.sensors.SensorOrientedAccelerometer;
+import com.tomhromatka.service.sensors.SensorRolloverPredictor;
+import com.tomhromatka.service.sensors.SensorRoughness;
+import com.tomhromatka.service.sensors.SensorShockDetector;
+import com.tomhromatka.service.sensors.SensorSourceAndroid;
+import com.tomhromatka.service.sensors.SensorSourceSocket;
+import com.tomhromatka.service.sensors.SensorSourceSynthetic;
+import com.tomhromatka.service.stats.AngleHeatmap;
+import com.tomhromatka.service.stats.SessionSampleStore;
+import com.tomhromatka.service.stats.SessionStatistics;
+import com.tomhromatka.service.triplog.TripEventLog;
+import com.tomhromatka.service.triplog.TripEventLogWriter;
+import com.tomhromatka.service.triplog.TripLogWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 
 public class HromatkaService extends Service {
     private final String TAG = this.getClass().getSimpleName();
 
+    private static final String RUNTIME_STAT_GC_COUNT = "art.gc.gc-count";
+    private static final String RUNTIME_STAT_BYTES_ALLOCATED = "art.gc.bytes-allocated";
+
+    /* what high-rate mode sizes the filters for.  they still grow if the phone is faster */
+    private static final int HIGH_RATE_EXPECTED_HZ = 1000;
+
+    /* Process.getStartUptimeMillis() is only available from Nougat on */
+    private static final int SDK_N = 24;
+    private static final long NS_PER_MS = 1000000L;
+
+    /* 8 MB of resident session history.  older samples spill to the cache directory */
+    private static final long SESSION_SAMPLES_MEMORY_CAP = 8L * 1024 * 1024;
+    private static final String SESSION_SAMPLES_SPILL_FILE = "session_samples";
+
+    /* a literal address, so resolving it never touches DNS */
+    private static final String IMU_GATEWAY_HOST = "127.0.0.1";
+
     private final Binder binder = new LocalBinder();
+    private SensorSourceAndroid deviceSource = null;
+
+    /* what the menu's settings were last set to, so a recreated menu can show them */
+    private boolean highRateMode = false;
+    private int accelerometerSource = HromatkaServiceApi.ACCELEROMETER_SOURCE_DEVICE;
+    private final TripLogWriter tripLogWriter = new TripLogWriter();
+    private final TripEventLogWriter tripEventLogWriter = new TripEventLogWriter();
+    private final AngleHeatmap angleHeatmap = new AngleHeatmap();
+    private File tripLogFile = null;
+    private final SessionStatistics sessionStatistics = new SessionStatistics();
+    private boolean sessionStatisticsRunning = false;
+    private SessionSampleStore sessionSamples = null;
+
+    /* runtime counters at service start, so the diagnostics report "since start" */
+    private long gcCountAtStart = PerformanceCounters.UNAVAILABLE;
+    private long bytesAllocatedAtStart = PerformanceCounters.UNAVAILABLE;
+
+    /* System.nanoTime() at the start of the process (or of the service, before Nougat) */
+    private long processStartNs = 0;
+
+    private CalibrationStore calibrationStore = null;
+    private volatile String mountProfile = CalibrationStore.DEFAULT_PROFILE;
+    private volatile boolean calibrationValid = false;
+    private final CalibrationSaver calibrationSaver = new CalibrationSaver();
+    private int autoCalibrationListenerCount = 0;
+
+    /* the decimators wrapping the decimated oriented accelerometer listeners */
+    private final ArrayList<SensorDecimator> decimatedListeners = new ArrayList<SensorDecimator>();
 
     /**
      * Class that implements the listeners for HromatkaServiceApi.  No logic should be performed here.
@@ -43,48 +115,268 @@ public class HromatkaService extends Service {
         @Override
         public void registerAccelerometerListener(SensorApi callback) {
             HromatkaLog.getInstance().enter(TAG);
-            SensorAccelerometer.getInstance().registerListener(getSensorManager(), callback);
+            SensorAccelerometer.getInstance().registerListener(callback);
             HromatkaLog.getInstance().exit(TAG);
         }
 
         @Override
         public void unregisterAccelerometerListener(SensorApi callback) {
             HromatkaLog.getInstance().enter(TAG);
-            SensorAccelerometer.getInstance().unregisterListener(getSensorManager(), callback);
+            SensorAccelerometer.getInstance().unregisterListener(callback);
             HromatkaLog.getInstance().exit(TAG);
         }
 
         @Override
         public void registerOrientedAccelerometerListener(SensorApi callback) {
             HromatkaLog.getInstance().enter(TAG);
-            SensorOrientedAccelerometer.getInstance().registerListener(getSensorManager(), callback);
+            SensorOrientedAccelerometer.getInstance().registerListener(callback);
             HromatkaLog.getInstance().exit(TAG);
         }
 
         @Override
         public void unregisterOrientedAccelerometerListener(SensorApi callback) {
             HromatkaLog.getInstance().enter(TAG);
-            SensorOrientedAccelerometer.getInstance().unregisterListener(getSensorManager(), callback);
+            SensorOrientedAccelerometer.getInstance().unregisterListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void registerDecimatedOrientedAccelerometerListener(SensorApi callback, double rateHz) {
+            HromatkaLog.getInstance().enter(TAG);
+            registerDecimatedListener(callback, rateHz);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void unregisterDecimatedOrientedAccelerometerListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            unregisterDecimatedListener(callback);
             HromatkaLog.getInstance().exit(TAG);
         }
 
         @Override
         public void registerInclinometerListener(SensorApi callback) {
             HromatkaLog.getInstance().enter(TAG);
-            SensorInclinometer.getInstance().registerListener(getSensorManager(), callback);
+            SensorInclinometer.getInstance().registerListener(callback);
             HromatkaLog.getInstance().exit(TAG);
         }
 
         @Override
         public void unregisterInclinometerListener(SensorApi callback) {
             HromatkaLog.getInstance().enter(TAG);
-            SensorInclinometer.getInstance().unregisterListener(getSensorManager(), callback);
+            SensorInclinometer.getInstance().unregisterListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public boolean readLatest(InclinometerReading reading) {
+            return SensorInclinometer.getInstance().readLatest(reading);
+        }
+
+        @Override
+        public void registerRolloverPredictorListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            SensorRolloverPredictor.getInstance().registerListener(callback);
             HromatkaLog.getInstance().exit(TAG);
         }
 
+        @Override
+        public void unregisterRolloverPredictorListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            SensorRolloverPredictor.getInstance().unregisterListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void setRolloverLimits(double pitchLimit, double rollLimit) {
+            SensorRolloverPredictor.getInstance().setLimits(pitchLimit, rollLimit);
+        }
+
         @Override
         public void updateInclinometerOffsets() {
-            SensorInclinometer.getInstance().updateOffsets();
+            calibrateFromLatestReading();
+        }
+
+        @Override
+        public void registerAutoCalibrationListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            addAutoCalibrationListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void unregisterAutoCalibrationListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            removeAutoCalibrationListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void setMountProfile(String profile) {
+            HromatkaLog.getInstance().enter(TAG);
+            selectMountProfile(profile);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public String getMountProfile() {
+            return mountProfile;
+        }
+
+        @Override
+        public boolean hasValidCalibration() {
+            return calibrationValid;
+        }
+
+        @Override
+        public void setAutoCalibrationCriteria(double stableSeconds, double tolerance) {
+            SensorAutoCalibration.getInstance().setCriteria(stableSeconds, tolerance);
+        }
+
+        @Override
+        public void registerRoughnessListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            SensorRoughness.getInstance().registerListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void unregisterRoughnessListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            SensorRoughness.getInstance().unregisterListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void registerShockListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            SensorShockDetector.getInstance().registerListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void unregisterShockListener(SensorApi callback) {
+            HromatkaLog.getInstance().enter(TAG);
+            SensorShockDetector.getInstance().unregisterListener(callback);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void setShockCriteria(double minimumPeak, double refractorySeconds) {
+            SensorShockDetector.getInstance().setCriteria(minimumPeak, refractorySeconds);
+        }
+
+        @Override
+        public boolean startTripLog(File logFile) {
+            HromatkaLog.getInstance().enter(TAG);
+            boolean started = openTripLog(logFile);
+            HromatkaLog.getInstance().exit(TAG);
+            return started;
+        }
+
+        @Override
+        public void stopTripLog() {
+            HromatkaLog.getInstance().enter(TAG);
+            closeTripLog();
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public boolean isTripLogRecording() {
+            return tripLogWriter.isOpen();
+        }
+
+        @Override
+        public void readAngleHeatmap(AngleHeatmap snapshot) {
+            snapshot.copyFrom(angleHeatmap);
+        }
+
+        @Override
+        public void readPerformanceCounters(PerformanceCounters counters) {
+            collectPerformanceCounters(counters);
+        }
+
+        @Override
+        public void startSessionStatistics() {
+            HromatkaLog.getInstance().enter(TAG);
+            beginSession();
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void stopSessionStatistics() {
+            HromatkaLog.getInstance().enter(TAG);
+            endSession();
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void readSessionStatistics(SessionStatistics snapshot) {
+            snapshot.copyFrom(sessionStatistics);
+        }
+
+        @Override
+        public SessionSampleStore getSessionSamples() {
+            return sessionSamples;
+        }
+
+        @Override
+        public void setHighRateMode(boolean enabled) {
+            HromatkaLog.getInstance().enter(TAG);
+            selectDeviceRate(enabled);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public boolean isHighRateMode() {
+            return highRateMode;
+        }
+
+        @Override
+        public void setFixedPointEnabled(boolean enabled) {
+            SensorInclinometer.getInstance().setFixedPointEnabled(enabled);
+        }
+
+        @Override
+        public boolean isFixedPointEnabled() {
+            return SensorInclinometer.getInstance().isFixedPointEnabled();
+        }
+
+        @Override
+        public void setDecimationEnabled(boolean enabled) {
+            SensorInclinometer.getInstance().setDecimationEnabled(enabled);
+        }
+
+        @Override
+        public boolean isDecimationEnabled() {
+            return SensorInclinometer.getInstance().isDecimationEnabled();
+        }
+
+        @Override
+        public void setAccelerometerSource(int source) {
+            HromatkaLog.getInstance().enter(TAG);
+            selectAccelerometerSource(source);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public int getAccelerometerSource() {
+            return accelerometerSource;
+        }
+
+        @Override
+        public void setTracingEnabled(boolean enabled) {
+            HromatkaTrace.getInstance().setEnabled(enabled);
+        }
+
+        @Override
+        public boolean isTracingEnabled() {
+            return HromatkaTrace.getInstance().isEnabled();
+        }
+
+        @Override
+        public int readListenerStats(int sensor, ListenerStats[] stats) {
+            return getSensor(sensor).readListenerStats(stats);
         }
     }
 
@@ -110,8 +402,22 @@ public class HromatkaService extends Service {
     public void onCreate() {
         HromatkaLog.getInstance().enter(TAG);
         super.onCreate();
+        processStartNs = readProcessStartNs();
+
+        /* restore the calibration before anyone can bind and start the sensors */
+        calibrationStore = new CalibrationStore(this);
+        mountProfile = calibrationStore.getProfile();
+        loadCalibration();
+
+        sessionSamples = new SessionSampleStore(SESSION_SAMPLES_MEMORY_CAP,
+                new File(getCacheDir(), SESSION_SAMPLES_SPILL_FILE));
 
+        deviceSource = new SensorSourceAndroid(getSensorManager());
+        SensorAccelerometer.getInstance().setSensorSource(deviceSource);
         SensorOrientedAccelerometer.getInstance().setOrientation(getOrientation());
+
+        gcCountAtStart = readRuntimeStat(RUNTIME_STAT_GC_COUNT);
+        bytesAllocatedAtStart = readRuntimeStat(RUNTIME_STAT_BYTES_ALLOCATED);
         HromatkaLog.getInstance().exit(TAG);
     }
 
@@ -123,11 +429,310 @@ public class HromatkaService extends Service {
         HromatkaLog.getInstance().enter(TAG);
         super.onDestroy();
 
-        SensorAccelerometer.getInstance().destroySensor(getSensorManager());
-        SensorInclinometer.getInstance().destroySensor(getSensorManager());
+        closeTripLog();
+        endSession();
+        sessionSamples.close();
+        SensorAccelerometer.getInstance().destroySensor();
+        SensorInclinometer.getInstance().destroySensor();
+        SensorRolloverPredictor.getInstance().destroySensor();
+        SensorAutoCalibration.getInstance().destroySensor();
+        SensorRoughness.getInstance().destroySensor();
+        SensorShockDetector.getInstance().destroySensor();
         HromatkaLog.getInstance().exit(TAG);
     }
 
+    /**
+     * Saves the inclinometer offsets when automatic calibration completes.  Called on the sensor
+     * thread; CalibrationStore doesn't wait for the disk.
+     */
+    private class CalibrationSaver implements SensorApi {
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            if (values[SensorAutoCalibration.PROGRESS_INDEX] >= 1.0f) {
+                saveCalibration();
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    }
+
+    /**
+     * Apply the saved calibration of the current mount profile to the inclinometer.  A profile
+     * without a valid calibration reads uncorrected until it is calibrated.
+     */
+    private void loadCalibration() {
+        HromatkaLog.getInstance().enter(TAG);
+        double[] offsets = new double[2];
+        calibrationValid = calibrationStore.load(mountProfile, offsets);
+        SensorInclinometer.getInstance().setOffsets(
+                offsets[CalibrationStore.PITCH_INDEX], offsets[CalibrationStore.ROLL_INDEX]);
+        HromatkaLog.getInstance().logVerbose(TAG, "Mount profile " + mountProfile + " calibrated: " + calibrationValid);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Save the inclinometer's current offsets as the current mount profile's calibration
+     */
+    private void saveCalibration() {
+        calibrationStore.save(mountProfile,
+                SensorInclinometer.getInstance().getPitchOffset(),
+                SensorInclinometer.getInstance().getRollOffset());
+        calibrationValid = true;
+    }
+
+    /**
+     * Save the calibration whenever automatic calibration completes, for as long as anyone
+     * listens to it
+     *
+     * @param callback listener to register with the automatic calibration
+     */
+    private void addAutoCalibrationListener(SensorApi callback) {
+        if (0 == autoCalibrationListenerCount++) {
+            SensorAutoCalibration.getInstance().registerListener(calibrationSaver);
+        }
+        SensorAutoCalibration.getInstance().registerListener(callback);
+    }
+
+    /**
+     * @param callback listener registered with addAutoCalibrationListener()
+     */
+    private void removeAutoCalibrationListener(SensorApi callback) {
+        SensorAutoCalibration.getInstance().unregisterListener(callback);
+        if (autoCalibrationListenerCount > 0 && 0 == --autoCalibrationListenerCount) {
+            SensorAutoCalibration.getInstance().unregisterListener(calibrationSaver);
+        }
+    }
+
+    /**
+     * Zero the inclinometer at its latest reading and save that as the current mount profile's
+     * calibration
+     */
+    private void calibrateFromLatestReading() {
+        if (SensorInclinometer.getInstance().updateOffsets()) {
+            saveCalibration();
+        }
+    }
+
+    /**
+     * Switch to another mount profile and apply its saved calibration
+     *
+     * @param profile name of the mount profile
+     */
+    private void selectMountProfile(String profile) {
+        mountProfile = profile;
+        calibrationStore.setProfile(profile);
+        loadCalibration();
+    }
+
+    /**
+     * Record the oriented accelerometer to a trip log, the shocks to its event log and the
+     * inclinometer to its heatmap.  Any trip log that is already open is closed first.
+     *
+     * @param logFile file to record the trip to
+     * @return true if the trip log was opened
+     */
+    private boolean openTripLog(File logFile) {
+        closeTripLog();
+
+        try {
+            tripLogWriter.open(logFile,
+                    SensorInclinometer.getInstance().getPitchOffset(),
+                    SensorInclinometer.getInstance().getRollOffset());
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to start trip log: " + ioe.getLocalizedMessage());
+            return false;
+        }
+
+        SensorOrientedAccelerometer.getInstance().registerListener(tripLogWriter);
+
+        tripLogFile = logFile;
+        angleHeatmap.clear();
+        SensorInclinometer.getInstance().registerListener(angleHeatmap);
+
+        /* the trip is still worth recording without its events */
+        try {
+            tripEventLogWriter.open(new File(logFile.getPath() + TripEventLog.FILE_SUFFIX));
+            SensorShockDetector.getInstance().registerListener(tripEventLogWriter);
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to start trip event log: " + ioe.getLocalizedMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Close the trip log, if one is open, and save the trip's heatmap next to it
+     */
+    private void closeTripLog() {
+        if (!tripLogWriter.isOpen()) {
+            return;
+        }
+
+        SensorOrientedAccelerometer.getInstance().unregisterListener(tripLogWriter);
+        tripLogWriter.close();
+
+        SensorShockDetector.getInstance().unregisterListener(tripEventLogWriter);
+        tripEventLogWriter.close();
+
+        SensorInclinometer.getInstance().unregisterListener(angleHeatmap);
+        try {
+            angleHeatmap.write(new File(tripLogFile.getPath() + AngleHeatmap.FILE_SUFFIX));
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to save heatmap: " + ioe.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Start a new session: clear the statistics and the sample history and feed them the
+     * inclinometer.  A session that is already running is ended first.
+     */
+    private void beginSession() {
+        endSession();
+        sessionStatistics.clear();
+        sessionSamples.clear();
+        SensorInclinometer.getInstance().registerListener(sessionStatistics);
+        SensorInclinometer.getInstance().registerListener(sessionSamples);
+        sessionStatisticsRunning = true;
+    }
+
+    /**
+     * Stop feeding the session statistics and sample history.  Both keep what they recorded.
+     */
+    private void endSession() {
+        if (sessionStatisticsRunning) {
+            SensorInclinometer.getInstance().unregisterListener(sessionStatistics);
+            SensorInclinometer.getInstance().unregisterListener(sessionSamples);
+            sessionStatisticsRunning = false;
+        }
+    }
+
+    /**
+     * Run the phone's accelerometer as fast as it goes, or at the normal rate
+     *
+     * @param highRate true to run at the fastest rate
+     */
+    private void selectDeviceRate(boolean highRate) {
+        highRateMode = highRate;
+        if (highRate) {
+            /* grow the buffers before the samples arrive faster, not while they do */
+            SensorInclinometer.getInstance().setExpectedSampleRate(HIGH_RATE_EXPECTED_HZ);
+            SensorRolloverPredictor.getInstance().setExpectedSampleRate(HIGH_RATE_EXPECTED_HZ);
+        }
+        deviceSource.setSensorDelay(
+                highRate ? SensorManager.SENSOR_DELAY_FASTEST : SensorManager.SENSOR_DELAY_NORMAL);
+    }
+
+    /**
+     * Fill in the sensor, startup and runtime counters
+     *
+     * @param counters counters to fill in
+     */
+    private void collectPerformanceCounters(PerformanceCounters counters) {
+        readSensorCounters(counters, PerformanceCounters.SENSOR_ACCELEROMETER,
+                SensorAccelerometer.getInstance());
+        readSensorCounters(counters, PerformanceCounters.SENSOR_ORIENTED_ACCELEROMETER,
+                SensorOrientedAccelerometer.getInstance());
+        readSensorCounters(counters, PerformanceCounters.SENSOR_INCLINOMETER,
+                SensorInclinometer.getInstance());
+
+        long firstReadingAtNs = SensorInclinometer.getInstance().getFirstReadingAtNs();
+        counters.setStartup(
+                SensorInclinometer.getInstance().getTimeToFirstReadingNs(),
+                SensorInclinometer.getInstance().getTimeToFullWindowNs(),
+                (firstReadingAtNs < 0) ? PerformanceCounters.UNAVAILABLE : firstReadingAtNs - processStartNs);
+
+        long gcCount = readRuntimeStat(RUNTIME_STAT_GC_COUNT);
+        long bytesAllocated = readRuntimeStat(RUNTIME_STAT_BYTES_ALLOCATED);
+        counters.setRuntime(
+                sinceStart(gcCount, gcCountAtStart),
+                sinceStart(bytesAllocated, bytesAllocatedAtStart));
+    }
+
+    /**
+     * Wrap the listener in a decimator for its rate and register that with the oriented
+     * accelerometer.  The decimator's filters are built here, not on the sensor thread.
+     *
+     * @param callback listener to forward the decimated samples to
+     * @param rateHz   rate the listener wants (Hz)
+     */
+    private void registerDecimatedListener(SensorApi callback, double rateHz) {
+        SensorDecimator decimator = new SensorDecimator(rateHz, 3,
+                Math.max(rateHz, HIGH_RATE_EXPECTED_HZ), callback);
+        synchronized (decimatedListeners) {
+            decimatedListeners.add(decimator);
+        }
+        SensorOrientedAccelerometer.getInstance().registerListener(decimator);
+    }
+
+    /**
+     * Unregister the decimator that wraps the listener
+     *
+     * @param callback listener registered with registerDecimatedListener()
+     */
+    private void unregisterDecimatedListener(SensorApi callback) {
+        SensorDecimator found = null;
+        synchronized (decimatedListeners) {
+            for (int index = 0; index < decimatedListeners.size(); index++) {
+                if (callback == decimatedListeners.get(index).getConsumer()) {
+                    found = decimatedListeners.remove(index);
+                    break;
+                }
+            }
+        }
+
+        if (null == found) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to unregister the decimated listener: " + callback);
+            return;
+        }
+        SensorOrientedAccelerometer.getInstance().unregisterListener(found);
+    }
+
+    /**
+     * Feed the sensor pipeline from the phone's accelerometer, the synthetic generator or an
+     * external IMU gateway
+     *
+     * @param source HromatkaServiceApi.ACCELEROMETER_SOURCE_*
+     */
+    private void selectAccelerometerSource(int source) {
+        switch (source) {
+            case HromatkaServiceApi.ACCELEROMETER_SOURCE_DEVICE:
+                SensorAccelerometer.getInstance().setSensorSource(deviceSource);
+                break;
+
+            case HromatkaServiceApi.ACCELEROMETER_SOURCE_SYNTHETIC:
+                /* grow the buffers before the samples arrive faster, not while they do */
+                SensorInclinometer.getInstance().setExpectedSampleRate(SensorSourceSynthetic.DEFAULT_SAMPLE_RATE_HZ);
+                SensorRolloverPredictor.getInstance().setExpectedSampleRate(SensorSourceSynthetic.DEFAULT_SAMPLE_RATE_HZ);
+                SensorAccelerometer.getInstance().setSensorSource(createSyntheticSource());
+                break;
+
+            case HromatkaServiceApi.ACCELEROMETER_SOURCE_SOCKET:
+                SensorAccelerometer.getInstance().setSensorSource(new SensorSourceSocket(
+                        new InetSocketAddress(IMU_GATEWAY_HOST, HromatkaServiceApi.IMU_GATEWAY_PORT)));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown accelerometer source " + source);
+        }
+        accelerometerSource = source;
+    }
+
+    /**
+     * @return a synthetic accelerometer with a slow sway, engine and road vibration and some
+     * noise, for load testing the pipeline at 1 kHz
+     */
+    private static SensorSourceSynthetic createSyntheticSource() {
+        SensorSourceSynthetic source = new SensorSourceSynthetic(SensorSourceSynthetic.DEFAULT_SAMPLE_RATE_HZ);
+        source.setTiltProfile(0.0, 10.0, 0.0, 15.0, 10.0);
+        source.setVibrationSpectrum(new double[]{30.0, 120.0}, new double[]{0.5, 0.2});
+        source.setNoise(0.05);
+        return source;
+    }
+
     /**
      * Listen to configuration changes and notify the oriented accelerometer
      *
@@ -142,6 +747,16 @@ public class HromatkaService extends Service {
         HromatkaLog.getInstance().exit(TAG);
     }
 
+    /**
+     * For tests: the phone's accelerometer source, which is the SensorEventListener the
+     * SensorManager delivers the accelerometer's events to
+     *
+     * @return the device's sensor source, or null before onCreate()
+     */
+    SensorSourceAndroid getDeviceSource() {
+        return deviceSource;
+    }
+
     /**
      * Helper method to get the Android SensorManager instance for this service
      *
@@ -160,4 +775,78 @@ public class HromatkaService extends Service {
     private int getOrientation() {
         return getResources().getConfiguration().orientation;
     }
+
+    /**
+     * @param sensor PerformanceCounters.SENSOR_* index
+     * @return the sensor with that index
+     */
+    private static AbstractSensor getSensor(int sensor) {
+        switch (sensor) {
+            case PerformanceCounters.SENSOR_ACCELEROMETER:
+                return SensorAccelerometer.getInstance();
+            case PerformanceCounters.SENSOR_ORIENTED_ACCELEROMETER:
+                return SensorOrientedAccelerometer.getInstance();
+            case PerformanceCounters.SENSOR_INCLINOMETER:
+                return SensorInclinometer.getInstance();
+            default:
+                throw new IllegalArgumentException("Unknown sensor " + sensor);
+        }
+    }
+
+    private static void readSensorCounters(PerformanceCounters counters, int index, AbstractSensor sensor) {
+        counters.setSensor(index, sensor.getDataNotificationCount(), sensor.getListenerCount());
+    }
+
+    /**
+     * Read one of the ART runtime statistics
+     *
+     * @param name name of the statistic
+     * @return the statistic, or PerformanceCounters.UNAVAILABLE before Marshmallow
+     */
+    private static long readRuntimeStat(String name) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return PerformanceCounters.UNAVAILABLE;
+        }
+
+        try {
+            return Long.parseLong(Debug.getRuntimeStat(name));
+        }
+        catch (NumberFormatException nfe) {
+            return PerformanceCounters.UNAVAILABLE;
+        }
+    }
+
+    /**
+     * @return System.nanoTime() at which the process started.  Before Nougat the platform doesn't
+     * say, so the creation of the service (i.e. now) stands in for it.
+     */
+    private static long readProcessStartNs() {
+        long now = System.nanoTime();
+        if (Build.VERSION.SDK_INT < SDK_N) {
+            return now;
+        }
+
+        /* uptimeMillis() and System.nanoTime() are both CLOCK_MONOTONIC */
+        try {
+            long startUptimeMs = (Long) Process.class.getMethod("getStartUptimeMillis").invoke(null);
+            return now - (SystemClock.uptimeMillis() - startUptimeMs) * NS_PER_MS;
+        }
+        catch (NoSuchMethodException nsme) {
+            return now;
+        }
+        catch (IllegalAccessException iae) {
+            return now;
+        }
+        catch (InvocationTargetException ite) {
+            return now;
+        }
+    }
+
+    private static long sinceStart(long value, long valueAtStart) {
+        if (PerformanceCounters.UNAVAILABLE == value || PerformanceCounters.UNAVAILABLE == valueAtStart) {
+            return PerformanceCounters.UNAVAILABLE;
+        }
+
+        return value - valueAtStart;
+    }
 }
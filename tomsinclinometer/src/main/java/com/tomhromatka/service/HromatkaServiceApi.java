@@ -17,7 +17,14 @@
 
 package com.tomhromatka.service;
 
+import com.tomhromatka.service.sensors.InclinometerReading;
+import com.tomhromatka.service.sensors.ListenerStats;
 import com.tomhromatka.service.sensors.SensorApi;
+import com.tomhromatka.service.stats.AngleHeatmap;
+import com.tomhromatka.service.stats.SessionSampleStore;
+import com.tomhromatka.service.stats.SessionStatistics;
+
+import java.io.File;
 
 /**
  * Interface that HromatkaService implements.  Android activities can call these
@@ -52,6 +59,25 @@ public interface HromatkaServiceApi {
      */
     void unregisterOrientedAccelerometerListener(SensorApi callback);
 
+    /**
+     * Method for Android activities to register an oriented accelerometer listener that wants a
+     * lower rate than the accelerometer's, e.g. for plotting or logging.  Rather than dropping
+     * samples, the accelerations are low-pass filtered and decimated to about rateHz (see
+     * SensorDecimator), so vibration the listener can't resolve doesn't alias into what it
+     * sees.  The values[] array is reused between samples.
+     *
+     * @param callback The listener's callback class
+     * @param rateHz   rate the listener wants (Hz)
+     */
+    void registerDecimatedOrientedAccelerometerListener(SensorApi callback, double rateHz);
+
+    /**
+     * Method for Android activities to unregister a decimated oriented accelerometer listener
+     *
+     * @param callback The listener's callback class
+     */
+    void unregisterDecimatedOrientedAccelerometerListener(SensorApi callback);
+
     /**
      * Method for Android activities to register an inclinometer listener
      *
@@ -66,11 +92,293 @@ public interface HromatkaServiceApi {
      */
     void unregisterInclinometerListener(SensorApi callback);
 
+    /**
+     * Method for widgets, notifications and other pollers to read the latest inclinometer
+     * reading without registering a listener.  It may be called from any thread, never blocks
+     * the sensor thread and doesn't allocate.  The inclinometer only runs while it has
+     * listeners, so the reading's timestamp shows how fresh it is.
+     *
+     * @param reading receives the pitch, roll, timestamp and accuracy
+     * @return false if the inclinometer hasn't produced a reading yet
+     */
+    boolean readLatest(InclinometerReading reading);
+
+    /**
+     * Method for Android activities to register a rollover predictor listener.  See
+     * SensorRolloverPredictor for the values it reports.
+     *
+     * @param callback The listener's callback class
+     */
+    void registerRolloverPredictorListener(SensorApi callback);
+
+    /**
+     * Method for Android activities to unregister a rollover predictor listener
+     *
+     * @param callback The listener's callback class
+     */
+    void unregisterRolloverPredictorListener(SensorApi callback);
+
+    /**
+     * Method for an Android activity to set the limits the rollover predictor warns about
+     *
+     * @param pitchLimit maximum safe |pitch| (degrees)
+     * @param rollLimit  maximum safe |roll| (degrees)
+     */
+    void setRolloverLimits(double pitchLimit, double rollLimit);
+
+    /**
+     * Method for an Android activity to switch the accelerometer between its normal rate and
+     * the fastest rate the phone supports (often 400 Hz or more), e.g. for vibration and shock
+     * work.  The filters are sized for the higher rate before it is switched on.  The whole
+     * sensor chain is budgeted PerformanceCounters.HIGH_RATE_SAMPLE_BUDGET_NS per sample; the
+     * watchdog's timing of the accelerometer's listeners (see readListenerStats()) shows how
+     * much of it is used.
+     *
+     * @param enabled true for the fastest rate, false for the normal rate
+     */
+    void setHighRateMode(boolean enabled);
+
+    /**
+     * @return true if the accelerometer runs at the fastest rate
+     */
+    boolean isHighRateMode();
+
+    /**
+     * Method for an Android activity to switch the inclinometer between its floating point
+     * pipeline and its fixed-point (Q16.16 integer) pipeline.  The filters restart from fresh
+     * samples when the pipeline changes.  Off by default.
+     *
+     * @param enabled true for the fixed-point pipeline
+     */
+    void setFixedPointEnabled(boolean enabled);
+
+    /**
+     * @return true if the inclinometer uses (or is switching to) the fixed-point pipeline
+     */
+    boolean isFixedPointEnabled();
+
+    /**
+     * Method for an Android activity to have the inclinometer low-pass filter and decimate the
+     * accelerations to its notification rate instead of dropping the samples in between, so
+     * engine and road vibration don't alias into the angles.  Only applies to the floating
+     * point pipeline.  Off by default.
+     *
+     * @param enabled true to decimate
+     */
+    void setDecimationEnabled(boolean enabled);
+
+    /**
+     * @return true if the inclinometer decimates
+     */
+    boolean isDecimationEnabled();
+
+    /* sources of accelerometer samples for setAccelerometerSource() */
+    int ACCELEROMETER_SOURCE_DEVICE = 0;
+    int ACCELEROMETER_SOURCE_SYNTHETIC = 1;
+    int ACCELEROMETER_SOURCE_SOCKET = 2;
+
+    /**
+     * Method for an Android activity to feed the sensor pipeline from something other than the
+     * phone's accelerometer, e.g. the synthetic generator for load testing or an external IMU
+     * streaming through a gateway on 127.0.0.1:IMU_GATEWAY_PORT.  Samples from other
+     * sources are delivered on the source's own thread rather than the main thread, so
+     * listeners that touch Views must hop to the main thread themselves.
+     *
+     * @param source ACCELEROMETER_SOURCE_*
+     */
+    void setAccelerometerSource(int source);
+
+    /**
+     * @return the ACCELEROMETER_SOURCE_* that feeds the sensor pipeline
+     */
+    int getAccelerometerSource();
+
+    /* loopback port that ACCELEROMETER_SOURCE_SOCKET connects to */
+    int IMU_GATEWAY_PORT = 5880;
+
     /**
      * Method for an Android activity to request the inclinometer offsets to be updated.  This will
      * cause the inclinometer sensor to save the current oriented accelerometer values and subtract
      * them from future inclinometer measurements; thus allowing the device to be mounted at an
-     * arbitrary angle in the vehicle.
+     * arbitrary angle in the vehicle.  The new offsets are saved as the current mount profile's
+     * calibration.
      */
     void updateInclinometerOffsets();
+
+    /**
+     * Method for an Android activity to select a mount profile.  The profile's saved calibration,
+     * if it has one, is applied right away, and calibrations from then on are saved to it.  The
+     * selection is remembered across restarts.
+     *
+     * @param profile name of the mount profile, e.g. CalibrationStore.DEFAULT_PROFILE
+     */
+    void setMountProfile(String profile);
+
+    /**
+     * @return name of the current mount profile
+     */
+    String getMountProfile();
+
+    /**
+     * @return true if the current mount profile has a valid saved calibration, i.e. the
+     * calibration screen can be skipped
+     */
+    boolean hasValidCalibration();
+
+    /**
+     * Method for Android activities to register an automatic calibration listener.  While it
+     * has listeners, automatic calibration waits for the readings to be stable and then updates
+     * the inclinometer offsets on its own and saves them as the current mount profile's
+     * calibration.  See SensorAutoCalibration for the progress values it reports.
+     *
+     * @param callback The listener's callback class
+     */
+    void registerAutoCalibrationListener(SensorApi callback);
+
+    /**
+     * Method for Android activities to unregister an automatic calibration listener
+     *
+     * @param callback The listener's callback class
+     */
+    void unregisterAutoCalibrationListener(SensorApi callback);
+
+    /**
+     * Method for an Android activity to set what automatic calibration considers stable
+     *
+     * @param stableSeconds how long the readings must stay stable (seconds)
+     * @param tolerance     largest standard deviation of the oriented acceleration (m/s^2), or
+     *                      SensorAutoCalibration.AUTO_TOLERANCE to derive it from the
+     *                      accelerometer's measured noise
+     */
+    void setAutoCalibrationCriteria(double stableSeconds, double tolerance);
+
+    /**
+     * Method for Android activities to register a road roughness listener.  Listeners receive
+     * the roughness index and the vibration spectrum about once a second, on a background
+     * thread.  See SensorRoughness for the values it reports.
+     *
+     * @param callback The listener's callback class
+     */
+    void registerRoughnessListener(SensorApi callback);
+
+    /**
+     * Method for Android activities to unregister a road roughness listener
+     *
+     * @param callback The listener's callback class
+     */
+    void unregisterRoughnessListener(SensorApi callback);
+
+    /**
+     * Method for Android activities to register a shock listener.  Listeners are notified once
+     * per shock or bump, with the timestamp of its peak.  See SensorShockDetector for the values
+     * it reports.
+     *
+     * @param callback The listener's callback class
+     */
+    void registerShockListener(SensorApi callback);
+
+    /**
+     * Method for Android activities to unregister a shock listener
+     *
+     * @param callback The listener's callback class
+     */
+    void unregisterShockListener(SensorApi callback);
+
+    /**
+     * Method for an Android activity to set what the shock detector reports
+     *
+     * @param minimumPeak       smallest deviation from the baseline acceleration that is a shock
+     *                          (m/s^2)
+     * @param refractorySeconds time after a shock during which no new shock can start (seconds)
+     */
+    void setShockCriteria(double minimumPeak, double refractorySeconds);
+
+    /**
+     * Method for an Android activity to start recording oriented accelerometer samples to a trip
+     * log.  A trip log that is already being recorded is closed first.  A time-at-angle heatmap
+     * is accumulated alongside the log and saved next to it (see AngleHeatmap) when the log is
+     * stopped.  Shocks detected during the trip are recorded to an event log next to it (see
+     * TripEventLog).
+     *
+     * @param logFile file to record the trip log to
+     * @return true if recording started
+     */
+    boolean startTripLog(File logFile);
+
+    /**
+     * Method for an Android activity to stop recording the trip log
+     */
+    void stopTripLog();
+
+    /**
+     * @return true if a trip log is being recorded
+     */
+    boolean isTripLogRecording();
+
+    /**
+     * Method for an Android activity to read the time-at-angle heatmap of the current (or most
+     * recent) trip
+     *
+     * @param snapshot heatmap to fill in
+     */
+    void readAngleHeatmap(AngleHeatmap snapshot);
+
+    /**
+     * Method for an Android activity to read the service's diagnostic counters (sensor rates,
+     * listener counts, garbage collections, etc.)
+     *
+     * @param counters snapshot to fill in
+     */
+    void readPerformanceCounters(PerformanceCounters counters);
+
+    /**
+     * Method for an Android activity to turn the pipeline's system trace sections and counters
+     * on or off (see HromatkaTrace).  Off by default.
+     *
+     * @param enabled true to emit trace sections and counters
+     */
+    void setTracingEnabled(boolean enabled);
+
+    /**
+     * @return true if the sensor pipeline emits system trace sections
+     */
+    boolean isTracingEnabled();
+
+    /**
+     * Method for an Android activity to read the listener watchdog's per-listener timing
+     *
+     * @param sensor PerformanceCounters.SENSOR_* index of the sensor
+     * @param stats  array to fill in, one entry per listener
+     * @return the number of listeners registered with the sensor
+     */
+    int readListenerStats(int sensor, ListenerStats[] stats);
+
+    /**
+     * Method for an Android activity to start collecting session statistics (mean, standard
+     * deviation, percentiles, etc. of pitch and roll) and the session's history of readings.
+     * Any previous statistics and history are cleared.
+     */
+    void startSessionStatistics();
+
+    /**
+     * Method for an Android activity to stop collecting session statistics.  The statistics
+     * collected so far can still be read.
+     */
+    void stopSessionStatistics();
+
+    /**
+     * Method for an Android activity to read the session statistics
+     *
+     * @param snapshot statistics to fill in
+     */
+    void readSessionStatistics(SessionStatistics snapshot);
+
+    /**
+     * Method for an Android activity to get the current session's history of inclinometer
+     * readings, e.g. to scrub or zoom through it.  The store is owned by the service and keeps
+     * growing while the session runs; its methods are safe to call from the UI thread.
+     *
+     * @return the session's readings
+     */
+    SessionSampleStore getSessionSamples();
 }
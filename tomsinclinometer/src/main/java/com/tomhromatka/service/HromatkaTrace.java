@@ -0,0 +1,258 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+
+/**
+ * Opt-in system trace sections and counters for the sensor pipeline, so the pipeline shows up
+ * in Perfetto/systrace captures.  Tracing is off by default; while it is off every call is a
+ * single branch.  Section and counter names must be constants (or built once) so tracing
+ * doesn't allocate.
+ *
+ * Toggling tracing while a section is open can leave one unmatched end, which the trace
+ * viewers tolerate.
+ */
+public class HromatkaTrace {
+    private static HromatkaTrace instance = null;
+
+    /* Build.VERSION_CODES.Q.  Trace.setCounter() is newer than the SDK we compile against */
+    private static final int SDK_Q = 29;
+
+    /**
+     * Destination of the trace events.  The default writes to android.os.Trace; tests can
+     * install a stand-in with setTracer() to check which sections were emitted.
+     */
+    public interface Tracer {
+        void beginSection(String name);
+
+        void endSection();
+
+        void setCounter(String name, long value);
+    }
+
+    /*
+     * plain rather than volatile so the check is as cheap as possible on the sensor thread.  a
+     * sensor thread may keep the old value for a little while after tracing is switched.
+     */
+    private boolean enabled = false;
+    private Tracer tracer = new AndroidTracer();
+
+    /**
+     * Constructor - note this will force the class to be a singleton
+     */
+    protected HromatkaTrace() {
+    }
+
+    /**
+     * Public constructor.  Returns the instance of this singleton class.  This method will
+     * create the instance if it doesn't exist.
+     *
+     * @return the instance of this class
+     */
+    public static HromatkaTrace getInstance() {
+        if (null == instance) {
+            instance = new HromatkaTrace();
+        }
+
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Replace the tracer
+     *
+     * @param tracer destination of the trace events, or null for android.os.Trace
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = (null == tracer) ? new AndroidTracer() : tracer;
+    }
+
+    /**
+     * Begin a trace section on the calling thread
+     *
+     * @param name section name
+     */
+    public void beginSection(String name) {
+        if (enabled) {
+            tracer.beginSection(name);
+        }
+    }
+
+    /**
+     * End the calling thread's most recently begun trace section
+     */
+    public void endSection() {
+        if (enabled) {
+            tracer.endSection();
+        }
+    }
+
+    /**
+     * Set a counter track
+     *
+     * @param name  counter name
+     * @param value counter value
+     */
+    public void setCounter(String name, long value) {
+        if (enabled) {
+            tracer.setCounter(name, value);
+        }
+    }
+
+    /**
+     * Writes to android.os.Trace.  Sections need Jelly Bean MR2 and counters need Q; older
+     * releases silently drop them.
+     *
+     * Trace.setCounter() is newer than the SDK we compile against, so it is called through
+     * reflection.  Method.invoke() takes its arguments boxed, so the boxes for the usual range
+     * of counter values are made once and reused along with the argument array; only values
+     * outside that range are boxed per call.
+     *
+     * Even so a reflective call per sample is too much at sensor rates, so each counter is
+     * written only when its value has changed and at most every COUNTER_INTERVAL_NS.  Counters
+     * are told apart by the identity of their (constant) names; the first MAX_COUNTERS names
+     * are rate limited and any beyond that are written every time.  A change that arrives
+     * within the interval is dropped, so a counter may show a stale value until it next changes.
+     */
+    static class AndroidTracer implements Tracer {
+        private final String TAG = this.getClass().getSimpleName();
+
+        /* counter values 0 .. BOXED_VALUES - 1 (window sizes, buffered records, rates) reuse a box */
+        static final int BOXED_VALUES = 4096;
+
+        /* 100 Hz per counter is plenty for a trace viewer */
+        static final long COUNTER_INTERVAL_NS = 10000000L;
+        static final int MAX_COUNTERS = 16;
+
+        private Method setCounterMethod = null;
+        private Long[] boxedValues = null;
+        private final Object[] counterArgs = new Object[2];
+
+        /* the last value written to each counter, and when */
+        private final String[] counterNames = new String[MAX_COUNTERS];
+        private final long[] counterValues = new long[MAX_COUNTERS];
+        private final long[] counterWrittenNs = new long[MAX_COUNTERS];
+        private int counterCount = 0;
+
+        AndroidTracer() {
+            this((Build.VERSION.SDK_INT >= SDK_Q) ? Trace.class : null);
+        }
+
+        /**
+         * @param counterClass class with a static setCounter(String, long) to write counters
+         *                     to, or null to drop them
+         */
+        AndroidTracer(Class<?> counterClass) {
+            if (null != counterClass) {
+                try {
+                    setCounterMethod = counterClass.getMethod("setCounter", String.class, long.class);
+                }
+                catch (NoSuchMethodException nsme) {
+                    HromatkaLog.getInstance().logError(TAG, "Trace counters are unavailable");
+                }
+            }
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+        public void beginSection(String name) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.beginSection(name);
+            }
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+        public void endSection() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.endSection();
+            }
+        }
+
+        /**
+         * Counters are set from more than one thread (sensor thread, trip log writer), so the
+         * shared argument array is guarded by this.
+         */
+        @Override
+        public synchronized void setCounter(String name, long value) {
+            if (null == setCounterMethod) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            int counter = findCounter(name);
+            if (counter >= 0) {
+                if (value == counterValues[counter] || now - counterWrittenNs[counter] < COUNTER_INTERVAL_NS) {
+                    return;
+                }
+            }
+            else if (counterCount < MAX_COUNTERS) {
+                counter = counterCount++;
+                counterNames[counter] = name;
+            }
+
+            if (null == boxedValues) {
+                /* only once tracing is actually used */
+                boxedValues = new Long[BOXED_VALUES];
+                for (int i = 0; i < BOXED_VALUES; i++) {
+                    boxedValues[i] = Long.valueOf(i);
+                }
+            }
+
+            counterArgs[0] = name;
+            counterArgs[1] = (value >= 0 && value < BOXED_VALUES) ? boxedValues[(int) value] : Long.valueOf(value);
+            try {
+                setCounterMethod.invoke(null, counterArgs);
+            }
+            catch (Exception e) {
+                HromatkaLog.getInstance().logError(TAG, "Failed to set trace counter: " + e);
+                setCounterMethod = null;
+            }
+
+            if (counter >= 0) {
+                counterValues[counter] = value;
+                counterWrittenNs[counter] = now;
+            }
+        }
+
+        /**
+         * @return index of the counter with this very name, or -1 if it hasn't been written yet
+         */
+        private int findCounter(String name) {
+            for (int counter = 0; counter < counterCount; counter++) {
+                if (name == counterNames[counter]) {
+                    return counter;
+                }
+            }
+
+            return -1;
+        }
+    }
+}
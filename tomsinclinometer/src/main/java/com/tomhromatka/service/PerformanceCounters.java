@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service;
+
+/**
+ * Snapshot of the service's diagnostic counters.  Callers allocate one of these and have
+ * HromatkaServiceApi.readPerformanceCounters() refill it, so polling the counters doesn't
+ * allocate.
+ */
+public class PerformanceCounters {
+    public static final int SENSOR_ACCELEROMETER = 0;
+    public static final int SENSOR_ORIENTED_ACCELEROMETER = 1;
+    public static final int SENSOR_INCLINOMETER = 2;
+    public static final int SENSOR_COUNT = 3;
+
+    /**
+     * CPU time the whole sensor chain may spend on one accelerometer sample in high-rate mode:
+     * a tenth of the sample period at 1 kHz
+     */
+    public static final long HIGH_RATE_SAMPLE_BUDGET_NS = 100000L;
+
+    /** value reported for counters the platform can't provide */
+    public static final long UNAVAILABLE = -1;
+
+    private final long[] dataNotificationCounts = new long[SENSOR_COUNT];
+    private final int[] listenerCounts = new int[SENSOR_COUNT];
+    private long gcCount = UNAVAILABLE;
+    private long bytesAllocated = UNAVAILABLE;
+    private long timeToFirstReadingNs = UNAVAILABLE;
+    private long timeToFullWindowNs = UNAVAILABLE;
+    private long coldStartToFirstReadingNs = UNAVAILABLE;
+
+    /**
+     * @param sensor SENSOR_* index
+     * @return number of times the sensor has notified its listeners of new data
+     */
+    public long getDataNotificationCount(int sensor) {
+        return dataNotificationCounts[sensor];
+    }
+
+    /**
+     * @param sensor SENSOR_* index
+     * @return number of listeners registered with the sensor
+     */
+    public int getListenerCount(int sensor) {
+        return listenerCounts[sensor];
+    }
+
+    /**
+     * @return garbage collections since the service started, or UNAVAILABLE
+     */
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * @return bytes allocated since the service started, or UNAVAILABLE
+     */
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    /**
+     * @return time from starting the inclinometer to its first reading (ns), or UNAVAILABLE
+     */
+    public long getTimeToFirstReadingNs() {
+        return timeToFirstReadingNs;
+    }
+
+    /**
+     * @return time from starting the inclinometer to its first reading averaged over a full
+     * window (ns), or UNAVAILABLE
+     */
+    public long getTimeToFullWindowNs() {
+        return timeToFullWindowNs;
+    }
+
+    /**
+     * @return time from the start of the process to the first reading of the inclinometer (ns),
+     * or UNAVAILABLE.  Before Nougat the platform doesn't report when the process started, so
+     * this is measured from the creation of the service instead.
+     */
+    public long getColdStartToFirstReadingNs() {
+        return coldStartToFirstReadingNs;
+    }
+
+    void setSensor(int sensor, long dataNotificationCount, int listenerCount) {
+        dataNotificationCounts[sensor] = dataNotificationCount;
+        listenerCounts[sensor] = listenerCount;
+    }
+
+    void setRuntime(long gcCount, long bytesAllocated) {
+        this.gcCount = gcCount;
+        this.bytesAllocated = bytesAllocated;
+    }
+
+    void setStartup(long timeToFirstReadingNs, long timeToFullWindowNs, long coldStartToFirstReadingNs) {
+        this.timeToFirstReadingNs = timeToFirstReadingNs;
+        this.timeToFullWindowNs = timeToFullWindowNs;
+        this.coldStartToFirstReadingNs = coldStartToFirstReadingNs;
+    }
+}
@@ -17,17 +17,31 @@
 
 package com.tomhromatka.service.sensors;
 
-import android.hardware.SensorManager;
-
 import com.tomhromatka.service.HromatkaLog;
-
-import java.util.ArrayList;
-import java.util.Iterator;
+import com.tomhromatka.service.HromatkaTrace;
 
 public abstract class AbstractSensor {
     private final String TAG = this.getClass().getSimpleName();
-    /** the watchdog is currently unimplemented */
-    private ArrayList<SensorApi> listenerList = new ArrayList<>();
+
+    /* built once so tracing doesn't allocate per sample */
+    private final String traceDispatchSection = TAG + ".notifyListeners";
+
+    /*
+     * every listener is wrapped in a watchdog (see WatchedListener) that times its callbacks,
+     * isolates its exceptions and unregisters it if it keeps overrunning or throwing.  the
+     * array is replaced, never modified, when listeners come and go, so dispatch can walk it
+     * without locking or allocating even while a listener is being (un)registered from another
+     * thread.
+     */
+    private static final WatchedListener[] NO_LISTENERS = new WatchedListener[0];
+    private volatile WatchedListener[] listeners = NO_LISTENERS;
+
+    /*
+     * diagnostics counter read by the performance overlay.  it's a plain long rather than an
+     * atomic so counting costs nothing measurable on the sensor thread; a reader on another
+     * thread may see a slightly stale value, which is fine for a diagnostic.
+     */
+    private long dataNotificationCount = 0;
 
     /**
      * Registers a listener (visitor) that wants to listen to this sensor.  The listener
@@ -37,17 +51,19 @@ public abstract class AbstractSensor {
      * If this is the first listener, this method will enable the sensor.  (No point in running
      * a sensor to which no one is listening.)
      *
-     * @param sensorManager An instance of the Android SensorManager
-     * @param callback      The listener's callback class
+     * @param callback The listener's callback class
      */
-    public void registerListener(SensorManager sensorManager, SensorApi callback) {
+    public synchronized void registerListener(SensorApi callback) {
         HromatkaLog.getInstance().enter(TAG);
-        if (listenerList.isEmpty()) {
+        if (0 == listeners.length) {
             /* this is the first listener for this sensor.  enable it */
-            enableSensor(sensorManager);
+            enableSensor();
         }
 
-        listenerList.add(callback);
+        WatchedListener[] newListeners = new WatchedListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+        newListeners[listeners.length] = new WatchedListener(callback);
+        listeners = newListeners;
         HromatkaLog.getInstance().exit(TAG);
     }
 
@@ -57,31 +73,34 @@ public abstract class AbstractSensor {
      * If removing this listener results in no one is listening to the sensor, this method will
      * disable the sensor.  (Let's save some power, eh?)
      *
-     * @param sensorManager An instance of the Android SensorManager
-     * @param callback      The listener's callback class
+     * @param callback The listener's callback class
      */
-    public void unregisterListener(SensorManager sensorManager, SensorApi callback) {
+    public synchronized void unregisterListener(SensorApi callback) {
         HromatkaLog.getInstance().enter(TAG);
 
-        boolean foundListener = false;
-        for (Iterator<SensorApi> iterator = listenerList.iterator(); iterator.hasNext();) {
-            SensorApi sensorApi = iterator.next();
-            if (callback == sensorApi) {
-                /* remove this listener */
-                iterator.remove();
-                foundListener = true;
+        int found = -1;
+        for (int index = 0; index < listeners.length; index++) {
+            if (callback == listeners[index].callback) {
+                found = index;
                 break;
             }
         }
 
         /* blow up if we didn't find a listener to unregister.  this shouldn't ever happen */
-        if (!foundListener) {
+        if (found < 0) {
             HromatkaLog.getInstance().logError(TAG, "Failed to unregister the specified listener: " + callback);
+            HromatkaLog.getInstance().exit(TAG);
+            return;
         }
 
-        if (listenerList.isEmpty()) {
+        WatchedListener[] newListeners = new WatchedListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, newListeners, 0, found);
+        System.arraycopy(listeners, found + 1, newListeners, found, newListeners.length - found);
+        listeners = newListeners;
+
+        if (0 == listeners.length) {
             /* there are no more listeners.  disable the sensor to save power. */
-            disableSensor(sensorManager);
+            disableSensor();
         }
         HromatkaLog.getInstance().exit(TAG);
     }
@@ -96,10 +115,15 @@ public abstract class AbstractSensor {
      */
     protected void notifyListenersDataReceived(long timestamp, float[] values) {
         HromatkaLog.getInstance().enter(TAG);
-        for (Iterator<SensorApi> iterator = listenerList.iterator(); iterator.hasNext();) {
-            SensorApi sensorApi = iterator.next();
-            sensorApi.onDataReceived(timestamp, values);
+        HromatkaTrace.getInstance().beginSection(traceDispatchSection);
+        dataNotificationCount++;
+        WatchedListener[] current = listeners;
+        for (int index = 0; index < current.length; index++) {
+            if (!current[index].deliverData(timestamp, values)) {
+                unregisterFailedListener(current[index]);
+            }
         }
+        HromatkaTrace.getInstance().endSection();
         HromatkaLog.getInstance().exit(TAG);
     }
 
@@ -112,41 +136,76 @@ public abstract class AbstractSensor {
      */
     protected void notifyListenersAccuracyChanged(int accuracy) {
         HromatkaLog.getInstance().enter(TAG);
-        for (Iterator<SensorApi> iterator = listenerList.iterator(); iterator.hasNext();) {
-            SensorApi sensorApi = iterator.next();
-            sensorApi.onAccuracyChanged(accuracy);
+        WatchedListener[] current = listeners;
+        for (int index = 0; index < current.length; index++) {
+            if (!current[index].deliverAccuracy(accuracy)) {
+                unregisterFailedListener(current[index]);
+            }
         }
         HromatkaLog.getInstance().exit(TAG);
     }
 
     /**
-     * Method that must be overridden by the concrete sensor class to enable the sensor.  For
-     * built-in Android sensors (e.g. accelerometer, gyroscope, etc.), this method will likely
-     * invoke the registerListener() method in the SensorManager.  Custom sensors (e.g.
-     * inclinometer) may do something different entirely.
+     * @return the number of listeners currently registered with this sensor
+     */
+    public int getListenerCount() {
+        return listeners.length;
+    }
+
+    /**
+     * @return the number of times this sensor has notified its listeners of new data
+     */
+    public long getDataNotificationCount() {
+        return dataNotificationCount;
+    }
+
+    /**
+     * Read the watchdog's timing of each listener
      *
-     * @param sensorManager An instance of the Android SensorManager
+     * @param stats array to fill in, one entry per listener in registration order.  Listeners
+     *              beyond the end of the array are skipped.
+     * @return the number of listeners currently registered with this sensor
      */
-    protected abstract void enableSensor(SensorManager sensorManager);
+    public int readListenerStats(ListenerStats[] stats) {
+        WatchedListener[] current = listeners;
+        for (int index = 0; index < current.length && index < stats.length; index++) {
+            current[index].readStats(stats[index]);
+        }
+        return current.length;
+    }
+
+    private void unregisterFailedListener(WatchedListener listener) {
+        synchronized (this) {
+            /* another thread may have beaten us to it */
+            for (int index = 0; index < listeners.length; index++) {
+                if (listener == listeners[index]) {
+                    unregisterListener(listener.callback);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that must be overridden by the concrete sensor class to enable the sensor.  For
+     * sensors fed by hardware (e.g. the accelerometer), this method will likely start their
+     * SensorSource.  Custom sensors (e.g. inclinometer) may do something different entirely.
+     */
+    protected abstract void enableSensor();
 
     /**
      * Method that must be overridden by the concrete sensor class to disable the sensor.  For
-     * built-in Android sensors (e.g. accelerometer, gyroscope, etc.), this method will likely
-     * invoke the unregisterListener() method in the SensorManager.  Custom sensors (e.g.
-     * inclinometer) may do something different entirely.
-     *
-     * @param sensorManager An instance of the Android SensorManager
+     * sensors fed by hardware (e.g. the accelerometer), this method will likely stop their
+     * SensorSource.  Custom sensors (e.g. inclinometer) may do something different entirely.
      */
-    protected abstract void disableSensor(SensorManager sensorManager);
+    protected abstract void disableSensor();
 
     /**
      * Method that may be overridden by the concrete sensor class to destroy the sensor.  This
      * method will be called by HromatkaService when the service is being destroyed.  We don't want
      * to waste power by leaving sensors running when no one is listening
-     *
-     * @param sensorManager An instance of the Android SensorManager
      */
-    public void destroySensor(SensorManager sensorManager) {
-        listenerList.clear();
+    public synchronized void destroySensor() {
+        listeners = NO_LISTENERS;
     }
 }
@@ -19,36 +19,25 @@ package com.tomhromatka.service.sensors;
 
 import com.tomhromatka.service.HromatkaLog;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
 public class FilterMovingAverage {
     private final String TAG = this.getClass().getSimpleName();
     public static final double SEC_TO_NANOSEC = 1e9;
     /* by default, expire samples after 1/2 of a second */
     public static final double DEFAULT_SAMPLE_EXPIRATION_NS = 0.5 * SEC_TO_NANOSEC;
 
-    /** class that combines the timestamp and sensor data into one (convenient!) location */
-    private static class TimestampAndData {
-        private long timestamp;
-        private float[] data;
-
-        public TimestampAndData(long timestamp, float[] data) {
-            this.timestamp = timestamp;
-            this.data = data;
-        }
-
-        public long getTimestamp() {
-            return this.timestamp;
-        }
+    /* enough for a 0.5 second window at 128 Hz.  the ring doubles if it fills up (see ensureCapacity()) */
+    private static final int INITIAL_CAPACITY = 64;
 
-        public float[] getData() {
-            return this.data;
-        }
-    }
-
-    private List<TimestampAndData> timestampAndDataList = new ArrayList<>();
+    /*
+     * the samples live in a primitive ring buffer (oldest at head) rather than a list of
+     * objects so that adding a sample doesn't allocate once the ring has grown to fit the
+     * sensor rate.  the sample data is copied into the ring, so callers may reuse their arrays.
+     */
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private float[] samples = null;
+    private int channels = 0;
+    private int head = 0;
+    private int count = 0;
     private double samplesExpireAfterNanoseconds;
 
     public FilterMovingAverage(double samplesExpireAfterNanoseconds) {
@@ -59,63 +48,101 @@ public class FilterMovingAverage {
 
     /**
      * Returns the current moving average of the data stored by this filter
-     * @return moving average
+     * @return moving average.  All zeros (or empty, if no sample was ever added) when the
+     * filter is empty.
      */
     public synchronized float[] getMovingAverage() {
+        float[] averages = new float[channels];
+        getMovingAverage(averages);
+        return averages;
+    }
+
+    /**
+     * Computes the current moving average of the data stored by this filter without allocating
+     * @param averages array that receives the moving average of each value
+     * @return false if the filter is empty (and averages was not touched)
+     */
+    public synchronized boolean getMovingAverage(float[] averages) {
         HromatkaLog.getInstance().enter(TAG);
-        /* get one sample to determine the length of the float array */
-        TimestampAndData oneSample = timestampAndDataList.get(0);
-        float[] averages = new float[oneSample.getData().length];
+        if (0 == count) {
+            HromatkaLog.getInstance().exit(TAG);
+            return false;
+        }
 
         /*
          * 1) zero out the averages
          */
-        for(int index = 0; index < averages.length; index++) {
+        for(int index = 0; index < channels; index++) {
             averages[index] = 0.0f;
         }
 
         /*
-         * 2) sum up all of the samples
+         * 2) sum up all of the samples, oldest first
          */
-        for (Iterator<TimestampAndData> iterator = timestampAndDataList.iterator(); iterator.hasNext();) {
-            TimestampAndData thisSample = iterator.next();
+        for (int sample = 0; sample < count; sample++) {
+            int offset = ((head + sample) % timestamps.length) * channels;
 
-            for(int index = 0; index < averages.length; index++) {
-                averages[index] += thisSample.getData()[index];
+            for(int index = 0; index < channels; index++) {
+                averages[index] += samples[offset + index];
             }
         }
 
         /*
          * 3) divide by the number of samples to get the average
          */
-        for(int index = 0; index < averages.length; index++) {
-            averages[index] = averages[index] / timestampAndDataList.size();
+        for(int index = 0; index < channels; index++) {
+            averages[index] = averages[index] / count;
         }
 
         HromatkaLog.getInstance().exit(TAG);
-        return averages;
+        return true;
     }
 
     /**
      * insert a sample and its timestamp into the moving average filter
      * @param timestamp timestamp of the data
-     * @param data      float[] containing the sample data
+     * @param data      float[] containing the sample data.  It is copied.
      */
     public synchronized void add(long timestamp, float[] data) {
         HromatkaLog.getInstance().enter(TAG);
-        TimestampAndData newSample = new TimestampAndData(timestamp, data);
-        timestampAndDataList.add(newSample);
+        if (null == samples) {
+            channels = data.length;
+            samples = new float[timestamps.length * channels];
+        }
+        if (count == timestamps.length) {
+            grow();
+        }
+
+        int slot = (head + count) % timestamps.length;
+        timestamps[slot] = timestamp;
+        System.arraycopy(data, 0, samples, slot * channels, channels);
+        count++;
 
-        HromatkaLog.getInstance().logVerbose(TAG, "timestampAndDataList size = " + timestampAndDataList.size());
+        HromatkaLog.getInstance().logVerbose(TAG, "timestampAndDataList size = ", count);
         HromatkaLog.getInstance().exit(TAG);
     }
 
+    /**
+     * @return true if the filter holds no samples
+     */
+    public synchronized boolean isEmpty() {
+        return 0 == count;
+    }
+
+    /**
+     * @return number of samples in the filter's window
+     */
+    public synchronized int size() {
+        return count;
+    }
+
     /**
      * clear the entire moving average filter
      */
     public synchronized void clear() {
         HromatkaLog.getInstance().enter(TAG);
-        timestampAndDataList.clear();
+        head = 0;
+        count = 0;
         HromatkaLog.getInstance().exit(TAG);
     }
 
@@ -125,27 +152,65 @@ public class FilterMovingAverage {
      */
     public synchronized void removeExpired() {
         HromatkaLog.getInstance().enter(TAG);
+        if (0 == count) {
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
 
         /*
          * get the most recent sample's timestamp.  we will use this as the "current" time.  Not
          * perfect, but it's the only safe comparison for a sensor.  There's no guarantee that
          * the sensor's timestamp is comparable to System.nanoTime().
          */
-        TimestampAndData mostCurrentSample = timestampAndDataList.get(timestampAndDataList.size() - 1);
-        long currentTime = mostCurrentSample.getTimestamp();
-        HromatkaLog.getInstance().logVerbose(TAG, "Current time: " + currentTime);
+        long currentTime = timestamps[(head + count - 1) % timestamps.length];
+        HromatkaLog.getInstance().logVerbose(TAG, "Current time: ", currentTime);
 
-        for (Iterator<TimestampAndData> iterator = timestampAndDataList.iterator(); iterator.hasNext();) {
-            TimestampAndData thisSample = iterator.next();
-
-            if (thisSample.getTimestamp() < (currentTime - (long)samplesExpireAfterNanoseconds)) {
-                /* this sample has expired.  remove it */
-                HromatkaLog.getInstance().logVerbose(TAG, "Removing: " + thisSample.getTimestamp());
-                iterator.remove();
-            }
+        /*
+         * sensor timestamps are monotonic, so the expired samples are all at the head.  A sample
+         * from the "future" means time went backwards, i.e. the sensor source (and with it the
+         * time base) changed; it would never expire, so drop it too.
+         */
+        long oldestKept = currentTime - (long) samplesExpireAfterNanoseconds;
+        while (count > 0 && (timestamps[head] < oldestKept || timestamps[head] > currentTime)) {
+            /* this sample has expired.  remove it */
+            HromatkaLog.getInstance().logVerbose(TAG, "Removing: ", timestamps[head]);
+            head = (head + 1) % timestamps.length;
+            count--;
         }
 
-        HromatkaLog.getInstance().logVerbose(TAG, "timestampAndDataList size = " + timestampAndDataList.size());
+        HromatkaLog.getInstance().logVerbose(TAG, "timestampAndDataList size = ", count);
         HromatkaLog.getInstance().exit(TAG);
     }
+
+    /**
+     * Grow the ring ahead of time so that it holds at least capacity samples, e.g. before
+     * switching the sensor to a higher rate, so the ring doesn't have to grow while the
+     * samples are flowing
+     *
+     * @param capacity number of samples the ring must hold without growing
+     */
+    public synchronized void ensureCapacity(int capacity) {
+        while (timestamps.length < capacity) {
+            grow();
+        }
+    }
+
+    /**
+     * double the capacity of the ring, unrolling it so the oldest sample is at index 0
+     */
+    private void grow() {
+        long[] newTimestamps = new long[timestamps.length * 2];
+        /* the sample array is sized by the first add(), which knows the number of channels */
+        float[] newSamples = (null == samples) ? null : new float[newTimestamps.length * channels];
+
+        for (int sample = 0; sample < count; sample++) {
+            int slot = (head + sample) % timestamps.length;
+            newTimestamps[sample] = timestamps[slot];
+            System.arraycopy(samples, slot * channels, newSamples, sample * channels, channels);
+        }
+
+        timestamps = newTimestamps;
+        samples = newSamples;
+        head = 0;
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * Integer counterpart of FilterMovingAverage.  Samples live in a primitive ring buffer and the
+ * filter keeps a running sum per channel, so adding a sample, expiring samples and reading the
+ * average are all O(1) per sample and allocation free.
+ *
+ * Like FilterMovingAverage, the ring doubles when it is full rather than dropping samples, so
+ * the average always covers the whole window whatever the source rate.  Call ensureCapacity()
+ * before raising the rate so the ring doesn't have to grow while the samples are flowing.
+ */
+public class FilterMovingAverageFixedPoint {
+    /* a 0.5 second window at 1 kHz (twice the nominal rate, as in setExpectedSampleRate) */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final long samplesExpireAfterNanoseconds;
+    private final int channels;
+
+    private long[] timestamps;
+    private int[] samples;
+    private final long[] sums;
+
+    /* index of the oldest sample and the number of samples in the ring */
+    private int head = 0;
+    private int count = 0;
+
+    /**
+     * @param samplesExpireAfterNanoseconds age after which samples are dropped from the average
+     * @param channels                      number of values in each sample
+     * @param capacity                      initial number of samples held; the ring grows
+     *                                      beyond it when needed
+     */
+    public FilterMovingAverageFixedPoint(double samplesExpireAfterNanoseconds, int channels, int capacity) {
+        this.samplesExpireAfterNanoseconds = (long) samplesExpireAfterNanoseconds;
+        this.channels = channels;
+        this.timestamps = new long[capacity];
+        this.samples = new int[capacity * channels];
+        this.sums = new long[channels];
+    }
+
+    /**
+     * Returns the current moving average of the data stored by this filter
+     *
+     * @param averages array that receives the average of each channel
+     * @return false if the filter is empty (and averages was not touched)
+     */
+    public synchronized boolean getMovingAverage(int[] averages) {
+        if (0 == count) {
+            return false;
+        }
+
+        for (int channel = 0; channel < channels; channel++) {
+            averages[channel] = (int) (sums[channel] / count);
+        }
+
+        return true;
+    }
+
+    /**
+     * insert a sample and its timestamp into the moving average filter
+     *
+     * @param timestamp timestamp of the data
+     * @param data      int[] containing the sample data; it is copied
+     */
+    public synchronized void add(long timestamp, int[] data) {
+        if (count == timestamps.length) {
+            grow();
+        }
+
+        int slot = (head + count) % timestamps.length;
+        int offset = slot * channels;
+        timestamps[slot] = timestamp;
+        for (int channel = 0; channel < channels; channel++) {
+            samples[offset + channel] = data[channel];
+            sums[channel] += data[channel];
+        }
+        count++;
+    }
+
+    /**
+     * clear the entire moving average filter
+     */
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            sums[channel] = 0;
+        }
+    }
+
+    /**
+     * remove expired samples from the moving average filter.  As in FilterMovingAverage, the
+     * most recent sample's timestamp is used as the current time, and samples from the "future"
+     * (left over from before the time base changed) are dropped too.
+     */
+    public synchronized void removeExpired() {
+        if (0 == count) {
+            return;
+        }
+
+        long currentTime = timestamps[(head + count - 1) % timestamps.length];
+        long oldestKept = currentTime - samplesExpireAfterNanoseconds;
+        while (count > 0 && (timestamps[head] < oldestKept || timestamps[head] > currentTime)) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * @return the number of samples currently in the filter
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of samples the ring holds before it has to grow
+     */
+    public synchronized int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * Grow the ring ahead of time so that it holds at least capacity samples
+     *
+     * @param capacity number of samples the ring must hold without growing
+     */
+    public synchronized void ensureCapacity(int capacity) {
+        while (timestamps.length < capacity) {
+            grow();
+        }
+    }
+
+    /**
+     * double the capacity of the ring, unrolling it so the oldest sample is at index 0
+     */
+    private void grow() {
+        long[] newTimestamps = new long[timestamps.length * 2];
+        int[] newSamples = new int[newTimestamps.length * channels];
+
+        for (int sample = 0; sample < count; sample++) {
+            int slot = (head + sample) % timestamps.length;
+            newTimestamps[sample] = timestamps[slot];
+            System.arraycopy(samples, slot * channels, newSamples, sample * channels, channels);
+        }
+
+        timestamps = newTimestamps;
+        samples = newSamples;
+        head = 0;
+    }
+
+    private void evictOldest() {
+        int offset = head * channels;
+        for (int channel = 0; channel < channels; channel++) {
+            sums[channel] -= samples[offset + channel];
+        }
+        head = (head + 1) % timestamps.length;
+        count--;
+    }
+}
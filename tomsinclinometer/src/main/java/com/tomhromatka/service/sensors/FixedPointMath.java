@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * Integer math for the fixed-point inclinometer pipeline.  Both accelerations and angles are
+ * stored in Q16.16 format, i.e. the integer value divided by 65536 is m/s^2 or degrees.  At
+ * Q16.16 an int holds accelerations up to +/-32768 m/s^2 (~3300 g), well beyond anything a
+ * phone's accelerometer reports.
+ *
+ * Angles are computed with an integer CORDIC in vectoring mode; for gravity-sized vectors 16
+ * iterations resolve atan2() to roughly 0.002 degrees.
+ */
+public final class FixedPointMath {
+    public static final int FRACTION_BITS = 16;
+    public static final int ONE = 1 << FRACTION_BITS;
+
+    public static final int DEG_90 = 90 * ONE;
+    public static final int DEG_180 = 180 * ONE;
+    public static final int DEG_360 = 360 * ONE;
+
+    private static final int CORDIC_ITERATIONS = 16;
+    private static final int CORDIC_MAX_INPUT = Integer.MAX_VALUE >> 2;
+
+    /* atan(2^-i) in Q16.16 degrees */
+    private static final int[] CORDIC_ATAN_TABLE = new int[CORDIC_ITERATIONS];
+
+    /* same thresholds as InclinometerMath, in Q16.16 m/s^2 */
+    private static final int ROLL_X_ZERO_THRESH = ONE / 4;
+    private static final int ROLL_Y_ZERO_THRESH = ONE / 4;
+
+    static {
+        for (int i = 0; i < CORDIC_ITERATIONS; i++) {
+            CORDIC_ATAN_TABLE[i] = (int) Math.round(Math.toDegrees(Math.atan(Math.pow(2.0, -i))) * ONE);
+        }
+    }
+
+    private FixedPointMath() {
+    }
+
+    /**
+     * Convert a floating point value (m/s^2 or degrees) to Q16.16
+     *
+     * @param value floating point value
+     * @return Q16.16 value
+     */
+    public static int toFixed(float value) {
+        return Math.round(value * ONE);
+    }
+
+    /**
+     * Convert a floating point value (m/s^2 or degrees) to Q16.16
+     *
+     * @param value floating point value
+     * @return Q16.16 value
+     */
+    public static int toFixed(double value) {
+        return (int) Math.round(value * ONE);
+    }
+
+    /**
+     * Convert a Q16.16 value (m/s^2 or degrees) to floating point
+     *
+     * @param value Q16.16 value
+     * @return floating point value
+     */
+    public static float toFloat(int value) {
+        return (float) value / ONE;
+    }
+
+    /**
+     * Integer equivalent of Math.atan2(y, x), in Q16.16 degrees
+     *
+     * @param y y coordinate (any consistent fixed-point scale)
+     * @param x x coordinate (same scale as y)
+     * @return the angle of (x, y) in Q16.16 degrees, between -180 and 180
+     */
+    public static int atan2(int y, int x) {
+        int angle = 0;
+
+        /* rotate the left half-plane by 180 degrees so the CORDIC only sees -90..90 */
+        if (x < 0) {
+            angle = (y >= 0) ? DEG_180 : -DEG_180;
+            x = -x;
+            y = -y;
+        }
+
+        if (0 == x && 0 == y) {
+            return angle;
+        }
+
+        /*
+         * normalize the vector so the shifts below don't throw away precision on small inputs,
+         * while keeping headroom for the CORDIC gain (~1.647)
+         */
+        while (x > CORDIC_MAX_INPUT || y > CORDIC_MAX_INPUT || y < -CORDIC_MAX_INPUT) {
+            x >>= 1;
+            y >>= 1;
+        }
+        while (x <= (CORDIC_MAX_INPUT >> 1) && y <= (CORDIC_MAX_INPUT >> 1) && y >= -(CORDIC_MAX_INPUT >> 1)) {
+            x <<= 1;
+            y <<= 1;
+        }
+
+        for (int i = 0; i < CORDIC_ITERATIONS; i++) {
+            int xShifted = x >> i;
+            int yShifted = y >> i;
+
+            if (y > 0) {
+                x += yShifted;
+                y -= xShifted;
+                angle += CORDIC_ATAN_TABLE[i];
+            }
+            else {
+                x -= yShifted;
+                y += xShifted;
+                angle -= CORDIC_ATAN_TABLE[i];
+            }
+        }
+
+        return angle;
+    }
+
+    /**
+     * Fixed-point equivalent of InclinometerMath.computePitch()
+     *
+     * @param y accelerometer value in the y axis (Q16.16 m/s^2)
+     * @param z accelerometer value in the z axis (Q16.16 m/s^2)
+     * @return the pitch of the phone in Q16.16 degrees
+     */
+    public static int computePitch(int y, int z) {
+        return wrapDegrees(DEG_90 - atan2(y, z));
+    }
+
+    /**
+     * Fixed-point equivalent of InclinometerMath.computeRoll()
+     *
+     * @param x accelerometer value in the x axis (Q16.16 m/s^2)
+     * @param y accelerometer value in the y axis (Q16.16 m/s^2)
+     * @return the roll of the phone in Q16.16 degrees
+     */
+    public static int computeRoll(int x, int y) {
+        if (x < ROLL_X_ZERO_THRESH && y < ROLL_Y_ZERO_THRESH) {
+            /* zero out roll when both x and y are near-zero. */
+            return 0;
+        }
+
+        return wrapDegrees(atan2(y, x) - DEG_90);
+    }
+
+    /**
+     * Wrap an angle into the range -180 to 180 degrees
+     *
+     * @param angle Q16.16 degrees
+     * @return Q16.16 degrees between -180 and 180
+     */
+    public static int wrapDegrees(int angle) {
+        if (angle < -DEG_180) {
+            angle += DEG_360;
+        }
+        else if (angle > DEG_180) {
+            angle -= DEG_360;
+        }
+
+        return angle;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * One inclinometer reading: pitch, roll, when it was measured and how accurate the
+ * accelerometer said it was.  Callers allocate these once and have
+ * SensorInclinometer.readLatest() refill them.
+ */
+public class InclinometerReading {
+    private float pitch = 0.0f;
+    private float roll = 0.0f;
+    private long timestamp = 0;
+    private long arrivalNs = 0;
+    private int accuracy = SensorAccelerometer.ACCURACY_UNKNOWN;
+
+    /**
+     * @return pitch (degrees), including the calibration offset
+     */
+    public float getPitch() {
+        return pitch;
+    }
+
+    /**
+     * @return roll (degrees), including the calibration offset
+     */
+    public float getRoll() {
+        return roll;
+    }
+
+    /**
+     * @return sensor timestamp of the newest sample in the reading (ns)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return System.nanoTime() at which the newest sample in the reading reached the pipeline.
+     * Unlike getTimestamp(), which is on the sensor source's time base, this can be compared
+     * with System.nanoTime() to measure latency.
+     */
+    public long getArrivalNs() {
+        return arrivalNs;
+    }
+
+    /**
+     * @return the accelerometer's SensorManager.SENSOR_STATUS_* accuracy at the time of the
+     * reading, or SensorAccelerometer.ACCURACY_UNKNOWN if it hadn't reported one
+     */
+    public int getAccuracy() {
+        return accuracy;
+    }
+
+    void set(float pitch, float roll, long timestamp, long arrivalNs, int accuracy) {
+        this.pitch = pitch;
+        this.roll = roll;
+        this.timestamp = timestamp;
+        this.arrivalNs = arrivalNs;
+        this.accuracy = accuracy;
+    }
+}
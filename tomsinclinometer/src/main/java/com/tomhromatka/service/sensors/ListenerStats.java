@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * Snapshot of the watchdog's timing for one listener of a sensor.  Callers allocate these once
+ * and have AbstractSensor.readListenerStats() refill them.
+ */
+public class ListenerStats {
+    private String listenerName = null;
+    private long callCount = 0;
+    private long totalNs = 0;
+    private long maxNs = 0;
+    private long overrunCount = 0;
+    private long exceptionCount = 0;
+
+    /**
+     * @return class name of the listener
+     */
+    public String getListenerName() {
+        return listenerName;
+    }
+
+    /**
+     * @return number of data callbacks the listener has completed
+     */
+    public long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return mean time spent in the listener's data callback (ns), or 0 if it hasn't been called
+     */
+    public long getMeanNs() {
+        return (0 == callCount) ? 0 : totalNs / callCount;
+    }
+
+    /**
+     * @return longest time spent in the listener's data callback (ns)
+     */
+    public long getMaxNs() {
+        return maxNs;
+    }
+
+    /**
+     * @return number of data callbacks that went over the watchdog's budget
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * @return number of exceptions the listener has thrown
+     */
+    public long getExceptionCount() {
+        return exceptionCount;
+    }
+
+    void set(String listenerName, long callCount, long totalNs, long maxNs, long overrunCount,
+             long exceptionCount) {
+        this.listenerName = listenerName;
+        this.callCount = callCount;
+        this.totalNs = totalNs;
+        this.maxNs = maxNs;
+        this.overrunCount = overrunCount;
+        this.exceptionCount = exceptionCount;
+    }
+}
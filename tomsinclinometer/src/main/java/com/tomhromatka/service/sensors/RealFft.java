@@ -0,0 +1,224 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * In-place radix-2 FFT of real samples.  The n real samples are treated as n / 2 complex
+ * samples (even samples real, odd samples imaginary), transformed with an iterative radix-2
+ * complex FFT and then split into the spectrum of the real signal, so a real transform costs
+ * about half of a complex one of the same length.
+ *
+ * The twiddle factors, the bit reversal permutation and a Hann window are computed once in the
+ * constructor; transforming allocates nothing.
+ *
+ * The spectrum is packed into the input array:
+ *   data[0]          real part of bin 0 (DC)
+ *   data[1]          real part of bin n / 2 (Nyquist)
+ *   data[2k], [2k+1] real and imaginary parts of bin k, 0 < k < n / 2
+ *
+ * This class has no Android dependencies so offline tools can replay trip logs through it.
+ */
+public class RealFft {
+    private final int size;
+    private final int complexSize;
+
+    /* cos(2 pi k / size) and sin(2 pi k / size) for 0 <= k < size / 2 */
+    private final float[] cosTable;
+    private final float[] sinTable;
+
+    /* complex indices to swap for the bit reversal permutation, in pairs */
+    private final int[] swaps;
+
+    /* Hann window and the sum of its squares, for power normalization */
+    private final float[] window;
+    private final double windowPower;
+
+    /**
+     * @param size number of real samples per transform.  Must be a power of two, at least 4.
+     */
+    public RealFft(int size) {
+        if (size < 4 || 0 != (size & (size - 1))) {
+            throw new IllegalArgumentException("FFT size must be a power of two >= 4: " + size);
+        }
+
+        this.size = size;
+        this.complexSize = size / 2;
+
+        cosTable = new float[size / 2];
+        sinTable = new float[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            cosTable[k] = (float) Math.cos(2.0 * Math.PI * k / size);
+            sinTable[k] = (float) Math.sin(2.0 * Math.PI * k / size);
+        }
+
+        int swapCount = 0;
+        int[] allSwaps = new int[complexSize];
+        int bits = Integer.numberOfTrailingZeros(complexSize);
+        for (int index = 0; index < complexSize; index++) {
+            int reversed = (0 == bits) ? 0 : Integer.reverse(index) >>> (32 - bits);
+            if (index < reversed) {
+                allSwaps[swapCount++] = index;
+                allSwaps[swapCount++] = reversed;
+            }
+        }
+        swaps = new int[swapCount];
+        System.arraycopy(allSwaps, 0, swaps, 0, swapCount);
+
+        window = new float[size];
+        double power = 0.0;
+        for (int index = 0; index < size; index++) {
+            window[index] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * index / size));
+            power += window[index] * window[index];
+        }
+        windowPower = power;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the Hann window applied by applyWindow().  Do not modify.
+     */
+    public float[] getWindow() {
+        return window;
+    }
+
+    /**
+     * Remove the mean from the samples and multiply them by the Hann window
+     *
+     * @param data size samples, modified in place
+     */
+    public void applyWindow(float[] data) {
+        double sum = 0.0;
+        for (int index = 0; index < size; index++) {
+            sum += data[index];
+        }
+        float mean = (float) (sum / size);
+
+        for (int index = 0; index < size; index++) {
+            data[index] = (data[index] - mean) * window[index];
+        }
+    }
+
+    /**
+     * Convert the squared magnitude of a bin of a windowed transform into the mean square of
+     * the signal (e.g. (m/s^2)^2) that the bin accounts for.  Summing this over a band gives
+     * the signal's power in that band.
+     *
+     * @param data transformed data
+     * @param bin  0 to size / 2
+     * @return the bin's share of the signal's mean square
+     */
+    public double binPower(float[] data, int bin) {
+        double magnitudeSquared;
+        if (0 == bin) {
+            magnitudeSquared = data[0] * data[0];
+        }
+        else if (complexSize == bin) {
+            magnitudeSquared = data[1] * data[1];
+        }
+        else {
+            magnitudeSquared = data[2 * bin] * data[2 * bin] + data[2 * bin + 1] * data[2 * bin + 1];
+        }
+
+        /* one-sided: every bin but DC and Nyquist also stands for its negative frequency */
+        double sides = (0 == bin || complexSize == bin) ? 1.0 : 2.0;
+        return sides * magnitudeSquared / (size * windowPower);
+    }
+
+    /**
+     * Forward transform, in place.  See the class comment for the output layout.
+     *
+     * @param data size real samples
+     */
+    public void forward(float[] data) {
+        complexForward(data);
+
+        /* X[0] and X[n/2] are real and come from Z[0] alone */
+        float re0 = data[0];
+        float im0 = data[1];
+        data[0] = re0 + im0;
+        data[1] = re0 - im0;
+
+        /*
+         * split Z into the spectra of the even (Fe) and odd (Fo) samples and combine them:
+         *   Fe = (Z[k] + conj(Z[m - k])) / 2
+         *   Fo = -i (Z[k] - conj(Z[m - k])) / 2
+         *   X[k] = Fe + W^k Fo,  X[m - k] = conj(Fe - W^k Fo),  W = exp(-2 pi i / n)
+         */
+        for (int k = 1; k <= complexSize / 2; k++) {
+            int mk = complexSize - k;
+            float zkRe = data[2 * k];
+            float zkIm = data[2 * k + 1];
+            float zmkRe = data[2 * mk];
+            float zmkIm = data[2 * mk + 1];
+
+            float feRe = 0.5f * (zkRe + zmkRe);
+            float feIm = 0.5f * (zkIm - zmkIm);
+            float foRe = 0.5f * (zkIm + zmkIm);
+            float foIm = -0.5f * (zkRe - zmkRe);
+
+            float wRe = cosTable[k];
+            float wIm = -sinTable[k];
+            float tRe = wRe * foRe - wIm * foIm;
+            float tIm = wRe * foIm + wIm * foRe;
+
+            data[2 * k] = feRe + tRe;
+            data[2 * k + 1] = feIm + tIm;
+            data[2 * mk] = feRe - tRe;
+            data[2 * mk + 1] = -(feIm - tIm);
+        }
+    }
+
+    /**
+     * Iterative radix-2 decimation in time FFT of size / 2 interleaved complex samples
+     */
+    private void complexForward(float[] data) {
+        for (int index = 0; index < swaps.length; index += 2) {
+            int a = 2 * swaps[index];
+            int b = 2 * swaps[index + 1];
+            float re = data[a];
+            float im = data[a + 1];
+            data[a] = data[b];
+            data[a + 1] = data[b + 1];
+            data[b] = re;
+            data[b + 1] = im;
+        }
+
+        for (int span = 2; span <= complexSize; span *= 2) {
+            int half = span / 2;
+            /* exp(-2 pi i j / span) is entry j * size / span of the tables */
+            int step = size / span;
+            for (int start = 0; start < complexSize; start += span) {
+                for (int j = 0; j < half; j++) {
+                    float wRe = cosTable[j * step];
+                    float wIm = -sinTable[j * step];
+                    int a = 2 * (start + j);
+                    int b = 2 * (start + j + half);
+                    float tRe = wRe * data[b] - wIm * data[b + 1];
+                    float tIm = wRe * data[b + 1] + wIm * data[b];
+                    data[b] = data[a] - tRe;
+                    data[b + 1] = data[a + 1] - tIm;
+                    data[a] += tRe;
+                    data[a + 1] += tIm;
+                }
+            }
+        }
+    }
+}
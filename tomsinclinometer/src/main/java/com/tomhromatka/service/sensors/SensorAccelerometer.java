@@ -17,18 +17,44 @@
 
 package com.tomhromatka.service.sensors;
 
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.util.Log;
-
 import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.HromatkaTrace;
 
-public class SensorAccelerometer extends AbstractSensor implements SensorEventListener {
+/**
+ * The raw accelerometer.  Samples come from the installed SensorSource: normally the phone's
+ * accelerometer (SensorSourceAndroid), or a synthetic generator or external IMU.  Nothing in
+ * this class (or in the sensors built on it) needs Android, so the whole pipeline can run on a
+ * JVM.
+ */
+public class SensorAccelerometer extends AbstractSensor {
     private final String TAG = this.getClass().getSimpleName();
     private static SensorAccelerometer instance = null;
 
+    /* reported by getAccuracy() until the accelerometer reports its accuracy */
+    public static final int ACCURACY_UNKNOWN = Integer.MIN_VALUE;
+
+    private static final String TRACE_SECTION = "SensorAccelerometer.onSensorChanged";
+    private static final String TRACE_RATE_COUNTER = "accelerometer rate (Hz)";
+    private static final long NS_PER_SEC = 1000000000L;
+
+    /* the last accuracy reported by the sensor source */
+    private volatile int accuracy = ACCURACY_UNKNOWN;
+
+    /* timestamp of the previous sample, for the sample rate trace counter */
+    private long lastTimestamp = 0;
+
+    /*
+     * System.nanoTime() at which the newest sample reached the pipeline.  Sensor timestamps are
+     * on whatever time base the source uses, so latency is measured from here instead.  Only
+     * written by the thread delivering samples, before the sample is passed on.
+     */
+    private long lastArrivalNs = 0;
+
+    private SensorSource sensorSource = null;
+
+    /* forwards the running source's samples.  null while the source is stopped */
+    private SourceListener sourceListener = null;
+
     /**
      * Constructor - note this will force the class to be a singleton
      */
@@ -50,78 +76,147 @@ public class SensorAccelerometer extends AbstractSensor implements SensorEventLi
     }
 
     /**
-     * Enable the accelerometer sensor.
-     *
-     * @param sensorManager An instance of the Android SensorManager
+     * Listener that forwards samples from the SensorSource to this sensor's listeners.  A new
+     * one is made every time the source is started: SensorSource.stop() doesn't wait for a
+     * sample that is already being delivered, so a stopped source's listener is deactivated
+     * instead and drops anything that still arrives.
      */
-    @Override
-    protected void enableSensor(SensorManager sensorManager) {
-        HromatkaLog.getInstance().enter(TAG);
+    private class SourceListener implements SensorApi {
+        private volatile boolean active = true;
 
-        Sensor sensorAccelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        sensorManager.registerListener(this, sensorAccelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+        /**
+         * SensorAccelerometer generates the values[] array for onDataReceived() as follows:
+         * 0 == x accelerometer measurement (m/s^2)
+         * 1 == y accelerometer measurement (m/s^2)
+         * 2 == z accelerometer measurement (m/s^2)
+         */
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            if (!active) {
+                return;
+            }
+
+            lastArrivalNs = System.nanoTime();
+            HromatkaTrace.getInstance().beginSection(TRACE_SECTION);
+            traceRate(timestamp);
+            notifyListenersDataReceived(timestamp, values);
+            HromatkaTrace.getInstance().endSection();
+        }
 
-        HromatkaLog.getInstance().exit(TAG);
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+            if (!active) {
+                return;
+            }
+
+            SensorAccelerometer.this.accuracy = accuracy;
+            notifyListenersAccuracyChanged(accuracy);
+        }
     }
 
     /**
-     * Disable the accelerometer sensor.
+     * Install the source of accelerometer samples.  If the accelerometer is running, the old
+     * source is stopped and the new one started in its place.
      *
-     * @param sensorManager An instance of the Android SensorManager
+     * @param sensorSource The source of accelerometer samples
      */
-    @Override
-    protected void disableSensor(SensorManager sensorManager) {
+    public synchronized void setSensorSource(SensorSource sensorSource) {
         HromatkaLog.getInstance().enter(TAG);
-        sensorManager.unregisterListener(this);
+        if (sensorSource != this.sensorSource) {
+            boolean running = null != sourceListener;
+            stopSource();
+            this.sensorSource = sensorSource;
+            if (running) {
+                startSource();
+            }
+        }
         HromatkaLog.getInstance().exit(TAG);
     }
 
+    public synchronized SensorSource getSensorSource() {
+        return sensorSource;
+    }
+
     /**
-     * Destroy the accelerometer sensor.
-     *
-     * @param sensorManager An instance of the Android SensorManager
+     * @return the accuracy (SensorManager.SENSOR_STATUS_*) the accelerometer last reported, or
+     * ACCURACY_UNKNOWN if it hasn't reported one since it was enabled
      */
-    @Override
-    public void destroySensor(SensorManager sensorManager) {
-        super.destroySensor(sensorManager);
+    public int getAccuracy() {
+        return accuracy;
+    }
 
+    /**
+     * @return System.nanoTime() at which the newest sample reached the pipeline.  Only
+     * meaningful on the thread delivering samples, e.g. from a listener.
+     */
+    public long getLastArrivalNs() {
+        return lastArrivalNs;
+    }
+
+    /**
+     * Enable the accelerometer sensor.
+     */
+    @Override
+    protected void enableSensor() {
         HromatkaLog.getInstance().enter(TAG);
-        disableSensor(sensorManager);
+        accuracy = ACCURACY_UNKNOWN;
+        startSource();
         HromatkaLog.getInstance().exit(TAG);
     }
 
     /**
-     * This class's listener for new sensor data from the internal Android accelerometer
-     * implementation.  Required via the SensorEventListener implementation.
-     *
-     * @param event SensorEvent data from Android
+     * Disable the accelerometer sensor.
      */
     @Override
-    public void onSensorChanged(SensorEvent event) {
+    protected void disableSensor() {
         HromatkaLog.getInstance().enter(TAG);
-        Log.v(TAG, "accel x,y,z = " + event.values[0] + ", " + event.values[1] + ", " + event.values[2]);
-
-        /**
-         * SensorAcclerometer generates the values[] array for onDataReceived() as follows:
-         * 0 == x accelerometer measurement (m/s^2)
-         * 1 == y accelerometer measurement (m/s^2)
-         * 2 == z accelerometer measurement (m/s^2)
-         */
-        notifyListenersDataReceived(event.timestamp, event.values);
+        stopSource();
         HromatkaLog.getInstance().exit(TAG);
     }
 
     /**
-     * This class's listener for accuracy changes from the internal Android accelerometer
-     * implementation.  Required via the SensorEventListener implementation.
-     *
-     * @param sensor   The sensor that has changed.  Some phones may have more than one physical sensor
-     * @param accuracy The new accuracy
+     * Destroy the accelerometer sensor.
      */
     @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    public void destroySensor() {
+        super.destroySensor();
+
         HromatkaLog.getInstance().enter(TAG);
-        notifyListenersAccuracyChanged(accuracy);
+        disableSensor();
         HromatkaLog.getInstance().exit(TAG);
     }
+
+    private void startSource() {
+        if (null == sensorSource) {
+            HromatkaLog.getInstance().logError(TAG, "No sensor source installed");
+            return;
+        }
+
+        lastTimestamp = 0;
+        sourceListener = new SourceListener();
+        sensorSource.start(sourceListener);
+    }
+
+    private void stopSource() {
+        if (null == sourceListener) {
+            return;
+        }
+
+        sourceListener.active = false;
+        sourceListener = null;
+        sensorSource.stop();
+    }
+
+    /**
+     * Publish the instantaneous sample rate as a trace counter
+     *
+     * @param timestamp timestamp of the new sample (ns)
+     */
+    private void traceRate(long timestamp) {
+        HromatkaTrace trace = HromatkaTrace.getInstance();
+        if (trace.isEnabled() && 0 != lastTimestamp && timestamp > lastTimestamp) {
+            trace.setCounter(TRACE_RATE_COUNTER, NS_PER_SEC / (timestamp - lastTimestamp));
+        }
+        lastTimestamp = timestamp;
+    }
 }
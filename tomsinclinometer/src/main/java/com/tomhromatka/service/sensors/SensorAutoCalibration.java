@@ -0,0 +1,322 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import com.tomhromatka.service.HromatkaLog;
+
+/**
+ * Calibrates the inclinometer automatically as soon as the vehicle is still.  While it has
+ * listeners it watches the oriented accelerometer and keeps running (Welford) means and
+ * variances of the current stable run.  A sample that pushes the run's standard deviation over
+ * the tolerance, or that is itself far from the run's mean, starts a new run.  Once a run has
+ * lasted the stable time, the inclinometer offsets are set from the run's mean, i.e. from a
+ * fresh average taken entirely while the vehicle was still.
+ *
+ * By default the tolerance is derived from the accelerometer's own noise, since that differs a
+ * lot between phones: the standard deviation of every NOISE_WINDOW_NS window is measured and
+ * the quietest window seen so far is taken as the noise floor.  The tolerance is
+ * NOISE_TOLERANCES times that floor, kept between MIN_TOLERANCE and MAX_TOLERANCE.  No run is
+ * started until the first window has been measured.  setCriteria() may set a fixed tolerance
+ * instead.
+ *
+ * Listeners are notified no faster than every NOTIFY_LISTENERS_TIME_NS of sample time (and
+ * always when calibration completes), rather than for every accelerometer sample.
+ *
+ * SensorAutoCalibration generates the values[] array for onDataReceived() as follows:
+ * 0 == progress towards a stable run (0 - 1).  1 means calibration is complete.
+ * 1 == standard deviation of the current run (m/s^2, root of the summed axis variances)
+ *
+ * After completing, no further samples are examined until the sensor is disabled and
+ * re-enabled (i.e. every listener has unregistered and a new one registers).
+ */
+public class SensorAutoCalibration extends AbstractSensor implements SensorApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public static final int PROGRESS_INDEX = 0;
+    public static final int DEVIATION_INDEX = 1;
+
+    public static final double DEFAULT_STABLE_SECONDS = 2.0;
+
+    /* pass to setCriteria() to derive the tolerance from the measured noise */
+    public static final double AUTO_TOLERANCE = 0.0;
+    public static final double DEFAULT_TOLERANCE = AUTO_TOLERANCE;
+
+    /* bounds of the derived tolerance (m/s^2).  above the maximum the vehicle isn't still */
+    public static final double MIN_TOLERANCE = 0.02;
+    public static final double MAX_TOLERANCE = 0.25;
+
+    /* the derived tolerance leaves this much room above the noise floor */
+    private static final double NOISE_TOLERANCES = 2.0;
+    private static final long NOISE_WINDOW_NS = 250000000L;
+
+    /* a single sample this many tolerances away from the mean breaks the run on its own */
+    private static final double OUTLIER_TOLERANCES = 4.0;
+    private static final double SEC_TO_NANOSEC = 1e9;
+
+    /* notify listeners no faster than at a 10 Hz rate.  completion is always reported */
+    private static final long NOTIFY_LISTENERS_TIME_NS = 100000000L;
+
+    private static SensorAutoCalibration instance = null;
+
+    private volatile long stableNs = (long) (DEFAULT_STABLE_SECONDS * SEC_TO_NANOSEC);
+    private volatile double fixedTolerance = DEFAULT_TOLERANCE;
+
+    /* the current stable run */
+    private final Run run = new Run();
+    private boolean complete = false;
+
+    /* the current noise window and the quietest one so far (m/s^2) */
+    private final Run noiseWindow = new Run();
+    private volatile double noiseFloor = Double.NaN;
+
+    private long lastNotifiedTimestamp = 0;
+    private boolean notifyPending = true;
+
+    /* reused for every notification.  listeners must copy the values they want to keep */
+    private final float[] progress = new float[2];
+
+    /**
+     * Constructor - note this will force the class to be a singleton
+     */
+    protected SensorAutoCalibration() {
+    }
+
+    /**
+     * Public constructor.  Returns the instance of this singleton class.  This method will
+     * create the instance if it doesn't exist.
+     *
+     * @return the instance of this class
+     */
+    public static SensorAutoCalibration getInstance() {
+        if (null == instance) {
+            instance = new SensorAutoCalibration();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Set what counts as stable.  Takes effect for the next sample.
+     *
+     * @param stableSeconds how long the readings must stay stable (seconds)
+     * @param tolerance     largest standard deviation of a stable run (m/s^2), or
+     *                      AUTO_TOLERANCE to derive it from the measured noise
+     */
+    public void setCriteria(double stableSeconds, double tolerance) {
+        this.stableNs = (long) (stableSeconds * SEC_TO_NANOSEC);
+        this.fixedTolerance = tolerance;
+    }
+
+    /**
+     * @return the quietest NOISE_WINDOW_NS standard deviation seen since the sensor was enabled
+     * (m/s^2), or NaN if no window has been measured yet
+     */
+    public double getNoiseFloor() {
+        return noiseFloor;
+    }
+
+    /**
+     * Enable automatic calibration.
+     */
+    @Override
+    protected void enableSensor() {
+        HromatkaLog.getInstance().enter(TAG);
+        complete = false;
+        run.count = 0;
+        noiseWindow.count = 0;
+        noiseFloor = Double.NaN;
+        notifyPending = true;
+        SensorOrientedAccelerometer.getInstance().registerListener(this);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Disable automatic calibration.
+     */
+    @Override
+    protected void disableSensor() {
+        HromatkaLog.getInstance().enter(TAG);
+        SensorOrientedAccelerometer.getInstance().unregisterListener(this);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Destroy automatic calibration.
+     */
+    @Override
+    public void destroySensor() {
+        super.destroySensor();
+
+        HromatkaLog.getInstance().enter(TAG);
+        disableSensor();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * This class's listener for new sensor data from SensorOrientedAccelerometer.  Required
+     * via the SensorApi implementation.
+     *
+     * @param timestamp   time at which this measurement occurred
+     * @param accelValues array of oriented accelerometer measurements (x == 0, y == 1, z == 2)
+     */
+    @Override
+    public void onDataReceived(long timestamp, float[] accelValues) {
+        if (complete) {
+            return;
+        }
+
+        measureNoise(timestamp, accelValues);
+        double tolerance = getTolerance();
+        if (Double.isNaN(tolerance)) {
+            /* still measuring the noise floor */
+            return;
+        }
+
+        if (0 == run.count || run.isOutlier(accelValues, OUTLIER_TOLERANCES * tolerance)) {
+            run.start(timestamp);
+        }
+        run.add(accelValues);
+
+        double deviation = run.getDeviation();
+        if (deviation > tolerance) {
+            /* the run as a whole has drifted.  start over from this sample */
+            run.start(timestamp);
+            run.add(accelValues);
+            deviation = 0.0;
+        }
+
+        double runProgress = Math.min(1.0, (double) (timestamp - run.startTimestamp) / stableNs);
+        if (runProgress >= 1.0) {
+            complete = true;
+            SensorInclinometer.getInstance().setOffsetsFromAcceleration(run.mean[0], run.mean[1], run.mean[2]);
+            HromatkaLog.getInstance().logVerbose(TAG, "Calibrated from stable samples: ", run.count);
+        }
+        else if (!notifyPending && timestamp >= lastNotifiedTimestamp &&
+                timestamp - lastNotifiedTimestamp < NOTIFY_LISTENERS_TIME_NS) {
+            return;
+        }
+
+        notifyPending = false;
+        lastNotifiedTimestamp = timestamp;
+        progress[PROGRESS_INDEX] = (float) runProgress;
+        progress[DEVIATION_INDEX] = (float) deviation;
+        notifyListenersDataReceived(timestamp, progress);
+    }
+
+    /**
+     * This class's listener for accuracy changes in SensorOrientedAccelerometer.  The
+     * orientation has changed, so the current run is no longer valid.
+     *
+     * @param accuracy New accuracy of the oriented accelerometer.
+     */
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+        HromatkaLog.getInstance().enter(TAG);
+        run.count = 0;
+        notifyListenersAccuracyChanged(accuracy);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Fold the sample into the current noise window, and lower the noise floor when a window
+     * ends quieter than any before it
+     */
+    private void measureNoise(long timestamp, float[] accelValues) {
+        if (0 == noiseWindow.count) {
+            noiseWindow.start(timestamp);
+        }
+        noiseWindow.add(accelValues);
+
+        if (timestamp - noiseWindow.startTimestamp >= NOISE_WINDOW_NS) {
+            double deviation = noiseWindow.getDeviation();
+            if (Double.isNaN(noiseFloor) || deviation < noiseFloor) {
+                noiseFloor = deviation;
+            }
+            noiseWindow.count = 0;
+        }
+    }
+
+    /**
+     * @return the fixed tolerance, the one derived from the noise floor, or NaN if it is to be
+     * derived but the floor isn't known yet
+     */
+    private double getTolerance() {
+        double fixed = fixedTolerance;
+        if (fixed > AUTO_TOLERANCE) {
+            return fixed;
+        }
+        if (Double.isNaN(noiseFloor)) {
+            return Double.NaN;
+        }
+
+        return Math.min(MAX_TOLERANCE, Math.max(MIN_TOLERANCE, NOISE_TOLERANCES * noiseFloor));
+    }
+
+    /**
+     * Running (Welford) means and variances of the three axes over a run of samples
+     */
+    private static class Run {
+        long startTimestamp = 0;
+        long count = 0;
+        final double[] mean = new double[3];
+        final double[] m2 = new double[3];
+
+        void start(long timestamp) {
+            startTimestamp = timestamp;
+            count = 0;
+            for (int axis = 0; axis < mean.length; axis++) {
+                mean[axis] = 0.0;
+                m2[axis] = 0.0;
+            }
+        }
+
+        void add(float[] accelValues) {
+            count++;
+            for (int axis = 0; axis < mean.length; axis++) {
+                double delta = accelValues[axis] - mean[axis];
+                mean[axis] += delta / count;
+                m2[axis] += delta * (accelValues[axis] - mean[axis]);
+            }
+        }
+
+        /**
+         * @return standard deviation of the run (root of the summed axis variances)
+         */
+        double getDeviation() {
+            if (count < 2) {
+                return 0.0;
+            }
+
+            double variance = 0.0;
+            for (int axis = 0; axis < m2.length; axis++) {
+                variance += m2[axis] / (count - 1);
+            }
+            return Math.sqrt(variance);
+        }
+
+        boolean isOutlier(float[] accelValues, double limit) {
+            double distanceSquared = 0.0;
+            for (int axis = 0; axis < mean.length; axis++) {
+                double delta = accelValues[axis] - mean[axis];
+                distanceSquared += delta * delta;
+            }
+
+            return distanceSquared > limit * limit;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * The clock that Android stamps sensor events with, so samples from other sources share the
+ * phone accelerometer's time base.  Sensor timestamps are elapsedRealtimeNanos() on current
+ * devices; before that API existed (and on a JVM, where Build.VERSION.SDK_INT is 0) the
+ * monotonic System.nanoTime() stands in for it.
+ */
+public final class SensorClock {
+    private SensorClock() {
+    }
+
+    /**
+     * @return the current time on the sensor time base (ns)
+     */
+    public static long nowNs() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return System.nanoTime();
+    }
+}
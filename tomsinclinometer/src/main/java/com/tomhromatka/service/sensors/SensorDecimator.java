@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * Anti-aliased decimation of a sensor stream down to one consumer's rate.  The input rate isn't
+ * known up front (and changes with the sensor delay or source), so it's estimated from the
+ * timestamps and the decimation factor is picked from SUPPORTED_FACTORS, with hysteresis so a
+ * jittery rate doesn't flip between two factors.
+ *
+ * A FilterDecimator for every factor the consumer can need is built in the constructor, so
+ * switching factors on the sensor thread only resets and primes one that already exists.  A
+ * decimator that is switched to starts from the previous decimator's last output rather than
+ * from a single sample, which may be at the peak of a vibration.  Inputs faster than the
+ * largest factor allows are still filtered, but the output rate rises with them.
+ *
+ * Register it as a listener of the stream to forward decimated samples to a consumer, or feed
+ * it with add() and read getOutput().  It must be fed from one thread at a time, and the
+ * values[] array handed to the consumer is reused.
+ *
+ * This class has no Android dependencies so offline tools can replay trip logs through it.
+ */
+public class SensorDecimator implements SensorApi {
+    /* roughly half an octave apart, so some factor is always within 25% of the ideal one */
+    public static final int[] SUPPORTED_FACTORS = {1, 2, 3, 4, 6, 8, 12, 16, 24, 32, 48, 64, 96, 128, 192, 256, 384};
+
+    /* keep the current factor while the ideal one stays within this ratio of it */
+    private static final double FACTOR_HYSTERESIS = 1.3;
+    private static final double SEC_TO_NANOSEC = 1e9;
+
+    private final SensorApi consumer;
+    private final double outputIntervalNs;
+    private final FilterDecimator[] decimators;
+    private final float[] output;
+
+    private FilterDecimator decimator = null;
+    private boolean outputValid = false;
+    private boolean hasSample = false;
+    private long lastTimestamp = 0;
+    private double meanIntervalNs = 0.0;
+
+    /**
+     * @param outputRateHz   rate the consumer wants (Hz)
+     * @param channels       number of values in each sample
+     * @param maxInputRateHz fastest input to build decimators for (Hz)
+     * @param consumer       where to forward the decimated samples, or null to only read them
+     *                       with getOutput()
+     */
+    public SensorDecimator(double outputRateHz, int channels, double maxInputRateHz, SensorApi consumer) {
+        if (outputRateHz <= 0.0 || maxInputRateHz < outputRateHz) {
+            throw new IllegalArgumentException("Invalid decimation from " + maxInputRateHz + " Hz to " + outputRateHz + " Hz");
+        }
+
+        this.consumer = consumer;
+        this.outputIntervalNs = SEC_TO_NANOSEC / outputRateHz;
+        this.output = new float[channels];
+
+        /* every factor up to and including the first one that covers the fastest input */
+        double maxFactor = maxInputRateHz / outputRateHz;
+        int count = 0;
+        while (count < SUPPORTED_FACTORS.length - 1 && SUPPORTED_FACTORS[count] < maxFactor) {
+            count++;
+        }
+        decimators = new FilterDecimator[count + 1];
+        for (int index = 0; index < decimators.length; index++) {
+            decimators[index] = new FilterDecimator(SUPPORTED_FACTORS[index], channels,
+                    FilterDecimator.DEFAULT_TAPS_PER_PHASE);
+        }
+    }
+
+    public SensorApi getConsumer() {
+        return consumer;
+    }
+
+    /**
+     * @return the factor in use, or 0 before the first sample
+     */
+    public int getFactor() {
+        return (null == decimator) ? 0 : decimator.getFactor();
+    }
+
+    /**
+     * @return the largest factor this decimator was built for
+     */
+    public int getMaxFactor() {
+        return decimators[decimators.length - 1].getFactor();
+    }
+
+    /**
+     * @return the newest decimated sample, valid once add() has returned true.  Reused.
+     */
+    public float[] getOutput() {
+        return output;
+    }
+
+    public boolean isOutputValid() {
+        return outputValid;
+    }
+
+    /**
+     * Forget the stream, e.g. after a gap or a change of source.  The next sample starts over.
+     */
+    public void reset() {
+        decimator = null;
+        outputValid = false;
+        hasSample = false;
+        meanIntervalNs = 0.0;
+    }
+
+    /**
+     * Add an input sample, first switching factors if the input rate has moved away from the
+     * current one
+     *
+     * @param timestamp time of the sample (ns)
+     * @param values    the sample
+     * @return true if a new decimated sample is available from getOutput()
+     */
+    public boolean add(long timestamp, float[] values) {
+        if (hasSample && timestamp > lastTimestamp) {
+            long interval = timestamp - lastTimestamp;
+            meanIntervalNs = (0.0 == meanIntervalNs) ? interval :
+                    meanIntervalNs + (interval - meanIntervalNs) / 8.0;
+        }
+        lastTimestamp = timestamp;
+        hasSample = true;
+
+        FilterDecimator selected = select();
+        if (selected != decimator) {
+            selected.reset();
+            if (outputValid) {
+                selected.prime(output);
+            }
+            decimator = selected;
+        }
+
+        if (!decimator.add(values, output)) {
+            return false;
+        }
+        outputValid = true;
+        return true;
+    }
+
+    /**
+     * @return the decimator for the factor closest to the ideal one, or the current decimator
+     * if the ideal factor is still close enough to it
+     */
+    private FilterDecimator select() {
+        if (0.0 == meanIntervalNs) {
+            return (null == decimator) ? decimators[0] : decimator;
+        }
+
+        double idealFactor = Math.max(1.0, outputIntervalNs / meanIntervalNs);
+        if (null != decimator) {
+            double ratio = idealFactor / decimator.getFactor();
+            if (ratio <= FACTOR_HYSTERESIS && ratio >= 1.0 / FACTOR_HYSTERESIS) {
+                return decimator;
+            }
+        }
+
+        /* nearest on a log scale, since the factors are spaced by ratio */
+        FilterDecimator nearest = decimators[0];
+        double nearestDistance = Double.MAX_VALUE;
+        for (FilterDecimator candidate : decimators) {
+            double distance = Math.abs(Math.log(idealFactor / candidate.getFactor()));
+            if (distance < nearestDistance) {
+                nearest = candidate;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Decimate a sample of the stream and forward any output to the consumer
+     *
+     * @param timestamp time of the sample (ns)
+     * @param values    the sample
+     */
+    @Override
+    public void onDataReceived(long timestamp, float[] values) {
+        if (add(timestamp, values) && null != consumer) {
+            consumer.onDataReceived(timestamp, output);
+        }
+    }
+
+    /**
+     * The stream has changed (e.g. a new orientation), so start over
+     *
+     * @param accuracy new accuracy of the stream
+     */
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+        reset();
+        if (null != consumer) {
+            consumer.onAccuracyChanged(accuracy);
+        }
+    }
+}
@@ -17,9 +17,8 @@
 
 package com.tomhromatka.service.sensors;
 
-import android.hardware.SensorManager;
-
 import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.HromatkaTrace;
 
 public class SensorInclinometer extends AbstractSensor implements SensorApi {
     private final String TAG = this.getClass().getSimpleName();
@@ -27,20 +26,88 @@ public class SensorInclinometer extends AbstractSensor implements SensorApi {
     public static final int PITCH_INDEX = 0;
     public static final int ROLL_INDEX = 1;
 
-    private static final double RAD_TO_DEG = 180.0f / Math.PI;
-    private static final double ROLL_X_ZERO_THRESH  = 0.25f;
-    private static final double ROLL_Y_ZERO_THRESH  = 0.25f;
-
     /* notify listeners no faster than at a 3 Hz rate (approximately 333 ms) */
     private static final long NOTIFY_LISTENERS_TIME_MS = 333;
+    private static final long MS_TO_NS = 1000000L;
     private static long lastTimeListenersNotified = System.currentTimeMillis();
 
     private static SensorInclinometer instance = null;
+
+    private static final String TRACE_FILTER_SECTION = "SensorInclinometer.filter";
+    private static final String TRACE_ANGLE_SECTION = "SensorInclinometer.angles";
+    private static final String TRACE_WINDOW_COUNTER = "inclinometer filter window";
+
+    /*
+     * warm start.  the first reading after the sensor is enabled is published as soon as the
+     * first sample arrives instead of waiting for the rate limiter or the decimator; the
+     * moving average simply covers the samples received so far and grows into its full window.
+     * The time from enable to that first reading, and to the first reading over a full window,
+     * are tracked.
+     */
+    private static boolean warmStartEnabled = true;
+    private static boolean firstSamplePending = false;
+    private static boolean firstReadingPending = false;
+    private static boolean fullWindowPending = false;
+    private static long enabledAtNs = 0;
+    private static long firstSampleTimestamp = 0;
+    private static long timeToFirstReadingNs = -1;
+    private static long timeToFullWindowNs = -1;
+
+    /* System.nanoTime() of the first reading since the process started.  never reset */
+    private static volatile long firstReadingAtNs = -1;
     private static FilterMovingAverage filterMovingAverage =
             new FilterMovingAverage(FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS);
 
     private static double[] pitchAndRollOffsets = new double[2];
 
+    /*
+     * the latest published reading, for readLatest().  Only the sensor thread writes it, so it is
+     * guarded by a sequence lock rather than a mutex: the writer makes the sequence odd, writes
+     * the fields and makes it even again; a reader retries until it sees the same even sequence
+     * before and after reading the fields.  Readers never block the writer and nothing is
+     * allocated.  The fields are volatile too, since Java (before 9) has no fence that would
+     * stop plain reads from moving past the second read of the sequence.
+     */
+    private static volatile int latestSequence = 0;
+    private static volatile float latestPitch = 0.0f;
+    private static volatile float latestRoll = 0.0f;
+    private static volatile long latestTimestamp = 0;
+    private static volatile long latestArrivalNs = 0;
+    private static volatile int latestAccuracy = SensorAccelerometer.ACCURACY_UNKNOWN;
+    private static volatile boolean latestValid = false;
+
+    /* scratch arrays reused for every sample.  listeners must copy the pitch and roll they keep */
+    private static float[] averagedAccelValues = new float[3];
+    private static float[] notifiedPitchAndRoll = new float[2];
+
+    /*
+     * optional fixed-point pipeline.  accelerations are converted to Q16.16 as they arrive,
+     * averaged with integer running sums and turned into angles with an integer CORDIC.  See
+     * FixedPointMath.  setFixedPointEnabled() only requests a switch; the sensor thread makes it
+     * before its next sample, so the filters are never reset under a sample that is half way
+     * through the other pipeline.
+     */
+    private static boolean fixedPointEnabled = false;
+    private static volatile boolean fixedPointRequested = false;
+    private static FilterMovingAverageFixedPoint filterFixedPoint =
+            new FilterMovingAverageFixedPoint(FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS, 3,
+                    FilterMovingAverageFixedPoint.DEFAULT_CAPACITY);
+    private static int[] fixedPointAccelValues = new int[3];
+    private static int[] fixedPointAveragedAccelValues = new int[3];
+    private static int[] fixedPointPitchAndRollOffsets = new int[2];
+
+    /*
+     * optional anti-aliased decimation.  instead of dropping the samples between notifications,
+     * the accelerations are low-pass filtered and decimated to the notification rate (see
+     * SensorDecimator), so vibration can't alias into the angles.  The decimator is built the
+     * first time decimation is enabled, with filters for inputs up to DECIMATION_MAX_INPUT_HZ.
+     * Only the floating point pipeline decimates.
+     */
+    private static final double NOTIFY_LISTENERS_RATE_HZ = 1000.0 / NOTIFY_LISTENERS_TIME_MS;
+    private static final double DECIMATION_MAX_INPUT_HZ = 1000.0;
+    private static boolean decimationEnabled = false;
+    private static SensorDecimator decimator = null;
+
     /**
      * Constructor - note this will force the class to be a singleton
      */
@@ -63,39 +130,40 @@ public class SensorInclinometer extends AbstractSensor implements SensorApi {
 
     /**
      * Enable the inclinometer sensor.
-     *
-     * @param sensorManager An instance of the Android SensorManager
      */
     @Override
-    protected void enableSensor(SensorManager sensorManager) {
+    protected void enableSensor() {
         HromatkaLog.getInstance().enter(TAG);
-        SensorOrientedAccelerometer.getInstance().registerListener(sensorManager, this);
+        enabledAtNs = System.nanoTime();
+        resetDecimation();
+        firstSamplePending = true;
+        firstReadingPending = true;
+        fullWindowPending = true;
+        timeToFirstReadingNs = -1;
+        timeToFullWindowNs = -1;
+        SensorOrientedAccelerometer.getInstance().registerListener(this);
         HromatkaLog.getInstance().exit(TAG);
     }
 
     /**
      * Disable the inclinometer sensor.
-     *
-     * @param sensorManager An instance of the Android SensorManager
      */
     @Override
-    protected void disableSensor(SensorManager sensorManager) {
+    protected void disableSensor() {
         HromatkaLog.getInstance().enter(TAG);
-        SensorOrientedAccelerometer.getInstance().unregisterListener(sensorManager, this);
+        SensorOrientedAccelerometer.getInstance().unregisterListener(this);
         HromatkaLog.getInstance().exit(TAG);
     }
 
     /**
      * Destroy the inclinometer sensor.
-     *
-     * @param sensorManager An instance of the Android SensorManager
      */
     @Override
-    public void destroySensor(SensorManager sensorManager) {
-        super.destroySensor(sensorManager);
+    public void destroySensor() {
+        super.destroySensor();
 
         HromatkaLog.getInstance().enter(TAG);
-        disableSensor(sensorManager);
+        disableSensor();
         HromatkaLog.getInstance().exit(TAG);
     }
 
@@ -109,19 +177,63 @@ public class SensorInclinometer extends AbstractSensor implements SensorApi {
     @Override
     public void onDataReceived(long timestamp, float[] accelValues) {
         HromatkaLog.getInstance().enter(TAG);
+        if (firstSamplePending) {
+            firstSamplePending = false;
+            firstSampleTimestamp = timestamp;
+        }
+        if (fixedPointRequested != fixedPointEnabled) {
+            switchPipeline();
+        }
 
-        filterMovingAverage.add(timestamp, accelValues);
-        filterMovingAverage.removeExpired();
-
-        float[] averagedAccelValues = filterMovingAverage.getMovingAverage();
-        float[] pitchAndRoll = new float[2];
-
-        pitchAndRoll[PITCH_INDEX] =
-                (float) computePitch((double) averagedAccelValues[1], (double) averagedAccelValues[2]) +
-                        (float) pitchAndRollOffsets[PITCH_INDEX];
-        pitchAndRoll[ROLL_INDEX] =
-                (float) computeRoll( (double)averagedAccelValues[0], (double)averagedAccelValues[1]) +
-                        (float) pitchAndRollOffsets[ROLL_INDEX];
+        /*
+         * only fold the sample into the filter here.  the angles are derived on demand, since
+         * the rate limiter below throws most of them away.
+         */
+        HromatkaTrace trace = HromatkaTrace.getInstance();
+        trace.beginSection(TRACE_FILTER_SECTION);
+        if (fixedPointEnabled) {
+            for (int index = 0; index < fixedPointAccelValues.length; index++) {
+                fixedPointAccelValues[index] = FixedPointMath.toFixed(accelValues[index]);
+            }
+            filterFixedPoint.add(timestamp, fixedPointAccelValues);
+            filterFixedPoint.removeExpired();
+            if (trace.isEnabled()) {
+                trace.setCounter(TRACE_WINDOW_COUNTER, filterFixedPoint.size());
+            }
+        }
+        else {
+            filterMovingAverage.add(timestamp, accelValues);
+            filterMovingAverage.removeExpired();
+            if (trace.isEnabled()) {
+                trace.setCounter(TRACE_WINDOW_COUNTER, filterMovingAverage.size());
+            }
+        }
+        trace.endSection();
+
+        boolean warmStartReading = firstReadingPending && warmStartEnabled;
+        if (decimationEnabled && !fixedPointEnabled) {
+            /*
+             * the decimator passes its first sample straight through, before it knows the
+             * input rate.  that is the warm start reading; without warm start, the first
+             * reading waits for a full notification period of samples, as it does for the
+             * rate limiter below.
+             */
+            boolean decimated = decimate(timestamp, accelValues);
+            if (firstReadingPending && !warmStartEnabled &&
+                    (timestamp - firstSampleTimestamp) < NOTIFY_LISTENERS_TIME_MS * MS_TO_NS) {
+                decimated = false;
+            }
+            if (decimated || warmStartReading) {
+                trace.beginSection(TRACE_ANGLE_SECTION);
+                getPitchAndRoll(notifiedPitchAndRoll);
+                trace.endSection();
+                publishLatest(timestamp, notifiedPitchAndRoll);
+                notifyListenersDataReceived(timestamp, notifiedPitchAndRoll);
+                trackStartup(timestamp);
+            }
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
 
         /**
          * SensorInclinometer generates the values[] array for onDataReceived() as follows:
@@ -133,10 +245,16 @@ public class SensorInclinometer extends AbstractSensor implements SensorApi {
          */
 
         long currentTime = System.currentTimeMillis();
-        if ((currentTime - lastTimeListenersNotified) > NOTIFY_LISTENERS_TIME_MS) {
+        if (warmStartReading || (currentTime - lastTimeListenersNotified) > NOTIFY_LISTENERS_TIME_MS) {
             HromatkaLog.getInstance().logVerbose(TAG, "Notifying listeners of new inclinometer data");
             lastTimeListenersNotified = currentTime;
-            notifyListenersDataReceived(timestamp, pitchAndRoll);
+
+            trace.beginSection(TRACE_ANGLE_SECTION);
+            getPitchAndRoll(notifiedPitchAndRoll);
+            trace.endSection();
+            publishLatest(timestamp, notifiedPitchAndRoll);
+            notifyListenersDataReceived(timestamp, notifiedPitchAndRoll);
+            trackStartup(timestamp);
         }
         else {
             HromatkaLog.getInstance().logVerbose(TAG, "Rate limiting new inclinometer data.  Do not notify listeners.");
@@ -145,6 +263,209 @@ public class SensorInclinometer extends AbstractSensor implements SensorApi {
         HromatkaLog.getInstance().exit(TAG);
     }
 
+    /**
+     * Feed a sample to the decimator
+     *
+     * @param timestamp   time at which this measurement occurred
+     * @param accelValues array of accelerometer measurements (x == 0, y == 1, z == 2)
+     * @return true if the decimator produced a new output sample
+     */
+    private synchronized boolean decimate(long timestamp, float[] accelValues) {
+        return decimator.add(timestamp, accelValues);
+    }
+
+    private synchronized void resetDecimation() {
+        if (null != decimator) {
+            decimator.reset();
+        }
+    }
+
+    /**
+     * Low-pass filter and decimate the accelerations to the notification rate instead of
+     * dropping the samples between notifications.  Listeners are then notified at the
+     * decimator's outputs, and getPitchAndRoll() returns the latest decimated reading.  Only
+     * applies to the floating point pipeline.  Disabled by default.
+     *
+     * @param enabled true to enable decimation
+     */
+    public synchronized void setDecimationEnabled(boolean enabled) {
+        HromatkaLog.getInstance().enter(TAG);
+        if (enabled && null == decimator) {
+            /* allocates the filters here rather than on the sensor thread */
+            decimator = new SensorDecimator(NOTIFY_LISTENERS_RATE_HZ, averagedAccelValues.length, DECIMATION_MAX_INPUT_HZ, null);
+        }
+        decimationEnabled = enabled;
+        resetDecimation();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    public boolean isDecimationEnabled() {
+        return decimationEnabled;
+    }
+
+    /**
+     * Store a reading for readLatest().  Must only be called from the sensor thread.
+     *
+     * @param timestamp    timestamp of the newest sample in the reading
+     * @param pitchAndRoll pitch (PITCH_INDEX) and roll (ROLL_INDEX) in degrees
+     */
+    private static void publishLatest(long timestamp, float[] pitchAndRoll) {
+        latestSequence++;
+        latestPitch = pitchAndRoll[PITCH_INDEX];
+        latestRoll = pitchAndRoll[ROLL_INDEX];
+        latestTimestamp = timestamp;
+        latestArrivalNs = SensorAccelerometer.getInstance().getLastArrivalNs();
+        latestAccuracy = SensorAccelerometer.getInstance().getAccuracy();
+        latestValid = true;
+        latestSequence++;
+    }
+
+    /**
+     * Copy the most recently published reading, i.e. the one listeners were last notified
+     * with.  Safe to call from any thread; it never blocks the sensor thread.  Note that the
+     * inclinometer only runs while someone is listening to it, so check the reading's timestamp
+     * if it may be stale.
+     *
+     * @param reading receives the pitch, roll, timestamps and accuracy
+     * @return false if no reading has been published yet (and reading was not touched)
+     */
+    public boolean readLatest(InclinometerReading reading) {
+        while (true) {
+            int sequence = latestSequence;
+            if (0 != (sequence & 1)) {
+                /* the sensor thread is part way through an update */
+                Thread.yield();
+                continue;
+            }
+
+            boolean valid = latestValid;
+            float pitch = latestPitch;
+            float roll = latestRoll;
+            long timestamp = latestTimestamp;
+            long arrivalNs = latestArrivalNs;
+            int accuracy = latestAccuracy;
+
+            if (sequence == latestSequence) {
+                if (!valid) {
+                    return false;
+                }
+                reading.set(pitch, roll, timestamp, arrivalNs, accuracy);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Record how long after enabling the sensor the first reading, and the first reading over a
+     * full averaging window, were published
+     *
+     * @param timestamp timestamp of the sample that was just published
+     */
+    private static void trackStartup(long timestamp) {
+        if (firstReadingPending) {
+            firstReadingPending = false;
+            timeToFirstReadingNs = System.nanoTime() - enabledAtNs;
+            if (firstReadingAtNs < 0) {
+                firstReadingAtNs = enabledAtNs + timeToFirstReadingNs;
+            }
+        }
+        if (fullWindowPending &&
+                (timestamp - firstSampleTimestamp) >= FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS) {
+            fullWindowPending = false;
+            timeToFullWindowNs = System.nanoTime() - enabledAtNs;
+        }
+    }
+
+    /**
+     * Size the moving averages' buffers for the given accelerometer rate, so they don't have to
+     * grow once the samples are flowing.
+     *
+     * @param sampleRateHz expected accelerometer rate (Hz)
+     */
+    public void setExpectedSampleRate(int sampleRateHz) {
+        /* twice the nominal count, since sensors don't deliver exactly the rate asked for */
+        int capacity = (int) (2 * sampleRateHz * FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS /
+                FilterMovingAverage.SEC_TO_NANOSEC);
+        filterMovingAverage.ensureCapacity(capacity);
+        filterFixedPoint.ensureCapacity(capacity);
+    }
+
+    /**
+     * Publish the first reading after the sensor is enabled as soon as the first sample
+     * arrives, rather than after the rate limiter's period.  Enabled by default.
+     *
+     * @param enabled true to enable warm start
+     */
+    public void setWarmStartEnabled(boolean enabled) {
+        warmStartEnabled = enabled;
+    }
+
+    /**
+     * @return time from enabling the sensor to publishing its first reading (ns), or -1 if no
+     * reading has been published yet
+     */
+    public long getTimeToFirstReadingNs() {
+        return timeToFirstReadingNs;
+    }
+
+    /**
+     * @return System.nanoTime() at which the first reading since the process started was
+     * published, or -1 if there hasn't been one yet.  Unlike getTimeToFirstReadingNs(), this
+     * isn't reset when the sensor is re-enabled, so it measures the cold start.
+     */
+    public long getFirstReadingAtNs() {
+        return firstReadingAtNs;
+    }
+
+    /**
+     * @return time from enabling the sensor to publishing the first reading averaged over a full
+     * window, i.e. the first fully settled reading (ns), or -1 if there hasn't been one yet
+     */
+    public long getTimeToFullWindowNs() {
+        return timeToFullWindowNs;
+    }
+
+    /**
+     * Compute the current pitch and roll from the samples in the moving average filter.  This
+     * is the same value that listeners are notified with, but it may be pulled at any time.
+     *
+     * @param pitchAndRoll array that receives the pitch (PITCH_INDEX) and roll (ROLL_INDEX)
+     *                     in degrees
+     * @return false if no samples have been received (and pitchAndRoll was not touched)
+     */
+    public synchronized boolean getPitchAndRoll(float[] pitchAndRoll) {
+        if (fixedPointEnabled) {
+            if (!filterFixedPoint.getMovingAverage(fixedPointAveragedAccelValues)) {
+                return false;
+            }
+
+            pitchAndRoll[PITCH_INDEX] = FixedPointMath.toFloat(
+                    FixedPointMath.computePitch(fixedPointAveragedAccelValues[1], fixedPointAveragedAccelValues[2]) +
+                            fixedPointPitchAndRollOffsets[PITCH_INDEX]);
+            pitchAndRoll[ROLL_INDEX] = FixedPointMath.toFloat(
+                    FixedPointMath.computeRoll(fixedPointAveragedAccelValues[0], fixedPointAveragedAccelValues[1]) +
+                            fixedPointPitchAndRollOffsets[ROLL_INDEX]);
+        }
+        else {
+            float[] accelValues = averagedAccelValues;
+            if (decimationEnabled && decimator.isOutputValid()) {
+                accelValues = decimator.getOutput();
+            }
+            else if (!filterMovingAverage.getMovingAverage(averagedAccelValues)) {
+                return false;
+            }
+
+            pitchAndRoll[PITCH_INDEX] =
+                    (float) InclinometerMath.computePitch((double) accelValues[1], (double) accelValues[2]) +
+                            (float) pitchAndRollOffsets[PITCH_INDEX];
+            pitchAndRoll[ROLL_INDEX] =
+                    (float) InclinometerMath.computeRoll( (double)accelValues[0], (double)accelValues[1]) +
+                            (float) pitchAndRollOffsets[ROLL_INDEX];
+        }
+
+        return true;
+    }
+
     /**
      * This class's listener for accuracy changes in SensorOrientedAccelerometer.  Required
      * via the SensorApi implementation.  SensorOrientedAccelerometer uses it to notify listeners
@@ -156,76 +477,113 @@ public class SensorInclinometer extends AbstractSensor implements SensorApi {
     public void onAccuracyChanged(int accelAccuracy) {
         HromatkaLog.getInstance().enter(TAG);
         filterMovingAverage.clear();
+        filterFixedPoint.clear();
+        resetDecimation();
         HromatkaLog.getInstance().exit(TAG);
     }
 
     /**
-     * Update the pitch and roll offsets.  This allows the phone to be mounted at any arbitrary
-     * angle.
+     * Switch between the floating point and fixed-point pipelines.  The switch is made on the
+     * sensor thread before the next sample; both filters and the decimator are reset then, so
+     * the new pipeline starts from fresh samples.  Offsets are shared by both pipelines.
+     *
+     * @param enabled true to use the fixed-point pipeline
      */
-    public void updateOffsets() {
-        float[] averagedAccelValues = filterMovingAverage.getMovingAverage();
+    public void setFixedPointEnabled(boolean enabled) {
+        HromatkaLog.getInstance().enter(TAG);
+        fixedPointRequested = enabled;
+        HromatkaLog.getInstance().exit(TAG);
+    }
 
-        pitchAndRollOffsets[PITCH_INDEX] =
-                -computePitch((double)averagedAccelValues[1], (double)averagedAccelValues[2]);
-        pitchAndRollOffsets[ROLL_INDEX] =
-                -computeRoll( (double)averagedAccelValues[0], (double)averagedAccelValues[1]);
+    public boolean isFixedPointEnabled() {
+        return fixedPointRequested;
     }
 
     /**
-     * Method to compute the pitch of the device
-     *
-     * @param y accelerometer value in the y axis (m/s^2)
-     * @param z accelerometer value in the z axis (m/s^2)
-     * @return the pitch of the phone in degrees
+     * Make the pipeline switch requested by setFixedPointEnabled().  Must only be called from
+     * the sensor thread.
      */
-    private double computePitch(double y, double z) {
-        HromatkaLog.getInstance().enter(TAG);
-        double pitch = 90.0f - (Math.atan2(y, z) * RAD_TO_DEG);
-
-        if (pitch < -180.0f) {
-            HromatkaLog.getInstance().logVerbose(TAG, "Pitch underflow: " + pitch);
-            pitch += 360.0f;
-        }
-        else if (pitch > 180.0f)
-        {
-            HromatkaLog.getInstance().logVerbose(TAG, "Pitch overflow: " + pitch);
-            pitch -= 360.0f;
-        }
+    private synchronized void switchPipeline() {
+        HromatkaLog.getInstance().logVerbose(TAG, "Switching between the floating point and fixed-point pipelines");
+        fixedPointEnabled = fixedPointRequested;
+        filterMovingAverage.clear();
+        filterFixedPoint.clear();
+        resetDecimation();
+    }
 
-        HromatkaLog.getInstance().logVerbose(TAG, String.format("y = %4.1f, z = %4.1f, pitch = %4.1f", y, z, pitch));
+    /**
+     * @return the current pitch offset (degrees)
+     */
+    public double getPitchOffset() {
+        return pitchAndRollOffsets[PITCH_INDEX];
+    }
 
-        HromatkaLog.getInstance().exit(TAG);
-        return pitch;
+    /**
+     * @return the current roll offset (degrees)
+     */
+    public double getRollOffset() {
+        return pitchAndRollOffsets[ROLL_INDEX];
     }
 
     /**
-     * Method to compute the roll of the device
+     * Set the pitch and roll offsets directly, e.g. to restore a saved calibration
      *
-     * @param x accelerometer value in the x axis (m/s^2)
-     * @param y accelerometer value in the y axis (m/s^2)
-     * @return the roll of the phone in degrees
+     * @param pitchOffset pitch offset (degrees)
+     * @param rollOffset  roll offset (degrees)
      */
-    private double computeRoll(double x, double y) {
-        HromatkaLog.getInstance().enter(TAG);
-        double roll = (Math.atan2(y, x) * RAD_TO_DEG) - 90.0f;
+    public synchronized void setOffsets(double pitchOffset, double rollOffset) {
+        pitchAndRollOffsets[PITCH_INDEX] = pitchOffset;
+        pitchAndRollOffsets[ROLL_INDEX] = rollOffset;
 
-        if (roll < -180.0f) {
-            HromatkaLog.getInstance().logVerbose(TAG, "Roll underflow: " + roll);
-            roll += 360.0f;
-        }
-        else if (roll > 180.0f) {
-            HromatkaLog.getInstance().logVerbose(TAG, "Roll overflow: " + roll);
-            roll -= 360.0f;
+        fixedPointPitchAndRollOffsets[PITCH_INDEX] = FixedPointMath.toFixed(pitchAndRollOffsets[PITCH_INDEX]);
+        fixedPointPitchAndRollOffsets[ROLL_INDEX] = FixedPointMath.toFixed(pitchAndRollOffsets[ROLL_INDEX]);
+    }
+
+    /**
+     * Update the pitch and roll offsets.  This allows the phone to be mounted at any arbitrary
+     * angle.
+     *
+     * @return false if there were no samples to update the offsets from
+     */
+    public synchronized boolean updateOffsets() {
+        if (fixedPointEnabled) {
+            int[] averagedAccelValues = new int[3];
+            if (!filterFixedPoint.getMovingAverage(averagedAccelValues)) {
+                HromatkaLog.getInstance().logError(TAG, "No samples yet.  Offsets not updated.");
+                return false;
+            }
+
+            pitchAndRollOffsets[PITCH_INDEX] = FixedPointMath.toFloat(
+                    -FixedPointMath.computePitch(averagedAccelValues[1], averagedAccelValues[2]));
+            pitchAndRollOffsets[ROLL_INDEX] = FixedPointMath.toFloat(
+                    -FixedPointMath.computeRoll(averagedAccelValues[0], averagedAccelValues[1]));
+
+            fixedPointPitchAndRollOffsets[PITCH_INDEX] = FixedPointMath.toFixed(pitchAndRollOffsets[PITCH_INDEX]);
+            fixedPointPitchAndRollOffsets[ROLL_INDEX] = FixedPointMath.toFixed(pitchAndRollOffsets[ROLL_INDEX]);
         }
+        else {
+            float[] averagedAccelValues = new float[3];
+            if (!filterMovingAverage.getMovingAverage(averagedAccelValues)) {
+                HromatkaLog.getInstance().logError(TAG, "No samples yet.  Offsets not updated.");
+                return false;
+            }
 
-        if (x < ROLL_X_ZERO_THRESH && y < ROLL_Y_ZERO_THRESH) {
-    		/* zero out roll when both x and y are near-zero. */
-            HromatkaLog.getInstance().logVerbose(TAG, "Roll autozero.  x = " + x + ", y = " + y);
-            roll = 0.0f;
+            setOffsetsFromAcceleration(averagedAccelValues[0], averagedAccelValues[1], averagedAccelValues[2]);
         }
 
-        HromatkaLog.getInstance().exit(TAG);
-        return roll;
+        return true;
+    }
+
+    /**
+     * Set the pitch and roll offsets so that the given (averaged) oriented acceleration reads as
+     * level.  Used by updateOffsets() and by SensorAutoCalibration, which averages its own
+     * stable period rather than using this sensor's filter.
+     *
+     * @param x oriented accelerometer value in the x axis (m/s^2)
+     * @param y oriented accelerometer value in the y axis (m/s^2)
+     * @param z oriented accelerometer value in the z axis (m/s^2)
+     */
+    public synchronized void setOffsetsFromAcceleration(double x, double y, double z) {
+        setOffsets(-InclinometerMath.computePitch(y, z), -InclinometerMath.computeRoll(x, y));
     }
 }
@@ -19,8 +19,6 @@ package com.tomhromatka.service.sensors;
 
 import android.app.Service;
 import android.content.res.Configuration;
-import android.hardware.SensorManager;
-
 import com.tomhromatka.service.HromatkaLog;
 
 /**
@@ -50,6 +48,9 @@ public class SensorOrientedAccelerometer extends AbstractSensor implements Senso
     private int ySign  = POSITIVE_SIGN;
     private int zSign  = NEGATIVE_SIGN;
 
+    /* reused for every sample.  listeners must copy the values they want to keep */
+    private final float[] rotatedAccelValues = new float[3];
+
     /**
      * Constructor - note this will force the class to be a singleton
      */
@@ -72,41 +73,35 @@ public class SensorOrientedAccelerometer extends AbstractSensor implements Senso
 
     /**
      * Enable the oriented accelerometer sensor.
-     *
-     * @param sensorManager An instance of the Android SensorManager
      */
     @Override
-    protected void enableSensor(SensorManager sensorManager) {
+    protected void enableSensor() {
         HromatkaLog.getInstance().enter(TAG);
 
         /* register this class as an accelerometer listener */
-        SensorAccelerometer.getInstance().registerListener(sensorManager, this);
+        SensorAccelerometer.getInstance().registerListener(this);
         HromatkaLog.getInstance().exit(TAG);
     }
 
     /**
      * Disable the oriented accelerometer sensor.
-     *
-     * @param sensorManager An instance of the Android SensorManager
      */
     @Override
-    protected void disableSensor(SensorManager sensorManager) {
+    protected void disableSensor() {
         HromatkaLog.getInstance().enter(TAG);
-        SensorAccelerometer.getInstance().unregisterListener(sensorManager, this);
+        SensorAccelerometer.getInstance().unregisterListener(this);
         HromatkaLog.getInstance().exit(TAG);
     }
 
     /**
      * Destroy the oriented accelerometer sensor.
-     *
-     * @param sensorManager An instance of the Android SensorManager
      */
     @Override
-    public void destroySensor(SensorManager sensorManager) {
-        super.destroySensor(sensorManager);
+    public void destroySensor() {
+        super.destroySensor();
 
         HromatkaLog.getInstance().enter(TAG);
-        disableSensor(sensorManager);
+        disableSensor();
         HromatkaLog.getInstance().exit(TAG);
     }
 
@@ -128,7 +123,6 @@ public class SensorOrientedAccelerometer extends AbstractSensor implements Senso
             orientationSet = true;
         }
 
-        float[] rotatedAccelValues = new float[3];
         rotatedAccelValues[0] = xSign * values[xIndex];
         rotatedAccelValues[1] = ySign * values[yIndex];
         rotatedAccelValues[2] = zSign * values[zIndex];
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import com.tomhromatka.service.HromatkaLog;
+
+/**
+ * Predicts how long it will be until the vehicle reaches its pitch or roll limit, so a warning
+ * can be given before the limit is actually crossed.
+ *
+ * Every oriented accelerometer sample is turned into a pitch and roll with the inclinometer's
+ * math and calibration offsets.  A sliding linear regression over the last WINDOW_NS of angles
+ * gives the current trend, and the fitted line is projected forward to the limits.  Listeners
+ * are notified for every sample, i.e. at the full sensor rate, unlike SensorInclinometer.
+ */
+public class SensorRolloverPredictor extends AbstractSensor implements SensorApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public static final int PITCH_INDEX = 0;
+    public static final int ROLL_INDEX = 1;
+
+    /* reported when the angle isn't heading towards its limit */
+    public static final float NO_CROSSING = Float.POSITIVE_INFINITY;
+
+    public static final double DEFAULT_PITCH_LIMIT = 30.0;
+    public static final double DEFAULT_ROLL_LIMIT = 30.0;
+
+    /* long enough to smooth out vibration, short enough to follow a developing slide */
+    private static final long WINDOW_NS = 1000000000L;
+
+    /* a slope fitted to less than this is mostly noise, e.g. right after the sensor is enabled */
+    private static final long MIN_TREND_SPAN_NS = 250000000L;
+
+    /* sensors don't deliver exactly the rate asked for */
+    private static final long SAMPLE_HEADROOM = 2;
+
+    private static SensorRolloverPredictor instance = null;
+
+    private final SlidingLinearRegression pitchRegression = new SlidingLinearRegression(WINDOW_NS);
+    private final SlidingLinearRegression rollRegression = new SlidingLinearRegression(WINDOW_NS);
+
+    private volatile double pitchLimit = DEFAULT_PITCH_LIMIT;
+    private volatile double rollLimit = DEFAULT_ROLL_LIMIT;
+
+    /* reused for every sample.  listeners must copy the values they want to keep */
+    private final float[] secondsToLimit = new float[2];
+
+    /**
+     * Constructor - note this will force the class to be a singleton
+     */
+    protected SensorRolloverPredictor() {
+    }
+
+    /**
+     * Public constructor.  Returns the instance of this singleton class.  This method will
+     * create the instance if it doesn't exist.
+     *
+     * @return the instance of this class
+     */
+    public static SensorRolloverPredictor getInstance() {
+        if (null == instance) {
+            instance = new SensorRolloverPredictor();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Set the limits that the predictor projects towards.  The limits are symmetric, i.e. a
+     * roll limit of 30 degrees applies to both sides.
+     *
+     * @param pitchLimit maximum safe |pitch| (degrees)
+     * @param rollLimit  maximum safe |roll| (degrees)
+     */
+    public void setLimits(double pitchLimit, double rollLimit) {
+        this.pitchLimit = pitchLimit;
+        this.rollLimit = rollLimit;
+    }
+
+    /**
+     * Size the regressions' buffers for the given accelerometer rate, so they don't have to
+     * grow once the samples are flowing.  May be called from any thread.
+     *
+     * @param sampleRateHz expected accelerometer rate (Hz)
+     */
+    public void setExpectedSampleRate(int sampleRateHz) {
+        int capacity = (int) (WINDOW_NS * SAMPLE_HEADROOM * sampleRateHz / 1000000000L);
+        pitchRegression.ensureCapacity(capacity);
+        rollRegression.ensureCapacity(capacity);
+    }
+
+    /**
+     * Enable the rollover predictor.
+     */
+    @Override
+    protected void enableSensor() {
+        HromatkaLog.getInstance().enter(TAG);
+        pitchRegression.clear();
+        rollRegression.clear();
+        SensorOrientedAccelerometer.getInstance().registerListener(this);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Disable the rollover predictor.
+     */
+    @Override
+    protected void disableSensor() {
+        HromatkaLog.getInstance().enter(TAG);
+        SensorOrientedAccelerometer.getInstance().unregisterListener(this);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Destroy the rollover predictor.
+     */
+    @Override
+    public void destroySensor() {
+        super.destroySensor();
+
+        HromatkaLog.getInstance().enter(TAG);
+        disableSensor();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * This class's listener for new sensor data from SensorOrientedAccelerometer.  Required
+     * via the SensorApi implementation.
+     *
+     * SensorRolloverPredictor generates the values[] array for onDataReceived() as follows:
+     * 0 == seconds until the pitch limit is reached
+     * 1 == seconds until the roll limit is reached
+     *
+     * 0 means the limit has already been reached; NO_CROSSING means the angle is steady or
+     * moving away from the limit.
+     *
+     * @param timestamp   time at which this measurement occurred
+     * @param accelValues array of oriented accelerometer measurements (x == 0, y == 1, z == 2)
+     */
+    @Override
+    public void onDataReceived(long timestamp, float[] accelValues) {
+        SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        pitchRegression.add(timestamp,
+                InclinometerMath.computePitch(accelValues[1], accelValues[2]) + inclinometer.getPitchOffset());
+        rollRegression.add(timestamp,
+                InclinometerMath.computeRoll(accelValues[0], accelValues[1]) + inclinometer.getRollOffset());
+
+        secondsToLimit[PITCH_INDEX] = (float) secondsToLimit(pitchRegression, pitchLimit);
+        secondsToLimit[ROLL_INDEX] = (float) secondsToLimit(rollRegression, rollLimit);
+        notifyListenersDataReceived(timestamp, secondsToLimit);
+    }
+
+    /**
+     * This class's listener for accuracy changes in SensorOrientedAccelerometer.  The
+     * orientation has changed, so the trend so far no longer applies.
+     *
+     * @param accuracy New accuracy of the oriented accelerometer.
+     */
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+        HromatkaLog.getInstance().enter(TAG);
+        pitchRegression.clear();
+        rollRegression.clear();
+        notifyListenersAccuracyChanged(accuracy);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Project the fitted line forward to +/- limit
+     *
+     * @param regression regression of the angle
+     * @param limit      symmetric limit (degrees)
+     * @return seconds until the line crosses the limit, 0 if it already has, or NO_CROSSING
+     * (also while the window is too short to trust the trend)
+     */
+    private static double secondsToLimit(SlidingLinearRegression regression, double limit) {
+        double angle = regression.getFittedLatest();
+        double slope = regression.getSlope();
+
+        if (Math.abs(angle) >= limit) {
+            return 0.0;
+        }
+        if (regression.getSpanNs() < MIN_TREND_SPAN_NS) {
+            return NO_CROSSING;
+        }
+        if (slope > 0.0) {
+            return (limit - angle) / slope;
+        }
+        if (slope < 0.0) {
+            return (-limit - angle) / slope;
+        }
+
+        return NO_CROSSING;
+    }
+}
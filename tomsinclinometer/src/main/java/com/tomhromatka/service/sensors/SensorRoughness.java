@@ -0,0 +1,300 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import com.tomhromatka.service.HromatkaLog;
+
+/**
+ * Live vibration spectrum and road roughness index from the vertical axis of the oriented
+ * accelerometer, e.g. for rating trails.
+ *
+ * The sensor thread only copies each vertical acceleration (and its timestamp) into a primitive
+ * ring and wakes the analysis thread every HOP_SIZE samples.  The analysis thread copies the
+ * newest FFT_SIZE samples out of the ring, removes the mean (gravity), applies a Hann window and
+ * runs an in-place real FFT (see RealFft).  The power in each band is averaged over the frames
+ * of a PUBLISH_INTERVAL_NS period and then published.  Frames overlap by half.  Nothing is
+ * allocated per transform.  If the analysis thread falls so far behind that the sensor thread
+ * has overwritten part of a frame while it was being copied, the frame is dropped.
+ *
+ * SensorRoughness generates the values[] array for onDataReceived() as follows:
+ * 0 == roughness index: RMS vertical vibration over all bands (m/s^2)
+ * 1 + b == mean square vertical vibration in band b (m/s^2)^2, see BAND_EDGES_HZ
+ *
+ * Bands above the Nyquist frequency stay 0; use high-rate mode for the upper bands.  Listeners
+ * are notified on the analysis thread, not on the sensor thread.
+ */
+public class SensorRoughness extends AbstractSensor implements SensorApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public static final int ROUGHNESS_INDEX = 0;
+    public static final int FIRST_BAND_INDEX = 1;
+
+    /* band b covers [BAND_EDGES_HZ[b], BAND_EDGES_HZ[b + 1]) */
+    public static final double[] BAND_EDGES_HZ = {0.5, 2.0, 4.0, 8.0, 16.0, 32.0, 64.0, 128.0};
+    public static final int BAND_COUNT = BAND_EDGES_HZ.length - 1;
+
+    public static final int FFT_SIZE = 1024;
+    private static final int HOP_SIZE = FFT_SIZE / 2;
+
+    /* twice a frame, so the sensor thread can keep writing while a frame is copied out */
+    private static final int RING_SIZE = 2 * FFT_SIZE;
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    private static final long PUBLISH_INTERVAL_NS = 1000000000L;
+    private static final double SEC_TO_NANOSEC = 1e9;
+
+    /* the vehicle's vertical axis in the oriented accelerometer's frame */
+    private static final int VERTICAL_INDEX = 1;
+
+    private static SensorRoughness instance = null;
+
+    /* written only by the sensor thread.  writeCount publishes the ring entries before it */
+    private final float[] ringValues = new float[RING_SIZE];
+    private final long[] ringTimestamps = new long[RING_SIZE];
+    private volatile long writeCount = 0;
+    private long nextFrameAt = FFT_SIZE;
+
+    private final Object frameLock = new Object();
+    private AnalysisThread analysisThread = null;
+
+    /**
+     * Constructor - note this will force the class to be a singleton
+     */
+    protected SensorRoughness() {
+    }
+
+    /**
+     * Public constructor.  Returns the instance of this singleton class.  This method will
+     * create the instance if it doesn't exist.
+     *
+     * @return the instance of this class
+     */
+    public static SensorRoughness getInstance() {
+        if (null == instance) {
+            instance = new SensorRoughness();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Enable the roughness analysis.
+     */
+    @Override
+    protected void enableSensor() {
+        HromatkaLog.getInstance().enter(TAG);
+        writeCount = 0;
+        nextFrameAt = FFT_SIZE;
+        analysisThread = new AnalysisThread();
+        analysisThread.start();
+        SensorOrientedAccelerometer.getInstance().registerListener(this);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Disable the roughness analysis.
+     */
+    @Override
+    protected void disableSensor() {
+        HromatkaLog.getInstance().enter(TAG);
+        SensorOrientedAccelerometer.getInstance().unregisterListener(this);
+
+        AnalysisThread thread = analysisThread;
+        analysisThread = null;
+        if (null != thread) {
+            thread.close();
+        }
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Destroy the roughness analysis.
+     */
+    @Override
+    public void destroySensor() {
+        super.destroySensor();
+
+        HromatkaLog.getInstance().enter(TAG);
+        disableSensor();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * This class's listener for new sensor data from SensorOrientedAccelerometer.  Required
+     * via the SensorApi implementation.  Only copies the vertical acceleration into the ring.
+     *
+     * @param timestamp   time at which this measurement occurred
+     * @param accelValues array of oriented accelerometer measurements (x == 0, y == 1, z == 2)
+     */
+    @Override
+    public void onDataReceived(long timestamp, float[] accelValues) {
+        long count = writeCount;
+        int slot = (int) (count & RING_MASK);
+        ringValues[slot] = accelValues[VERTICAL_INDEX];
+        ringTimestamps[slot] = timestamp;
+        writeCount = count + 1;
+
+        if (count + 1 >= nextFrameAt) {
+            nextFrameAt += HOP_SIZE;
+            synchronized (frameLock) {
+                frameLock.notify();
+            }
+        }
+    }
+
+    /**
+     * This class's listener for accuracy changes in SensorOrientedAccelerometer.  The vertical
+     * axis doesn't depend on the orientation, so there's nothing to do.
+     *
+     * @param accuracy New accuracy of the oriented accelerometer.
+     */
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+        HromatkaLog.getInstance().enter(TAG);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Runs the transforms.  One thread per enable, so a new thread never shares state with one
+     * that is still shutting down.
+     */
+    private class AnalysisThread extends Thread {
+        private final RealFft fft = new RealFft(FFT_SIZE);
+        private final float[] frame = new float[FFT_SIZE];
+        private final double[] bandSums = new double[BAND_COUNT];
+        private final float[] roughness = new float[1 + BAND_COUNT];
+        private long analyzedCount = 0;
+        private int framesSincePublish = 0;
+        private long lastPublishTimestamp = 0;
+        private long droppedFrames = 0;
+        private volatile boolean closed = false;
+
+        AnalysisThread() {
+            super(TAG);
+        }
+
+        void close() {
+            closed = true;
+            synchronized (frameLock) {
+                frameLock.notifyAll();
+            }
+            if (this != Thread.currentThread()) {
+                try {
+                    join();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                long available;
+                synchronized (frameLock) {
+                    available = writeCount;
+                    while (!closed && (available < FFT_SIZE || available < analyzedCount + HOP_SIZE)) {
+                        try {
+                            frameLock.wait();
+                        }
+                        catch (InterruptedException ie) {
+                            return;
+                        }
+                        available = writeCount;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+
+                analyzedCount = available;
+                analyze(available);
+            }
+        }
+
+        /**
+         * Transform the FFT_SIZE samples that end at sample end and accumulate their band
+         * powers
+         *
+         * @param end write count just past the frame's newest sample
+         */
+        private void analyze(long end) {
+            long start = end - FFT_SIZE;
+            for (int index = 0; index < FFT_SIZE; index++) {
+                frame[index] = ringValues[(int) ((start + index) & RING_MASK)];
+            }
+            long firstTimestamp = ringTimestamps[(int) (start & RING_MASK)];
+            long lastTimestamp = ringTimestamps[(int) ((end - 1) & RING_MASK)];
+
+            /* the sensor thread may have lapped us while we copied */
+            if (writeCount - start > RING_SIZE) {
+                droppedFrames++;
+                HromatkaLog.getInstance().logVerbose(TAG, "Dropped roughness frames = ", droppedFrames);
+                return;
+            }
+            if (lastTimestamp <= firstTimestamp) {
+                return;
+            }
+
+            double sampleRateHz = (FFT_SIZE - 1) * SEC_TO_NANOSEC / (lastTimestamp - firstTimestamp);
+            double binHz = sampleRateHz / FFT_SIZE;
+
+            fft.applyWindow(frame);
+            fft.forward(frame);
+
+            int band = 0;
+            for (int bin = 1; bin <= FFT_SIZE / 2; bin++) {
+                double frequency = bin * binHz;
+                if (frequency < BAND_EDGES_HZ[0]) {
+                    continue;
+                }
+                while (band < BAND_COUNT && frequency >= BAND_EDGES_HZ[band + 1]) {
+                    band++;
+                }
+                if (band == BAND_COUNT) {
+                    break;
+                }
+                bandSums[band] += fft.binPower(frame, bin);
+            }
+            framesSincePublish++;
+
+            if (0 == lastPublishTimestamp) {
+                lastPublishTimestamp = firstTimestamp;
+            }
+            if (lastTimestamp - lastPublishTimestamp >= PUBLISH_INTERVAL_NS) {
+                publish(lastTimestamp);
+            }
+        }
+
+        private void publish(long timestamp) {
+            double total = 0.0;
+            for (int index = 0; index < BAND_COUNT; index++) {
+                double meanSquare = bandSums[index] / framesSincePublish;
+                roughness[FIRST_BAND_INDEX + index] = (float) meanSquare;
+                total += meanSquare;
+                bandSums[index] = 0.0;
+            }
+            roughness[ROUGHNESS_INDEX] = (float) Math.sqrt(total);
+            framesSincePublish = 0;
+            lastPublishTimestamp = timestamp;
+
+            notifyListenersDataReceived(timestamp, roughness);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import com.tomhromatka.service.HromatkaLog;
+
+/**
+ * Detects shocks and bumps - potholes, hard landings, curb strikes - in the raw accelerometer
+ * stream.
+ *
+ * The detector follows the magnitude of the acceleration with a handful of scalars, so every
+ * sample is O(1) and nothing is allocated.  A slow exponential average of the magnitude is the
+ * baseline (gravity plus whatever steady acceleration the vehicle has) and a second one of
+ * |magnitude - baseline| is the background vibration.  A sample whose deviation from the
+ * baseline exceeds
+ *
+ *   threshold = max(minimum peak, THRESHOLD_DEVIATIONS * background vibration)
+ *
+ * starts an event, so rough roads raise the threshold and smooth roads lower it.  The event
+ * lasts until the deviation falls below RELEASE_FRACTION of the threshold, and its largest
+ * deviation is reported when it ends.  A refractory period then lets the suspension's ringing
+ * die out before another event can start.  The baseline and background only learn from quiet
+ * samples, so a shock doesn't raise the threshold for the shocks that follow it.
+ *
+ * Events that last longer than MAX_EVENT_NS aren't shocks but a new steady acceleration (e.g.
+ * the phone was moved); they are dropped and the baseline restarts from the current magnitude.
+ *
+ * SensorShockDetector generates the values[] array for onDataReceived() as follows:
+ * 0 == peak deviation of the magnitude from the baseline (m/s^2).  Negative for a drop, e.g.
+ *      the moment of free fall before a landing.
+ * 1 == duration of the event (ms)
+ *
+ * Listeners are only notified once per event, with the timestamp of the peak.
+ */
+public class SensorShockDetector extends AbstractSensor implements SensorApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public static final int PEAK_INDEX = 0;
+    public static final int DURATION_INDEX = 1;
+
+    public static final double DEFAULT_MINIMUM_PEAK = 3.0;
+    public static final double DEFAULT_REFRACTORY_SECONDS = 0.25;
+
+    private static final double THRESHOLD_DEVIATIONS = 8.0;
+    private static final double RELEASE_FRACTION = 0.5;
+    private static final double BASELINE_TIME_CONSTANT_SEC = 2.0;
+    private static final double VIBRATION_TIME_CONSTANT_SEC = 5.0;
+    private static final long MAX_EVENT_NS = 1000000000L;
+
+    /* ignore gaps in the stream (e.g. while the accelerometer was re-registered) */
+    private static final double MAX_SAMPLE_INTERVAL_SEC = 0.1;
+
+    private static final double SEC_TO_NANOSEC = 1e9;
+    private static final double NANOSEC_TO_MILLISEC = 1e-6;
+
+    private static SensorShockDetector instance = null;
+
+    private volatile double minimumPeak = DEFAULT_MINIMUM_PEAK;
+    private volatile long refractoryNs = (long) (DEFAULT_REFRACTORY_SECONDS * SEC_TO_NANOSEC);
+
+    /* magnitude tracking.  only touched by the sensor thread */
+    private boolean tracking = false;
+    private long lastTimestamp = 0;
+    private double baseline = 0.0;
+    private double vibration = 0.0;
+    private long refractoryEnd = 0;
+
+    /* the event in progress */
+    private boolean inEvent = false;
+    private long eventStart = 0;
+    private long peakTimestamp = 0;
+    private double peak = 0.0;
+    private double eventThreshold = 0.0;
+
+    private volatile long eventCount = 0;
+
+    /* reused for every event.  listeners must copy the values they want to keep */
+    private final float[] shock = new float[2];
+
+    /**
+     * Constructor - note this will force the class to be a singleton
+     */
+    protected SensorShockDetector() {
+    }
+
+    /**
+     * Public constructor.  Returns the instance of this singleton class.  This method will
+     * create the instance if it doesn't exist.
+     *
+     * @return the instance of this class
+     */
+    public static SensorShockDetector getInstance() {
+        if (null == instance) {
+            instance = new SensorShockDetector();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Set how hard a shock must be and how far apart shocks must be to be reported
+     *
+     * @param minimumPeak       smallest deviation from the baseline that is a shock, however
+     *                          smooth the road (m/s^2)
+     * @param refractorySeconds time after a shock during which no new shock can start (s)
+     */
+    public void setCriteria(double minimumPeak, double refractorySeconds) {
+        this.minimumPeak = minimumPeak;
+        this.refractoryNs = (long) (refractorySeconds * SEC_TO_NANOSEC);
+    }
+
+    /**
+     * @return number of shocks reported since the detector was created
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Enable the shock detector.
+     */
+    @Override
+    protected void enableSensor() {
+        HromatkaLog.getInstance().enter(TAG);
+        tracking = false;
+        inEvent = false;
+        SensorAccelerometer.getInstance().registerListener(this);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Disable the shock detector.
+     */
+    @Override
+    protected void disableSensor() {
+        HromatkaLog.getInstance().enter(TAG);
+        SensorAccelerometer.getInstance().unregisterListener(this);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Destroy the shock detector.
+     */
+    @Override
+    public void destroySensor() {
+        super.destroySensor();
+
+        HromatkaLog.getInstance().enter(TAG);
+        disableSensor();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * This class's listener for new sensor data from SensorAccelerometer.  Required via the
+     * SensorApi implementation.
+     *
+     * @param timestamp   time at which this measurement occurred
+     * @param accelValues array of accelerometer measurements (x == 0, y == 1, z == 2)
+     */
+    @Override
+    public void onDataReceived(long timestamp, float[] accelValues) {
+        double magnitude = Math.sqrt(accelValues[0] * accelValues[0] + accelValues[1] * accelValues[1] +
+                accelValues[2] * accelValues[2]);
+
+        if (!tracking) {
+            restartTracking(timestamp, magnitude);
+            return;
+        }
+
+        double deviation = magnitude - baseline;
+        double dt = Math.min((timestamp - lastTimestamp) / SEC_TO_NANOSEC, MAX_SAMPLE_INTERVAL_SEC);
+        lastTimestamp = timestamp;
+
+        if (inEvent) {
+            if (Math.abs(deviation) > Math.abs(peak)) {
+                peak = deviation;
+                peakTimestamp = timestamp;
+            }
+
+            if (timestamp - eventStart > MAX_EVENT_NS) {
+                restartTracking(timestamp, magnitude);
+            }
+            else if (Math.abs(deviation) < eventThreshold * RELEASE_FRACTION) {
+                endEvent(timestamp);
+            }
+            return;
+        }
+
+        double threshold = Math.max(minimumPeak, THRESHOLD_DEVIATIONS * vibration);
+        if (Math.abs(deviation) > threshold && timestamp >= refractoryEnd) {
+            inEvent = true;
+            eventStart = timestamp;
+            peakTimestamp = timestamp;
+            peak = deviation;
+            eventThreshold = threshold;
+            return;
+        }
+
+        /* the ringing after a shock isn't background vibration */
+        if (timestamp < refractoryEnd) {
+            return;
+        }
+
+        /* first order low pass.  dt / tau is a good approximation of 1 - e^(-dt / tau) for dt << tau */
+        baseline += deviation * (dt / BASELINE_TIME_CONSTANT_SEC);
+        vibration += (Math.abs(deviation) - vibration) * (dt / VIBRATION_TIME_CONSTANT_SEC);
+    }
+
+    /**
+     * This class's listener for accuracy changes in SensorAccelerometer.
+     *
+     * @param accuracy New accuracy of the accelerometer.
+     */
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+        HromatkaLog.getInstance().enter(TAG);
+        notifyListenersAccuracyChanged(accuracy);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    private void restartTracking(long timestamp, double magnitude) {
+        tracking = true;
+        inEvent = false;
+        lastTimestamp = timestamp;
+        baseline = magnitude;
+        vibration = 0.0;
+        refractoryEnd = timestamp;
+    }
+
+    private void endEvent(long timestamp) {
+        inEvent = false;
+        refractoryEnd = timestamp + refractoryNs;
+        eventCount++;
+
+        shock[PEAK_INDEX] = (float) peak;
+        shock[DURATION_INDEX] = (float) ((timestamp - eventStart) * NANOSEC_TO_MILLISEC);
+        notifyListenersDataReceived(peakTimestamp, shock);
+    }
+}
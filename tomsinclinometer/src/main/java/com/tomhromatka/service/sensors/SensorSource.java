@@ -0,0 +1,56 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * A source of raw accelerometer samples that sits underneath the AbstractSensor chain.
+ * SensorAccelerometer reads from whichever source is installed: SensorSourceAndroid for the
+ * phone's accelerometer, or something else (a synthetic generator, an external IMU, a replayed
+ * trace, etc.) so the rest of the pipeline can be exercised without a device.
+ *
+ * Sources generate the same values[] array that SensorAccelerometer does:
+ * 0 == x accelerometer measurement (m/s^2)
+ * 1 == y accelerometer measurement (m/s^2)
+ * 2 == z accelerometer measurement (m/s^2)
+ *
+ * Like the Android SensorEvent, the values[] array may be reused by the source between
+ * samples.  Listeners must copy anything they want to keep.  Timestamps should be on the
+ * SensorClock time base, like the phone's accelerometer.
+ *
+ * Sources are started and stopped with sensor locks held (AbstractSensor enables and disables
+ * its sensor from within registerListener() and unregisterListener()), while the thread that
+ * delivers samples may be waiting for those same locks further down the pipeline.  So a source
+ * must never call the callback while holding a lock that start() or stop() take, and stop()
+ * must not wait for the delivering thread.
+ */
+public interface SensorSource {
+    /**
+     * Start delivering samples to the callback.  Samples may be delivered on a thread owned by
+     * the source.
+     *
+     * @param callback The class to notify of new samples
+     */
+    void start(SensorApi callback);
+
+    /**
+     * Stop delivering samples.  Returns without waiting for the delivering thread, so a sample
+     * that is already being delivered may still arrive after this method returns, but no new
+     * sample is started.  The source may be started again right away.
+     */
+    void stop();
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+import com.tomhromatka.service.HromatkaLog;
+
+/**
+ * The phone's own accelerometer, read through the Android SensorManager.  This is the source
+ * HromatkaService installs in SensorAccelerometer; it is the only part of the sensor pipeline
+ * that needs a device.
+ *
+ * The accelerometer is registered without a Handler, so samples are delivered on the main
+ * thread.  SensorEvent timestamps are on the elapsedRealtimeNanos() time base on most devices,
+ * but older ones use other clocks.
+ */
+public class SensorSourceAndroid implements SensorSource, SensorEventListener {
+    private final String TAG = this.getClass().getSimpleName();
+
+    private final SensorManager sensorManager;
+
+    /* SensorManager.SENSOR_DELAY_* (or a period in us) the accelerometer is registered with */
+    private int sensorDelay = SensorManager.SENSOR_DELAY_NORMAL;
+
+    /* non-null while started */
+    private volatile SensorApi callback = null;
+
+    /**
+     * @param sensorManager An instance of the Android SensorManager
+     */
+    public SensorSourceAndroid(SensorManager sensorManager) {
+        this.sensorManager = sensorManager;
+    }
+
+    /**
+     * Change the rate of the accelerometer.  If the accelerometer is running it is re-registered
+     * at the new rate.
+     *
+     * @param sensorDelay SensorManager.SENSOR_DELAY_* or the desired period in microseconds
+     */
+    public synchronized void setSensorDelay(int sensorDelay) {
+        HromatkaLog.getInstance().enter(TAG);
+        if (sensorDelay != this.sensorDelay) {
+            this.sensorDelay = sensorDelay;
+            if (null != callback) {
+                sensorManager.unregisterListener(this);
+                register();
+            }
+        }
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    public int getSensorDelay() {
+        return sensorDelay;
+    }
+
+    /**
+     * Register with the Android accelerometer.
+     *
+     * @param callback The class to notify of new samples
+     */
+    @Override
+    public synchronized void start(SensorApi callback) {
+        HromatkaLog.getInstance().enter(TAG);
+        this.callback = callback;
+        register();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Unregister from the Android accelerometer.
+     */
+    @Override
+    public synchronized void stop() {
+        HromatkaLog.getInstance().enter(TAG);
+        sensorManager.unregisterListener(this);
+        callback = null;
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    private void register() {
+        Sensor sensorAccelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        sensorManager.registerListener(this, sensorAccelerometer, sensorDelay);
+    }
+
+    /**
+     * This class's listener for new sensor data from the internal Android accelerometer
+     * implementation.  Required via the SensorEventListener implementation.
+     *
+     * @param event SensorEvent data from Android
+     */
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        HromatkaLog.getInstance().enter(TAG);
+        SensorApi current = callback;
+        if (null != current) {
+            current.onDataReceived(event.timestamp, event.values);
+        }
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * This class's listener for accuracy changes from the internal Android accelerometer
+     * implementation.  Required via the SensorEventListener implementation.
+     *
+     * @param sensor   The sensor that has changed.  Some phones may have more than one physical sensor
+     * @param accuracy The new accuracy
+     */
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        HromatkaLog.getInstance().enter(TAG);
+        SensorApi current = callback;
+        if (null != current) {
+            current.onAccuracyChanged(accuracy);
+        }
+        HromatkaLog.getInstance().exit(TAG);
+    }
+}
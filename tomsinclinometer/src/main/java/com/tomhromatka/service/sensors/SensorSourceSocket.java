@@ -0,0 +1,296 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import com.tomhromatka.service.HromatkaLog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reads samples from an external IMU that streams binary frames through a local TCP gateway,
+ * e.g. a chassis-mounted IMU on a test rig.  Accelerometer frames are fed to the callback
+ * exactly like the phone's accelerometer; gyroscope frames go to an optional separate
+ * listener.
+ *
+ * Frames are fixed size and little endian:
+ *   0  byte  FRAME_SYNC
+ *   1  byte  frame type (FRAME_TYPE_ACCELEROMETER or FRAME_TYPE_GYROSCOPE)
+ *   2  short reserved
+ *   4  long  timestamp (ns, gateway's monotonic clock)
+ *   12 float x (m/s^2 or rad/s)
+ *   16 float y
+ *   20 float z
+ *
+ * The gateway must rotate the IMU's axes into the phone's portrait frame (x right, y up, z out
+ * of the screen), since the oriented accelerometer treats these samples as phone samples.
+ * Frames of unknown types are skipped.  If the sync byte is missing the reader drops one byte
+ * at a time until it finds a frame boundary again.
+ *
+ * The gateway's clock has nothing to do with the phone's, so timestamps are rebased onto the
+ * SensorClock time base: the first frame of each connection is stamped with the current
+ * SensorClock time and later frames keep their spacing relative to it.
+ *
+ * Frames are read into a single direct buffer and parsed in place with absolute gets, so
+ * steady-state reading doesn't allocate.  The connection is retried every RECONNECT_DELAY_MS
+ * until stop() is called.  Unix domain sockets aren't available through NIO on Android, so the
+ * gateway must listen on loopback TCP (the app needs the INTERNET permission for that).
+ *
+ * Frames are dispatched without holding any lock, and stop() only closes the connection rather
+ * than waiting for the reader thread, so a listener can't deadlock against a thread that is
+ * stopping the source.
+ */
+public class SensorSourceSocket implements SensorSource {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    public static final int FRAME_SIZE = 24;
+    public static final byte FRAME_SYNC = (byte) 0xa5;
+    public static final byte FRAME_TYPE_ACCELEROMETER = 1;
+    public static final byte FRAME_TYPE_GYROSCOPE = 2;
+
+    private static final int SYNC_OFFSET = 0;
+    private static final int TYPE_OFFSET = 1;
+    private static final int TIMESTAMP_OFFSET = 4;
+    private static final int X_OFFSET = 12;
+    private static final int Y_OFFSET = 16;
+    private static final int Z_OFFSET = 20;
+
+    private static final int BUFFER_FRAMES = 256;
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private final InetSocketAddress address;
+
+    private volatile SensorApi gyroscopeListener = null;
+
+    /* the running reader, or null.  a stopped reader finishes on its own */
+    private Reader reader = null;
+
+    /* diagnostics.  only written by the reader thread */
+    private volatile long frameCount = 0;
+    private volatile long droppedByteCount = 0;
+
+    /**
+     * @param address address of the IMU gateway, e.g. new InetSocketAddress("127.0.0.1", port)
+     */
+    public SensorSourceSocket(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Listen to the IMU's gyroscope.  The values[] array holds the angular rates about x, y and
+     * z (rad/s) and is reused between frames.
+     *
+     * @param gyroscopeListener The class to notify of gyroscope samples, or null
+     */
+    public void setGyroscopeListener(SensorApi gyroscopeListener) {
+        this.gyroscopeListener = gyroscopeListener;
+    }
+
+    /**
+     * @return number of frames parsed since construction
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return number of bytes skipped while looking for a frame boundary
+     */
+    public long getDroppedByteCount() {
+        return droppedByteCount;
+    }
+
+    /**
+     * Connect to the gateway and start reading frames on a dedicated thread.
+     *
+     * @param callback The class to notify of accelerometer samples
+     */
+    @Override
+    public synchronized void start(SensorApi callback) {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null != reader) {
+            HromatkaLog.getInstance().logError(TAG, "Socket source is already running");
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
+
+        reader = new Reader(callback);
+        new Thread(reader, TAG).start();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Disconnect from the gateway.  The reader thread stops delivering frames and exits on its
+     * own; this method doesn't wait for it.
+     */
+    @Override
+    public synchronized void stop() {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null != reader) {
+            reader.stop();
+            reader = null;
+        }
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * One run of the source, from start() to stop().  Each run has its own buffer and
+     * connection, so a stopped reader that is still winding down can't disturb the next one.
+     */
+    private class Reader implements Runnable {
+        private final SensorApi callback;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_FRAMES * FRAME_SIZE).order(BYTE_ORDER);
+        private final float[] values = new float[3];
+        private volatile boolean stopped = false;
+        private SocketChannel channel = null;
+
+        /* gateway clock to SensorClock.  set by the first frame of each connection */
+        private boolean timestampRebased = false;
+        private long timestampOffset = 0;
+
+        Reader(SensorApi callback) {
+            this.callback = callback;
+        }
+
+        void stop() {
+            stopped = true;
+
+            /* closing the channel wakes the reader up if it's blocked in read() */
+            closeChannel();
+        }
+
+        /**
+         * Body of the reader thread.  (Re)connects to the gateway and reads until stopped.
+         */
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    SocketChannel connected = SocketChannel.open(address);
+                    synchronized (this) {
+                        if (stopped) {
+                            connected.close();
+                            return;
+                        }
+                        channel = connected;
+                    }
+
+                    buffer.clear();
+                    timestampRebased = false;
+                    readFrames(connected);
+                }
+                catch (IOException ioe) {
+                    if (!stopped) {
+                        HromatkaLog.getInstance().logError(TAG, "IMU gateway connection failed: " + ioe.getLocalizedMessage());
+                    }
+                }
+
+                closeChannel();
+
+                if (!stopped) {
+                    try {
+                        Thread.sleep(RECONNECT_DELAY_MS);
+                    }
+                    catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Read and dispatch frames until the gateway disconnects
+         *
+         * @param connected channel connected to the gateway
+         * @throws IOException on a read error, or if the channel was closed by stop()
+         */
+        private void readFrames(SocketChannel connected) throws IOException {
+            while (!stopped) {
+                if (connected.read(buffer) < 0) {
+                    HromatkaLog.getInstance().logError(TAG, "IMU gateway disconnected");
+                    return;
+                }
+
+                buffer.flip();
+                parseFrames();
+                buffer.compact();
+            }
+        }
+
+        /**
+         * Dispatch every complete frame between the buffer's position and limit.  A partial frame
+         * at the end is left in the buffer for the next read.
+         */
+        private void parseFrames() {
+            int position = buffer.position();
+            int limit = buffer.limit();
+
+            while (limit - position >= FRAME_SIZE && !stopped) {
+                if (FRAME_SYNC != buffer.get(position + SYNC_OFFSET)) {
+                    /* not on a frame boundary.  resynchronize one byte at a time */
+                    position++;
+                    droppedByteCount++;
+                    continue;
+                }
+
+                byte type = buffer.get(position + TYPE_OFFSET);
+                long timestamp = buffer.getLong(position + TIMESTAMP_OFFSET);
+                if (!timestampRebased) {
+                    timestampOffset = SensorClock.nowNs() - timestamp;
+                    timestampRebased = true;
+                }
+                timestamp += timestampOffset;
+                values[0] = buffer.getFloat(position + X_OFFSET);
+                values[1] = buffer.getFloat(position + Y_OFFSET);
+                values[2] = buffer.getFloat(position + Z_OFFSET);
+                position += FRAME_SIZE;
+                frameCount++;
+
+                if (FRAME_TYPE_ACCELEROMETER == type) {
+                    callback.onDataReceived(timestamp, values);
+                }
+                else if (FRAME_TYPE_GYROSCOPE == type) {
+                    SensorApi listener = gyroscopeListener;
+                    if (null != listener) {
+                        listener.onDataReceived(timestamp, values);
+                    }
+                }
+            }
+
+            buffer.position(position);
+        }
+
+        private synchronized void closeChannel() {
+            if (null == channel) {
+                return;
+            }
+
+            try {
+                channel.close();
+            }
+            catch (IOException ioe) {
+                HromatkaLog.getInstance().logError(TAG, "Failed to close IMU gateway connection: " + ioe.getLocalizedMessage());
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import com.tomhromatka.service.HromatkaLog;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic accelerometer.  Generates the raw accelerometer values of a device
+ * mounted upright in portrait orientation while the vehicle follows a tilt profile, is shaken by
+ * a set of vibration tones, hit by periodic shocks and covered in gaussian noise.
+ *
+ * Two identically configured generators produce bit-for-bit identical values regardless of how
+ * fast they are run.  The generator can either be pumped synchronously via generate() (as fast
+ * as the pipeline can absorb samples, with timestamps counted from reset()) or started as a
+ * SensorSource, in which case it paces itself against the wall clock on its own thread and
+ * stamps its samples on the SensorClock time base.  At high rates the paced thread emits
+ * samples in bursts, since Thread.sleep() can't resolve 100 us periods.
+ *
+ * Samples are computed under this object's lock but delivered outside it, so a listener may
+ * stop the generator (or wait for a lock that is held by a thread stopping it) without
+ * deadlocking.  Only one thread may generate at a time: don't call generate() while the
+ * generator is started.
+ */
+public class SensorSourceSynthetic implements SensorSource {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public static final double STANDARD_GRAVITY = 9.80665;
+    public static final int DEFAULT_SAMPLE_RATE_HZ = 1000;
+    public static final long DEFAULT_SEED = 0x5eed;
+
+    private static final double SEC_TO_NANOSEC = 1e9;
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+    private static final long PACING_SLEEP_MS = 1;
+
+    private static final int X_INDEX = 0;
+    private static final int Y_INDEX = 1;
+    private static final int Z_INDEX = 2;
+
+    private final int sampleRateHz;
+    private final long seed;
+    private final long samplePeriodNs;
+    private Random random;
+    private long sampleIndex = 0;
+    private long startTimestamp = 0;
+    private final float[] values = new float[3];
+
+    /* tilt profile.  pitch and roll swing sinusoidally around their centers */
+    private double pitchCenterDeg = 0.0;
+    private double pitchAmplitudeDeg = 0.0;
+    private double rollCenterDeg = 0.0;
+    private double rollAmplitudeDeg = 0.0;
+    private double tiltPeriodSec = 10.0;
+
+    /* vibration spectrum.  a sum of tones along the vehicle's vertical axis */
+    private double[] vibrationFrequenciesHz = new double[0];
+    private double[] vibrationAmplitudes = new double[0];
+
+    /* shocks.  a decaying impulse along the vertical axis every shockIntervalSec */
+    private double shockIntervalSec = 0.0;
+    private double shockAmplitude = 0.0;
+    private double shockDecaySec = 0.01;
+
+    /* white noise standard deviation (m/s^2) on each axis */
+    private double noiseStdDev = 0.0;
+
+    /* the paced thread.  a thread that finds it is no longer the generator thread exits */
+    private Thread generatorThread = null;
+
+    /**
+     * Construct a generator with the default seed
+     *
+     * @param sampleRateHz rate at which samples are generated (Hz)
+     */
+    public SensorSourceSynthetic(int sampleRateHz) {
+        this(sampleRateHz, DEFAULT_SEED);
+    }
+
+    /**
+     * Construct a generator
+     *
+     * @param sampleRateHz rate at which samples are generated (Hz)
+     * @param seed         seed for the noise generator
+     */
+    public SensorSourceSynthetic(int sampleRateHz, long seed) {
+        if (sampleRateHz <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate: " + sampleRateHz);
+        }
+
+        this.sampleRateHz = sampleRateHz;
+        this.seed = seed;
+        this.samplePeriodNs = (long) (SEC_TO_NANOSEC / sampleRateHz);
+        this.random = new Random(seed);
+    }
+
+    public int getSampleRateHz() {
+        return sampleRateHz;
+    }
+
+    /**
+     * Configure the tilt profile.  Pitch and roll swing sinusoidally (90 degrees out of phase)
+     * around their centers.
+     *
+     * @param pitchCenterDeg    mean pitch (degrees)
+     * @param pitchAmplitudeDeg peak pitch deviation from the mean (degrees)
+     * @param rollCenterDeg     mean roll (degrees)
+     * @param rollAmplitudeDeg  peak roll deviation from the mean (degrees)
+     * @param periodSec         period of one full swing (seconds)
+     */
+    public void setTiltProfile(double pitchCenterDeg, double pitchAmplitudeDeg,
+                               double rollCenterDeg, double rollAmplitudeDeg, double periodSec) {
+        this.pitchCenterDeg = pitchCenterDeg;
+        this.pitchAmplitudeDeg = pitchAmplitudeDeg;
+        this.rollCenterDeg = rollCenterDeg;
+        this.rollAmplitudeDeg = rollAmplitudeDeg;
+        this.tiltPeriodSec = periodSec;
+    }
+
+    /**
+     * Configure the vibration spectrum as a set of tones along the vertical axis
+     *
+     * @param frequenciesHz frequency of each tone (Hz)
+     * @param amplitudes    peak amplitude of each tone (m/s^2)
+     */
+    public void setVibrationSpectrum(double[] frequenciesHz, double[] amplitudes) {
+        if (frequenciesHz.length != amplitudes.length) {
+            throw new IllegalArgumentException("Mismatched vibration spectrum: " +
+                    frequenciesHz.length + " frequencies, " + amplitudes.length + " amplitudes");
+        }
+
+        this.vibrationFrequenciesHz = frequenciesHz.clone();
+        this.vibrationAmplitudes = amplitudes.clone();
+    }
+
+    /**
+     * Configure periodic shocks (e.g. bottoming out) along the vertical axis.  Each shock is an
+     * exponentially decaying impulse.  An interval of zero disables shocks.
+     *
+     * @param intervalSec time between shocks (seconds)
+     * @param amplitude   peak acceleration of each shock (m/s^2)
+     * @param decaySec    time constant of the shock's decay (seconds)
+     */
+    public void setShocks(double intervalSec, double amplitude, double decaySec) {
+        this.shockIntervalSec = intervalSec;
+        this.shockAmplitude = amplitude;
+        this.shockDecaySec = decaySec;
+    }
+
+    /**
+     * Configure the white noise added to every axis
+     *
+     * @param stdDev standard deviation of the noise (m/s^2)
+     */
+    public void setNoise(double stdDev) {
+        this.noiseStdDev = stdDev;
+    }
+
+    /**
+     * Rewind the generator to its first sample.  The stream that follows is identical to the
+     * one produced after construction.
+     *
+     * @param startTimestamp timestamp of the first sample (ns)
+     */
+    public synchronized void reset(long startTimestamp) {
+        this.startTimestamp = startTimestamp;
+        this.sampleIndex = 0;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Synchronously generate samples and deliver them to the callback on the calling thread.
+     *
+     * @param callback The class to notify of new samples
+     * @param count    number of samples to generate
+     */
+    public void generate(SensorApi callback, long count) {
+        for (long i = 0; i < count; i++) {
+            long timestamp;
+            synchronized (this) {
+                timestamp = nextSample();
+            }
+            callback.onDataReceived(timestamp, values);
+        }
+    }
+
+    /**
+     * Start generating samples in real time on a dedicated thread.  The next sample is stamped
+     * with the current SensorClock time.
+     *
+     * @param callback The class to notify of new samples
+     */
+    @Override
+    public synchronized void start(final SensorApi callback) {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null != generatorThread) {
+            HromatkaLog.getInstance().logError(TAG, "Synthetic source is already running");
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
+
+        startTimestamp = SensorClock.nowNs() - sampleIndex * samplePeriodNs;
+        generatorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runPaced(callback);
+            }
+        }, TAG);
+        generatorThread.start();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Stop the real time generator thread.  The thread notices within a sample (or a pacing
+     * sleep) and exits on its own; this method doesn't wait for it.
+     */
+    @Override
+    public synchronized void stop() {
+        HromatkaLog.getInstance().enter(TAG);
+        generatorThread = null;
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Body of the generator thread.  Emits every sample whose time has come, then sleeps.
+     *
+     * @param callback The class to notify of new samples
+     */
+    private void runPaced(SensorApi callback) {
+        Thread self = Thread.currentThread();
+        long wallStart = System.nanoTime();
+        long firstIndex;
+        synchronized (this) {
+            firstIndex = sampleIndex;
+        }
+
+        while (true) {
+            long due = firstIndex + (System.nanoTime() - wallStart) / samplePeriodNs;
+            while (true) {
+                long timestamp;
+                synchronized (this) {
+                    if (self != generatorThread) {
+                        return;
+                    }
+                    if (sampleIndex >= due) {
+                        break;
+                    }
+                    timestamp = nextSample();
+                }
+                callback.onDataReceived(timestamp, values);
+            }
+
+            try {
+                Thread.sleep(PACING_SLEEP_MS);
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compute the next sample into values[].  Must be called with this object's lock held.
+     *
+     * @return the timestamp of the sample (ns)
+     */
+    private long nextSample() {
+        long timestamp = startTimestamp + sampleIndex * samplePeriodNs;
+        computeSample(sampleIndex, values);
+        sampleIndex++;
+        return timestamp;
+    }
+
+    /**
+     * Compute one sample of the configured signal.  Noise draws advance the random generator,
+     * so samples must be computed in order to stay deterministic.
+     *
+     * @param index  index of the sample
+     * @param output array to fill with the x, y and z accelerations (m/s^2)
+     */
+    private void computeSample(long index, float[] output) {
+        double t = (double) index / sampleRateHz;
+
+        /* gravity, as seen by an upright portrait device tilted by pitch and roll */
+        double phase = 2.0 * Math.PI * t / tiltPeriodSec;
+        double pitch = (pitchCenterDeg + pitchAmplitudeDeg * Math.sin(phase)) * DEG_TO_RAD;
+        double roll = (rollCenterDeg + rollAmplitudeDeg * Math.cos(phase)) * DEG_TO_RAD;
+
+        double gx = -STANDARD_GRAVITY * Math.sin(roll);
+        double gy = STANDARD_GRAVITY * Math.cos(roll) * Math.cos(pitch);
+        double gz = STANDARD_GRAVITY * Math.cos(roll) * Math.sin(pitch);
+
+        /* vibration and shocks act along the vehicle's vertical axis */
+        double vertical = 0.0;
+        for (int tone = 0; tone < vibrationFrequenciesHz.length; tone++) {
+            vertical += vibrationAmplitudes[tone] * Math.sin(2.0 * Math.PI * vibrationFrequenciesHz[tone] * t);
+        }
+
+        if (shockIntervalSec > 0.0) {
+            double sinceShock = t % shockIntervalSec;
+            vertical += shockAmplitude * Math.exp(-sinceShock / shockDecaySec);
+        }
+
+        double scale = 1.0 + vertical / STANDARD_GRAVITY;
+        gx *= scale;
+        gy *= scale;
+        gz *= scale;
+
+        if (noiseStdDev > 0.0) {
+            gx += noiseStdDev * random.nextGaussian();
+            gy += noiseStdDev * random.nextGaussian();
+            gz += noiseStdDev * random.nextGaussian();
+        }
+
+        /* the raw accelerometer reports z opposite to the oriented (portrait) accelerometer */
+        output[X_INDEX] = (float) gx;
+        output[Y_INDEX] = (float) gy;
+        output[Z_INDEX] = (float) -gz;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * Least squares line through the samples of the last windowNs nanoseconds.  Adding a sample
+ * and expiring old ones are O(1): the regression keeps running sums that are updated as samples
+ * enter and leave the window.
+ *
+ * Times are kept in seconds relative to a base timestamp so the sums don't lose precision to
+ * large sensor timestamps.  Subtracting expired samples from running sums slowly accumulates
+ * rounding error, so the sums are recomputed from the window (and the base moved up to the
+ * oldest sample) once every capacity updates, which is still O(1) amortized.
+ *
+ * The public methods are synchronized, so ensureCapacity() may be called from another thread
+ * while samples are being added on the sensor thread.
+ *
+ * This class has no Android dependencies so offline tools can replay trip logs through it.
+ */
+public class SlidingLinearRegression {
+    private static final double NS_PER_SEC = 1e9;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final long windowNs;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int head = 0;
+    private int count = 0;
+    private int updatesSinceResum = 0;
+
+    private long baseTimestamp = 0;
+    private double sumT = 0.0;
+    private double sumTT = 0.0;
+    private double sumV = 0.0;
+    private double sumTV = 0.0;
+
+    /**
+     * @param windowNs samples older than this (relative to the newest sample) are dropped (ns)
+     */
+    public SlidingLinearRegression(long windowNs) {
+        this.windowNs = windowNs;
+    }
+
+    /**
+     * Add a sample and drop the samples that have fallen out of the window.  Timestamps must
+     * not decrease.
+     *
+     * @param timestamp time of the sample (ns)
+     * @param value     value of the sample
+     */
+    public synchronized void add(long timestamp, double value) {
+        if (0 == count) {
+            baseTimestamp = timestamp;
+        }
+        if (count == timestamps.length) {
+            grow();
+        }
+
+        int slot = (head + count) % timestamps.length;
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        count++;
+        accumulate(timestamp, value, 1.0);
+
+        while (timestamps[head] < timestamp - windowNs) {
+            accumulate(timestamps[head], values[head], -1.0);
+            head = (head + 1) % timestamps.length;
+            count--;
+        }
+
+        if (++updatesSinceResum >= timestamps.length) {
+            resum();
+        }
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+        updatesSinceResum = 0;
+        sumT = 0.0;
+        sumTT = 0.0;
+        sumV = 0.0;
+        sumTV = 0.0;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return time between the oldest and the newest sample in the window (ns)
+     */
+    public synchronized long getSpanNs() {
+        if (0 == count) {
+            return 0;
+        }
+
+        return timestamps[(head + count - 1) % timestamps.length] - timestamps[head];
+    }
+
+    /**
+     * @return slope of the fitted line (value units per second), or 0 if the samples in the
+     * window don't span any time
+     */
+    public synchronized double getSlope() {
+        double denominator = count * sumTT - sumT * sumT;
+        if (count < 2 || denominator <= 0.0) {
+            return 0.0;
+        }
+
+        return (count * sumTV - sumT * sumV) / denominator;
+    }
+
+    /**
+     * @return the fitted line evaluated at the newest sample, or 0 if the window is empty
+     */
+    public synchronized double getFittedLatest() {
+        if (0 == count) {
+            return 0.0;
+        }
+
+        double newestT = toSeconds(timestamps[(head + count - 1) % timestamps.length]);
+        return sumV / count + getSlope() * (newestT - sumT / count);
+    }
+
+    private void accumulate(long timestamp, double value, double sign) {
+        double t = toSeconds(timestamp);
+        sumT += sign * t;
+        sumTT += sign * t * t;
+        sumV += sign * value;
+        sumTV += sign * t * value;
+    }
+
+    private double toSeconds(long timestamp) {
+        return (timestamp - baseTimestamp) / NS_PER_SEC;
+    }
+
+    /**
+     * recompute the sums from the samples in the window, relative to the oldest sample
+     */
+    private void resum() {
+        updatesSinceResum = 0;
+        baseTimestamp = timestamps[head];
+        sumT = 0.0;
+        sumTT = 0.0;
+        sumV = 0.0;
+        sumTV = 0.0;
+
+        for (int sample = 0; sample < count; sample++) {
+            int slot = (head + sample) % timestamps.length;
+            accumulate(timestamps[slot], values[slot], 1.0);
+        }
+    }
+
+    /**
+     * Grow the ring ahead of time so that it holds at least capacity samples
+     *
+     * @param capacity number of samples the ring must hold without growing
+     */
+    public synchronized void ensureCapacity(int capacity) {
+        while (timestamps.length < capacity) {
+            grow();
+        }
+    }
+
+    /**
+     * double the capacity of the ring, unrolling it so the oldest sample is at index 0
+     */
+    private void grow() {
+        long[] newTimestamps = new long[timestamps.length * 2];
+        double[] newValues = new double[newTimestamps.length];
+
+        for (int sample = 0; sample < count; sample++) {
+            int slot = (head + sample) % timestamps.length;
+            newTimestamps[sample] = timestamps[slot];
+            newValues[sample] = values[slot];
+        }
+
+        timestamps = newTimestamps;
+        values = newValues;
+        head = 0;
+    }
+}
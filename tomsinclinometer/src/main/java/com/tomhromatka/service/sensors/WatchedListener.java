@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import com.tomhromatka.service.HromatkaLog;
+
+/**
+ * AbstractSensor's watchdog for one listener.  Every data callback is timed with two
+ * System.nanoTime() calls and exceptions thrown by the listener are caught, so one bad listener
+ * can't stall or break dispatch to the others.
+ *
+ * - a listener that goes over LISTENER_BUDGET_NS on OVERRUN_LIMIT consecutive callbacks is
+ *   unregistered.  Listeners are always called synchronously on the sensor thread, so a
+ *   listener that can't keep up would otherwise delay every listener after it on every sample.
+ *   A listener with slow work to do should hand it to a thread of its own.
+ * - a listener that throws on EXCEPTION_LIMIT consecutive callbacks is unregistered.
+ *
+ * The counters are plain fields written by the delivering thread.  Readers on other threads may
+ * see slightly stale values, which is fine for diagnostics.
+ */
+class WatchedListener {
+    private final String TAG = this.getClass().getSimpleName();
+
+    static final long LISTENER_BUDGET_NS = 4000000L;
+    static final int OVERRUN_LIMIT = 10;
+    static final int EXCEPTION_LIMIT = 3;
+
+    final SensorApi callback;
+
+    private long callCount = 0;
+    private long totalNs = 0;
+    private long maxNs = 0;
+    private long overrunCount = 0;
+    private int consecutiveOverruns = 0;
+    private long exceptionCount = 0;
+    private int consecutiveExceptions = 0;
+
+    private volatile boolean failed = false;
+
+    WatchedListener(SensorApi callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Deliver new data to the listener
+     *
+     * @param timestamp timestamp at which this data was generated
+     * @param values    array of values associated with this sensor/timestamp
+     * @return false if the listener has failed and should be unregistered
+     */
+    boolean deliverData(long timestamp, float[] values) {
+        if (failed) {
+            return false;
+        }
+
+        boolean overBudget = callData(timestamp, values);
+        if (!overBudget) {
+            consecutiveOverruns = 0;
+        }
+        else if (++consecutiveOverruns >= OVERRUN_LIMIT) {
+            HromatkaLog.getInstance().logError(TAG, "Unregistering slow listener: " + callback + " went over budget on " +
+                    OVERRUN_LIMIT + " consecutive callbacks (max " + (maxNs / 1000) + " us)");
+            failed = true;
+        }
+
+        return !failed;
+    }
+
+    /**
+     * Deliver an accuracy change to the listener
+     *
+     * @param accuracy new accuracy of the sensor
+     * @return false if the listener has failed and should be unregistered
+     */
+    boolean deliverAccuracy(int accuracy) {
+        if (failed) {
+            return false;
+        }
+
+        callAccuracy(accuracy);
+        return !failed;
+    }
+
+    void readStats(ListenerStats stats) {
+        stats.set(callback.getClass().getName(), callCount, totalNs, maxNs, overrunCount, exceptionCount);
+    }
+
+    /**
+     * @return true if the callback went over budget
+     */
+    private boolean callData(long timestamp, float[] values) {
+        long start = System.nanoTime();
+        try {
+            callback.onDataReceived(timestamp, values);
+            consecutiveExceptions = 0;
+        }
+        catch (RuntimeException re) {
+            onException(re);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        callCount++;
+        totalNs += elapsed;
+        maxNs = Math.max(maxNs, elapsed);
+        if (elapsed > LISTENER_BUDGET_NS) {
+            overrunCount++;
+            return true;
+        }
+        return false;
+    }
+
+    private void callAccuracy(int accuracy) {
+        try {
+            callback.onAccuracyChanged(accuracy);
+        }
+        catch (RuntimeException re) {
+            onException(re);
+        }
+    }
+
+    private void onException(RuntimeException re) {
+        exceptionCount++;
+        HromatkaLog.getInstance().logError(TAG, "Listener " + callback + " threw " + re);
+        if (++consecutiveExceptions >= EXCEPTION_LIMIT) {
+            HromatkaLog.getInstance().logError(TAG, "Unregistering failing listener: " + callback);
+            failed = true;
+        }
+    }
+}
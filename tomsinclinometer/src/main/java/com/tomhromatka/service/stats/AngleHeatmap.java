@@ -0,0 +1,214 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+import com.tomhromatka.service.sensors.SensorApi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Time spent at each combined (pitch, roll) angle, in BIN_DEGREES bins from MIN_DEGREES to
+ * MAX_DEGREES on both axes.  Register it as an inclinometer listener: each reading adds the
+ * time since the previous reading to its bin, which is a couple of multiplies and one array
+ * increment.  Angles beyond the range are counted in the edge bins.
+ *
+ * The grid is saved next to the trip log as a file of FILE_SUFFIX, little endian:
+ *   0  long   MAGIC
+ *   8  int    VERSION
+ *   12 int    BINS
+ *   16 int    MIN_DEGREES
+ *   20 int    BIN_DEGREES
+ *   24 long[] nanoseconds per bin, BINS * BINS of them, pitch major
+ */
+public class AngleHeatmap implements SensorApi {
+    public static final String FILE_SUFFIX = ".heatmap";
+
+    /* "HRMTKMAP" when read as little endian ASCII */
+    private static final long MAGIC = 0x50414d4b544d5248L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int MIN_DEGREES = -90;
+    public static final int MAX_DEGREES = 90;
+    public static final int BIN_DEGREES = 1;
+    public static final int BINS = (MAX_DEGREES - MIN_DEGREES) / BIN_DEGREES;
+
+    /* a longer gap means the sensor was stopped; don't credit the gap to any angle */
+    private static final long MAX_GAP_NS = 1000000000L;
+
+    private static final int PITCH_INDEX = 0;
+    private static final int ROLL_INDEX = 1;
+
+    private final long[] grid = new long[BINS * BINS];
+    private long lastTimestamp = 0;
+    private long totalNs = 0;
+
+    /**
+     * Add an inclinometer reading
+     *
+     * @param timestamp time at which this measurement occurred
+     * @param values    array of inclinometer measurements (pitch == 0, roll == 1)
+     */
+    @Override
+    public synchronized void onDataReceived(long timestamp, float[] values) {
+        long elapsed = timestamp - lastTimestamp;
+        lastTimestamp = timestamp;
+        if (elapsed <= 0 || elapsed > MAX_GAP_NS) {
+            return;
+        }
+
+        grid[toBin(values[PITCH_INDEX]) * BINS + toBin(values[ROLL_INDEX])] += elapsed;
+        totalNs += elapsed;
+    }
+
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+    }
+
+    public synchronized void clear() {
+        for (int bin = 0; bin < grid.length; bin++) {
+            grid[bin] = 0;
+        }
+        lastTimestamp = 0;
+        totalNs = 0;
+    }
+
+    /**
+     * Replace this grid with a consistent snapshot of another.  This object must be the
+     * caller's own snapshot, since only the other grid is locked while copying.
+     *
+     * @param other grid to copy
+     */
+    public void copyFrom(AngleHeatmap other) {
+        synchronized (other) {
+            System.arraycopy(other.grid, 0, grid, 0, grid.length);
+            lastTimestamp = other.lastTimestamp;
+            totalNs = other.totalNs;
+        }
+    }
+
+    /**
+     * @param pitchBin pitch bin (0 == MIN_DEGREES)
+     * @param rollBin  roll bin (0 == MIN_DEGREES)
+     * @return time spent in the bin (ns)
+     */
+    public synchronized long getNanoseconds(int pitchBin, int rollBin) {
+        return grid[pitchBin * BINS + rollBin];
+    }
+
+    /**
+     * @return time spent in the fullest bin (ns)
+     */
+    public synchronized long getMaxNanoseconds() {
+        long max = 0;
+        for (int bin = 0; bin < grid.length; bin++) {
+            max = Math.max(max, grid[bin]);
+        }
+        return max;
+    }
+
+    /**
+     * @return time spent in all bins (ns)
+     */
+    public synchronized long getTotalNanoseconds() {
+        return totalNs;
+    }
+
+    /**
+     * Save the grid
+     *
+     * @param file file to write (truncated if it exists)
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void write(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + grid.length * 8).order(BYTE_ORDER);
+        buffer.putLong(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(BINS);
+        buffer.putInt(MIN_DEGREES);
+        buffer.putInt(BIN_DEGREES);
+        buffer.asLongBuffer().put(grid);
+        buffer.rewind();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Load a saved grid, replacing the contents of this one
+     *
+     * @param file file to read
+     * @throws IOException if the file could not be read or isn't a heatmap with this layout
+     */
+    public synchronized void read(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + grid.length * 8).order(BYTE_ORDER);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated heatmap");
+                }
+            }
+        }
+        finally {
+            raf.close();
+        }
+
+        buffer.flip();
+        if (MAGIC != buffer.getLong() || VERSION != buffer.getInt()) {
+            throw new IOException("Not a heatmap");
+        }
+        if (BINS != buffer.getInt() || MIN_DEGREES != buffer.getInt() || BIN_DEGREES != buffer.getInt()) {
+            throw new IOException("Unsupported heatmap layout");
+        }
+
+        buffer.asLongBuffer().get(grid);
+        lastTimestamp = 0;
+        totalNs = 0;
+        for (int bin = 0; bin < grid.length; bin++) {
+            totalNs += grid[bin];
+        }
+    }
+
+    private static int toBin(float degrees) {
+        int bin = (int) Math.floor((degrees - MIN_DEGREES) / BIN_DEGREES);
+        if (bin < 0) {
+            return 0;
+        }
+        if (bin >= BINS) {
+            return BINS - 1;
+        }
+        return bin;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+/**
+ * Fixed-bucket histogram of angles between 0 and MAX_DEGREES, for streaming percentiles in
+ * constant memory.  Histograms with the same buckets merge by adding counts, so unlike most
+ * quantile sketches merging is exact and order doesn't matter.
+ *
+ * A percentile is reported as the middle of the bucket that holds it, so it is within
+ * BUCKET_DEGREES / 2 of the exact value.  Angles outside the range are clamped into the first
+ * or last bucket.
+ */
+public class AngleHistogram {
+    public static final double MAX_DEGREES = 180.0;
+    public static final double BUCKET_DEGREES = 0.05;
+    private static final int BUCKET_COUNT = (int) Math.round(MAX_DEGREES / BUCKET_DEGREES);
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count = 0;
+
+    /**
+     * @param degrees angle to add (degrees, 0 to MAX_DEGREES)
+     */
+    public void add(double degrees) {
+        int bucket = (int) (degrees / BUCKET_DEGREES);
+        if (bucket < 0 || Double.isNaN(degrees)) {
+            bucket = 0;
+        }
+        else if (bucket >= BUCKET_COUNT) {
+            bucket = BUCKET_COUNT - 1;
+        }
+
+        buckets[bucket]++;
+        count++;
+    }
+
+    /**
+     * Add the counts of another histogram to this one
+     *
+     * @param other histogram to merge.  It is not modified.
+     */
+    public void merge(AngleHistogram other) {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            buckets[bucket] += other.buckets[bucket];
+        }
+        count += other.count;
+    }
+
+    public void copyFrom(AngleHistogram other) {
+        System.arraycopy(other.buckets, 0, buckets, 0, BUCKET_COUNT);
+        count = other.count;
+    }
+
+    public void clear() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            buckets[bucket] = 0;
+        }
+        count = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Nearest-rank percentile
+     *
+     * @param percentile percentile to find (0 - 100)
+     * @return the angle (degrees), or NaN if the histogram is empty
+     */
+    public double getPercentile(double percentile) {
+        if (0 == count) {
+            return Double.NaN;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long cumulative = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            cumulative += buckets[bucket];
+            if (cumulative >= rank) {
+                return (bucket + 0.5) * BUCKET_DEGREES;
+            }
+        }
+
+        return MAX_DEGREES;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+/**
+ * Fixed-bucket histogram of latencies between 0 and MAX_NS, for percentiles that can be updated
+ * on the UI thread without allocating.  Like AngleHistogram, a percentile is reported as the
+ * middle of the bucket that holds it; latencies above MAX_NS are counted in the last bucket, but
+ * the exact maximum is kept separately.
+ *
+ * This class has no Android dependencies so it can be filled from a desktop harness as well as
+ * from the app.
+ */
+public class LatencyHistogram {
+    public static final long MAX_NS = 250000000L;
+    public static final long BUCKET_NS = 250000L;
+    private static final int BUCKET_COUNT = (int) (MAX_NS / BUCKET_NS);
+
+    private final int[] buckets = new int[BUCKET_COUNT];
+    private long count = 0;
+    private long sumNs = 0;
+    private long maxNs = 0;
+
+    /**
+     * @param latencyNs latency to add (ns).  Negative latencies are counted as 0.
+     */
+    public void add(long latencyNs) {
+        int bucket = (int) (Math.max(0, Math.min(latencyNs, MAX_NS - 1)) / BUCKET_NS);
+        buckets[bucket]++;
+        count++;
+        sumNs += latencyNs;
+        maxNs = Math.max(maxNs, latencyNs);
+    }
+
+    public void clear() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            buckets[bucket] = 0;
+        }
+        count = 0;
+        sumNs = 0;
+        maxNs = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean latency (ns), or 0 if the histogram is empty
+     */
+    public long getMeanNs() {
+        return (0 == count) ? 0 : sumNs / count;
+    }
+
+    public long getMaxNs() {
+        return maxNs;
+    }
+
+    /**
+     * Nearest-rank percentile
+     *
+     * @param percentile percentile to find (0 - 100)
+     * @return the latency (ns), or 0 if the histogram is empty
+     */
+    public long getPercentileNs(double percentile) {
+        if (0 == count) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long cumulative = 0;
+        int bucket;
+        for (bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            cumulative += buckets[bucket];
+            if (cumulative >= rank) {
+                break;
+            }
+        }
+
+        /* the last bucket is open ended, so only the maximum says anything about it */
+        if (bucket >= BUCKET_COUNT - 1) {
+            return maxNs;
+        }
+        return Math.min(bucket * BUCKET_NS + BUCKET_NS / 2, maxNs);
+    }
+}
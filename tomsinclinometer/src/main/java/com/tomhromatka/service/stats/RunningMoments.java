@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+/**
+ * Count, mean, standard deviation, min and max of a stream of values in constant memory.  The
+ * mean and variance are updated with Welford's method, which doesn't suffer the cancellation of
+ * the naive sum-of-squares formula.  Moments of two streams can be merged (Chan et al.), so
+ * segments can be summarized separately and combined later.
+ */
+public class RunningMoments {
+    private long count = 0;
+    private double mean = 0.0;
+    /* sum of squared differences from the mean */
+    private double m2 = 0.0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Fold the moments of another stream into this one
+     *
+     * @param other moments to merge.  It is not modified.
+     */
+    public void merge(RunningMoments other) {
+        if (0 == other.count) {
+            return;
+        }
+        if (0 == count) {
+            copyFrom(other);
+            return;
+        }
+
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void copyFrom(RunningMoments other) {
+        count = other.count;
+        mean = other.mean;
+        m2 = other.m2;
+        min = other.min;
+        max = other.max;
+    }
+
+    public void clear() {
+        count = 0;
+        mean = 0.0;
+        m2 = 0.0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean of the values, or NaN if there are none
+     */
+    public double getMean() {
+        return (0 == count) ? Double.NaN : mean;
+    }
+
+    /**
+     * @return sample standard deviation of the values, or NaN if there are fewer than two
+     */
+    public double getStandardDeviation() {
+        return (count < 2) ? Double.NaN : Math.sqrt(m2 / (count - 1));
+    }
+
+    /**
+     * @return smallest value, or NaN if there are none
+     */
+    public double getMin() {
+        return (0 == count) ? Double.NaN : min;
+    }
+
+    /**
+     * @return largest value, or NaN if there are none
+     */
+    public double getMax() {
+        return (0 == count) ? Double.NaN : max;
+    }
+}
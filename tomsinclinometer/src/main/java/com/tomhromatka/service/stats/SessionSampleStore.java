@@ -0,0 +1,406 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.sensors.SensorApi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps every inclinometer reading of a session (trip) so the app can scrub and zoom through
+ * its history.  Register it as an inclinometer listener.
+ *
+ * The readings are kept outside the Java heap, in chunks of CHUNK_SAMPLES samples.  Each chunk
+ * is one direct ByteBuffer holding three columns: the timestamps, then the pitches, then the
+ * rolls.  A sample's chunk and position follow from its index by arithmetic, so appending and
+ * random access are O(1).  Only memoryCapBytes worth of chunks stay in memory, in a ring; when
+ * the ring is full the oldest chunk is written to the spill file and its buffer reused for the
+ * next chunk.  Spilled chunks are read back one at a time into a single cache buffer.  The heap
+ * overhead is the ring and a few counters, whatever the length of the session.
+ *
+ * If there is no spill file, or writing to it fails, chunks that leave memory are dropped
+ * instead.  After a failed write the store stops spilling for the rest of the session, so the
+ * dropped samples always form one range (see getDroppedFromIndex()): whatever was spilled before
+ * it can still be read, and so can every sample after it.  Reads skip the dropped range.
+ *
+ * Appends come from the sensor thread and reads from the UI thread, so every method is
+ * synchronized.  A spill (one CHUNK_BYTES write every CHUNK_SAMPLES readings) is done on the
+ * sensor thread; at inclinometer rates that is once every few minutes.
+ */
+public class SessionSampleStore implements SensorApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public static final int CHUNK_SAMPLES = 16384;
+
+    /* a long timestamp and two float angles per sample: 256 KB per chunk */
+    public static final int CHUNK_BYTES = CHUNK_SAMPLES * (8 + 4 + 4);
+
+    private static final int PITCH_INDEX = 0;
+    private static final int ROLL_INDEX = 1;
+
+    private static final ByteOrder BYTE_ORDER = ByteOrder.nativeOrder();
+    private static final int PITCH_COLUMN = CHUNK_SAMPLES * 8;
+    private static final int ROLL_COLUMN = PITCH_COLUMN + CHUNK_SAMPLES * 4;
+    private static final long NOT_DROPPED = -1;
+
+    private final File spillFile;
+
+    /* the resident chunks, oldest first starting at residentHead */
+    private final ByteBuffer[] resident;
+    private int residentHead = 0;
+    private int residentCount = 0;
+
+    /* chunks [0, spilledChunkCount) have left memory.  [droppedFromChunk, spilledChunkCount)
+     * were dropped rather than spilled
+     */
+    private long spilledChunkCount = 0;
+    private long droppedFromChunk = NOT_DROPPED;
+    private long size = 0;
+
+    private RandomAccessFile spill = null;
+    private ByteBuffer spillCache = null;
+    private long spillCacheChunk = -1;
+
+    /**
+     * @param memoryCapBytes most memory the resident chunks may use.  At least one chunk is
+     *                       always resident.
+     * @param spillFile      file to spill older chunks to, or null to drop them.  It is
+     *                       replaced, and deleted by close().
+     */
+    public SessionSampleStore(long memoryCapBytes, File spillFile) {
+        this.spillFile = spillFile;
+        resident = new ByteBuffer[(int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryCapBytes / CHUNK_BYTES))];
+    }
+
+    /**
+     * Append an inclinometer reading
+     *
+     * @param timestamp time at which this measurement occurred
+     * @param values    array of inclinometer measurements (pitch == 0, roll == 1)
+     */
+    @Override
+    public void onDataReceived(long timestamp, float[] values) {
+        append(timestamp, values[PITCH_INDEX], values[ROLL_INDEX]);
+    }
+
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+    }
+
+    /**
+     * Append a sample
+     *
+     * @param timestamp time of the sample (ns).  Must not decrease, for indexOf().
+     * @param pitch     pitch (degrees)
+     * @param roll      roll (degrees)
+     */
+    public synchronized void append(long timestamp, float pitch, float roll) {
+        int offset = (int) (size % CHUNK_SAMPLES);
+        if (0 == offset) {
+            startChunk();
+        }
+
+        ByteBuffer chunk = resident[(residentHead + residentCount - 1) % resident.length];
+        chunk.putLong(offset * 8, timestamp);
+        chunk.putFloat(PITCH_COLUMN + offset * 4, pitch);
+        chunk.putFloat(ROLL_COLUMN + offset * 4, roll);
+        size++;
+    }
+
+    /**
+     * @return index after the newest sample, i.e. the number of samples appended
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return index of the oldest sample that can still be read.  0 unless the oldest chunks
+     * had to be dropped.
+     */
+    public synchronized long getFirstIndex() {
+        return (0 == getDroppedFromIndex()) ? getDroppedToIndex() : 0;
+    }
+
+    /**
+     * @return index of the first sample that was dropped, or getDroppedToIndex() if none were
+     */
+    public synchronized long getDroppedFromIndex() {
+        if (NOT_DROPPED == droppedFromChunk) {
+            return getDroppedToIndex();
+        }
+        return Math.min(size, droppedFromChunk * CHUNK_SAMPLES);
+    }
+
+    /**
+     * @return index after the last sample that was dropped.  Samples from here on can be read.
+     */
+    public synchronized long getDroppedToIndex() {
+        if (NOT_DROPPED == droppedFromChunk) {
+            return 0;
+        }
+        return Math.min(size, spilledChunkCount * CHUNK_SAMPLES);
+    }
+
+    /**
+     * Read samples.  Zoomed out views can read every stride'th sample of a long range without
+     * copying the samples in between.  Samples that were dropped are skipped, so use the
+     * timestamps to place the samples read.
+     *
+     * @param fromIndex  index of the first sample to read
+     * @param stride     distance between the samples read (1 reads consecutive samples)
+     * @param count      most samples to read
+     * @param timestamps receives the timestamps (ns), or null
+     * @param pitches    receives the pitches (degrees), or null
+     * @param rolls      receives the rolls (degrees), or null
+     * @return number of samples read.  Reading stops early at the end of the store, or if a
+     * spilled chunk can't be read back.
+     */
+    public synchronized int read(long fromIndex, int stride, int count,
+                                 long[] timestamps, float[] pitches, float[] rolls) {
+        if (fromIndex < 0 || stride < 1) {
+            throw new IllegalArgumentException("Can't read from " + fromIndex + " every " + stride);
+        }
+
+        long droppedFrom = getDroppedFromIndex();
+        long droppedTo = getDroppedToIndex();
+
+        int read = 0;
+        for (long index = fromIndex; read < count && index < size; index += stride) {
+            if (index >= droppedFrom && index < droppedTo) {
+                /* step over the dropped range, keeping to the stride */
+                index += (droppedTo - index + stride - 1) / stride * stride - stride;
+                continue;
+            }
+
+            ByteBuffer chunk = chunkFor(index / CHUNK_SAMPLES);
+            if (null == chunk) {
+                break;
+            }
+
+            int offset = (int) (index % CHUNK_SAMPLES);
+            if (null != timestamps) {
+                timestamps[read] = chunk.getLong(offset * 8);
+            }
+            if (null != pitches) {
+                pitches[read] = chunk.getFloat(PITCH_COLUMN + offset * 4);
+            }
+            if (null != rolls) {
+                rolls[read] = chunk.getFloat(ROLL_COLUMN + offset * 4);
+            }
+            read++;
+        }
+
+        return read;
+    }
+
+    /**
+     * Find the first sample at or after a time, e.g. to scrub to a point of the session
+     *
+     * @param timestamp time to look for (ns)
+     * @return index of the first readable sample at or after timestamp, size() if there is
+     * none, or -1 if a spilled chunk couldn't be read back
+     */
+    public synchronized long indexOf(long timestamp) {
+        long droppedFrom = getDroppedFromIndex();
+        long droppedTo = getDroppedToIndex();
+
+        /* the samples before the dropped range, if the time is among them */
+        long found = search(0, droppedFrom, timestamp);
+        if (found != droppedFrom) {
+            return found;
+        }
+        return search(droppedTo, size, timestamp);
+    }
+
+    /**
+     * Binary search of readable samples for the first one at or after a time
+     *
+     * @param low       index of the first sample to search
+     * @param high      index after the last sample to search
+     * @param timestamp time to look for (ns)
+     * @return index of the first sample at or after timestamp, high if there is none, or -1 if a
+     * spilled chunk couldn't be read back
+     */
+    private long search(long low, long high, long timestamp) {
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            ByteBuffer chunk = chunkFor(middle / CHUNK_SAMPLES);
+            if (null == chunk) {
+                return -1;
+            }
+
+            if (chunk.getLong((int) (middle % CHUNK_SAMPLES) * 8) < timestamp) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Forget every sample.  Resident buffers are kept for the next session.
+     */
+    public synchronized void clear() {
+        HromatkaLog.getInstance().enter(TAG);
+        size = 0;
+        residentHead = 0;
+        residentCount = 0;
+        spilledChunkCount = 0;
+        droppedFromChunk = NOT_DROPPED;
+        spillCacheChunk = -1;
+
+        if (null != spill) {
+            try {
+                spill.setLength(0);
+            }
+            catch (IOException ioe) {
+                HromatkaLog.getInstance().logError(TAG, "Failed to truncate spill file: " + ioe.getLocalizedMessage());
+            }
+        }
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Forget every sample, release the buffers and delete the spill file
+     */
+    public synchronized void close() {
+        HromatkaLog.getInstance().enter(TAG);
+        clear();
+        for (int slot = 0; slot < resident.length; slot++) {
+            resident[slot] = null;
+        }
+        spillCache = null;
+        closeSpill();
+        if (null != spillFile && spillFile.exists() && !spillFile.delete()) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to delete spill file " + spillFile);
+        }
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Make room for a new chunk at the end of the ring, spilling the oldest one if it is full
+     */
+    private void startChunk() {
+        if (residentCount < resident.length) {
+            int slot = (residentHead + residentCount) % resident.length;
+            if (null == resident[slot]) {
+                resident[slot] = ByteBuffer.allocateDirect(CHUNK_BYTES).order(BYTE_ORDER);
+            }
+            residentCount++;
+            return;
+        }
+
+        /* the oldest chunk's slot becomes the newest chunk's, so its buffer is reused */
+        if (NOT_DROPPED == droppedFromChunk && !spillChunk(resident[residentHead], spilledChunkCount)) {
+            droppedFromChunk = spilledChunkCount;
+        }
+        spilledChunkCount++;
+        residentHead = (residentHead + 1) % resident.length;
+    }
+
+    /**
+     * @return true if the chunk was written to the spill file
+     */
+    private boolean spillChunk(ByteBuffer chunk, long chunkIndex) {
+        if (null == spillFile) {
+            return false;
+        }
+
+        try {
+            if (null == spill) {
+                spill = new RandomAccessFile(spillFile, "rw");
+                spill.setLength(0);
+            }
+
+            FileChannel channel = spill.getChannel();
+            ByteBuffer source = chunk.duplicate();
+            source.clear();
+            long position = chunkIndex * CHUNK_BYTES;
+            while (source.hasRemaining()) {
+                position += channel.write(source, position);
+            }
+            return true;
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to spill session samples: " + ioe.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param chunkIndex index of a chunk that wasn't dropped
+     * @return the chunk's buffer, or null if it was spilled and can't be read back
+     */
+    private ByteBuffer chunkFor(long chunkIndex) {
+        if (chunkIndex >= spilledChunkCount) {
+            return resident[(int) ((residentHead + (chunkIndex - spilledChunkCount)) % resident.length)];
+        }
+        if (chunkIndex == spillCacheChunk) {
+            return spillCache;
+        }
+
+        if (null == spillCache) {
+            spillCache = ByteBuffer.allocateDirect(CHUNK_BYTES).order(BYTE_ORDER);
+        }
+
+        spillCacheChunk = -1;
+        spillCache.clear();
+        try {
+            FileChannel channel = spill.getChannel();
+            long position = chunkIndex * CHUNK_BYTES;
+            while (spillCache.hasRemaining()) {
+                int bytes = channel.read(spillCache, position);
+                if (bytes < 0) {
+                    throw new IOException("Spill file is truncated");
+                }
+                position += bytes;
+            }
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to read spilled session samples: " + ioe.getLocalizedMessage());
+            return null;
+        }
+
+        spillCacheChunk = chunkIndex;
+        return spillCache;
+    }
+
+    private void closeSpill() {
+        if (null == spill) {
+            return;
+        }
+
+        try {
+            spill.close();
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to close spill file: " + ioe.getLocalizedMessage());
+        }
+        spill = null;
+    }
+}
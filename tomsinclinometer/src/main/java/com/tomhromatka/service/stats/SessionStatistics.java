@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+import com.tomhromatka.service.sensors.SensorApi;
+
+/**
+ * Summary statistics of a session (trip), computed as the inclinometer readings stream by and
+ * without keeping them: mean, standard deviation, min and max of pitch and roll, and
+ * percentiles of |roll|.  Memory use is constant regardless of the session's length.
+ *
+ * Register it as an inclinometer listener.  Statistics of separate segments of a trip can be
+ * merged into one.
+ */
+public class SessionStatistics implements SensorApi {
+    private static final int PITCH_INDEX = 0;
+    private static final int ROLL_INDEX = 1;
+
+    private final RunningMoments pitch = new RunningMoments();
+    private final RunningMoments roll = new RunningMoments();
+    private final AngleHistogram absRoll = new AngleHistogram();
+
+    /**
+     * Add an inclinometer reading
+     *
+     * @param timestamp time at which this measurement occurred
+     * @param values    array of inclinometer measurements (pitch == 0, roll == 1)
+     */
+    @Override
+    public synchronized void onDataReceived(long timestamp, float[] values) {
+        pitch.add(values[PITCH_INDEX]);
+        roll.add(values[ROLL_INDEX]);
+        absRoll.add(Math.abs(values[ROLL_INDEX]));
+    }
+
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+    }
+
+    /**
+     * Fold the statistics of another segment into this one
+     *
+     * @param other statistics to merge.  It is not modified.
+     */
+    public void merge(SessionStatistics other) {
+        /* copy first so the two locks are never held at once */
+        SessionStatistics snapshot = new SessionStatistics();
+        snapshot.copyFrom(other);
+
+        synchronized (this) {
+            pitch.merge(snapshot.pitch);
+            roll.merge(snapshot.roll);
+            absRoll.merge(snapshot.absRoll);
+        }
+    }
+
+    /**
+     * Replace these statistics with a consistent snapshot of another's.  This object must be
+     * the caller's own snapshot, i.e. not registered as a listener, since only the other
+     * statistics are locked while copying.
+     *
+     * @param other statistics to copy
+     */
+    public void copyFrom(SessionStatistics other) {
+        synchronized (other) {
+            pitch.copyFrom(other.pitch);
+            roll.copyFrom(other.roll);
+            absRoll.copyFrom(other.absRoll);
+        }
+    }
+
+    public synchronized void clear() {
+        pitch.clear();
+        roll.clear();
+        absRoll.clear();
+    }
+
+    public synchronized long getCount() {
+        return pitch.getCount();
+    }
+
+    /**
+     * @return a snapshot of the moments of the pitch (degrees).  Later readings don't change it.
+     */
+    public synchronized RunningMoments getPitch() {
+        RunningMoments snapshot = new RunningMoments();
+        snapshot.copyFrom(pitch);
+        return snapshot;
+    }
+
+    /**
+     * @return a snapshot of the moments of the roll (degrees).  Later readings don't change it.
+     */
+    public synchronized RunningMoments getRoll() {
+        RunningMoments snapshot = new RunningMoments();
+        snapshot.copyFrom(roll);
+        return snapshot;
+    }
+
+    /**
+     * @param percentile percentile to find (0 - 100), e.g. 50, 95 or 99
+     * @return the percentile of |roll| (degrees, within AngleHistogram.BUCKET_DEGREES / 2), or
+     * NaN if there are no readings
+     */
+    public synchronized double getAbsRollPercentile(double percentile) {
+        return absRoll.getPercentile(percentile);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * On-disk format of the events recorded during a trip (currently shocks, see
+ * SensorShockDetector).  Events are saved next to the trip log, in a file named after it with
+ * FILE_SUFFIX appended, so the trip log itself keeps its fixed-size sample records.  A fixed-size
+ * header is followed by fixed-size event records, all little endian:
+ *
+ * Header (HEADER_SIZE bytes)
+ *   0  long   MAGIC
+ *   8  int    VERSION
+ *   12 int    RECORD_SIZE
+ *   16        reserved (zero)
+ *
+ * Record (RECORD_SIZE bytes)
+ *   0  long   sensor timestamp of the event's peak (ns), on the trip log's clock
+ *   8  int    event type (TYPE_SHOCK)
+ *   12 float  peak deviation of the acceleration magnitude from its baseline (m/s^2)
+ *   16 float  duration of the event (ms)
+ *   20        reserved (zero)
+ *
+ * This class has no Android dependencies so it can be shared with offline tools.
+ */
+public final class TripEventLog {
+    /* "HRMTKEVT" when read as little endian ASCII */
+    public static final long MAGIC = 0x5456454b544d5248L;
+    public static final int VERSION = 1;
+    public static final String FILE_SUFFIX = ".events";
+
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 24;
+
+    public static final int TIMESTAMP_OFFSET = 0;
+    public static final int TYPE_OFFSET = 8;
+    public static final int PEAK_OFFSET = 12;
+    public static final int DURATION_OFFSET = 16;
+
+    public static final int TYPE_SHOCK = 1;
+
+    private static final int HEADER_MAGIC_OFFSET = 0;
+    private static final int HEADER_VERSION_OFFSET = 8;
+    private static final int HEADER_RECORD_SIZE_OFFSET = 12;
+
+    private TripEventLog() {
+    }
+
+    /**
+     * Write a header to the start of the channel
+     *
+     * @param channel channel of the event log
+     * @throws IOException if the header could not be written
+     */
+    public static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(TripLog.BYTE_ORDER);
+        buffer.putLong(HEADER_MAGIC_OFFSET, MAGIC);
+        buffer.putInt(HEADER_VERSION_OFFSET, VERSION);
+        buffer.putInt(HEADER_RECORD_SIZE_OFFSET, RECORD_SIZE);
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * Read and validate the header of an event log
+     *
+     * @param channel channel of the event log
+     * @throws IOException if the header could not be read or this isn't an event log
+     */
+    public static void readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(TripLog.BYTE_ORDER);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new IOException("Truncated event log header");
+            }
+        }
+
+        if (MAGIC != buffer.getLong(HEADER_MAGIC_OFFSET)) {
+            throw new IOException("Not a trip event log");
+        }
+        if (VERSION != buffer.getInt(HEADER_VERSION_OFFSET) ||
+                RECORD_SIZE != buffer.getInt(HEADER_RECORD_SIZE_OFFSET)) {
+            throw new IOException("Unsupported trip event log version " + buffer.getInt(HEADER_VERSION_OFFSET));
+        }
+    }
+
+    /**
+     * Number of complete records in an event log.  A partially written trailing record is
+     * ignored.
+     *
+     * @param fileSize size of the event log (bytes)
+     * @return number of complete records
+     */
+    public static long recordCount(long fileSize) {
+        return Math.max(0, fileSize - HEADER_SIZE) / RECORD_SIZE;
+    }
+}
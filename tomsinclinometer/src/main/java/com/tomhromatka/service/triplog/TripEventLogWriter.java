@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.sensors.SensorApi;
+import com.tomhromatka.service.sensors.SensorShockDetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records shock events to a trip's event log (see TripEventLog for the format).  Register it as
+ * a shock detector listener.
+ *
+ * Events are rare, so they are packed into a small buffer that is written when it fills up and
+ * when the log is closed; the sensor thread only touches the disk once every BUFFER_RECORDS
+ * events.
+ */
+public class TripEventLogWriter implements SensorApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    private static final int BUFFER_RECORDS = 64;
+
+    private RandomAccessFile file = null;
+    private FileChannel channel = null;
+    private final ByteBuffer buffer =
+            ByteBuffer.allocate(BUFFER_RECORDS * TripEventLog.RECORD_SIZE).order(TripLog.BYTE_ORDER);
+
+    /**
+     * Create (or truncate) an event log and start recording to it
+     *
+     * @param eventFile file to record to
+     * @throws IOException if the log could not be created
+     */
+    public synchronized void open(File eventFile) throws IOException {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null != channel) {
+            close();
+        }
+
+        file = new RandomAccessFile(eventFile, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        TripEventLog.writeHeader(channel);
+        channel.position(TripEventLog.HEADER_SIZE);
+        buffer.clear();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Write any buffered events and close the event log
+     */
+    public synchronized void close() {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null == channel) {
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
+
+        flush();
+        try {
+            file.close();
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to close event log: " + ioe.getLocalizedMessage());
+        }
+
+        file = null;
+        channel = null;
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Append one shock event to the log
+     *
+     * @param timestamp time of the shock's peak
+     * @param values    shock values (see SensorShockDetector)
+     */
+    @Override
+    public synchronized void onDataReceived(long timestamp, float[] values) {
+        if (null == channel) {
+            return;
+        }
+
+        buffer.putLong(timestamp);
+        buffer.putInt(TripEventLog.TYPE_SHOCK);
+        buffer.putFloat(values[SensorShockDetector.PEAK_INDEX]);
+        buffer.putFloat(values[SensorShockDetector.DURATION_INDEX]);
+        buffer.putInt(0);
+
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to write event log: " + ioe.getLocalizedMessage());
+        }
+        buffer.clear();
+    }
+}
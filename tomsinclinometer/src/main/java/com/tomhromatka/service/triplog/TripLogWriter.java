@@ -0,0 +1,267 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.HromatkaTrace;
+import com.tomhromatka.service.sensors.SensorApi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Records oriented accelerometer samples to a trip log (see TripLog for the format).  Register
+ * it as an oriented accelerometer listener.
+ *
+ * Records are packed into one of two buffers on the sensor thread.  When a buffer fills up it
+ * is handed to a background thread to be written while the sensor thread fills the other one,
+ * so the sensor thread never waits on the disk unless the disk falls a full buffer behind.
+ *
+ * Each buffer is one block of the log.  Whenever the writer thread writes a block it also
+ * appends an entry for it to the log's seek index (see TripLogIndex), so readers can jump to a
+ * time without scanning the log.
+ */
+public class TripLogWriter implements SensorApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    private static final int BUFFER_RECORDS = 4096;
+
+    private static final String TRACE_QUEUE_COUNTER = "trip log buffered records";
+    private static final String TRACE_STALL_SECTION = "TripLogWriter.waitForWrite";
+
+    private RandomAccessFile file = null;
+    private FileChannel channel = null;
+    private RandomAccessFile indexFile = null;
+    private FileChannel indexChannel = null;
+
+    /*
+     * only used by the writer thread.  blockFirstRecord counts the records that are actually in
+     * the log, so it only advances once a block has been written in full
+     */
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(TripLogIndex.ENTRY_SIZE).order(TripLog.BYTE_ORDER);
+    private long blockFirstRecord = 0;
+
+    private ByteBuffer fillBuffer = null;
+    private ByteBuffer writeBuffer = null;
+    private ExecutorService writerExecutor = null;
+    private Future<?> pendingWrite = null;
+
+    /**
+     * Create (or truncate) a trip log and start recording to it
+     *
+     * @param logFile     file to record to
+     * @param pitchOffset pitch offset currently in effect (degrees)
+     * @param rollOffset  roll offset currently in effect (degrees)
+     * @throws IOException if the log could not be created
+     */
+    public synchronized void open(File logFile, double pitchOffset, double rollOffset) throws IOException {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null != channel) {
+            close();
+        }
+
+        file = new RandomAccessFile(logFile, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        TripLog.writeHeader(channel, new TripLog.Header(System.currentTimeMillis(), pitchOffset, rollOffset));
+        channel.position(TripLog.HEADER_SIZE);
+
+        indexFile = new RandomAccessFile(new File(logFile.getPath() + TripLogIndex.FILE_SUFFIX), "rw");
+        indexFile.setLength(0);
+        indexChannel = indexFile.getChannel();
+        TripLogIndex.writeHeader(indexChannel, BUFFER_RECORDS);
+        indexChannel.position(TripLogIndex.HEADER_SIZE);
+        blockFirstRecord = 0;
+
+        fillBuffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * TripLog.RECORD_SIZE).order(TripLog.BYTE_ORDER);
+        writeBuffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * TripLog.RECORD_SIZE).order(TripLog.BYTE_ORDER);
+        writerExecutor = Executors.newSingleThreadExecutor();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Write any buffered records and close the trip log
+     */
+    public synchronized void close() {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null == channel) {
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
+
+        flush();
+        waitForPendingWrite();
+        writerExecutor.shutdown();
+
+        try {
+            channel.force(false);
+            file.close();
+            indexFile.close();
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to close trip log: " + ioe.getLocalizedMessage());
+        }
+
+        file = null;
+        channel = null;
+        indexFile = null;
+        indexChannel = null;
+        fillBuffer = null;
+        writeBuffer = null;
+        writerExecutor = null;
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    public synchronized boolean isOpen() {
+        return null != channel;
+    }
+
+    /**
+     * Append one oriented accelerometer sample to the log
+     *
+     * @param timestamp time at which this measurement occurred
+     * @param values    array of oriented accelerometer measurements (x == 0, y == 1, z == 2)
+     */
+    @Override
+    public synchronized void onDataReceived(long timestamp, float[] values) {
+        if (null == channel) {
+            return;
+        }
+
+        fillBuffer.putLong(timestamp);
+        fillBuffer.putFloat(values[0]);
+        fillBuffer.putFloat(values[1]);
+        fillBuffer.putFloat(values[2]);
+
+        HromatkaTrace trace = HromatkaTrace.getInstance();
+        if (trace.isEnabled()) {
+            trace.setCounter(TRACE_QUEUE_COUNTER, fillBuffer.position() / TripLog.RECORD_SIZE);
+        }
+
+        if (!fillBuffer.hasRemaining()) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+    }
+
+    /**
+     * Hand the filled buffer to the writer thread and start filling the other one
+     */
+    private void flush() {
+        if (0 == fillBuffer.position()) {
+            return;
+        }
+
+        /* the other buffer must be written out before we can refill it */
+        HromatkaTrace.getInstance().beginSection(TRACE_STALL_SECTION);
+        waitForPendingWrite();
+        HromatkaTrace.getInstance().endSection();
+
+        final ByteBuffer toWrite = fillBuffer;
+        fillBuffer = writeBuffer;
+        writeBuffer = toWrite;
+        fillBuffer.clear();
+        toWrite.flip();
+
+        final FileChannel writeChannel = channel;
+        final FileChannel writeIndexChannel = indexChannel;
+
+        pendingWrite = writerExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                long records = toWrite.remaining() / TripLog.RECORD_SIZE;
+                indexEntry.clear();
+                indexEntry.putLong(TripLogIndex.TIMESTAMP_OFFSET, toWrite.getLong(TripLog.TIMESTAMP_OFFSET));
+                indexEntry.putLong(TripLogIndex.RECORD_OFFSET, blockFirstRecord);
+
+                /*
+                 * a block that fails part way is cut off again, so the log stays whole records
+                 * and the record numbers in the index stay true.  Later blocks are still tried,
+                 * e.g. once space has been freed up.
+                 */
+                if (!writeFully(writeChannel, toWrite)) {
+                    return;
+                }
+                blockFirstRecord += records;
+
+                /* index only what is in the log.  an unindexed block just makes seeks scan further */
+                writeFully(writeIndexChannel, indexEntry);
+            }
+        });
+    }
+
+    /**
+     * Append a buffer to a channel.  Called on the writer thread.  If the write fails, whatever
+     * part of the buffer made it to the channel is truncated away again.
+     *
+     * @param writeChannel channel to append to
+     * @param buffer       data to append
+     * @return false if the buffer could not be written
+     */
+    private boolean writeFully(FileChannel writeChannel, ByteBuffer buffer) {
+        long start = -1;
+        try {
+            start = writeChannel.position();
+            while (buffer.hasRemaining()) {
+                writeChannel.write(buffer);
+            }
+            return true;
+        }
+        catch (IOException ioe) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to write trip log: " + ioe.getLocalizedMessage());
+        }
+
+        if (start >= 0) {
+            try {
+                writeChannel.truncate(start);
+                writeChannel.position(start);
+            }
+            catch (IOException ioe) {
+                HromatkaLog.getInstance().logError(TAG, "Failed to roll back trip log: " + ioe.getLocalizedMessage());
+            }
+        }
+        return false;
+    }
+
+    private void waitForPendingWrite() {
+        if (null == pendingWrite) {
+            return;
+        }
+
+        try {
+            pendingWrite.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ee) {
+            HromatkaLog.getInstance().logError(TAG, "Trip log write failed: " + ee.getLocalizedMessage());
+        }
+        pendingWrite = null;
+    }
+}
@@ -29,6 +29,7 @@ public class ActivityCalibrate extends AppCompatActivity implements HromatkaServ
     private final String TAG = this.getClass().getSimpleName();
 
     private HromatkaServiceManager hromatkaServiceManager = new HromatkaServiceManager();
+    private final PageCalibrate page = new PageCalibrate();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -47,7 +48,10 @@ public class ActivityCalibrate extends AppCompatActivity implements HromatkaServ
     protected void onDestroy() {
         super.onDestroy();
         HromatkaLog.getInstance().enter(TAG);
-        PageCalibrate.getInstance().onDestroy(this, getHromatkaServiceApi());
+        /* the page was only created if the service was bound */
+        if (null != getHromatkaServiceApi()) {
+            page.onDestroy(this, getHromatkaServiceApi());
+        }
         hromatkaServiceManager.unbindServiceConnection(ActivityCalibrate.this);
         HromatkaLog.getInstance().exit(TAG);
     }
@@ -68,7 +72,7 @@ public class ActivityCalibrate extends AppCompatActivity implements HromatkaServ
         if (!isCalibratePageInflated()) {
             setContentView(R.layout.page_calibrate);
         }
-        PageCalibrate.getInstance().onCreate(this, getHromatkaServiceApi());
+        page.onCreate(this, getHromatkaServiceApi());
         HromatkaLog.getInstance().exit(TAG);
     }
 
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+
+import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.HromatkaServiceApi;
+
+public class ActivityHeatmap extends AppCompatActivity implements HromatkaServiceBindApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    private HromatkaServiceManager hromatkaServiceManager = new HromatkaServiceManager();
+    private final PageHeatmap page = new PageHeatmap();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        HromatkaLog.getInstance().enter(TAG);
+
+        /* bind to the service during onCreate().  Once we have successfully bound to the
+         * service, we can then display the page
+         */
+        hromatkaServiceManager.bindServiceConnection(ActivityHeatmap.this, this);
+
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        HromatkaLog.getInstance().enter(TAG);
+        /* the page was only created if the service was bound */
+        if (null != getHromatkaServiceApi()) {
+            page.onDestroy(this, getHromatkaServiceApi());
+        }
+        hromatkaServiceManager.unbindServiceConnection(ActivityHeatmap.this);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Callback method that HromatkaServiceManager will call once this activity is bound to
+     * HromatkaService
+     */
+    @Override
+    public void onHromatkaServiceBind() {
+        HromatkaLog.getInstance().enter(TAG);
+        setContentView(R.layout.page_heatmap);
+        page.onCreate(this, getHromatkaServiceApi());
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    private HromatkaServiceApi getHromatkaServiceApi() {
+        return hromatkaServiceManager.getHromatkaServiceApi();
+    }
+}
@@ -26,9 +26,18 @@ import android.view.MenuItem;
 import com.tomhromatka.service.HromatkaLog;
 import com.tomhromatka.service.HromatkaServiceApi;
 
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
 public class ActivityInclinometer extends AppCompatActivity implements HromatkaServiceBindApi {
     private final String TAG = this.getClass().getSimpleName();
+    private static final String TRIP_LOG_DIRECTORY = "trips";
+    private static final String TRIP_LOG_NAME_FORMAT = "'trip-'yyyyMMdd-HHmmss'.log'";
+
     private HromatkaServiceManager hromatkaServiceManager = new HromatkaServiceManager();
+    private final PageInclinometer page = new PageInclinometer();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -47,7 +56,10 @@ public class ActivityInclinometer extends AppCompatActivity implements HromatkaS
     protected void onDestroy() {
         super.onDestroy();
         HromatkaLog.getInstance().enter(TAG);
-        PageInclinometer.getInstance().onDestroy(this, getHromatkaServiceApi());
+        /* the page was only created if the service was bound */
+        if (null != getHromatkaServiceApi()) {
+            page.onDestroy(this, getHromatkaServiceApi());
+        }
         hromatkaServiceManager.unbindServiceConnection(ActivityInclinometer.this);
         HromatkaLog.getInstance().exit(TAG);
     }
@@ -60,17 +72,126 @@ public class ActivityInclinometer extends AppCompatActivity implements HromatkaS
         return true;
     }
 
+    /**
+     * The checkable items are recreated unchecked along with the activity, e.g. on rotation, so
+     * show the service's current settings every time the menu is shown
+     */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        HromatkaLog.getInstance().enter(TAG);
+        HromatkaServiceApi hromatkaServiceApi = getHromatkaServiceApi();
+        for (int index = 0; index < menu.size(); index++) {
+            MenuItem item = menu.getItem(index);
+            item.setEnabled(null != hromatkaServiceApi || !isServiceAction(item.getItemId()));
+        }
+
+        if (null != hromatkaServiceApi) {
+            menu.findItem(R.id.action_trip_log).setChecked(hromatkaServiceApi.isTripLogRecording());
+            menu.findItem(R.id.action_high_rate).setChecked(hromatkaServiceApi.isHighRateMode());
+            menu.findItem(R.id.action_fixed_point).setChecked(hromatkaServiceApi.isFixedPointEnabled());
+            menu.findItem(R.id.action_decimation).setChecked(hromatkaServiceApi.isDecimationEnabled());
+            menu.findItem(R.id.action_tracing).setChecked(hromatkaServiceApi.isTracingEnabled());
+
+            switch (hromatkaServiceApi.getAccelerometerSource()) {
+                case HromatkaServiceApi.ACCELEROMETER_SOURCE_SYNTHETIC:
+                    menu.findItem(R.id.action_source_synthetic).setChecked(true);
+                    break;
+
+                case HromatkaServiceApi.ACCELEROMETER_SOURCE_SOCKET:
+                    menu.findItem(R.id.action_source_socket).setChecked(true);
+                    break;
+
+                default:
+                    menu.findItem(R.id.action_source_device).setChecked(true);
+                    break;
+            }
+        }
+
+        HromatkaLog.getInstance().exit(TAG);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         HromatkaLog.getInstance().enter(TAG);
         int id = item.getItemId();
 
+        /* the menu is up before the service is bound and may still be after it is unbound */
+        HromatkaServiceApi hromatkaServiceApi = getHromatkaServiceApi();
+        if (null == hromatkaServiceApi && isServiceAction(id)) {
+            HromatkaLog.getInstance().logVerbose(TAG, "Not bound to the service.  Ignoring option: ", id);
+            HromatkaLog.getInstance().exit(TAG);
+            return true;
+        }
+
         switch(id) {
             case R.id.action_calibrate:
                 Intent intent = new Intent(this, ActivityCalibrate.class);
                 this.startActivity(intent);
                 break;
 
+            case R.id.action_heatmap:
+                this.startActivity(new Intent(this, ActivityHeatmap.class));
+                break;
+
+            case R.id.action_history:
+                this.startActivity(new Intent(this, ActivityHistory.class));
+                break;
+
+            case R.id.action_trip_log:
+                if (hromatkaServiceApi.isTripLogRecording()) {
+                    hromatkaServiceApi.stopTripLog();
+                }
+                else {
+                    hromatkaServiceApi.startTripLog(newTripLogFile());
+                }
+                item.setChecked(hromatkaServiceApi.isTripLogRecording());
+                break;
+
+            case R.id.action_performance_overlay:
+                item.setChecked(!item.isChecked());
+                page.setPerformanceOverlayVisible(item.isChecked());
+                break;
+
+            case R.id.action_high_rate:
+                item.setChecked(!item.isChecked());
+                hromatkaServiceApi.setHighRateMode(item.isChecked());
+                break;
+
+            case R.id.action_fixed_point:
+                item.setChecked(!item.isChecked());
+                hromatkaServiceApi.setFixedPointEnabled(item.isChecked());
+                break;
+
+            case R.id.action_decimation:
+                item.setChecked(!item.isChecked());
+                hromatkaServiceApi.setDecimationEnabled(item.isChecked());
+                break;
+
+            case R.id.action_tracing:
+                item.setChecked(!item.isChecked());
+                hromatkaServiceApi.setTracingEnabled(item.isChecked());
+                break;
+
+            case R.id.action_accelerometer_source:
+                /* opens the submenu */
+                break;
+
+            case R.id.action_source_device:
+                item.setChecked(true);
+                hromatkaServiceApi.setAccelerometerSource(HromatkaServiceApi.ACCELEROMETER_SOURCE_DEVICE);
+                break;
+
+            case R.id.action_source_synthetic:
+                item.setChecked(true);
+                hromatkaServiceApi.setAccelerometerSource(HromatkaServiceApi.ACCELEROMETER_SOURCE_SYNTHETIC);
+                break;
+
+            case R.id.action_source_socket:
+                item.setChecked(true);
+                hromatkaServiceApi.setAccelerometerSource(HromatkaServiceApi.ACCELEROMETER_SOURCE_SOCKET);
+                break;
+
             default:
                 throw new AssertionError("Unhandled option: " + id);
         }
@@ -86,14 +207,54 @@ public class ActivityInclinometer extends AppCompatActivity implements HromatkaS
     public void onHromatkaServiceBind() {
         HromatkaLog.getInstance().enter(TAG);
         setContentView(R.layout.page_inclinometer);
-        PageInclinometer.getInstance().onCreate(this, getHromatkaServiceApi());
+        page.onCreate(this, getHromatkaServiceApi());
 
-        Intent intent = new Intent(this, ActivityCalibrate.class);
-        this.startActivity(intent);
+        /* the service restores the mount profile's saved calibration.  only ask for a new one
+         * if there isn't one
+         */
+        if (!getHromatkaServiceApi().hasValidCalibration()) {
+            Intent intent = new Intent(this, ActivityCalibrate.class);
+            this.startActivity(intent);
+        }
 
         HromatkaLog.getInstance().exit(TAG);
     }
 
+    /**
+     * @param id menu item id
+     * @return true if the menu item acts on the service, i.e. needs it to be bound
+     */
+    private static boolean isServiceAction(int id) {
+        switch (id) {
+            case R.id.action_calibrate:
+            case R.id.action_heatmap:
+            case R.id.action_history:
+            case R.id.action_performance_overlay:
+            case R.id.action_accelerometer_source:
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Trip logs go to the app's external files directory, where they can be copied off the
+     * device for the trip analyzer, or to its internal one if there is no external storage
+     *
+     * @return a new file, named after the current time, to record a trip log to
+     */
+    private File newTripLogFile() {
+        File directory = getExternalFilesDir(TRIP_LOG_DIRECTORY);
+        if (null == directory) {
+            directory = new File(getFilesDir(), TRIP_LOG_DIRECTORY);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to create " + directory.getPath());
+        }
+        return new File(directory, new SimpleDateFormat(TRIP_LOG_NAME_FORMAT, Locale.US).format(new Date()));
+    }
+
     private HromatkaServiceApi getHromatkaServiceApi() {
         return hromatkaServiceManager.getHromatkaServiceApi();
     }
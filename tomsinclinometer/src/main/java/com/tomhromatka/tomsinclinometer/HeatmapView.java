@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.tomhromatka.service.stats.AngleHeatmap;
+
+/**
+ * Draws an AngleHeatmap: roll across, pitch up, one pixel per bin scaled up to the view.  Bins
+ * are colored black (never visited) through blue, red and yellow (most time) on a log scale,
+ * since the time spent near level usually dwarfs everything else.  White lines mark zero pitch
+ * and zero roll.
+ */
+public class HeatmapView extends View {
+    private final Bitmap bitmap =
+            Bitmap.createBitmap(AngleHeatmap.BINS, AngleHeatmap.BINS, Bitmap.Config.ARGB_8888);
+    private final int[] pixels = new int[AngleHeatmap.BINS * AngleHeatmap.BINS];
+    private final Rect destination = new Rect();
+    private final Paint bitmapPaint = new Paint();
+    private final Paint axisPaint = new Paint();
+
+    public HeatmapView(Context context) {
+        this(context, null);
+    }
+
+    public HeatmapView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        /* keep the bins crisp rather than blurring them together */
+        bitmapPaint.setFilterBitmap(false);
+        axisPaint.setColor(Color.WHITE);
+    }
+
+    /**
+     * Render a new heatmap
+     *
+     * @param heatmap heatmap to draw.  It is read now; later changes aren't drawn.
+     */
+    public void setHeatmap(AngleHeatmap heatmap) {
+        double logMax = Math.log1p(heatmap.getMaxNanoseconds());
+
+        for (int pitchBin = 0; pitchBin < AngleHeatmap.BINS; pitchBin++) {
+            /* positive pitch at the top */
+            int row = AngleHeatmap.BINS - 1 - pitchBin;
+            for (int rollBin = 0; rollBin < AngleHeatmap.BINS; rollBin++) {
+                long nanoseconds = heatmap.getNanoseconds(pitchBin, rollBin);
+                double level = (0 == nanoseconds) ? 0.0 : Math.log1p(nanoseconds) / logMax;
+                pixels[row * AngleHeatmap.BINS + rollBin] = toColor(nanoseconds, level);
+            }
+        }
+
+        bitmap.setPixels(pixels, 0, AngleHeatmap.BINS, 0, 0, AngleHeatmap.BINS, AngleHeatmap.BINS);
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        int size = Math.min(getWidth(), getHeight());
+        int left = (getWidth() - size) / 2;
+        int top = (getHeight() - size) / 2;
+        destination.set(left, top, left + size, top + size);
+        canvas.drawBitmap(bitmap, null, destination, bitmapPaint);
+
+        float center = size / 2.0f;
+        canvas.drawLine(left + center, top, left + center, top + size, axisPaint);
+        canvas.drawLine(left, top + center, left + size, top + center, axisPaint);
+    }
+
+    /**
+     * @param nanoseconds time in the bin
+     * @param level       log-scaled time in the bin (0 - 1)
+     * @return the bin's color
+     */
+    private static int toColor(long nanoseconds, double level) {
+        if (0 == nanoseconds) {
+            return Color.BLACK;
+        }
+
+        /* blue -> red over the lower half, red -> yellow over the upper half */
+        if (level < 0.5) {
+            int red = (int) (255 * level * 2);
+            return Color.rgb(red, 0, 255 - red);
+        }
+        return Color.rgb(255, (int) (255 * (level - 0.5) * 2), 0);
+    }
+}
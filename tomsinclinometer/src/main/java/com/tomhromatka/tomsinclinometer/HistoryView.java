@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Plots a window of the session history: time across, pitch (green) and roll (yellow) up, with
+ * a white line at zero.  The vertical scale fits the largest angle in the window, but never
+ * shows less than MIN_SCALE_DEG either side of zero.  Where two samples are further apart than
+ * a fiftieth of the window (e.g. samples that were dropped) the lines are broken.
+ *
+ * The samples are copied into arrays sized once for the most samples a window holds, so
+ * refreshing and drawing don't allocate.
+ */
+public class HistoryView extends View {
+    public static final int MAX_SAMPLES = 1024;
+
+    private static final float MIN_SCALE_DEG = 10.0f;
+    private static final int GAP_FRACTION = 50;
+
+    private final long[] timestamps = new long[MAX_SAMPLES];
+    private final float[] pitches = new float[MAX_SAMPLES];
+    private final float[] rolls = new float[MAX_SAMPLES];
+    private int count = 0;
+    private long windowStartNs = 0;
+    private long windowNs = 1;
+    private float scaleDeg = MIN_SCALE_DEG;
+
+    /* x0, y0, x1, y1 of every line segment, for Canvas.drawLines() */
+    private final float[] pitchLines = new float[4 * MAX_SAMPLES];
+    private final float[] rollLines = new float[4 * MAX_SAMPLES];
+
+    private final Paint pitchPaint = new Paint();
+    private final Paint rollPaint = new Paint();
+    private final Paint axisPaint = new Paint();
+
+    public HistoryView(Context context) {
+        this(context, null);
+    }
+
+    public HistoryView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        pitchPaint.setColor(Color.GREEN);
+        pitchPaint.setAntiAlias(true);
+        rollPaint.setColor(Color.YELLOW);
+        rollPaint.setAntiAlias(true);
+        axisPaint.setColor(Color.WHITE);
+    }
+
+    /**
+     * Plot a new window of samples
+     *
+     * @param timestamps    timestamps of the samples (ns), oldest first
+     * @param pitches       pitches of the samples (degrees)
+     * @param rolls         rolls of the samples (degrees)
+     * @param count         number of samples.  At most MAX_SAMPLES are plotted.
+     * @param windowStartNs time at the left edge of the view (ns)
+     * @param windowNs      time across the view (ns)
+     */
+    public void setSamples(long[] timestamps, float[] pitches, float[] rolls, int count,
+                           long windowStartNs, long windowNs) {
+        this.count = Math.min(count, MAX_SAMPLES);
+        this.windowStartNs = windowStartNs;
+        this.windowNs = Math.max(1, windowNs);
+
+        float largest = MIN_SCALE_DEG;
+        for (int i = 0; i < this.count; i++) {
+            this.timestamps[i] = timestamps[i];
+            this.pitches[i] = pitches[i];
+            this.rolls[i] = rolls[i];
+            largest = Math.max(largest, Math.max(Math.abs(pitches[i]), Math.abs(rolls[i])));
+        }
+        scaleDeg = largest;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        float center = getHeight() / 2.0f;
+        canvas.drawLine(0, center, getWidth(), center, axisPaint);
+
+        int lines = 0;
+        long gapNs = windowNs / GAP_FRACTION;
+        for (int i = 1; i < count; i++) {
+            if (timestamps[i] - timestamps[i - 1] > gapNs) {
+                continue;
+            }
+
+            float x0 = toX(timestamps[i - 1]);
+            float x1 = toX(timestamps[i]);
+            setLine(pitchLines, lines, x0, toY(pitches[i - 1], center), x1, toY(pitches[i], center));
+            setLine(rollLines, lines, x0, toY(rolls[i - 1], center), x1, toY(rolls[i], center));
+            lines++;
+        }
+
+        canvas.drawLines(rollLines, 0, 4 * lines, rollPaint);
+        canvas.drawLines(pitchLines, 0, 4 * lines, pitchPaint);
+    }
+
+    private float toX(long timestamp) {
+        return (float) ((double) (timestamp - windowStartNs) / windowNs * getWidth());
+    }
+
+    /* positive angles at the top */
+    private float toY(float angle, float center) {
+        return center - angle / scaleDeg * center;
+    }
+
+    private static void setLine(float[] lines, int line, float x0, float y0, float x1, float y1) {
+        lines[4 * line] = x0;
+        lines[4 * line + 1] = y0;
+        lines[4 * line + 2] = x1;
+        lines[4 * line + 3] = y1;
+    }
+}
@@ -27,10 +27,21 @@ import com.tomhromatka.service.HromatkaLog;
 import com.tomhromatka.service.HromatkaService;
 import com.tomhromatka.service.HromatkaServiceApi;
 
+import java.lang.ref.WeakReference;
+
+/**
+ * Binds one activity to HromatkaService.  Each activity owns its own manager.
+ *
+ * The system may keep a ServiceConnection reachable for a while after it has been unbound, so
+ * the connection only holds the manager weakly, and unbinding drops the manager's references to
+ * the activity and the service.  A connection that completes after the activity has unbound is
+ * ignored.
+ */
 public class HromatkaServiceManager {
     private final String TAG = this.getClass().getSimpleName();
     private HromatkaServiceBindApi callback = null;
     private HromatkaServiceApi hromatkaServiceApi = null;
+    private boolean bound = false;
 
     /**
      * method to bind the calling activity to HromatkaService
@@ -42,7 +53,10 @@ public class HromatkaServiceManager {
         callback = serviceBindApi;
 
         Intent intent = new Intent(context, HromatkaService.class);
-        context.bindService(intent, hromatkaServiceConnection, Context.BIND_AUTO_CREATE);
+        bound = context.bindService(intent, hromatkaServiceConnection, Context.BIND_AUTO_CREATE);
+        if (!bound) {
+            HromatkaLog.getInstance().logError(TAG, "Failed to bind to service");
+        }
         HromatkaLog.getInstance().exit(TAG);
     }
 
@@ -51,12 +65,22 @@ public class HromatkaServiceManager {
      * @param context Android context of the calling activity
      */
     public void unbindServiceConnection(Context context) {
+        HromatkaLog.getInstance().enter(TAG);
+        callback = null;
+        hromatkaServiceApi = null;
+        if (!bound) {
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
+        bound = false;
+
         try {
             context.unbindService(hromatkaServiceConnection);
         }
         catch (IllegalArgumentException iae) {
             HromatkaLog.getInstance().logError(TAG, "Failed to unbind from service: " + iae.getLocalizedMessage());
         }
+        HromatkaLog.getInstance().exit(TAG);
     }
 
     public HromatkaServiceApi getHromatkaServiceApi() {
@@ -64,24 +88,52 @@ public class HromatkaServiceManager {
         return hromatkaServiceApi;
     }
 
+    private final ServiceConnection hromatkaServiceConnection = new Connection(this);
+
+    private void onServiceConnected(IBinder binder) {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null == callback) {
+            /* the activity unbound before the connection completed */
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
+        hromatkaServiceApi = (HromatkaServiceApi) binder;
+
+        /* notify the callback class that we are now bound to the service */
+        callback.onHromatkaServiceBind();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    private void onServiceDisconnected() {
+        HromatkaLog.getInstance().enter(TAG);
+        hromatkaServiceApi = null;
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
     /**
-     * Inner class that Android will notify when the requesting activity has been bound to the
-     * service
+     * Class that Android will notify when the requesting activity has been bound to the
+     * service.  It is static and holds the manager weakly, so a connection that the system
+     * still references after unbinding doesn't keep the manager alive.
      */
-    private ServiceConnection hromatkaServiceConnection = new ServiceConnection() {
-        public void onServiceConnected(ComponentName className, IBinder binder) {
-            HromatkaLog.getInstance().enter(TAG);
-            hromatkaServiceApi = (HromatkaServiceApi) binder;
+    private static class Connection implements ServiceConnection {
+        private final WeakReference<HromatkaServiceManager> manager;
 
-            /* notify the callback class that we are now bound to the service */
-            callback.onHromatkaServiceBind();
-            HromatkaLog.getInstance().exit(TAG);
+        Connection(HromatkaServiceManager manager) {
+            this.manager = new WeakReference<HromatkaServiceManager>(manager);
+        }
+
+        public void onServiceConnected(ComponentName className, IBinder binder) {
+            HromatkaServiceManager current = manager.get();
+            if (null != current) {
+                current.onServiceConnected(binder);
+            }
         }
 
         public void onServiceDisconnected(ComponentName className) {
-            HromatkaLog.getInstance().enter(TAG);
-            hromatkaServiceApi = null;
-            HromatkaLog.getInstance().exit(TAG);
+            HromatkaServiceManager current = manager.get();
+            if (null != current) {
+                current.onServiceDisconnected();
+            }
         }
-    };
+    }
 }
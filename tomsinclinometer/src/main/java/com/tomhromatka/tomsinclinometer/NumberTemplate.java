@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A format string for text that is updated at the sensor rate.  String.format() parses the
+ * format, boxes its arguments and builds a new String on every call; this parses the format
+ * once and renders into a reused char[], which TextView.setText(char[], int, int) displays
+ * without copying it into a String.  Nothing is allocated per render once the buffer has grown
+ * to fit.
+ *
+ * Only what the app's status formats use is supported: positional float arguments with a fixed
+ * number of decimals ("%1$.0f", "%2$.3f") and "%%".
+ */
+class NumberTemplate {
+    /* literals[i] precedes the i-th placeholder; the last literal follows the last placeholder */
+    private final String[] literals;
+    private final int[] argumentIndexes;
+    private final int[] decimals;
+    private final char decimalSeparator;
+
+    private final StringBuilder builder = new StringBuilder();
+    private char[] chars = new char[0];
+
+    /**
+     * @param format format string, e.g. from a string resource
+     * @param locale locale whose decimal separator is used
+     */
+    NumberTemplate(String format, Locale locale) {
+        decimalSeparator = DecimalFormatSymbols.getInstance(locale).getDecimalSeparator();
+
+        StringBuilder literal = new StringBuilder();
+        List<String> literalList = new ArrayList<String>();
+        List<int[]> placeholders = new ArrayList<int[]>();
+        int position = 0;
+        while (position < format.length()) {
+            char c = format.charAt(position++);
+            if ('%' != c) {
+                literal.append(c);
+                continue;
+            }
+
+            if (position < format.length() && '%' == format.charAt(position)) {
+                literal.append('%');
+                position++;
+                continue;
+            }
+
+            /* %<argument>$.<decimals>f */
+            int dollar = format.indexOf('$', position);
+            int end = format.indexOf('f', position);
+            if (dollar < 0 || end < dollar || '.' != format.charAt(dollar + 1)) {
+                throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+            try {
+                placeholders.add(new int[]{
+                        Integer.parseInt(format.substring(position, dollar)) - 1,
+                        Integer.parseInt(format.substring(dollar + 2, end))});
+            }
+            catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+            literalList.add(literal.toString());
+            literal.setLength(0);
+            position = end + 1;
+        }
+        literalList.add(literal.toString());
+
+        literals = literalList.toArray(new String[literalList.size()]);
+        argumentIndexes = new int[placeholders.size()];
+        decimals = new int[placeholders.size()];
+        for (int i = 0; i < placeholders.size(); i++) {
+            argumentIndexes[i] = placeholders.get(i)[0];
+            decimals[i] = placeholders.get(i)[1];
+        }
+    }
+
+    /**
+     * Render the template with two arguments
+     *
+     * @param first  argument %1$
+     * @param second argument %2$
+     * @return the number of chars rendered into getChars()
+     */
+    int render(double first, double second) {
+        builder.setLength(0);
+        for (int i = 0; i < argumentIndexes.length; i++) {
+            builder.append(literals[i]);
+            appendFixed((0 == argumentIndexes[i]) ? first : second, decimals[i]);
+        }
+        builder.append(literals[literals.length - 1]);
+
+        int length = builder.length();
+        if (chars.length < length) {
+            chars = new char[builder.capacity()];
+        }
+        builder.getChars(0, length, chars, 0);
+        return length;
+    }
+
+    /**
+     * @return the text rendered by the last render().  The array is reused by the next render()
+     */
+    char[] getChars() {
+        return chars;
+    }
+
+    private void appendFixed(double value, int places) {
+        long scale = 1;
+        for (int i = 0; i < places; i++) {
+            scale *= 10;
+        }
+
+        /* like String.format(), values that round to zero keep their sign */
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0.0) {
+            builder.append('-');
+        }
+        builder.append(scaled / scale);
+        if (places > 0) {
+            builder.append(decimalSeparator);
+            long fraction = scaled % scale;
+            for (long digit = scale / 10; digit > 1 && fraction < digit; digit /= 10) {
+                builder.append('0');
+            }
+            builder.append(fraction);
+        }
+    }
+}
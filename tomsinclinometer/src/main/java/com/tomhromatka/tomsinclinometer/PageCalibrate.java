@@ -20,39 +20,35 @@ package com.tomhromatka.tomsinclinometer;
 import android.app.Activity;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.tomhromatka.service.HromatkaLog;
 import com.tomhromatka.service.HromatkaServiceApi;
 import com.tomhromatka.service.sensors.SensorApi;
+import com.tomhromatka.service.sensors.SensorAutoCalibration;
 
+import java.util.Locale;
+
+/**
+ * The calibration page.  Each activity creates its own page; the page drops its reference to the
+ * activity in onDestroy().
+ */
 public class PageCalibrate implements PageApi {
     private final String TAG = this.getClass().getSimpleName();
 
     private Button wSetOffsetsButton = null;
+    private ProgressBar wAutoCalibrateProgress = null;
+    private TextView wAutoCalibrateStatus = null;
+    private NumberTemplate autoCalibrateStatusFormat = null;
+    private Activity activity = null;
+    private boolean calibrationFinished = false;
     private InclinometerListener inclinometerListener = new InclinometerListener();
+    private AutoCalibrationListener autoCalibrationListener = new AutoCalibrationListener();
 
-    private static PageCalibrate instance = null;
-
-    /**
-     * Constructor - note this will force the class to be a singleton
-     */
-    protected PageCalibrate() {
-    }
-
-    /**
-     * Public constructor.  Returns the instance of this singleton class.  This method will
-     * create the instance if it doesn't exist.
-     *
-     * @return the instance of this class
-     */
-    public static PageCalibrate getInstance() {
-        if (null == instance) {
-            instance = new PageCalibrate();
-        }
-
-        return instance;
-    }
+    /* automatic calibration may be fed from a thread other than the main thread */
+    private final UiThreadListener uiAutoCalibrationListener = new UiThreadListener(autoCalibrationListener, 2);
 
     /** We need to implement an inclinometer listener here so that the accelerometer
      * sensor is running.  This will allow us to compute the average acclerometer offset.
@@ -73,30 +69,77 @@ public class PageCalibrate implements PageApi {
         }
     }
 
+    /**
+     * Shows the progress of automatic calibration.  Automatic calibration sets the offsets
+     * itself once the vehicle has been still long enough; all this page has to do is report
+     * that and close.  It is called for every automatic calibration update, so the status text
+     * is rendered with a NumberTemplate rather than String.format() to keep it from allocating.
+     */
+    private class AutoCalibrationListener implements SensorApi {
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            float progress = values[SensorAutoCalibration.PROGRESS_INDEX];
+            wAutoCalibrateProgress.setProgress((int) (progress * 100));
+            int length = autoCalibrateStatusFormat.render(progress * 100, values[SensorAutoCalibration.DEVIATION_INDEX]);
+            wAutoCalibrateStatus.setText(autoCalibrateStatusFormat.getChars(), 0, length);
+
+            if (progress >= 1.0f) {
+                HromatkaLog.getInstance().logVerbose(TAG, "Automatic calibration complete.");
+                finishCalibration();
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    }
+
     public void onCreate(final Activity activity, final HromatkaServiceApi hromatkaServiceApi) {
         HromatkaLog.getInstance().enter(TAG);
+        this.activity = activity;
+        calibrationFinished = false;
+        wAutoCalibrateProgress = (ProgressBar) activity.findViewById(R.id.wAutoCalibrateProgress);
+        wAutoCalibrateStatus = (TextView) activity.findViewById(R.id.wAutoCalibrateStatus);
+        autoCalibrateStatusFormat = new NumberTemplate(
+                activity.getResources().getString(R.string.w_auto_calibrate_status_format), Locale.getDefault());
         wSetOffsetsButton = (Button) activity.findViewById(R.id.wSetOffsetsButton);
         wSetOffsetsButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
                 HromatkaLog.getInstance().logVerbose(TAG, "Set offsets button pressed.");
                 hromatkaServiceApi.updateInclinometerOffsets();
-
-                Toast.makeText(
-                        activity,
-                        activity.getString(R.string.toast_calibration_complete),
-                        Toast.LENGTH_SHORT).show();
-                activity.finish();
+                finishCalibration();
             }
         });
 
         hromatkaServiceApi.registerInclinometerListener(inclinometerListener);
+        hromatkaServiceApi.registerAutoCalibrationListener(uiAutoCalibrationListener);
         HromatkaLog.getInstance().exit(TAG);
     }
 
     @Override
     public void onDestroy(Activity activity, HromatkaServiceApi hromatkaServiceApi) {
         HromatkaLog.getInstance().enter(TAG);
+        hromatkaServiceApi.unregisterAutoCalibrationListener(uiAutoCalibrationListener);
+        uiAutoCalibrationListener.cancel();
         hromatkaServiceApi.unregisterInclinometerListener(inclinometerListener);
+        this.activity = null;
         HromatkaLog.getInstance().exit(TAG);
     }
+
+    /**
+     * Tell the user the offsets have been updated and close the page.  Only the first of the
+     * button and automatic calibration gets to do this.
+     */
+    private void finishCalibration() {
+        if (calibrationFinished || null == activity) {
+            return;
+        }
+        calibrationFinished = true;
+
+        Toast.makeText(
+                activity,
+                activity.getString(R.string.toast_calibration_complete),
+                Toast.LENGTH_SHORT).show();
+        activity.finish();
+    }
 }
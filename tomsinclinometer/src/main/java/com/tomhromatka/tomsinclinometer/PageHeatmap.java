@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.widget.TextView;
+
+import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.HromatkaServiceApi;
+import com.tomhromatka.service.stats.AngleHeatmap;
+
+import java.util.Locale;
+
+/**
+ * The time-at-angle heatmap page.  While a trip log is being recorded the page shows the trip's
+ * heatmap.  Otherwise it shows the time at angle since the page was opened, which it accumulates
+ * itself from the live inclinometer readings.  Each activity creates its own page; the page
+ * stops refreshing, stops listening and drops its references to the activity and its views in
+ * onDestroy().
+ */
+public class PageHeatmap implements PageApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private final Handler handler = new Handler();
+    private final AngleHeatmap heatmap = new AngleHeatmap();
+
+    /* fed on the sensor thread; AngleHeatmap locks itself, so it needs no UI thread wrapper */
+    private final AngleHeatmap liveHeatmap = new AngleHeatmap();
+    private HeatmapView wHeatmap = null;
+    private TextView wHeatmapTotal = null;
+    private HromatkaServiceApi hromatkaServiceApi = null;
+    private Activity activity = null;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    public void onCreate(Activity activity, HromatkaServiceApi hromatkaServiceApi) {
+        HromatkaLog.getInstance().enter(TAG);
+        this.activity = activity;
+        this.hromatkaServiceApi = hromatkaServiceApi;
+        wHeatmap = (HeatmapView) activity.findViewById(R.id.wHeatmap);
+        wHeatmapTotal = (TextView) activity.findViewById(R.id.wHeatmapTotal);
+
+        hromatkaServiceApi.registerInclinometerListener(liveHeatmap);
+
+        /* the trip may still be running, so keep the picture up to date */
+        refreshRunnable.run();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    @Override
+    public void onDestroy(Activity activity, HromatkaServiceApi hromatkaServiceApi) {
+        HromatkaLog.getInstance().enter(TAG);
+        handler.removeCallbacks(refreshRunnable);
+        hromatkaServiceApi.unregisterInclinometerListener(liveHeatmap);
+        this.activity = null;
+        this.hromatkaServiceApi = null;
+        wHeatmap = null;
+        wHeatmapTotal = null;
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    private void refresh() {
+        int totalFormat;
+        if (hromatkaServiceApi.isTripLogRecording()) {
+            hromatkaServiceApi.readAngleHeatmap(heatmap);
+            totalFormat = R.string.w_heatmap_total_format;
+        }
+        else {
+            heatmap.copyFrom(liveHeatmap);
+            totalFormat = R.string.w_heatmap_live_total_format;
+        }
+        wHeatmap.setHeatmap(heatmap);
+        wHeatmapTotal.setText(String.format(Locale.getDefault(),
+                activity.getString(totalFormat),
+                heatmap.getTotalNanoseconds() / 1e9 / 60.0));
+    }
+}
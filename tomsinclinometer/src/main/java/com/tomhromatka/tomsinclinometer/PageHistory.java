@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.view.View;
+import android.widget.Button;
+import android.widget.SeekBar;
+import android.widget.TextView;
+
+import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.HromatkaServiceApi;
+import com.tomhromatka.service.stats.SessionSampleStore;
+
+import java.util.Locale;
+
+/**
+ * The session history page.  Plots a window of the session's readings, which the slider scrubs
+ * through and the zoom buttons widen or narrow.  With the slider at its right end the window
+ * follows the newest readings.  Wide windows read every stride'th reading so a refresh reads at
+ * most HistoryView.MAX_SAMPLES of them, whatever the length of the window.
+ *
+ * Each activity creates its own page; the page stops refreshing and drops its references to the
+ * activity and its views in onDestroy().
+ */
+public class PageHistory implements PageApi {
+    private final String TAG = this.getClass().getSimpleName();
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    private static final long NS_PER_SEC = 1000000000L;
+    private static final long MIN_WINDOW_NS = 10 * NS_PER_SEC;
+    private static final long MAX_WINDOW_NS = 4 * 3600 * NS_PER_SEC;
+    private static final long DEFAULT_WINDOW_NS = 60 * NS_PER_SEC;
+    private static final int ZOOM_FACTOR = 4;
+    private static final int SCRUB_STEPS = 1000;
+
+    private final Handler handler = new Handler();
+    private final long[] timestamps = new long[HistoryView.MAX_SAMPLES];
+    private final float[] pitches = new float[HistoryView.MAX_SAMPLES];
+    private final float[] rolls = new float[HistoryView.MAX_SAMPLES];
+    private long windowNs = DEFAULT_WINDOW_NS;
+
+    private HistoryView wHistory = null;
+    private TextView wHistoryRange = null;
+    private SeekBar wHistoryScrub = null;
+    private HromatkaServiceApi hromatkaServiceApi = null;
+    private Activity activity = null;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    public void onCreate(Activity activity, HromatkaServiceApi hromatkaServiceApi) {
+        HromatkaLog.getInstance().enter(TAG);
+        this.activity = activity;
+        this.hromatkaServiceApi = hromatkaServiceApi;
+        wHistory = (HistoryView) activity.findViewById(R.id.wHistory);
+        wHistoryRange = (TextView) activity.findViewById(R.id.wHistoryRange);
+
+        wHistoryScrub = (SeekBar) activity.findViewById(R.id.wHistoryScrub);
+        wHistoryScrub.setMax(SCRUB_STEPS);
+        wHistoryScrub.setProgress(SCRUB_STEPS);
+        wHistoryScrub.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser) {
+                    refresh();
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
+
+        ((Button) activity.findViewById(R.id.wHistoryZoomIn)).setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                windowNs = Math.max(MIN_WINDOW_NS, windowNs / ZOOM_FACTOR);
+                refresh();
+            }
+        });
+        ((Button) activity.findViewById(R.id.wHistoryZoomOut)).setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                windowNs = Math.min(MAX_WINDOW_NS, windowNs * ZOOM_FACTOR);
+                refresh();
+            }
+        });
+        ((Button) activity.findViewById(R.id.wHistoryNewSession)).setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                PageHistory.this.hromatkaServiceApi.startSessionStatistics();
+                wHistoryScrub.setProgress(SCRUB_STEPS);
+                refresh();
+            }
+        });
+
+        /* the session may still be running, so keep the plot up to date */
+        refreshRunnable.run();
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    @Override
+    public void onDestroy(Activity activity, HromatkaServiceApi hromatkaServiceApi) {
+        HromatkaLog.getInstance().enter(TAG);
+        handler.removeCallbacks(refreshRunnable);
+        wHistoryScrub.setOnSeekBarChangeListener(null);
+        this.activity = null;
+        this.hromatkaServiceApi = null;
+        wHistory = null;
+        wHistoryRange = null;
+        wHistoryScrub = null;
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    private void refresh() {
+        SessionSampleStore samples = hromatkaServiceApi.getSessionSamples();
+        long first = samples.getFirstIndex();
+        long size = samples.size();
+
+        /* the oldest and newest readings bound the scrubbing */
+        if (first >= size || 1 != samples.read(first, 1, 1, timestamps, null, null)) {
+            showEmpty();
+            return;
+        }
+        long firstNs = timestamps[0];
+        if (1 != samples.read(size - 1, 1, 1, timestamps, null, null)) {
+            showEmpty();
+            return;
+        }
+        long lastNs = timestamps[0];
+
+        long endNs = firstNs + (long) ((double) (lastNs - firstNs) * wHistoryScrub.getProgress() / SCRUB_STEPS);
+        long startNs = endNs - windowNs;
+        long fromIndex = samples.indexOf(startNs);
+        long toIndex = samples.indexOf(endNs + 1);
+
+        int count = 0;
+        if (fromIndex >= 0 && toIndex > fromIndex) {
+            long stride = (toIndex - fromIndex + HistoryView.MAX_SAMPLES - 1) / HistoryView.MAX_SAMPLES;
+            count = samples.read(fromIndex, (int) Math.min(Integer.MAX_VALUE, stride),
+                    HistoryView.MAX_SAMPLES, timestamps, pitches, rolls);
+        }
+
+        wHistory.setSamples(timestamps, pitches, rolls, count, startNs, windowNs);
+        wHistoryRange.setText(String.format(Locale.getDefault(),
+                activity.getString(R.string.w_history_range_format),
+                windowNs / 1e9, (endNs - firstNs) / 1e9 / 60.0, (lastNs - firstNs) / 1e9 / 60.0));
+    }
+
+    private void showEmpty() {
+        wHistory.setSamples(timestamps, pitches, rolls, 0, 0, windowNs);
+        wHistoryRange.setText(R.string.w_history_empty_string);
+    }
+}
@@ -24,53 +24,59 @@ import android.widget.TextView;
 
 import com.tomhromatka.service.HromatkaLog;
 import com.tomhromatka.service.HromatkaServiceApi;
+import com.tomhromatka.service.HromatkaTrace;
 import com.tomhromatka.service.sensors.SensorApi;
+import com.tomhromatka.service.sensors.SensorShockDetector;
 
 import java.util.Locale;
 
+/**
+ * The inclinometer page.  Each activity creates its own page, which holds that activity's views;
+ * nothing here is static, so once the activity is destroyed and the page's listener has been
+ * unregistered, the activity, its views and the page can all be garbage collected.
+ *
+ * The angles are rendered with NumberTemplates rather than String.format(), so that updating
+ * the page on every reading doesn't allocate.
+ */
 public class PageInclinometer implements PageApi {
     private final String TAG = this.getClass().getSimpleName();
 
     private static final double DEG_TO_LEVEL = 10000.0f / 360.0f;
     private static final String CHAR_DEGREE  = "\u00b0";
+    private static final String ANGLE_FORMAT = "%1$.0f" + CHAR_DEGREE;
+    private static final String TRACE_SECTION = "PageInclinometer.updateViews";
+
+    private TextView wPitchText = null;
+    private TextView wRollText = null;
+    private TextView wShockText = null;
+    private ImageView wPitchCompass = null;
+    private ImageView wRollCompass = null;
+    private PerformanceOverlay performanceOverlay = null;
 
-    private static TextView wPitchText = null;
-    private static TextView wRollText = null;
-    private static ImageView wPitchCompass = null;
-    private static ImageView wRollCompass = null;
+    /* each text view displays its template's chars, so they can't share one */
+    private NumberTemplate pitchTextFormat = null;
+    private NumberTemplate rollTextFormat = null;
+    private NumberTemplate shockTextFormat = null;
 
     private InclinometerListener inclinometerListener = new InclinometerListener();
 
-    private static PageInclinometer instance = null;
+    /* the inclinometer may be fed from a thread other than the main thread */
+    private final UiThreadListener uiInclinometerListener = new UiThreadListener(inclinometerListener, 2);
 
-    /**
-     * Constructor - note this will force the class to be a singleton
-     */
-    protected PageInclinometer() {
-    }
+    private ShockListener shockListener = new ShockListener();
+    private final UiThreadListener uiShockListener = new UiThreadListener(shockListener, 2);
 
-    /**
-     * Public constructor.  Returns the instance of this singleton class.  This method will
-     * create the instance if it doesn't exist.
-     *
-     * @return the instance of this class
-     */
-    public static PageInclinometer getInstance() {
-        if (null == instance) {
-            instance = new PageInclinometer();
-        }
-
-        return instance;
-    }
-
-    private static class InclinometerListener implements SensorApi {
+    private class InclinometerListener implements SensorApi {
         private final String TAG = this.getClass().getSimpleName();
 
         @Override
         public void onDataReceived(long timestamp, float[] values) {
             HromatkaLog.getInstance().enter(TAG);
-            wPitchText.setText(String.format(Locale.getDefault(), "%2.0f" + CHAR_DEGREE, values[0]));
-            wRollText.setText(String.format(Locale.getDefault(), "%2.0f" + CHAR_DEGREE, Math.abs(values[1])));
+            HromatkaTrace.getInstance().beginSection(TRACE_SECTION);
+            int length = pitchTextFormat.render(values[0], 0.0);
+            wPitchText.setText(pitchTextFormat.getChars(), 0, length);
+            length = rollTextFormat.render(Math.abs(values[1]), 0.0);
+            wRollText.setText(rollTextFormat.getChars(), 0, length);
 
             LayerDrawable lvPitch = (LayerDrawable) wPitchCompass.getDrawable();
             RotateDrawable pitchLayer = (RotateDrawable) lvPitch.getDrawable(1);
@@ -80,6 +86,32 @@ public class PageInclinometer implements PageApi {
             RotateDrawable rollLayer = (RotateDrawable) lvRoll.getDrawable(1);
             rollLayer.setLevel((int) (values[1] * DEG_TO_LEVEL));
 
+            performanceOverlay.onScreenUpdate(timestamp);
+            HromatkaTrace.getInstance().endSection();
+            HromatkaLog.getInstance().exit(TAG);
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+            HromatkaLog.getInstance().enter(TAG);
+            HromatkaLog.getInstance().exit(TAG);
+        }
+    }
+
+    /**
+     * Shows how many shocks the shock detector has reported while this page was up, and the
+     * peak of the last one
+     */
+    private class ShockListener implements SensorApi {
+        private final String TAG = this.getClass().getSimpleName();
+        private int shockCount = 0;
+
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            HromatkaLog.getInstance().enter(TAG);
+            shockCount++;
+            int length = shockTextFormat.render(shockCount, values[SensorShockDetector.PEAK_INDEX]);
+            wShockText.setText(shockTextFormat.getChars(), 0, length);
             HromatkaLog.getInstance().exit(TAG);
         }
 
@@ -95,18 +127,42 @@ public class PageInclinometer implements PageApi {
         HromatkaLog.getInstance().enter(TAG);
         wPitchText = (TextView) activity.findViewById(R.id.wPitchText);
         wRollText = (TextView) activity.findViewById(R.id.wRollText);
+        pitchTextFormat = new NumberTemplate(ANGLE_FORMAT, Locale.getDefault());
+        rollTextFormat = new NumberTemplate(ANGLE_FORMAT, Locale.getDefault());
+        wShockText = (TextView) activity.findViewById(R.id.wShockText);
+        shockTextFormat = new NumberTemplate(
+                activity.getResources().getString(R.string.w_shock_format), Locale.getDefault());
 
         wPitchCompass = (ImageView) activity.findViewById(R.id.wPitchCompass);
         wRollCompass  = (ImageView) activity.findViewById(R.id.wRollCompass);
+        performanceOverlay = new PerformanceOverlay(activity, hromatkaServiceApi);
 
-        hromatkaServiceApi.registerInclinometerListener(inclinometerListener);
+        hromatkaServiceApi.registerInclinometerListener(uiInclinometerListener);
+        hromatkaServiceApi.registerShockListener(uiShockListener);
         HromatkaLog.getInstance().exit(TAG);
     }
 
     @Override
     public void onDestroy(Activity activity, HromatkaServiceApi hromatkaServiceApi) {
         HromatkaLog.getInstance().enter(TAG);
-        hromatkaServiceApi.unregisterInclinometerListener(inclinometerListener);
+        hromatkaServiceApi.unregisterInclinometerListener(uiInclinometerListener);
+        uiInclinometerListener.cancel();
+        hromatkaServiceApi.unregisterShockListener(uiShockListener);
+        uiShockListener.cancel();
+        performanceOverlay.setVisible(false);
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Show or hide the diagnostics overlay
+     *
+     * @param visible true to show the overlay
+     */
+    public void setPerformanceOverlayVisible(boolean visible) {
+        HromatkaLog.getInstance().enter(TAG);
+        if (null != performanceOverlay) {
+            performanceOverlay.setVisible(visible);
+        }
         HromatkaLog.getInstance().exit(TAG);
     }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.TextView;
+
+import com.tomhromatka.service.HromatkaLog;
+import com.tomhromatka.service.HromatkaServiceApi;
+import com.tomhromatka.service.PerformanceCounters;
+import com.tomhromatka.service.sensors.InclinometerReading;
+import com.tomhromatka.service.stats.LatencyHistogram;
+
+import java.util.Locale;
+
+/**
+ * Diagnostics overlay for the inclinometer page.  Shows the delivered sensor rate, the
+ * sensor-to-screen latency distribution, how many screen updates each accelerometer sample
+ * produced, the UI frame rate, listener counts, GC activity and how quickly the inclinometer
+ * produced its first readings, refreshed once a second.
+ *
+ * When the overlay is hidden nothing is registered: no refresh timer, no frame callback, and
+ * onScreenUpdate() returns after a single branch.
+ */
+public class PerformanceOverlay {
+    private final String TAG = this.getClass().getSimpleName();
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    private static final double NS_PER_MS = 1e6;
+    private static final long FRAME_PERIOD_NS = 16666667;
+
+    private final Activity activity;
+    private final HromatkaServiceApi hromatkaServiceApi;
+    private final TextView wOverlayText;
+    private final Handler handler = new Handler();
+    private final PerformanceCounters counters = new PerformanceCounters();
+    private final FrameCounter frameCounter;
+
+    private boolean visible = false;
+
+    /* state at the previous refresh, used to turn counts into rates */
+    private long lastRefreshNs = 0;
+    private long lastAccelerometerCount = 0;
+    private long lastInclinometerCount = 0;
+
+    /* sensor-to-screen latency and screen updates since the previous refresh */
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final InclinometerReading latestReading = new InclinometerReading();
+    private long screenUpdateCount = 0;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * Counts UI frames and frames that missed their vsync.  Choreographer is only available on
+     * Jelly Bean and later.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCounter implements Choreographer.FrameCallback {
+        private long frames = 0;
+        private long droppedFrames = 0;
+        private long lastFrameTimeNs = 0;
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (0 != lastFrameTimeNs) {
+                long skipped = (frameTimeNanos - lastFrameTimeNs + FRAME_PERIOD_NS / 2) / FRAME_PERIOD_NS - 1;
+                if (skipped > 0) {
+                    droppedFrames += skipped;
+                }
+            }
+            lastFrameTimeNs = frameTimeNanos;
+            frames++;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void start() {
+            lastFrameTimeNs = 0;
+            droppedFrames = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    /**
+     * @param activity           Activity that holds the overlay's view
+     * @param hromatkaServiceApi Instance of the HromatkaServiceApi (for reading the counters)
+     */
+    public PerformanceOverlay(Activity activity, HromatkaServiceApi hromatkaServiceApi) {
+        this.activity = activity;
+        this.hromatkaServiceApi = hromatkaServiceApi;
+        this.wOverlayText = (TextView) activity.findViewById(R.id.wPerformanceOverlay);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            frameCounter = new FrameCounter();
+        }
+        else {
+            frameCounter = null;
+        }
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Show or hide the overlay
+     *
+     * @param visible true to show the overlay
+     */
+    public void setVisible(boolean visible) {
+        HromatkaLog.getInstance().enter(TAG);
+        if (visible == this.visible) {
+            HromatkaLog.getInstance().exit(TAG);
+            return;
+        }
+
+        this.visible = visible;
+        if (visible) {
+            resetInterval();
+            if (null != frameCounter) {
+                frameCounter.start();
+            }
+            wOverlayText.setVisibility(View.VISIBLE);
+            handler.postDelayed(refreshRunnable, REFRESH_INTERVAL_MS);
+        }
+        else {
+            handler.removeCallbacks(refreshRunnable);
+            if (null != frameCounter) {
+                frameCounter.stop();
+            }
+            wOverlayText.setVisibility(View.GONE);
+        }
+        HromatkaLog.getInstance().exit(TAG);
+    }
+
+    /**
+     * Called by the page each time it puts a new inclinometer reading on the screen.  The
+     * latency is measured from when the reading's newest sample reached the pipeline, on the
+     * System.nanoTime() clock, since sensor timestamps are on the source's own time base (and
+     * not every phone or source uses elapsedRealtimeNanos()).  If the inclinometer has already
+     * published a newer reading, the arrival time of this one is gone and it isn't measured.
+     *
+     * @param sensorTimestamp timestamp of the reading
+     */
+    public void onScreenUpdate(long sensorTimestamp) {
+        if (!visible) {
+            return;
+        }
+
+        screenUpdateCount++;
+
+        if (hromatkaServiceApi.readLatest(latestReading) && latestReading.getTimestamp() == sensorTimestamp) {
+            latency.add(System.nanoTime() - latestReading.getArrivalNs());
+        }
+    }
+
+    private void refresh() {
+        hromatkaServiceApi.readPerformanceCounters(counters);
+
+        long now = System.nanoTime();
+        double intervalSec = (now - lastRefreshNs) / 1e9;
+        long accelerometerCount = counters.getDataNotificationCount(PerformanceCounters.SENSOR_ACCELEROMETER);
+        long inclinometerCount = counters.getDataNotificationCount(PerformanceCounters.SENSOR_INCLINOMETER);
+
+        String unavailable = activity.getString(R.string.w_performance_overlay_unavailable);
+        String latencyP50 = unavailable;
+        String latencyP95 = unavailable;
+        String latencyP99 = unavailable;
+        String latencyMax = unavailable;
+        if (latency.getCount() > 0) {
+            latencyP50 = formatLatency(latency.getPercentileNs(50.0));
+            latencyP95 = formatLatency(latency.getPercentileNs(95.0));
+            latencyP99 = formatLatency(latency.getPercentileNs(99.0));
+            latencyMax = formatLatency(latency.getMaxNs());
+        }
+
+        /* above 1 the page redraws more often than it gets new data; well below 1 it can't keep up */
+        String updatesPerSample = unavailable;
+        long accelerometerSamples = accelerometerCount - lastAccelerometerCount;
+        if (accelerometerSamples > 0) {
+            updatesPerSample = String.format(Locale.getDefault(), "%.3f",
+                    (double) screenUpdateCount / accelerometerSamples);
+        }
+
+        String fps = unavailable;
+        String dropped = unavailable;
+        if (null != frameCounter) {
+            fps = String.format(Locale.getDefault(), "%.0f", frameCounter.frames / intervalSec);
+            dropped = Long.toString(frameCounter.droppedFrames);
+        }
+
+        String gcCount = unavailable;
+        String allocatedKb = unavailable;
+        if (PerformanceCounters.UNAVAILABLE != counters.getGcCount()) {
+            gcCount = Long.toString(counters.getGcCount());
+            allocatedKb = Long.toString(counters.getBytesAllocated() / 1024);
+        }
+
+        String firstReading = formatStartup(counters.getTimeToFirstReadingNs(), unavailable);
+        String fullWindow = formatStartup(counters.getTimeToFullWindowNs(), unavailable);
+        String coldStart = formatStartup(counters.getColdStartToFirstReadingNs(), unavailable);
+
+        wOverlayText.setText(String.format(Locale.getDefault(),
+                activity.getString(R.string.w_performance_overlay_format),
+                accelerometerSamples / intervalSec,
+                (inclinometerCount - lastInclinometerCount) / intervalSec,
+                latencyP50, latencyP95, latencyP99, latencyMax,
+                updatesPerSample,
+                fps, dropped,
+                counters.getListenerCount(PerformanceCounters.SENSOR_ACCELEROMETER),
+                counters.getListenerCount(PerformanceCounters.SENSOR_ORIENTED_ACCELEROMETER),
+                counters.getListenerCount(PerformanceCounters.SENSOR_INCLINOMETER),
+                gcCount, allocatedKb,
+                firstReading, fullWindow, coldStart));
+
+        resetInterval();
+    }
+
+    private static String formatLatency(long latencyNs) {
+        return String.format(Locale.getDefault(), "%.1f", latencyNs / NS_PER_MS);
+    }
+
+    private static String formatStartup(long startupNs, String unavailable) {
+        if (PerformanceCounters.UNAVAILABLE == startupNs) {
+            return unavailable;
+        }
+        return String.format(Locale.getDefault(), "%.0f", startupNs / NS_PER_MS);
+    }
+
+    /**
+     * Start a new measurement interval.  Dropped frames are cumulative while the overlay is up;
+     * everything else is per interval.
+     */
+    private void resetInterval() {
+        hromatkaServiceApi.readPerformanceCounters(counters);
+        lastRefreshNs = System.nanoTime();
+        lastAccelerometerCount = counters.getDataNotificationCount(PerformanceCounters.SENSOR_ACCELEROMETER);
+        lastInclinometerCount = counters.getDataNotificationCount(PerformanceCounters.SENSOR_INCLINOMETER);
+
+        latency.clear();
+        screenUpdateCount = 0;
+
+        if (null != frameCounter) {
+            frameCounter.frames = 0;
+        }
+    }
+}
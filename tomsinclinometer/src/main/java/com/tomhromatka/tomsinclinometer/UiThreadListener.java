@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.tomhromatka.service.sensors.SensorApi;
+
+/**
+ * Delivers a sensor's data to a listener on the main thread.  Listeners that touch Views may
+ * only run there, but samples arrive on whichever thread the accelerometer's source delivers
+ * them on: the main thread for the phone's accelerometer, the source's own thread for the
+ * synthetic generator or an external IMU.
+ *
+ * Data that arrives on the main thread is passed straight through.  Data from other threads is
+ * copied into a mailbox and handed to the listener from a Runnable posted to the main thread.
+ * If data arrives faster than the main thread takes it, only the newest is delivered.  Nothing
+ * is allocated per sample.
+ */
+class UiThreadListener implements SensorApi, Runnable {
+    private final SensorApi listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /* the mailbox, guarded by this */
+    private final float[] pendingValues;
+    private long pendingTimestamp = 0;
+    private boolean dataPending = false;
+    private int pendingAccuracy = 0;
+    private boolean accuracyPending = false;
+    private boolean posted = false;
+
+    /* only touched on the main thread */
+    private final float[] deliveredValues;
+
+    /**
+     * @param listener   listener to call on the main thread
+     * @param valueCount length of the sensor's values[] array
+     */
+    UiThreadListener(SensorApi listener, int valueCount) {
+        this.listener = listener;
+        this.pendingValues = new float[valueCount];
+        this.deliveredValues = new float[valueCount];
+    }
+
+    /**
+     * Drop anything that hasn't been delivered yet.  Call this after unregistering, so the
+     * listener isn't called once its views are gone.
+     */
+    synchronized void cancel() {
+        handler.removeCallbacks(this);
+        dataPending = false;
+        accuracyPending = false;
+        posted = false;
+    }
+
+    @Override
+    public void onDataReceived(long timestamp, float[] values) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            listener.onDataReceived(timestamp, values);
+            return;
+        }
+
+        synchronized (this) {
+            System.arraycopy(values, 0, pendingValues, 0, pendingValues.length);
+            pendingTimestamp = timestamp;
+            dataPending = true;
+            post();
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(int accuracy) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            listener.onAccuracyChanged(accuracy);
+            return;
+        }
+
+        synchronized (this) {
+            pendingAccuracy = accuracy;
+            accuracyPending = true;
+            post();
+        }
+    }
+
+    /**
+     * Deliver the mailbox.  Runs on the main thread.
+     */
+    @Override
+    public void run() {
+        long timestamp;
+        boolean deliverData;
+        boolean deliverAccuracy;
+        int accuracy;
+
+        synchronized (this) {
+            deliverData = dataPending;
+            deliverAccuracy = accuracyPending;
+            accuracy = pendingAccuracy;
+            timestamp = pendingTimestamp;
+            System.arraycopy(pendingValues, 0, deliveredValues, 0, deliveredValues.length);
+            dataPending = false;
+            accuracyPending = false;
+            posted = false;
+        }
+
+        if (deliverAccuracy) {
+            listener.onAccuracyChanged(accuracy);
+        }
+        if (deliverData) {
+            listener.onDataReceived(timestamp, deliveredValues);
+        }
+    }
+
+    private void post() {
+        if (!posted) {
+            posted = true;
+            handler.post(this);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service;
+
+import android.app.Activity;
+import android.content.res.Resources;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import com.tomhromatka.service.sensors.AbstractSensor;
+import com.tomhromatka.service.sensors.FilterMovingAverage;
+import com.tomhromatka.service.sensors.SensorAccelerometer;
+import com.tomhromatka.service.sensors.SensorApi;
+import com.tomhromatka.service.sensors.SensorAutoCalibration;
+import com.tomhromatka.service.sensors.SensorDecimator;
+import com.tomhromatka.service.sensors.SensorInclinometer;
+import com.tomhromatka.service.sensors.SensorOrientedAccelerometer;
+import com.tomhromatka.service.sensors.SensorSource;
+import com.tomhromatka.tomsinclinometer.PageCalibrate;
+import com.tomhromatka.tomsinclinometer.R;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Allocation regression test for everything that runs once per accelerometer sample.  Each
+ * stage is warmed up and then run for long enough that the inclinometer's rate limiter lets
+ * several readings through; the bytes the test thread allocated meanwhile must not grow.  A
+ * failure names the stage and how many bytes it allocated per sample.
+ *
+ * Allocation is counted with HotSpot's per-thread allocation counter, so the test is skipped on
+ * VMs that don't have one.  Android framework calls are the unit test stubs, so only the app's
+ * own allocations are counted.
+ */
+public class AllocationRegressionTest {
+    private static final long WARM_UP_MS = 400;
+    private static final long MEASURE_MS = 800;
+    private static final int BATCH_SAMPLES = 1000;
+    private static final long SAMPLE_PERIOD_NS = 2500000L;
+    private static final double GRAVITY = 9.80665;
+
+    private com.sun.management.ThreadMXBean threads;
+    private long threadId;
+    private long measurementOverheadBytes;
+    private boolean loggingWasEnabled;
+
+    /* the accelerometer's callback, captured from the test source */
+    private SensorApi sourceCallback = null;
+
+    private final SensorApi quietListener = new SensorApi() {
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    };
+
+    /**
+     * One stage of the per-sample work
+     */
+    private abstract static class Stage {
+        long timestamp = 0;
+        final float[] values = new float[3];
+
+        /** fills in the next sample and runs the stage on it */
+        void next(long index) {
+            timestamp += SAMPLE_PERIOD_NS;
+            double wobble = Math.sin(index / 40.0);
+            values[0] = (float) (0.5 * wobble);
+            values[1] = (float) (GRAVITY * Math.cos(0.2 * wobble));
+            values[2] = (float) (GRAVITY * Math.sin(0.2 * wobble));
+            run(timestamp, values);
+        }
+
+        abstract void run(long timestamp, float[] values);
+    }
+
+    /**
+     * A sensor with nothing behind it, to exercise AbstractSensor's dispatch on its own
+     */
+    private static class DispatchSensor extends AbstractSensor {
+        @Override
+        protected void enableSensor() {
+        }
+
+        @Override
+        protected void disableSensor() {
+        }
+
+        void publish(long timestamp, float[] values) {
+            notifyListenersDataReceived(timestamp, values);
+        }
+    }
+
+    /**
+     * Stands in for android.os.Trace, which only has setCounter() from Q on
+     */
+    public static class CounterTrace {
+        static volatile long lastValue = 0;
+
+        public static void setCounter(String name, long value) {
+            lastValue = value;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        threadId = Thread.currentThread().getId();
+
+        /* release builds don't log; debug unit test builds would */
+        loggingWasEnabled = HromatkaLog.getInstance().isLoggingEnabled();
+        HromatkaLog.getInstance().setLoggingEnabled(false);
+
+        /* whatever reading the counter itself allocates */
+        measurementOverheadBytes = measure(new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+            }
+        }, 0, new long[1]);
+    }
+
+    @After
+    public void tearDown() {
+        SensorInclinometer.getInstance().unregisterListener(quietListener);
+        SensorAccelerometer.getInstance().setSensorSource(null);
+        SensorInclinometer.getInstance().setFixedPointEnabled(false);
+        SensorInclinometer.getInstance().setDecimationEnabled(false);
+        HromatkaTrace.getInstance().setEnabled(false);
+        HromatkaTrace.getInstance().setTracer(null);
+        HromatkaLog.getInstance().setLoggingEnabled(loggingWasEnabled);
+    }
+
+    @Test
+    public void movingAverageFilterDoesNotAllocate() {
+        final FilterMovingAverage filter = new FilterMovingAverage(FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS);
+        final float[] average = new float[3];
+        assertNoAllocation("FilterMovingAverage", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                filter.add(timestamp, values);
+                filter.removeExpired();
+                filter.getMovingAverage(average);
+            }
+        });
+    }
+
+    @Test
+    public void listenerDispatchDoesNotAllocate() {
+        final DispatchSensor sensor = new DispatchSensor();
+        sensor.registerListener(quietListener);
+        sensor.registerListener(new SensorApi() {
+            @Override
+            public void onDataReceived(long timestamp, float[] values) {
+            }
+
+            @Override
+            public void onAccuracyChanged(int accuracy) {
+            }
+        });
+        assertNoAllocation("AbstractSensor dispatch", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                sensor.publish(timestamp, values);
+            }
+        });
+    }
+
+    @Test
+    public void orientedAccelerometerDoesNotAllocate() {
+        final SensorOrientedAccelerometer oriented = SensorOrientedAccelerometer.getInstance();
+        assertEquals(0, oriented.getListenerCount());
+        assertNoAllocation("SensorOrientedAccelerometer", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                oriented.onDataReceived(timestamp, values);
+            }
+        });
+    }
+
+    @Test
+    public void inclinometerDoesNotAllocate() {
+        final SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        assertNoAllocation("SensorInclinometer", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                inclinometer.onDataReceived(timestamp, values);
+            }
+        });
+    }
+
+    @Test
+    public void fixedPointInclinometerDoesNotAllocate() {
+        final SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        inclinometer.setFixedPointEnabled(true);
+        assertNoAllocation("SensorInclinometer (fixed point)", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                inclinometer.onDataReceived(timestamp, values);
+            }
+        });
+    }
+
+    @Test
+    public void decimatingInclinometerDoesNotAllocate() {
+        final SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        inclinometer.setDecimationEnabled(true);
+        assertNoAllocation("SensorInclinometer (decimating)", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                inclinometer.onDataReceived(timestamp, values);
+            }
+        });
+    }
+
+    @Test
+    public void decimatorSwitchingFactorsDoesNotAllocate() {
+        final SensorDecimator decimator = new SensorDecimator(3.0, 3, 1000.0, quietListener);
+        assertNoAllocation("SensorDecimator switching factors", new Stage() {
+            private long index = 0;
+
+            @Override
+            void run(long timestamp, float[] values) {
+                /* the input rate alternates between 800 and 50 Hz every 2000 samples */
+                this.timestamp += ((index++ / 2000) % 2 == 0) ? -SAMPLE_PERIOD_NS / 2 : 7 * SAMPLE_PERIOD_NS;
+                decimator.onDataReceived(this.timestamp, values);
+            }
+        });
+    }
+
+    @Test
+    public void wholePipelineDoesNotAllocate() {
+        startPipeline();
+        assertNoAllocation("accelerometer to inclinometer listeners", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                sourceCallback.onDataReceived(timestamp, values);
+            }
+        });
+    }
+
+    @Test
+    public void traceCountersDoNotAllocate() {
+        final HromatkaTrace.AndroidTracer tracer = new HromatkaTrace.AndroidTracer(CounterTrace.class);
+        assertNoAllocation("HromatkaTrace.AndroidTracer.setCounter", new Stage() {
+            private long count = 0;
+
+            @Override
+            void run(long timestamp, float[] values) {
+                tracer.setCounter("test counter", count++ % HromatkaTrace.AndroidTracer.BOXED_VALUES);
+            }
+        });
+    }
+
+    @Test
+    public void tracedPipelineDoesNotAllocate() {
+        HromatkaTrace.getInstance().setTracer(new HromatkaTrace.AndroidTracer(CounterTrace.class));
+        HromatkaTrace.getInstance().setEnabled(true);
+        startPipeline();
+        assertNoAllocation("accelerometer to inclinometer listeners, traced", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                sourceCallback.onDataReceived(timestamp, values);
+            }
+        });
+    }
+
+    @Test
+    public void autoCalibrationStatusDoesNotAllocate() {
+        final SensorApi[] registered = new SensorApi[1];
+        HromatkaServiceApi api = (HromatkaServiceApi) Proxy.newProxyInstance(
+                HromatkaServiceApi.class.getClassLoader(), new Class<?>[]{HromatkaServiceApi.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("registerAutoCalibrationListener".equals(method.getName())) {
+                            registered[0] = (SensorApi) args[0];
+                        }
+                        return null;
+                    }
+                });
+
+        PageCalibrate page = new PageCalibrate();
+        page.onCreate(new TestActivity(), api);
+        assertNotNull(registered[0]);
+
+        /* off the device every thread is the main thread, so the listener is called directly */
+        final SensorApi listener = registered[0];
+        final float[] progress = new float[2];
+        assertNoAllocation("PageCalibrate.AutoCalibrationListener", new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                progress[SensorAutoCalibration.PROGRESS_INDEX] = 0.5f + 0.4f * values[0];
+                progress[SensorAutoCalibration.DEVIATION_INDEX] = Math.abs(values[0]);
+                listener.onDataReceived(timestamp, progress);
+            }
+        });
+    }
+
+    /**
+     * Install a source that hands its callback to the test and start the sensor chain
+     */
+    private void startPipeline() {
+        SensorAccelerometer.getInstance().setSensorSource(new SensorSource() {
+            @Override
+            public void start(SensorApi callback) {
+                sourceCallback = callback;
+            }
+
+            @Override
+            public void stop() {
+                sourceCallback = null;
+            }
+        });
+        SensorInclinometer.getInstance().registerListener(quietListener);
+        assertNotNull(sourceCallback);
+    }
+
+    /**
+     * Warm a stage up, then fail if it allocates anything while it is measured
+     *
+     * @param stageName name reported if the stage allocates
+     * @param stage     the stage
+     */
+    private void assertNoAllocation(String stageName, Stage stage) {
+        long[] samples = new long[1];
+        measure(stage, WARM_UP_MS, samples);
+        long bytes = measure(stage, MEASURE_MS, samples) - measurementOverheadBytes;
+        if (bytes > 0) {
+            fail(stageName + " allocated " + bytes + " bytes over " + samples[0] + " samples (" +
+                    String.format(Locale.US, "%.3f", (double) bytes / samples[0]) + " bytes per sample)");
+        }
+    }
+
+    /**
+     * Run a stage for a while
+     *
+     * @param stage      the stage
+     * @param durationMs how long to run it for (ms)
+     * @param samples    receives the number of samples run
+     * @return the number of bytes this thread allocated meanwhile
+     */
+    private long measure(Stage stage, long durationMs, long[] samples) {
+        long deadline = System.nanoTime() + durationMs * 1000000L;
+        long count = 0;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        do {
+            for (int i = 0; i < BATCH_SAMPLES; i++) {
+                stage.next(count++);
+            }
+        } while (System.nanoTime() < deadline);
+        long after = threads.getThreadAllocatedBytes(threadId);
+        samples[0] = count;
+        return after - before;
+    }
+
+    /**
+     * The calibration page's activity: just its views and its status format
+     */
+    private static class TestActivity extends Activity {
+        private final TextView status = new TextView(this);
+        private final ProgressBar progress = new ProgressBar(this);
+        private final Button button = new Button(this);
+
+        private final Resources resources = new Resources(null, null, null) {
+            @Override
+            public String getString(int id) {
+                return "Settling: %1$.0f%%, movement %2$.3f m/s\u00b2";
+            }
+        };
+
+        @Override
+        public View findViewById(int id) {
+            switch (id) {
+                case R.id.wAutoCalibrateStatus:
+                    return status;
+                case R.id.wAutoCalibrateProgress:
+                    return progress;
+                case R.id.wSetOffsetsButton:
+                    return button;
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public Resources getResources() {
+            return resources;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service;
+
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saves calibrations with one CalibrationStore and loads them with another one opened on the
+ * same preferences, as the service does after a restart.  The preferences are an in-memory
+ * stand-in, so this runs without a device.
+ */
+public class CalibrationStoreTest {
+    private static final double TOLERANCE = 0.0;
+
+    private final MemoryPreferences preferences = new MemoryPreferences();
+    private final PreferencesContext context = new PreferencesContext(preferences);
+
+    /**
+     * A context that only knows how to open one set of preferences
+     */
+    private static class PreferencesContext extends ContextWrapper {
+        private final SharedPreferences preferences;
+
+        PreferencesContext(SharedPreferences preferences) {
+            super(null);
+            this.preferences = preferences;
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return preferences;
+        }
+    }
+
+    /**
+     * Map backed SharedPreferences.  apply() and commit() both update the map at once.
+     */
+    private static class MemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<String, Object>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        private class MemoryEditor implements Editor {
+            private final Map<String, Object> changes = new HashMap<String, Object>();
+            private final Set<String> removals = new HashSet<String>();
+            private boolean clear = false;
+
+            @Override
+            public Editor putString(String key, String value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                removals.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                apply();
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                if (clear) {
+                    values.clear();
+                }
+                values.keySet().removeAll(removals);
+                values.putAll(changes);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        preferences.values.clear();
+    }
+
+    @Test
+    public void savedOffsetsLoadBackExactly() {
+        new CalibrationStore(context).save("dash", 1.2345678901234, -0.1);
+
+        double[] offsets = new double[2];
+        assertTrue(new CalibrationStore(context).load("dash", offsets));
+        assertEquals(1.2345678901234, offsets[CalibrationStore.PITCH_INDEX], TOLERANCE);
+        assertEquals(-0.1, offsets[CalibrationStore.ROLL_INDEX], TOLERANCE);
+    }
+
+    @Test
+    public void profilesAreKeptApart() {
+        CalibrationStore store = new CalibrationStore(context);
+        store.save("dash", 2.0, 3.0);
+        store.save("roll bar", -4.0, 5.0);
+
+        double[] offsets = new double[2];
+        assertTrue(store.load("dash", offsets));
+        assertEquals(2.0, offsets[CalibrationStore.PITCH_INDEX], TOLERANCE);
+        assertEquals(3.0, offsets[CalibrationStore.ROLL_INDEX], TOLERANCE);
+        assertTrue(store.load("roll bar", offsets));
+        assertEquals(-4.0, offsets[CalibrationStore.PITCH_INDEX], TOLERANCE);
+        assertEquals(5.0, offsets[CalibrationStore.ROLL_INDEX], TOLERANCE);
+    }
+
+    @Test
+    public void uncalibratedAndClearedProfilesDontLoad() {
+        CalibrationStore store = new CalibrationStore(context);
+        double[] offsets = {7.0, 8.0};
+        assertFalse(store.load(CalibrationStore.DEFAULT_PROFILE, offsets));
+
+        store.save("dash", 2.0, 3.0);
+        store.clear("dash");
+        assertFalse(store.load("dash", offsets));
+
+        /* a failed load leaves the offsets alone */
+        assertEquals(7.0, offsets[CalibrationStore.PITCH_INDEX], TOLERANCE);
+        assertEquals(8.0, offsets[CalibrationStore.ROLL_INDEX], TOLERANCE);
+    }
+
+    @Test
+    public void invalidOffsetsDontLoad() {
+        CalibrationStore store = new CalibrationStore(context);
+        store.save("nan", Double.NaN, 0.0);
+        store.save("wrapped", 0.0, 270.0);
+
+        double[] offsets = new double[2];
+        assertFalse(store.load("nan", offsets));
+        assertFalse(store.load("wrapped", offsets));
+    }
+
+    @Test
+    public void selectedProfileIsRemembered() {
+        assertEquals(CalibrationStore.DEFAULT_PROFILE, new CalibrationStore(context).getProfile());
+
+        new CalibrationStore(context).setProfile("roll bar");
+        assertEquals("roll bar", new CalibrationStore(context).getProfile());
+    }
+}
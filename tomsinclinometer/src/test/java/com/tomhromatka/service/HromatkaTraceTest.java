@@ -0,0 +1,146 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks AndroidTracer's counter rate limiting against a stand-in for android.os.Trace
+ */
+public class HromatkaTraceTest {
+    private static final String RATE_COUNTER = "rate";
+    private static final String WINDOW_COUNTER = "window";
+    private static final long INTERVAL_MS = HromatkaTrace.AndroidTracer.COUNTER_INTERVAL_NS / 1000000L;
+
+    private HromatkaTrace.AndroidTracer tracer;
+
+    /**
+     * Stands in for android.os.Trace, which only has setCounter() from Q on
+     */
+    public static class CounterTrace {
+        static int writeCount = 0;
+        static String lastName = null;
+        static long lastValue = 0;
+
+        public static void setCounter(String name, long value) {
+            writeCount++;
+            lastName = name;
+            lastValue = value;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        CounterTrace.writeCount = 0;
+        CounterTrace.lastName = null;
+        tracer = new HromatkaTrace.AndroidTracer(CounterTrace.class);
+    }
+
+    @Test
+    public void firstValueIsWrittenAtOnce() {
+        tracer.setCounter(RATE_COUNTER, 200);
+
+        assertEquals(1, CounterTrace.writeCount);
+        assertEquals(RATE_COUNTER, CounterTrace.lastName);
+        assertEquals(200, CounterTrace.lastValue);
+    }
+
+    @Test
+    public void unchangedValuesAreNotWritten() throws InterruptedException {
+        tracer.setCounter(RATE_COUNTER, 200);
+        Thread.sleep(2 * INTERVAL_MS);
+        for (int i = 0; i < 1000; i++) {
+            tracer.setCounter(RATE_COUNTER, 200);
+        }
+
+        assertEquals(1, CounterTrace.writeCount);
+    }
+
+    @Test
+    public void changesAreWrittenAtMostOncePerInterval() throws InterruptedException {
+        long start = System.nanoTime();
+        int calls = 0;
+        while (System.nanoTime() - start < 10 * HromatkaTrace.AndroidTracer.COUNTER_INTERVAL_NS) {
+            tracer.setCounter(RATE_COUNTER, calls++);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        /* one write up front, then at most one per interval */
+        long maxWrites = 1 + elapsed / HromatkaTrace.AndroidTracer.COUNTER_INTERVAL_NS;
+        assertTrue(CounterTrace.writeCount <= maxWrites);
+        assertTrue(CounterTrace.writeCount >= 2);
+        assertTrue(calls > CounterTrace.writeCount);
+
+        /* once the interval has passed the next change goes straight through */
+        Thread.sleep(2 * INTERVAL_MS);
+        int writes = CounterTrace.writeCount;
+        tracer.setCounter(RATE_COUNTER, -1);
+        assertEquals(writes + 1, CounterTrace.writeCount);
+        assertEquals(-1, CounterTrace.lastValue);
+    }
+
+    @Test
+    public void countersAreLimitedSeparately() {
+        tracer.setCounter(RATE_COUNTER, 200);
+        tracer.setCounter(WINDOW_COUNTER, 50);
+        tracer.setCounter(RATE_COUNTER, 201);
+        tracer.setCounter(WINDOW_COUNTER, 51);
+
+        /* each counter's first value, but neither one's quick change */
+        assertEquals(2, CounterTrace.writeCount);
+        assertEquals(WINDOW_COUNTER, CounterTrace.lastName);
+        assertEquals(50, CounterTrace.lastValue);
+    }
+
+    @Test
+    public void countersBeyondTheTableAreAlwaysWritten() {
+        for (int counter = 0; counter < HromatkaTrace.AndroidTracer.MAX_COUNTERS; counter++) {
+            tracer.setCounter("counter " + counter, 1);
+        }
+        String extra = "one too many";
+        tracer.setCounter(extra, 1);
+        tracer.setCounter(extra, 2);
+        tracer.setCounter(extra, 3);
+
+        assertEquals(HromatkaTrace.AndroidTracer.MAX_COUNTERS + 3, CounterTrace.writeCount);
+        assertEquals(3, CounterTrace.lastValue);
+    }
+
+    @Test
+    public void disabledTracingWritesNothing() {
+        HromatkaTrace trace = HromatkaTrace.getInstance();
+        trace.setTracer(tracer);
+        try {
+            trace.setEnabled(false);
+            trace.setCounter(RATE_COUNTER, 200);
+            assertEquals(0, CounterTrace.writeCount);
+
+            trace.setEnabled(true);
+            trace.setCounter(RATE_COUNTER, 200);
+            assertEquals(1, CounterTrace.writeCount);
+        }
+        finally {
+            trace.setEnabled(false);
+            trace.setTracer(null);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service;
+
+import com.tomhromatka.service.sensors.SensorAccelerometer;
+import com.tomhromatka.service.sensors.SensorApi;
+import com.tomhromatka.service.sensors.SensorInclinometer;
+import com.tomhromatka.service.sensors.SensorSource;
+import com.tomhromatka.service.sensors.SensorSourceSynthetic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput comparison of the per-sample work.  Each variant is warmed up and then timed over
+ * several rounds; the fastest round counts, since the slower ones measure the JIT and the
+ * garbage collector rather than the code.  The results are printed so that a run on the
+ * device's class of hardware can be compared against the desktop numbers; the assertions only
+ * catch a variant that became several times slower than the one it replaces, or a sensor chain
+ * that no longer fits the high-rate mode's per-sample budget.
+ */
+public class PipelineThroughputTest {
+    private static final long WARM_UP_MS = 400;
+    private static final long ROUND_MS = 200;
+    private static final int ROUNDS = 5;
+    private static final int BATCH_SAMPLES = 1000;
+    private static final long SAMPLE_PERIOD_NS = 1000000L;
+    private static final double GRAVITY = 9.80665;
+
+    /* the fixed-point path exists to be cheaper on FPU-less devices; on the JVM it may not be */
+    private static final double FIXED_POINT_MAX_RATIO = 2.0;
+
+    private boolean loggingWasEnabled;
+
+    /* the accelerometer's callback, captured from the test source */
+    private SensorApi sourceCallback = null;
+
+    private final SensorApi quietListener = new SensorApi() {
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    };
+
+    /**
+     * One variant of the per-sample work
+     */
+    private abstract static class Stage {
+        long timestamp = 0;
+        final float[] values = new float[3];
+
+        /** fills in the next sample and runs the stage on it */
+        void next(long index) {
+            timestamp += SAMPLE_PERIOD_NS;
+            double wobble = Math.sin(index / 40.0);
+            values[0] = (float) (0.5 * wobble);
+            values[1] = (float) (GRAVITY * Math.cos(0.2 * wobble));
+            values[2] = (float) (GRAVITY * Math.sin(0.2 * wobble));
+            run(timestamp, values);
+        }
+
+        abstract void run(long timestamp, float[] values);
+    }
+
+    @Before
+    public void setUp() {
+        loggingWasEnabled = HromatkaLog.getInstance().isLoggingEnabled();
+        HromatkaLog.getInstance().setLoggingEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        SensorInclinometer.getInstance().unregisterListener(quietListener);
+        SensorAccelerometer.getInstance().setSensorSource(null);
+        SensorInclinometer.getInstance().setFixedPointEnabled(false);
+        HromatkaLog.getInstance().setLoggingEnabled(loggingWasEnabled);
+    }
+
+    @Test
+    public void fixedPointInclinometerKeepsUpWithTheFloatingPointOne() {
+        final SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        Stage stage = new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                inclinometer.onDataReceived(timestamp, values);
+            }
+        };
+
+        inclinometer.setFixedPointEnabled(false);
+        double floatNs = nsPerSample(stage);
+        inclinometer.setFixedPointEnabled(true);
+        double fixedNs = nsPerSample(stage);
+
+        report("SensorInclinometer, floating point", floatNs);
+        report("SensorInclinometer, fixed point", fixedNs);
+        assertTrue("fixed point took " + format(fixedNs) + " ns per sample against " + format(floatNs),
+                fixedNs <= floatNs * FIXED_POINT_MAX_RATIO);
+    }
+
+    @Test
+    public void onDemandAnglesAreCheaperThanEagerOnes() {
+        final SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        final float[] pitchAndRoll = new float[2];
+        Stage onDemand = new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                inclinometer.onDataReceived(timestamp, values);
+            }
+        };
+        /* what every sample cost before the angles were only computed for the listeners */
+        Stage eager = new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                inclinometer.onDataReceived(timestamp, values);
+                inclinometer.getPitchAndRoll(pitchAndRoll);
+            }
+        };
+
+        double eagerNs = nsPerSample(eager);
+        double onDemandNs = nsPerSample(onDemand);
+
+        report("SensorInclinometer, angles on every sample", eagerNs);
+        report("SensorInclinometer, angles on demand", onDemandNs);
+        assertTrue("on demand took " + format(onDemandNs) + " ns per sample against " + format(eagerNs),
+                onDemandNs < eagerNs);
+    }
+
+    @Test
+    public void highRateChainStaysWithinTheSampleBudget() {
+        int rateHz = SensorSourceSynthetic.DEFAULT_SAMPLE_RATE_HZ;
+        final SensorSourceSynthetic synthetic = new SensorSourceSynthetic(rateHz);
+        synthetic.setTiltProfile(0.0, 10.0, 0.0, 15.0, 10.0);
+        synthetic.setVibrationSpectrum(new double[]{30.0, 120.0}, new double[]{0.5, 0.2});
+        synthetic.setNoise(0.05);
+
+        /* as the service does before it switches to the high rate */
+        SensorInclinometer.getInstance().setExpectedSampleRate(rateHz);
+        startPipeline();
+
+        /* the generator's own cost is not the chain's */
+        Stage generator = new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                synthetic.generate(quietListener, 1);
+            }
+        };
+        Stage chain = new Stage() {
+            @Override
+            void run(long timestamp, float[] values) {
+                synthetic.generate(sourceCallback, 1);
+            }
+        };
+
+        double generatorNs = nsPerSample(generator);
+        double chainNs = nsPerSample(chain) - generatorNs;
+
+        report("Accelerometer to inclinometer at " + rateHz + " Hz", chainNs);
+        assertTrue("the chain took " + format(chainNs) + " ns per sample against a budget of " +
+                        PerformanceCounters.HIGH_RATE_SAMPLE_BUDGET_NS,
+                chainNs <= PerformanceCounters.HIGH_RATE_SAMPLE_BUDGET_NS);
+    }
+
+    /**
+     * Install a source that hands its callback to the test and start the sensor chain
+     */
+    private void startPipeline() {
+        SensorAccelerometer.getInstance().setSensorSource(new SensorSource() {
+            @Override
+            public void start(SensorApi callback) {
+                sourceCallback = callback;
+            }
+
+            @Override
+            public void stop() {
+                sourceCallback = null;
+            }
+        });
+        SensorInclinometer.getInstance().registerListener(quietListener);
+        assertNotNull(sourceCallback);
+    }
+
+    /**
+     * Warm a stage up, then time it
+     *
+     * @param stage the stage
+     * @return the fastest round's time per sample (ns)
+     */
+    private static double nsPerSample(Stage stage) {
+        long index = run(stage, 0, WARM_UP_MS, new long[1]);
+        double best = Double.MAX_VALUE;
+        long[] elapsedNs = new long[1];
+        for (int round = 0; round < ROUNDS; round++) {
+            long samples = run(stage, index, ROUND_MS, elapsedNs);
+            index += samples;
+            best = Math.min(best, (double) elapsedNs[0] / samples);
+        }
+        return best;
+    }
+
+    /**
+     * Run a stage for a while
+     *
+     * @param stage      the stage
+     * @param index      index of the first sample
+     * @param durationMs how long to run it for (ms)
+     * @param elapsedNs  receives how long it actually ran (ns)
+     * @return the number of samples run
+     */
+    private static long run(Stage stage, long index, long durationMs, long[] elapsedNs) {
+        long start = System.nanoTime();
+        long deadline = start + durationMs * 1000000L;
+        long count = 0;
+        long now;
+        do {
+            for (int i = 0; i < BATCH_SAMPLES; i++) {
+                stage.next(index + count++);
+            }
+            now = System.nanoTime();
+        } while (now < deadline);
+        elapsedNs[0] = now - start;
+        return count;
+    }
+
+    private static void report(String name, double nsPerSample) {
+        System.out.println(name + ": " + format(nsPerSample) + " ns per sample");
+    }
+
+    private static String format(double ns) {
+        return String.format(Locale.US, "%.1f", ns);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.IBinder;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.TextView;
+
+import com.tomhromatka.service.sensors.SensorApi;
+import com.tomhromatka.service.sensors.SensorSourceSynthetic;
+import com.tomhromatka.service.stats.LatencyHistogram;
+import com.tomhromatka.tomsinclinometer.ActivityInclinometer;
+import com.tomhromatka.tomsinclinometer.BuildConfig;
+import com.tomhromatka.tomsinclinometer.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.Shadow;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowSensorManager;
+import org.robolectric.util.ActivityController;
+import org.robolectric.util.ServiceController;
+
+import java.lang.reflect.Constructor;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * End to end sensor-to-screen latency: accelerometer events go in through the listener the
+ * service registered with the (shadow) SensorManager, through the real HromatkaService pipeline,
+ * and out as PageInclinometer setting the pitch text.  Events are delivered on the main thread,
+ * as the phone's accelerometer delivers them, so each screen update happens inside the injection
+ * of the sample that caused it and its latency is the time from handing the event to the
+ * SensorManager's listener to the text changing.
+ *
+ * Both notification paths are measured.  By default the inclinometer notifies by the wall clock,
+ * so that test feeds samples in real time.  With decimation enabled it notifies by sample time,
+ * so that test feeds samples as fast as it can and the number of screen updates doesn't depend
+ * on how fast the JVM runs.  The tests print the latency percentiles and the screen updates per
+ * input sample so pipeline changes can be compared run to run, and fail if the latency is
+ * unreasonable.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SensorToScreenLatencyTest {
+    private static final int SAMPLE_RATE_HZ = 200;
+    private static final long SAMPLE_PERIOD_NS = 1000000000L / SAMPLE_RATE_HZ;
+    private static final int WARMUP_SAMPLES = 2 * SAMPLE_RATE_HZ;
+    private static final int DECIMATING_SAMPLES = 120 * SAMPLE_RATE_HZ;
+    private static final int REAL_TIME_SAMPLES = 5 * SAMPLE_RATE_HZ;
+    private static final long START_TIMESTAMP_NS = 1000000000L;
+
+    /* the inclinometer notifies about three times per second, of sensor time when decimating
+     * and of wall clock time otherwise.  the decimation factor it picks for that is within 25%
+     * of the ideal one
+     */
+    private static final double EXPECTED_UPDATES_PER_SAMPLE = 3.0 / SAMPLE_RATE_HZ;
+    private static final double UPDATES_PER_SAMPLE_TOLERANCE = EXPECTED_UPDATES_PER_SAMPLE / 4.0;
+
+    /* generous: a JVM under Robolectric, not a phone */
+    private static final long MAX_P99_NS = 50000000L;
+
+    private ServiceController<HromatkaService> serviceController;
+    private ActivityController<ActivityInclinometer> activityController;
+    private HromatkaServiceApi hromatkaServiceApi;
+    private SensorEventListener accelerometerListener;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long injectedAtNs = 0;
+    private boolean measuring = false;
+    private long updateCount = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        SensorManager sensorManager =
+                (SensorManager) RuntimeEnvironment.application.getSystemService(Context.SENSOR_SERVICE);
+        ShadowSensorManager shadowSensorManager = shadowOf(sensorManager);
+        shadowSensorManager.addSensor(Sensor.TYPE_ACCELEROMETER, Shadow.newInstanceOf(Sensor.class));
+
+        serviceController = Robolectric.buildService(HromatkaService.class).create();
+        IBinder binder = serviceController.get().onBind(
+                new Intent(RuntimeEnvironment.application, HromatkaService.class));
+        ShadowApplication.getInstance().setComponentNameAndServiceForBindService(
+                new ComponentName(RuntimeEnvironment.application, HromatkaService.class), binder);
+        hromatkaServiceApi = (HromatkaServiceApi) binder;
+
+        activityController = Robolectric.buildActivity(ActivityInclinometer.class)
+                .create().start().resume().visible();
+
+        /* the page's listener started the phone's accelerometer, i.e. the service's source */
+        accelerometerListener = serviceController.get().getDeviceSource();
+        assertTrue(shadowSensorManager.hasListener(accelerometerListener));
+
+        TextView pitchText = (TextView) activityController.get().findViewById(R.id.wPitchText);
+        pitchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (measuring) {
+                    latency.add(System.nanoTime() - injectedAtNs);
+                    updateCount++;
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        hromatkaServiceApi.setDecimationEnabled(false);
+        activityController.pause().stop().destroy();
+        serviceController.destroy();
+    }
+
+    @Test
+    public void sensorToScreenLatency() throws Exception {
+        measure("wall clock", REAL_TIME_SAMPLES, true);
+    }
+
+    @Test
+    public void decimatingSensorToScreenLatency() throws Exception {
+        hromatkaServiceApi.setDecimationEnabled(true);
+        measure("decimating", DECIMATING_SAMPLES, false);
+    }
+
+    /**
+     * Feed the pipeline synthetic accelerometer samples and check the screen updates they cause
+     *
+     * @param name     name of the path, for the printout
+     * @param samples  number of samples to measure
+     * @param realTime true to feed the samples at their sensor rate
+     */
+    private void measure(String name, int samples, boolean realTime) throws Exception {
+        SensorSourceSynthetic generator = new SensorSourceSynthetic(SAMPLE_RATE_HZ);
+        generator.setTiltProfile(2.0, 20.0, -3.0, 25.0, 7.0);
+        generator.setVibrationSpectrum(new double[]{15.0}, new double[]{0.3});
+        generator.setNoise(0.05);
+        generator.reset(START_TIMESTAMP_NS);
+
+        SensorInjector injector = new SensorInjector(realTime);
+        generator.generate(injector, WARMUP_SAMPLES);
+
+        measuring = true;
+        generator.generate(injector, samples);
+        measuring = false;
+
+        double updatesPerSample = (double) updateCount / samples;
+        System.out.println(String.format(Locale.US,
+                "%s sensor-to-screen latency: p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms, " +
+                        "%d updates, %.4f updates per sample",
+                name, latency.getPercentileNs(50.0) / 1e6, latency.getPercentileNs(95.0) / 1e6,
+                latency.getPercentileNs(99.0) / 1e6, latency.getMaxNs() / 1e6,
+                updateCount, updatesPerSample));
+
+        assertEquals(EXPECTED_UPDATES_PER_SAMPLE, updatesPerSample, UPDATES_PER_SAMPLE_TOLERANCE);
+        assertTrue(latency.getPercentileNs(50.0) <= latency.getPercentileNs(95.0));
+        assertTrue(latency.getPercentileNs(95.0) <= latency.getPercentileNs(99.0));
+        assertTrue("p99 " + latency.getPercentileNs(99.0) + " ns", latency.getPercentileNs(99.0) < MAX_P99_NS);
+    }
+
+    /**
+     * Turns generated samples into SensorEvents and hands them to the accelerometer's
+     * SensorManager listener on the main thread
+     */
+    private class SensorInjector implements SensorApi {
+        private final SensorEvent event;
+        private final boolean realTime;
+        private long firstTimestamp = 0;
+        private long firstInjectedAtNs = 0;
+
+        SensorInjector(boolean realTime) throws Exception {
+            this.realTime = realTime;
+            Constructor<SensorEvent> constructor = SensorEvent.class.getDeclaredConstructor(int.class);
+            constructor.setAccessible(true);
+            event = constructor.newInstance(3);
+        }
+
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            if (realTime) {
+                waitUntilDue(timestamp);
+            }
+
+            event.timestamp = timestamp;
+            System.arraycopy(values, 0, event.values, 0, event.values.length);
+
+            injectedAtNs = System.nanoTime();
+            accelerometerListener.onSensorChanged(event);
+
+            /* anything the pipeline posted runs before the next sample */
+            ShadowLooper.runUiThreadTasks();
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+
+        /**
+         * Sleep until a sample is due, as if the sensor were delivering it now.  Robolectric may
+         * serve the time from its scheduler's clock rather than the real one, so that clock is
+         * moved on by a sample period too.
+         */
+        private void waitUntilDue(long timestamp) {
+            long now = System.nanoTime();
+            if (0 == firstInjectedAtNs) {
+                firstTimestamp = timestamp;
+                firstInjectedAtNs = now;
+                return;
+            }
+
+            ShadowLooper.idleMainLooper(SAMPLE_PERIOD_NS / 1000000L);
+
+            long dueInNs = firstInjectedAtNs + (timestamp - firstTimestamp) - now;
+            if (dueInNs >= SAMPLE_PERIOD_NS / 5) {
+                try {
+                    Thread.sleep(dueInNs / 1000000L, (int) (dueInNs % 1000000L));
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the fixed-point pipeline against the floating point one it stands in for.  The
+ * CORDIC's 16 iterations resolve about 0.002 degrees and Q16.16 about 0.00002, so the angles
+ * must agree to ANGLE_TOLERANCE_DEG; averaged accelerations must agree to within the rounding
+ * of their inputs.
+ */
+public class FixedPointMathTest {
+    private static final double ANGLE_TOLERANCE_DEG = 0.01;
+    private static final double ACCEL_TOLERANCE = 2.0 / FixedPointMath.ONE;
+    private static final double GRAVITY = 9.80665;
+    private static final long SAMPLE_PERIOD_NS = 5000000L;
+
+    @After
+    public void tearDown() {
+        SensorInclinometer.getInstance().setFixedPointEnabled(false);
+    }
+
+    @Test
+    public void atan2MatchesMathAtan2AllTheWayAround() {
+        double radius = GRAVITY;
+        for (int tenths = -1800; tenths <= 1800; tenths++) {
+            double angle = Math.toRadians(tenths / 10.0);
+            double x = radius * Math.cos(angle);
+            double y = radius * Math.sin(angle);
+
+            double expected = Math.toDegrees(Math.atan2(y, x));
+            double actual = FixedPointMath.toFloat(
+                    FixedPointMath.atan2(FixedPointMath.toFixed(y), FixedPointMath.toFixed(x)));
+            assertEquals("atan2 at " + (tenths / 10.0) + " degrees", 0.0,
+                    wrap(actual - expected), ANGLE_TOLERANCE_DEG);
+        }
+    }
+
+    @Test
+    public void atan2IsAccurateForSmallAndLargeVectors() {
+        double[] radii = {0.01, 0.1, 1.0, 100.0, 10000.0};
+        for (double radius : radii) {
+            for (int degrees = -179; degrees <= 180; degrees += 7) {
+                double angle = Math.toRadians(degrees);
+                int x = FixedPointMath.toFixed(radius * Math.cos(angle));
+                int y = FixedPointMath.toFixed(radius * Math.sin(angle));
+
+                /* compare against the angle of the rounded input, not of the ideal one */
+                double expected = Math.toDegrees(Math.atan2(y, x));
+                double actual = FixedPointMath.toFloat(FixedPointMath.atan2(y, x));
+                assertEquals("atan2 at radius " + radius + ", " + degrees + " degrees", 0.0,
+                        wrap(actual - expected), ANGLE_TOLERANCE_DEG);
+            }
+        }
+    }
+
+    @Test
+    public void pitchAndRollMatchTheFloatingPointMath() {
+        Random random = new Random(27);
+        for (int i = 0; i < 10000; i++) {
+            double x = (random.nextDouble() * 2.0 - 1.0) * GRAVITY;
+            double y = (random.nextDouble() * 2.0 - 1.0) * GRAVITY;
+            double z = (random.nextDouble() * 2.0 - 1.0) * GRAVITY;
+            int fixedX = FixedPointMath.toFixed(x);
+            int fixedY = FixedPointMath.toFixed(y);
+            int fixedZ = FixedPointMath.toFixed(z);
+
+            assertEquals(0.0, wrap(FixedPointMath.toFloat(FixedPointMath.computePitch(fixedY, fixedZ)) -
+                    InclinometerMath.computePitch(y, z)), ANGLE_TOLERANCE_DEG);
+
+            /* both zero the roll near the threshold; only compare away from it */
+            if (Math.abs(x - 0.25) > ACCEL_TOLERANCE && Math.abs(y - 0.25) > ACCEL_TOLERANCE) {
+                assertEquals(0.0, wrap(FixedPointMath.toFloat(FixedPointMath.computeRoll(fixedX, fixedY)) -
+                        InclinometerMath.computeRoll(x, y)), ANGLE_TOLERANCE_DEG);
+            }
+        }
+    }
+
+    @Test
+    public void fixedPointMovingAverageTracksTheFloatingPointOne() {
+        FilterMovingAverage floatFilter = new FilterMovingAverage(FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS);
+        FilterMovingAverageFixedPoint fixedFilter = new FilterMovingAverageFixedPoint(
+                FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS, 3, FilterMovingAverageFixedPoint.DEFAULT_CAPACITY);
+        float[] sample = new float[3];
+        int[] fixedSample = new int[3];
+        float[] floatAverage = new float[3];
+        int[] fixedAverage = new int[3];
+        Random random = new Random(1027);
+
+        for (int i = 0; i < 2000; i++) {
+            long timestamp = i * SAMPLE_PERIOD_NS;
+            for (int axis = 0; axis < 3; axis++) {
+                sample[axis] = (float) (GRAVITY * Math.sin(i / 50.0 + axis) + random.nextGaussian());
+                fixedSample[axis] = FixedPointMath.toFixed(sample[axis]);
+            }
+            floatFilter.add(timestamp, sample);
+            floatFilter.removeExpired();
+            fixedFilter.add(timestamp, fixedSample);
+            fixedFilter.removeExpired();
+
+            assertEquals(floatFilter.size(), fixedFilter.size());
+            assertTrue(floatFilter.getMovingAverage(floatAverage));
+            assertTrue(fixedFilter.getMovingAverage(fixedAverage));
+            for (int axis = 0; axis < 3; axis++) {
+                assertEquals("sample " + i + " axis " + axis, floatAverage[axis],
+                        FixedPointMath.toFloat(fixedAverage[axis]), ACCEL_TOLERANCE + Math.ulp(floatAverage[axis]) * 64);
+            }
+        }
+    }
+
+    @Test
+    public void fixedPointMovingAverageKeepsTheWholeWindowAtHighRates() {
+        FilterMovingAverage floatFilter = new FilterMovingAverage(FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS);
+        FilterMovingAverageFixedPoint fixedFilter = new FilterMovingAverageFixedPoint(
+                FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS, 3, FilterMovingAverageFixedPoint.DEFAULT_CAPACITY);
+        float[] sample = new float[3];
+        int[] fixedSample = new int[3];
+        float[] floatAverage = new float[3];
+        int[] fixedAverage = new int[3];
+
+        /* 8 kHz holds 4000 samples in the window, well past the initial capacity */
+        long periodNs = 125000L;
+        for (int i = 0; i < 8000; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                sample[axis] = (float) (GRAVITY * Math.sin(i / 500.0 + axis));
+                fixedSample[axis] = FixedPointMath.toFixed(sample[axis]);
+            }
+            floatFilter.add(i * periodNs, sample);
+            floatFilter.removeExpired();
+            fixedFilter.add(i * periodNs, fixedSample);
+            fixedFilter.removeExpired();
+        }
+
+        assertEquals(floatFilter.size(), fixedFilter.size());
+        assertTrue(fixedFilter.capacity() > FilterMovingAverageFixedPoint.DEFAULT_CAPACITY);
+        assertTrue(floatFilter.getMovingAverage(floatAverage));
+        assertTrue(fixedFilter.getMovingAverage(fixedAverage));
+        for (int axis = 0; axis < 3; axis++) {
+            assertEquals(floatAverage[axis], FixedPointMath.toFloat(fixedAverage[axis]), ACCEL_TOLERANCE * 16);
+        }
+    }
+
+    @Test
+    public void ensureCapacityGrowsTheFixedPointRingUpFront() {
+        FilterMovingAverageFixedPoint filter = new FilterMovingAverageFixedPoint(
+                FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS, 3, 16);
+        filter.ensureCapacity(5000);
+        assertTrue(filter.capacity() >= 5000);
+        assertEquals(0, filter.size());
+    }
+
+    @Test
+    public void switchingPipelinesStartsFromFreshSamples() {
+        SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        inclinometer.setOffsets(0.0, 0.0);
+        float[] pitchAndRoll = new float[2];
+        long timestamp = 0;
+
+        for (int i = 0; i < 20; i++) {
+            inclinometer.onDataReceived(timestamp += SAMPLE_PERIOD_NS, accelerationAtPitch(10.0));
+        }
+        assertTrue(inclinometer.getPitchAndRoll(pitchAndRoll));
+        assertEquals(10.0, pitchAndRoll[SensorInclinometer.PITCH_INDEX], ANGLE_TOLERANCE_DEG);
+
+        inclinometer.setFixedPointEnabled(true);
+        inclinometer.onDataReceived(timestamp += SAMPLE_PERIOD_NS, accelerationAtPitch(20.0));
+        assertTrue(inclinometer.getPitchAndRoll(pitchAndRoll));
+        assertEquals(20.0, pitchAndRoll[SensorInclinometer.PITCH_INDEX], ANGLE_TOLERANCE_DEG);
+
+        /* the floating point filter must not still hold the 10 degree samples */
+        inclinometer.setFixedPointEnabled(false);
+        inclinometer.onDataReceived(timestamp + SAMPLE_PERIOD_NS, accelerationAtPitch(30.0));
+        assertTrue(inclinometer.getPitchAndRoll(pitchAndRoll));
+        assertEquals(30.0, pitchAndRoll[SensorInclinometer.PITCH_INDEX], ANGLE_TOLERANCE_DEG);
+        assertEquals(0.0, pitchAndRoll[SensorInclinometer.ROLL_INDEX], ANGLE_TOLERANCE_DEG);
+    }
+
+    /**
+     * @param pitchDeg pitch (degrees)
+     * @return the oriented acceleration of a device at that pitch and no roll
+     */
+    private static float[] accelerationAtPitch(double pitchDeg) {
+        double pitch = Math.toRadians(pitchDeg);
+        return new float[]{0.0f, (float) (GRAVITY * Math.cos(pitch)), (float) (GRAVITY * Math.sin(pitch))};
+    }
+
+    /**
+     * @param degrees an angle difference (degrees)
+     * @return the same difference wrapped into -180..180 degrees
+     */
+    private static double wrap(double degrees) {
+        while (degrees > 180.0) {
+            degrees -= 360.0;
+        }
+        while (degrees < -180.0) {
+            degrees += 360.0;
+        }
+        return degrees;
+    }
+}
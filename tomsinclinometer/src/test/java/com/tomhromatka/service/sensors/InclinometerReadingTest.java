@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SensorInclinometer.readLatest() must return the reading listeners were last notified with,
+ * and a reader on another thread must never see half of one reading and half of the next.
+ * The decimating path is used so that readings are published by sample time, i.e. as fast as
+ * the test feeds samples.
+ */
+public class InclinometerReadingTest {
+    private static final double GRAVITY = SensorSourceSynthetic.STANDARD_GRAVITY;
+    private static final long SAMPLE_PERIOD_NS = 5000000L;
+    private static final int SAMPLES = 200000;
+    private static final int MAX_READS = 100000;
+
+    private final SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+    private final float[] accel = new float[3];
+
+    /* the pitch of every published reading, by timestamp.  only touched by the sensor thread */
+    private final Map<Long, Float> published = new HashMap<Long, Float>();
+    private final SensorApi recorder = new SensorApi() {
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            published.put(timestamp, values[SensorInclinometer.PITCH_INDEX]);
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        inclinometer.setOffsets(0.0, 0.0);
+        inclinometer.setDecimationEnabled(true);
+        inclinometer.registerListener(recorder);
+    }
+
+    @After
+    public void tearDown() {
+        inclinometer.unregisterListener(recorder);
+        inclinometer.setDecimationEnabled(false);
+    }
+
+    @Test
+    public void latestReadingIsTheLastOneNotified() {
+        InclinometerReading reading = new InclinometerReading();
+        long lastTimestamp = feed(0, 1000);
+
+        assertTrue(inclinometer.readLatest(reading));
+        assertTrue(reading.getTimestamp() <= lastTimestamp);
+        Float pitch = published.get(reading.getTimestamp());
+        assertNotNull("reading at " + reading.getTimestamp() + " was never notified", pitch);
+        assertEquals(pitch, reading.getPitch(), 0.0f);
+
+        /* nothing newer was notified */
+        for (long timestamp : published.keySet()) {
+            assertTrue(timestamp <= reading.getTimestamp());
+        }
+    }
+
+    @Test
+    public void concurrentReadsAreNeverTorn() throws InterruptedException {
+        final long[] timestamps = new long[MAX_READS];
+        final float[] pitches = new float[MAX_READS];
+        final int[] reads = new int[1];
+        final boolean[] done = new boolean[1];
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                InclinometerReading reading = new InclinometerReading();
+                int count = 0;
+                while (count < MAX_READS && !isDone()) {
+                    if (inclinometer.readLatest(reading)) {
+                        timestamps[count] = reading.getTimestamp();
+                        pitches[count] = reading.getPitch();
+                        count++;
+                    }
+                }
+                reads[0] = count;
+            }
+
+            private boolean isDone() {
+                synchronized (done) {
+                    return done[0];
+                }
+            }
+        });
+        reader.start();
+
+        feed(0, SAMPLES);
+        synchronized (done) {
+            done[0] = true;
+        }
+        reader.join();
+
+        assertTrue(published.size() > 100);
+        for (int index = 0; index < reads[0]; index++) {
+            Float pitch = published.get(timestamps[index]);
+            assertNotNull("reading at " + timestamps[index] + " was never notified", pitch);
+            assertEquals("reading at " + timestamps[index], pitch, pitches[index], 0.0f);
+        }
+    }
+
+    /**
+     * Feed a device that slowly pitches up and down, so every reading differs from the last
+     *
+     * @return the last timestamp fed
+     */
+    private long feed(int first, int count) {
+        long timestamp = 0;
+        for (int index = first; index < first + count; index++) {
+            double pitch = Math.toRadians(30.0 * Math.sin(index / 500.0));
+            timestamp = (index + 1) * SAMPLE_PERIOD_NS;
+            accel[0] = 0.0f;
+            accel[1] = (float) (GRAVITY * Math.cos(pitch));
+            accel[2] = (float) (GRAVITY * Math.sin(pitch));
+            inclinometer.onDataReceived(timestamp, accel);
+        }
+        return timestamp;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.sensors;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks RealFft against sines of known frequency and amplitude and against a plain DFT.
+ */
+public class RealFftTest {
+    private static final int SIZE = 256;
+
+    @Test
+    public void sineLandsInItsBin() {
+        RealFft fft = new RealFft(SIZE);
+        float[] data = new float[SIZE];
+        int bin = 10;
+        double amplitude = 3.0;
+        for (int index = 0; index < SIZE; index++) {
+            data[index] = (float) (amplitude * Math.sin(2.0 * Math.PI * bin * index / SIZE));
+        }
+
+        fft.forward(data);
+
+        /* a sine is all imaginary: X[k] = -i A n / 2 */
+        double tolerance = 1e-3 * SIZE;
+        assertEquals(0.0, data[0], tolerance);
+        assertEquals(0.0, data[1], tolerance);
+        for (int k = 1; k < SIZE / 2; k++) {
+            double expected = (bin == k) ? -amplitude * SIZE / 2 : 0.0;
+            assertEquals("re " + k, 0.0, data[2 * k], tolerance);
+            assertEquals("im " + k, expected, data[2 * k + 1], tolerance);
+        }
+    }
+
+    @Test
+    public void dcAndNyquistArePackedIntoTheFirstTwoValues() {
+        RealFft fft = new RealFft(SIZE);
+        float[] data = new float[SIZE];
+        for (int index = 0; index < SIZE; index++) {
+            data[index] = 2.0f + ((0 == index % 2) ? 1.0f : -1.0f);
+        }
+
+        fft.forward(data);
+
+        assertEquals(2.0 * SIZE, data[0], 1e-3);
+        assertEquals(1.0 * SIZE, data[1], 1e-3);
+        for (int index = 2; index < SIZE; index++) {
+            assertEquals(0.0, data[index], 1e-3);
+        }
+    }
+
+    @Test
+    public void matchesAPlainDft() {
+        RealFft fft = new RealFft(SIZE);
+        float[] data = new float[SIZE];
+        Random random = new Random(44);
+        for (int index = 0; index < SIZE; index++) {
+            data[index] = (float) random.nextGaussian();
+        }
+        float[] samples = data.clone();
+
+        fft.forward(data);
+
+        for (int k = 1; k < SIZE / 2; k++) {
+            double re = 0.0;
+            double im = 0.0;
+            for (int index = 0; index < SIZE; index++) {
+                double angle = -2.0 * Math.PI * k * index / SIZE;
+                re += samples[index] * Math.cos(angle);
+                im += samples[index] * Math.sin(angle);
+            }
+            assertEquals("re " + k, re, data[2 * k], 1e-3);
+            assertEquals("im " + k, im, data[2 * k + 1], 1e-3);
+        }
+    }
+
+    @Test
+    public void windowedPowerIsTheSinesMeanSquare() {
+        RealFft fft = new RealFft(SIZE);
+        float[] data = new float[SIZE];
+        double amplitude = 2.0;
+
+        /* off a bin centre, so the window spreads it over several bins */
+        double cycles = 20.3;
+        for (int index = 0; index < SIZE; index++) {
+            data[index] = (float) (9.8 + amplitude * Math.sin(2.0 * Math.PI * cycles * index / SIZE + 0.4));
+        }
+
+        fft.applyWindow(data);
+        fft.forward(data);
+
+        double total = 0.0;
+        for (int bin = 0; bin <= SIZE / 2; bin++) {
+            total += fft.binPower(data, bin);
+        }
+        assertEquals(amplitude * amplitude / 2.0, total, 0.05);
+        assertEquals(0.0, fft.binPower(data, 0), 1e-3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeMustBeAPowerOfTwo() {
+        new RealFft(96);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds SensorAutoCalibration oriented accelerometer samples of a still or a shaking phone and
+ * checks when it calibrates and how often it reports its progress.
+ */
+public class SensorAutoCalibrationTest {
+    private static final double GRAVITY = SensorSourceSynthetic.STANDARD_GRAVITY;
+    private static final int SAMPLE_RATE_HZ = 500;
+    private static final long SAMPLE_PERIOD_NS = 1000000000L / SAMPLE_RATE_HZ;
+    private static final long NS_PER_SEC = 1000000000L;
+
+    private SensorAutoCalibration calibration;
+    private final Progress progress = new Progress();
+    private final float[] oriented = new float[3];
+    private Random noise;
+
+    @Before
+    public void setUp() {
+        SensorInclinometer.getInstance().setOffsets(0.0, 0.0);
+        calibration = SensorAutoCalibration.getInstance();
+        calibration.setCriteria(SensorAutoCalibration.DEFAULT_STABLE_SECONDS, SensorAutoCalibration.DEFAULT_TOLERANCE);
+        noise = new Random(38);
+    }
+
+    @After
+    public void tearDown() {
+        calibration.unregisterListener(progress);
+        calibration.setCriteria(SensorAutoCalibration.DEFAULT_STABLE_SECONDS, SensorAutoCalibration.DEFAULT_TOLERANCE);
+        SensorInclinometer.getInstance().setOffsets(0.0, 0.0);
+    }
+
+    /**
+     * Records the progress notifications
+     */
+    private static class Progress implements SensorApi {
+        int notificationCount = 0;
+        long completedAt = -1;
+
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            notificationCount++;
+            if (values[SensorAutoCalibration.PROGRESS_INDEX] >= 1.0f && completedAt < 0) {
+                completedAt = timestamp;
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    }
+
+    /**
+     * Feed samples of a phone pitched by pitchDeg, with white noise on every axis and a vertical
+     * vibration
+     */
+    private void feed(long fromNs, long toNs, double pitchDeg, double noiseStdDev, double vibration) {
+        double pitch = Math.toRadians(pitchDeg);
+        for (long timestamp = fromNs; timestamp < toNs; timestamp += SAMPLE_PERIOD_NS) {
+            double shake = vibration * Math.sin(2.0 * Math.PI * 13.0 * timestamp / NS_PER_SEC);
+            oriented[0] = (float) (noiseStdDev * noise.nextGaussian());
+            oriented[1] = (float) (GRAVITY * Math.cos(pitch) + shake + noiseStdDev * noise.nextGaussian());
+            oriented[2] = (float) (GRAVITY * Math.sin(pitch) + noiseStdDev * noise.nextGaussian());
+            calibration.onDataReceived(timestamp, oriented);
+        }
+    }
+
+    @Test
+    public void noisyAccelerometerCalibratesWithTheDerivedTolerance() {
+        /* 0.04 m/s^2 per axis is about 0.07 summed over the axes, over the old fixed 0.05 */
+        calibration.registerListener(progress);
+        feed(0, 5 * NS_PER_SEC, 3.0, 0.04, 0.0);
+
+        assertTrue("never calibrated", progress.completedAt >= 0);
+        assertTrue("took " + progress.completedAt / 1e9 + " s", progress.completedAt < 3 * NS_PER_SEC);
+        assertEquals(0.07, calibration.getNoiseFloor(), 0.01);
+        /* the offset cancels the mount's pitch */
+        assertEquals(-3.0, SensorInclinometer.getInstance().getPitchOffset(), 0.1);
+    }
+
+    @Test
+    public void tooTightAFixedToleranceNeverCalibrates() {
+        calibration.setCriteria(SensorAutoCalibration.DEFAULT_STABLE_SECONDS, 0.05);
+        calibration.registerListener(progress);
+        feed(0, 10 * NS_PER_SEC, 3.0, 0.04, 0.0);
+
+        assertEquals(-1, progress.completedAt);
+    }
+
+    @Test
+    public void shakingPhoneDoesNotCalibrate() {
+        calibration.registerListener(progress);
+        feed(0, 10 * NS_PER_SEC, 3.0, 0.04, 1.0);
+
+        assertEquals(-1, progress.completedAt);
+        assertTrue(calibration.getNoiseFloor() > SensorAutoCalibration.MAX_TOLERANCE);
+    }
+
+    @Test
+    public void progressIsReportedAtTenHertz() {
+        calibration.setCriteria(60.0, SensorAutoCalibration.AUTO_TOLERANCE);
+        calibration.registerListener(progress);
+        feed(0, 10 * NS_PER_SEC, 0.0, 0.04, 0.0);
+
+        /* 5000 samples, but at most one notification per 100 ms */
+        assertTrue("notified " + progress.notificationCount + " times",
+                progress.notificationCount >= 95 && progress.notificationCount <= 101);
+    }
+
+    @Test
+    public void completionIsAlwaysReported() {
+        calibration.setCriteria(1.0, 0.5);
+        calibration.registerListener(progress);
+
+        /* complete on a sample that comes right after a rate-limited notification */
+        feed(0, NS_PER_SEC + SAMPLE_PERIOD_NS, 0.0, 0.0, 0.0);
+
+        assertEquals(NS_PER_SEC, progress.completedAt);
+        assertFalse(Double.isNaN(calibration.getNoiseFloor()));
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Factor selection and forwarding of SensorDecimator, and the decimating inclinometer's warm
+ * start
+ */
+public class SensorDecimatorTest {
+    private static final long NS_PER_SEC = 1000000000L;
+    private static final double OUTPUT_RATE_HZ = 3.0;
+
+    /**
+     * Counts and keeps the samples it is given
+     */
+    private static class Consumer implements SensorApi {
+        int count = 0;
+        final float[] last = new float[3];
+        int accuracyChanges = 0;
+
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            count++;
+            System.arraycopy(values, 0, last, 0, Math.min(values.length, last.length));
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+            accuracyChanges++;
+        }
+    }
+
+    private static final float[] STILL = {0.0f, 9.8f, 0.0f};
+
+    private final Consumer inclinometerListener = new Consumer();
+
+    @After
+    public void tearDown() {
+        SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        if (inclinometer.getListenerCount() > 0) {
+            inclinometer.unregisterListener(inclinometerListener);
+        }
+        inclinometer.setDecimationEnabled(false);
+        inclinometer.setWarmStartEnabled(true);
+    }
+
+    /**
+     * Feed a still sample at the given rate for a while
+     *
+     * @return the timestamp after the last sample
+     */
+    private static long feed(SensorDecimator decimator, long timestamp, double rateHz, double seconds) {
+        long period = (long) (NS_PER_SEC / rateHz);
+        long end = timestamp + (long) (seconds * NS_PER_SEC);
+        for (; timestamp < end; timestamp += period) {
+            decimator.onDataReceived(timestamp, STILL);
+        }
+        return timestamp;
+    }
+
+    @Test
+    public void onlyTheNeededFactorsAreBuilt() {
+        assertEquals(384, new SensorDecimator(OUTPUT_RATE_HZ, 3, 1000.0, null).getMaxFactor());
+        assertEquals(64, new SensorDecimator(OUTPUT_RATE_HZ, 3, 150.0, null).getMaxFactor());
+        assertEquals(1, new SensorDecimator(50.0, 3, 50.0, null).getMaxFactor());
+    }
+
+    @Test
+    public void factorFollowsTheInputRate() {
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_RATE_HZ, 3, 1000.0, null);
+        long timestamp = feed(decimator, 0, 200.0, 2.0);
+        assertEquals(64, decimator.getFactor());
+
+        timestamp = feed(decimator, timestamp, 50.0, 2.0);
+        assertEquals(16, decimator.getFactor());
+
+        /* faster than the largest factor covers: it saturates */
+        feed(decimator, timestamp, 2000.0, 2.0);
+        assertEquals(384, decimator.getFactor());
+    }
+
+    @Test
+    public void jitterDoesNotFlipFactors() {
+        /* 200 Hz is ideal factor 67, nearest 64.  +/-15% jitter must not switch to 48 or 96 */
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_RATE_HZ, 3, 1000.0, null);
+        long timestamp = feed(decimator, 0, 200.0, 2.0);
+        for (int burst = 0; burst < 20; burst++) {
+            timestamp = feed(decimator, timestamp, (0 == burst % 2) ? 170.0 : 230.0, 0.5);
+            assertEquals(64, decimator.getFactor());
+        }
+    }
+
+    @Test
+    public void consumerGetsTheOutputRate() {
+        Consumer consumer = new Consumer();
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_RATE_HZ, 3, 1000.0, consumer);
+        feed(decimator, 0, 384.0 * OUTPUT_RATE_HZ, 1.0);
+        int settled = consumer.count;
+        feed(decimator, NS_PER_SEC, 384.0 * OUTPUT_RATE_HZ, 10.0);
+
+        assertEquals(30, consumer.count - settled, 1);
+        assertEquals(9.8f, consumer.last[1], 1e-4f);
+    }
+
+    @Test
+    public void switchingFactorsStartsFromTheLastOutput() {
+        Consumer consumer = new Consumer();
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_RATE_HZ, 3, 1000.0, consumer);
+        long timestamp = feed(decimator, 0, 200.0, 2.0);
+
+        /* the first output after a switch is still the steady value, not a transient */
+        decimator.onDataReceived(timestamp, STILL);
+        timestamp += NS_PER_SEC / 20;
+        int before = consumer.count;
+        for (int index = 0; index < 20 && consumer.count == before; index++) {
+            decimator.onDataReceived(timestamp, STILL);
+            timestamp += NS_PER_SEC / 20;
+        }
+        assertTrue(consumer.count > before);
+        assertEquals(9.8f, consumer.last[1], 1e-4f);
+    }
+
+    @Test
+    public void accuracyChangeStartsOver() {
+        Consumer consumer = new Consumer();
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_RATE_HZ, 3, 1000.0, consumer);
+        feed(decimator, 0, 200.0, 2.0);
+        decimator.onAccuracyChanged(3);
+
+        assertEquals(1, consumer.accuracyChanges);
+        assertEquals(0, decimator.getFactor());
+        assertTrue(!decimator.isOutputValid());
+    }
+
+    @Test
+    public void decimatingInclinometerWarmStartsOnTheFirstSample() {
+        SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        inclinometer.setOffsets(0.0, 0.0);
+        inclinometer.setDecimationEnabled(true);
+        inclinometer.registerListener(inclinometerListener);
+
+        /* pitched up 30 degrees: y and z share gravity */
+        float[] pitched = {0.0f, (float) (9.8 * Math.cos(Math.PI / 6)), (float) (9.8 * Math.sin(Math.PI / 6))};
+        inclinometer.onDataReceived(NS_PER_SEC, pitched);
+
+        assertEquals(1, inclinometerListener.count);
+        assertEquals(30.0f, inclinometerListener.last[SensorInclinometer.PITCH_INDEX], 0.01f);
+        assertTrue(inclinometer.getTimeToFirstReadingNs() >= 0);
+
+        /* once the decimator knows the input rate, readings come at its output rate */
+        for (long timestamp = NS_PER_SEC + NS_PER_SEC / 200; timestamp < 2 * NS_PER_SEC; timestamp += NS_PER_SEC / 200) {
+            inclinometer.onDataReceived(timestamp, pitched);
+        }
+        assertTrue(inclinometerListener.count <= 1 + OUTPUT_RATE_HZ + 1);
+        assertEquals(30.0f, inclinometerListener.last[SensorInclinometer.PITCH_INDEX], 0.01f);
+    }
+
+    @Test
+    public void decimatingInclinometerWaitsForTheDecimatorWithoutWarmStart() {
+        SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        inclinometer.setWarmStartEnabled(false);
+        inclinometer.setDecimationEnabled(true);
+        inclinometer.registerListener(inclinometerListener);
+
+        /* nothing for the first notification period, then the decimator's outputs */
+        long timestamp = NS_PER_SEC;
+        for (; timestamp < NS_PER_SEC + NS_PER_SEC / 4; timestamp += NS_PER_SEC / 200) {
+            inclinometer.onDataReceived(timestamp, STILL);
+        }
+        assertEquals(0, inclinometerListener.count);
+
+        for (; timestamp < 3 * NS_PER_SEC; timestamp += NS_PER_SEC / 200) {
+            inclinometer.onDataReceived(timestamp, STILL);
+        }
+        assertTrue(inclinometerListener.count >= 4);
+        assertTrue(inclinometer.getTimeToFirstReadingNs() >= 0);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how early SensorRolloverPredictor warns of a developing slide and how often it
+ * warns when the vehicle is only swaying.  A warning is a prediction of WARNING_HORIZON_SEC or
+ * less until a limit is reached.  Samples are fed straight into the predictor, as if they came
+ * from the oriented accelerometer.
+ */
+public class SensorRolloverPredictorTest {
+    private static final double GRAVITY = SensorSourceSynthetic.STANDARD_GRAVITY;
+    private static final int SAMPLE_RATE_HZ = 200;
+    private static final long SAMPLE_PERIOD_NS = 1000000000L / SAMPLE_RATE_HZ;
+    private static final double LIMIT_DEG = 30.0;
+    private static final double WARNING_HORIZON_SEC = 3.0;
+
+    /* a warning may come at most this late, i.e. a couple of samples' worth of noise */
+    private static final double MAX_WARNING_LATENCY_SEC = 0.1;
+
+    private SensorRolloverPredictor predictor;
+    private final Warnings warnings = new Warnings();
+    private final float[] oriented = new float[3];
+
+    @Before
+    public void setUp() {
+        SensorInclinometer.getInstance().setOffsets(0.0, 0.0);
+        predictor = SensorRolloverPredictor.getInstance();
+        predictor.setLimits(LIMIT_DEG, LIMIT_DEG);
+        predictor.registerListener(warnings);
+    }
+
+    @After
+    public void tearDown() {
+        predictor.unregisterListener(warnings);
+        predictor.setLimits(SensorRolloverPredictor.DEFAULT_PITCH_LIMIT, SensorRolloverPredictor.DEFAULT_ROLL_LIMIT);
+    }
+
+    /**
+     * Counts the predictions that would raise a warning
+     */
+    private static class Warnings implements SensorApi {
+        long sampleCount = 0;
+        long warningCount = 0;
+        long firstWarning = -1;
+
+        @Override
+        public void onDataReceived(long timestamp, float[] secondsToLimit) {
+            sampleCount++;
+            if (secondsToLimit[SensorRolloverPredictor.PITCH_INDEX] <= WARNING_HORIZON_SEC ||
+                    secondsToLimit[SensorRolloverPredictor.ROLL_INDEX] <= WARNING_HORIZON_SEC) {
+                warningCount++;
+                if (firstWarning < 0) {
+                    firstWarning = timestamp;
+                }
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    }
+
+    /**
+     * Feed the oriented accelerometer sample of a device at the given pitch and roll
+     */
+    private void feed(long timestamp, double pitchDeg, double rollDeg, Random noise, double noiseStdDev) {
+        double pitch = Math.toRadians(pitchDeg);
+        double roll = Math.toRadians(rollDeg);
+        oriented[0] = (float) (-GRAVITY * Math.sin(roll) + noiseStdDev * noise.nextGaussian());
+        oriented[1] = (float) (GRAVITY * Math.cos(roll) * Math.cos(pitch) + noiseStdDev * noise.nextGaussian());
+        oriented[2] = (float) (GRAVITY * Math.cos(roll) * Math.sin(pitch) + noiseStdDev * noise.nextGaussian());
+        predictor.onDataReceived(timestamp, oriented);
+    }
+
+    @Test
+    public void warnsOfASteadySlideOnTime() {
+        /* level for two seconds, then rolling at 5 degrees per second */
+        double rateDegPerSec = 5.0;
+        long onsetNs = 2000000000L;
+        Random noise = new Random(33);
+
+        long crossingNs = onsetNs + (long) (LIMIT_DEG / rateDegPerSec * 1e9);
+        for (long timestamp = 0; timestamp <= crossingNs; timestamp += SAMPLE_PERIOD_NS) {
+            double roll = timestamp < onsetNs ? 0.0 : rateDegPerSec * (timestamp - onsetNs) / 1e9;
+            feed(timestamp, 0.0, roll, noise, 0.05);
+        }
+
+        assertTrue("no warning before the limit was crossed", warnings.firstWarning >= 0);
+
+        /* an ideal predictor warns exactly WARNING_HORIZON_SEC before the crossing */
+        double latencySec = (warnings.firstWarning - (crossingNs - (long) (WARNING_HORIZON_SEC * 1e9))) / 1e9;
+        double leadSec = (crossingNs - warnings.firstWarning) / 1e9;
+        assertTrue("warning latency " + latencySec + " s", latencySec <= MAX_WARNING_LATENCY_SEC);
+        assertTrue("warning lead " + leadSec + " s", leadSec >= WARNING_HORIZON_SEC - MAX_WARNING_LATENCY_SEC);
+
+        /* and doesn't cry wolf while the device is level */
+        assertTrue("warned " + (onsetNs - warnings.firstWarning) / 1e9 + " s before the slide began",
+                warnings.firstWarning > onsetNs);
+    }
+
+    @Test
+    public void warnsOfAFasterSlideSooner() {
+        /* 15 degrees per second leaves a second less than the horizon once the trend is known */
+        double rateDegPerSec = 15.0;
+        long onsetNs = 2000000000L;
+        Random noise = new Random(34);
+
+        long crossingNs = onsetNs + (long) (LIMIT_DEG / rateDegPerSec * 1e9);
+        for (long timestamp = 0; timestamp <= crossingNs; timestamp += SAMPLE_PERIOD_NS) {
+            double pitch = timestamp < onsetNs ? 0.0 : -rateDegPerSec * (timestamp - onsetNs) / 1e9;
+            feed(timestamp, pitch, 0.0, noise, 0.05);
+        }
+
+        /* the slide reaches the limit within the horizon, so warn once the slope is trusted */
+        double leadSec = (crossingNs - warnings.firstWarning) / 1e9;
+        assertTrue("no warning before the limit was crossed", warnings.firstWarning >= 0);
+        assertTrue("warning lead " + leadSec + " s", leadSec >= 1.0);
+    }
+
+    @Test
+    public void swayVibrationAndShocksRaiseNoFalseAlarms() {
+        /* +/-10 degrees of roll and +/-5 of pitch every 10 s on a rough road, for a minute */
+        SensorSourceSynthetic road = new SensorSourceSynthetic(SAMPLE_RATE_HZ);
+        road.setTiltProfile(0.0, 5.0, 0.0, 10.0, 10.0);
+        road.setVibrationSpectrum(new double[]{13.0, 41.0}, new double[]{1.0, 0.5});
+        road.setShocks(2.5, 6.0, 0.02);
+        road.setNoise(0.2);
+        road.reset(0);
+
+        road.generate(new SensorApi() {
+            @Override
+            public void onDataReceived(long timestamp, float[] values) {
+                /* the raw accelerometer's z points the other way */
+                oriented[0] = values[0];
+                oriented[1] = values[1];
+                oriented[2] = -values[2];
+                predictor.onDataReceived(timestamp, oriented);
+            }
+
+            @Override
+            public void onAccuracyChanged(int accuracy) {
+            }
+        }, 60 * SAMPLE_RATE_HZ);
+
+        double falseAlarmRate = (double) warnings.warningCount / warnings.sampleCount;
+        assertEquals("false alarm rate", 0.0, falseAlarmRate, 0.0);
+    }
+
+    @Test
+    public void expectedSampleRateMayChangeWhileSamplesFlow() throws InterruptedException {
+        final Random noise = new Random(35);
+        Thread sensorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long timestamp = 0; timestamp < 20000000000L; timestamp += SAMPLE_PERIOD_NS / 10) {
+                    feed(timestamp, 0.0, 0.0, noise, 0.05);
+                }
+            }
+        });
+        sensorThread.start();
+
+        /* keeps the regressions growing underneath the sensor thread */
+        for (int rate = SAMPLE_RATE_HZ; sensorThread.isAlive() && rate <= 64 * SAMPLE_RATE_HZ; rate *= 2) {
+            predictor.setExpectedSampleRate(rate);
+        }
+        sensorThread.join();
+
+        assertEquals(0, warnings.warningCount);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds SensorRoughness vertical vibration of known frequency and amplitude, as if it came from
+ * the oriented accelerometer, and checks the band it lands in and the roughness index.  The
+ * analysis runs on its own thread, so the test pauses after each hop to let it keep up.
+ */
+public class SensorRoughnessTest {
+    private static final double GRAVITY = SensorSourceSynthetic.STANDARD_GRAVITY;
+    private static final int SAMPLE_RATE_HZ = 200;
+    private static final long SAMPLE_PERIOD_NS = 1000000000L / SAMPLE_RATE_HZ;
+    private static final int FRAMES = 6;
+    private static final long HOP_PAUSE_MS = 20;
+    private static final long PUBLISH_TIMEOUT_MS = 2000;
+
+    private final SensorRoughness roughness = SensorRoughness.getInstance();
+    private final Published published = new Published();
+    private final float[] accel = new float[3];
+    private long timestamp = SAMPLE_PERIOD_NS;
+    private int sampleCount = 0;
+
+    /**
+     * Keeps the newest published values.  Notified on the analysis thread.
+     */
+    private static class Published implements SensorApi {
+        private final float[] values = new float[1 + SensorRoughness.BAND_COUNT];
+        private int count = 0;
+
+        @Override
+        public synchronized void onDataReceived(long timestamp, float[] values) {
+            System.arraycopy(values, 0, this.values, 0, this.values.length);
+            count++;
+            notifyAll();
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+
+        synchronized float[] await(int minimumCount) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + PUBLISH_TIMEOUT_MS;
+            while (count < minimumCount && System.currentTimeMillis() < deadline) {
+                wait(PUBLISH_TIMEOUT_MS);
+            }
+            assertTrue("published " + count + " times", count >= minimumCount);
+            return values.clone();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        roughness.registerListener(published);
+    }
+
+    @After
+    public void tearDown() {
+        roughness.unregisterListener(published);
+    }
+
+    @Test
+    public void vibrationLandsInItsBand() throws InterruptedException {
+        double amplitude = 2.0;
+        feed(amplitude, 10.0);
+        float[] values = published.await(2);
+
+        /* 10 Hz is in the 8 to 16 Hz band */
+        int band = 3;
+        double meanSquare = amplitude * amplitude / 2.0;
+        assertEquals(meanSquare, values[SensorRoughness.FIRST_BAND_INDEX + band], 0.05 * meanSquare);
+        assertEquals(Math.sqrt(meanSquare), values[SensorRoughness.ROUGHNESS_INDEX], 0.05 * Math.sqrt(meanSquare));
+        for (int other = 0; other < SensorRoughness.BAND_COUNT; other++) {
+            if (band != other) {
+                assertEquals("band " + other, 0.0, values[SensorRoughness.FIRST_BAND_INDEX + other], 0.01 * meanSquare);
+            }
+        }
+    }
+
+    @Test
+    public void gravityAloneIsNotRough() throws InterruptedException {
+        feed(0.0, 10.0);
+        float[] values = published.await(2);
+
+        assertEquals(0.0, values[SensorRoughness.ROUGHNESS_INDEX], 0.01);
+    }
+
+    /**
+     * Feed FRAMES hops of gravity plus a vertical sine
+     */
+    private void feed(double amplitude, double frequencyHz) throws InterruptedException {
+        int hop = SensorRoughness.FFT_SIZE / 2;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int index = 0; index < hop; index++) {
+                double seconds = sampleCount / (double) SAMPLE_RATE_HZ;
+                accel[0] = 0.0f;
+                accel[1] = (float) (GRAVITY + amplitude * Math.sin(2.0 * Math.PI * frequencyHz * seconds));
+                accel[2] = 0.0f;
+                roughness.onDataReceived(timestamp, accel);
+                timestamp += SAMPLE_PERIOD_NS;
+                sampleCount++;
+            }
+            Thread.sleep(HOP_PAUSE_MS);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds SensorShockDetector a device lying still with a little sensor noise and adds synthetic
+ * impulses to it: half sines along gravity, as from a pothole, of known peak and length.
+ * Samples are fed straight into the detector, as if they came from the accelerometer.
+ */
+public class SensorShockDetectorTest {
+    private static final double GRAVITY = SensorSourceSynthetic.STANDARD_GRAVITY;
+    private static final int SAMPLE_RATE_HZ = 400;
+    private static final long SAMPLE_PERIOD_NS = 1000000000L / SAMPLE_RATE_HZ;
+    private static final double NOISE = 0.05;
+
+    /* long enough for the baseline to settle */
+    private static final long QUIET_NS = 2000000000L;
+    private static final long IMPULSE_NS = 20000000L;
+
+    private SensorShockDetector detector;
+    private final Shocks shocks = new Shocks();
+    private final float[] accel = new float[3];
+    private final Random noise = new Random(36);
+    private long timestamp = 0;
+
+    /**
+     * Records the reported shocks
+     */
+    private static class Shocks implements SensorApi {
+        int count = 0;
+        long lastTimestamp = 0;
+        float lastPeak = 0.0f;
+        float lastDurationMs = 0.0f;
+
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            count++;
+            lastTimestamp = timestamp;
+            lastPeak = values[SensorShockDetector.PEAK_INDEX];
+            lastDurationMs = values[SensorShockDetector.DURATION_INDEX];
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        detector = SensorShockDetector.getInstance();
+        detector.setCriteria(SensorShockDetector.DEFAULT_MINIMUM_PEAK, SensorShockDetector.DEFAULT_REFRACTORY_SECONDS);
+        detector.registerListener(shocks);
+    }
+
+    @After
+    public void tearDown() {
+        detector.unregisterListener(shocks);
+        detector.setCriteria(SensorShockDetector.DEFAULT_MINIMUM_PEAK, SensorShockDetector.DEFAULT_REFRACTORY_SECONDS);
+    }
+
+    @Test
+    public void impulseIsReportedOnceWithItsPeak() {
+        quiet(QUIET_NS);
+        long impulseStart = timestamp;
+        impulse(8.0, IMPULSE_NS);
+        quiet(QUIET_NS);
+
+        assertEquals(1, shocks.count);
+        assertEquals(8.0, shocks.lastPeak, 0.5);
+
+        /* reported at the top of the half sine, and lasting about as long as its upper part */
+        assertEquals(impulseStart + IMPULSE_NS / 2, shocks.lastTimestamp, 2 * SAMPLE_PERIOD_NS);
+        assertTrue("duration " + shocks.lastDurationMs + " ms",
+                shocks.lastDurationMs > 0.0f && shocks.lastDurationMs <= IMPULSE_NS / 1e6);
+    }
+
+    @Test
+    public void dropIsReportedAsANegativePeak() {
+        quiet(QUIET_NS);
+        impulse(-6.0, IMPULSE_NS);
+        quiet(QUIET_NS);
+
+        assertEquals(1, shocks.count);
+        assertEquals(-6.0, shocks.lastPeak, 0.5);
+    }
+
+    @Test
+    public void impulsesBelowTheMinimumPeakAreIgnored() {
+        quiet(QUIET_NS);
+        for (int i = 0; i < 10; i++) {
+            impulse(0.8 * SensorShockDetector.DEFAULT_MINIMUM_PEAK, IMPULSE_NS);
+            quiet(QUIET_NS / 4);
+        }
+
+        assertEquals(0, shocks.count);
+    }
+
+    @Test
+    public void ringingWithinTheRefractoryPeriodIsPartOfTheShock() {
+        quiet(QUIET_NS);
+        impulse(8.0, IMPULSE_NS);
+
+        /* the suspension bounces back within the refractory period */
+        quiet(50000000L);
+        impulse(-5.0, IMPULSE_NS);
+        quiet(50000000L);
+        impulse(4.0, IMPULSE_NS);
+        quiet(QUIET_NS);
+        assertEquals(1, shocks.count);
+
+        /* the next pothole, well after it, is a shock of its own */
+        impulse(7.0, IMPULSE_NS);
+        quiet(QUIET_NS);
+        assertEquals(2, shocks.count);
+        assertEquals(7.0, shocks.lastPeak, 0.5);
+    }
+
+    @Test
+    public void newSteadyAccelerationIsNotAShock() {
+        quiet(QUIET_NS);
+
+        /* the phone was put down on its side in a car that is braking: 5 m/s^2 for good */
+        long end = timestamp + 3 * QUIET_NS;
+        while (timestamp < end) {
+            feed(5.0);
+        }
+
+        assertEquals(0, shocks.count);
+    }
+
+    private void quiet(long durationNs) {
+        long end = timestamp + durationNs;
+        while (timestamp < end) {
+            feed(0.0);
+        }
+    }
+
+    /**
+     * A half sine of extra acceleration along gravity
+     */
+    private void impulse(double peak, long durationNs) {
+        long start = timestamp;
+        while (timestamp < start + durationNs) {
+            feed(peak * Math.sin(Math.PI * (timestamp - start) / durationNs));
+        }
+    }
+
+    private void feed(double extra) {
+        accel[0] = (float) (NOISE * noise.nextGaussian());
+        accel[1] = (float) (NOISE * noise.nextGaussian());
+        accel[2] = (float) (GRAVITY + extra + NOISE * noise.nextGaussian());
+        detector.onDataReceived(timestamp, accel);
+        timestamp += SAMPLE_PERIOD_NS;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays recorded frames to SensorSourceSocket through a gateway on loopback, including
+ * garbage between frames and frames split across writes.
+ */
+public class SensorSourceSocketTest {
+    private static final long TIMEOUT_MS = 5000;
+    private static final long FRAME_PERIOD_NS = 1000000L;
+
+    private ServerSocketChannel server;
+    private SensorSourceSocket source;
+
+    @Before
+    public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        source = new SensorSourceSocket(new InetSocketAddress("127.0.0.1", server.socket().getLocalPort()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        source.stop();
+        server.close();
+    }
+
+    /**
+     * Records the samples it is given.  Called on the source's reader thread.
+     */
+    private static class Recorder implements SensorApi {
+        final long[] timestamps;
+        final float[] values;
+        final CountDownLatch done;
+        int count = 0;
+
+        Recorder(int capacity) {
+            timestamps = new long[capacity];
+            values = new float[3 * capacity];
+            done = new CountDownLatch(capacity);
+        }
+
+        @Override
+        public synchronized void onDataReceived(long timestamp, float[] data) {
+            if (count < timestamps.length) {
+                timestamps[count] = timestamp;
+                System.arraycopy(data, 0, values, 3 * count, 3);
+                count++;
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void putFrame(ByteBuffer frames, byte type, long timestamp, float x, float y, float z) {
+        frames.put(SensorSourceSocket.FRAME_SYNC);
+        frames.put(type);
+        frames.putShort((short) 0);
+        frames.putLong(timestamp);
+        frames.putFloat(x);
+        frames.putFloat(y);
+        frames.putFloat(z);
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    @Test
+    public void replayResynchronizesAfterBadSyncBytes() throws Exception {
+        Recorder accelerometer = new Recorder(4);
+        Recorder gyroscope = new Recorder(1);
+        source.setGyroscopeListener(gyroscope);
+        source.start(accelerometer);
+
+        SocketChannel gateway = server.accept();
+        try {
+            ByteBuffer frames = ByteBuffer.allocate(16 * SensorSourceSocket.FRAME_SIZE).order(SensorSourceSocket.BYTE_ORDER);
+            long gatewayStart = 123456789000L;
+
+            putFrame(frames, SensorSourceSocket.FRAME_TYPE_ACCELEROMETER, gatewayStart, 0.0f, 9.8f, 0.0f);
+
+            /* a torn frame: the tail of a frame whose head was lost, i.e. bytes without a sync */
+            frames.put((byte) 0x00).put((byte) 0x01).put((byte) 0x02);
+
+            putFrame(frames, SensorSourceSocket.FRAME_TYPE_ACCELEROMETER, gatewayStart + FRAME_PERIOD_NS, 1.0f, 9.7f, 0.5f);
+            putFrame(frames, SensorSourceSocket.FRAME_TYPE_GYROSCOPE, gatewayStart + FRAME_PERIOD_NS, 0.1f, 0.2f, 0.3f);
+            putFrame(frames, (byte) 99, gatewayStart + FRAME_PERIOD_NS, 0.0f, 0.0f, 0.0f);
+            putFrame(frames, SensorSourceSocket.FRAME_TYPE_ACCELEROMETER, gatewayStart + 2 * FRAME_PERIOD_NS, 2.0f, 9.6f, 1.0f);
+
+            /* the last frame arrives in two pieces */
+            putFrame(frames, SensorSourceSocket.FRAME_TYPE_ACCELEROMETER, gatewayStart + 3 * FRAME_PERIOD_NS, 3.0f, 9.5f, 1.5f);
+            frames.flip();
+
+            ByteBuffer head = frames.duplicate();
+            head.limit(frames.limit() - SensorSourceSocket.FRAME_SIZE / 2);
+            long before = SensorClock.nowNs();
+            writeFully(gateway, head);
+            frames.position(head.limit());
+            Thread.sleep(50);
+            writeFully(gateway, frames);
+
+            assertTrue("timed out waiting for frames", accelerometer.await());
+            assertTrue("timed out waiting for the gyroscope", gyroscope.await());
+            long after = SensorClock.nowNs();
+
+            synchronized (accelerometer) {
+                assertEquals(4, accelerometer.count);
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(i * 1.0f, accelerometer.values[3 * i], 0.0f);
+                    assertEquals(9.8f - i * 0.1f, accelerometer.values[3 * i + 1], 1e-6f);
+                    assertEquals(i * 0.5f, accelerometer.values[3 * i + 2], 0.0f);
+
+                    /* rebased onto SensorClock, but spaced like the gateway's stamps */
+                    assertEquals(accelerometer.timestamps[0] + i * FRAME_PERIOD_NS, accelerometer.timestamps[i]);
+                }
+                assertTrue(accelerometer.timestamps[0] >= before && accelerometer.timestamps[0] <= after);
+            }
+
+            synchronized (gyroscope) {
+                assertEquals(0.3f, gyroscope.values[2], 0.0f);
+                assertEquals(accelerometer.timestamps[1], gyroscope.timestamps[0]);
+            }
+
+            assertEquals(3, source.getDroppedByteCount());
+            assertEquals(6, source.getFrameCount());
+        }
+        finally {
+            gateway.close();
+        }
+    }
+
+    @Test
+    public void stopClosesTheConnection() throws Exception {
+        source.start(new Recorder(1));
+        SocketChannel gateway = server.accept();
+        try {
+            source.stop();
+
+            /* the source hangs up, so the gateway reads end of stream */
+            ByteBuffer sink = ByteBuffer.allocate(SensorSourceSocket.FRAME_SIZE);
+            gateway.socket().setSoTimeout((int) TIMEOUT_MS);
+            assertEquals(-1, gateway.socket().getInputStream().read(sink.array()));
+        }
+        finally {
+            gateway.close();
+        }
+    }
+}
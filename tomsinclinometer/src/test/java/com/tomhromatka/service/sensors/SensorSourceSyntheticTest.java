@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the synthetic accelerometer and for stopping a running SensorSource.  None of
+ * this needs a device: the pipeline from SensorAccelerometer up is plain Java.
+ */
+public class SensorSourceSyntheticTest {
+    private static final int SAMPLE_RATE_HZ = 1000;
+    private static final long TIMEOUT_MS = 5000;
+
+    @After
+    public void tearDown() {
+        SensorAccelerometer.getInstance().setSensorSource(null);
+    }
+
+    private static SensorSourceSynthetic createSource() {
+        SensorSourceSynthetic source = new SensorSourceSynthetic(SAMPLE_RATE_HZ);
+        source.setTiltProfile(0.0, 10.0, 0.0, 15.0, 10.0);
+        source.setVibrationSpectrum(new double[]{30.0, 120.0}, new double[]{0.5, 0.2});
+        source.setShocks(1.0, 3.0, 0.01);
+        source.setNoise(0.05);
+        return source;
+    }
+
+    /**
+     * Records every sample it is given
+     */
+    private static class Recorder implements SensorApi {
+        final long[] timestamps;
+        final float[] values;
+        int count = 0;
+
+        Recorder(int capacity) {
+            timestamps = new long[capacity];
+            values = new float[3 * capacity];
+        }
+
+        @Override
+        public void onDataReceived(long timestamp, float[] data) {
+            if (count < timestamps.length) {
+                timestamps[count] = timestamp;
+                System.arraycopy(data, 0, values, 3 * count, 3);
+                count++;
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    }
+
+    @Test
+    public void identicallyConfiguredGeneratorsAreBitForBitIdentical() {
+        Recorder first = new Recorder(5000);
+        Recorder second = new Recorder(5000);
+
+        createSource().generate(first, 5000);
+        SensorSourceSynthetic source = createSource();
+        source.generate(second, 2000);
+        source.generate(second, 3000);
+
+        assertArrayEquals(first.timestamps, second.timestamps);
+        assertArrayEquals(first.values, second.values, 0.0f);
+
+        source.reset(0);
+        Recorder rewound = new Recorder(5000);
+        source.generate(rewound, 5000);
+        assertArrayEquals(first.values, rewound.values, 0.0f);
+    }
+
+    @Test
+    public void generatedTimestampsAreEvenlySpaced() {
+        Recorder recorder = new Recorder(100);
+        SensorSourceSynthetic source = createSource();
+        source.reset(123456789L);
+        source.generate(recorder, 100);
+
+        for (int i = 0; i < recorder.count; i++) {
+            assertEquals(123456789L + i * 1000000L, recorder.timestamps[i]);
+        }
+    }
+
+    @Test(timeout = TIMEOUT_MS)
+    public void startedSourceStampsSamplesOnTheSensorClock() throws InterruptedException {
+        final CountDownLatch received = new CountDownLatch(1);
+        final long[] firstTimestamp = new long[1];
+        SensorSourceSynthetic source = createSource();
+
+        long before = SensorClock.nowNs();
+        source.start(new SensorApi() {
+            @Override
+            public void onDataReceived(long timestamp, float[] values) {
+                if (received.getCount() > 0) {
+                    firstTimestamp[0] = timestamp;
+                    received.countDown();
+                }
+            }
+
+            @Override
+            public void onAccuracyChanged(int accuracy) {
+            }
+        });
+        received.await();
+        long after = SensorClock.nowNs();
+        source.stop();
+
+        assertTrue("first sample stamped before the source started", firstTimestamp[0] >= before);
+        assertTrue("first sample stamped after it was received", firstTimestamp[0] <= after);
+    }
+
+    /**
+     * The generator thread's listener needs the accelerometer's lock (as a listener calling back
+     * into a synchronized sensor method would) while the main thread holds that lock and
+     * unregisters the last listener.  This used to deadlock: stopping the source joined the
+     * generator thread, which was stuck waiting for the lock.
+     */
+    @Test(timeout = TIMEOUT_MS)
+    public void unregisteringWhileASampleIsInFlightDoesNotDeadlock() throws InterruptedException {
+        final SensorAccelerometer accelerometer = SensorAccelerometer.getInstance();
+        final CountDownLatch flowing = new CountDownLatch(100);
+        SensorApi listener = new SensorApi() {
+            @Override
+            public void onDataReceived(long timestamp, float[] values) {
+                synchronized (accelerometer) {
+                    flowing.countDown();
+                }
+            }
+
+            @Override
+            public void onAccuracyChanged(int accuracy) {
+            }
+        };
+
+        accelerometer.setSensorSource(createSource());
+        accelerometer.registerListener(listener);
+        flowing.await();
+
+        synchronized (accelerometer) {
+            /* let the generator thread block on the lock we hold */
+            Thread.sleep(10);
+            accelerometer.unregisterListener(listener);
+        }
+
+        assertEquals(0, accelerometer.getListenerCount());
+    }
+
+    /**
+     * Samples flow from the synthetic source all the way up to the inclinometer on a plain JVM,
+     * and keep flowing when the source is swapped underneath a running pipeline
+     */
+    @Test(timeout = TIMEOUT_MS)
+    public void replacingTheSourceOfARunningPipelineKeepsItFlowing() throws InterruptedException {
+        final CountDownLatch rawFlowing = new CountDownLatch(100);
+        final CountDownLatch anglesFlowing = new CountDownLatch(1);
+        SensorApi rawListener = new SensorApi() {
+            @Override
+            public void onDataReceived(long timestamp, float[] values) {
+                rawFlowing.countDown();
+            }
+
+            @Override
+            public void onAccuracyChanged(int accuracy) {
+            }
+        };
+        SensorApi angleListener = new SensorApi() {
+            @Override
+            public void onDataReceived(long timestamp, float[] values) {
+                anglesFlowing.countDown();
+            }
+
+            @Override
+            public void onAccuracyChanged(int accuracy) {
+            }
+        };
+
+        SensorAccelerometer accelerometer = SensorAccelerometer.getInstance();
+        SensorInclinometer inclinometer = SensorInclinometer.getInstance();
+        accelerometer.setSensorSource(new SensorSourceSynthetic(SAMPLE_RATE_HZ, 1));
+        inclinometer.registerListener(angleListener);
+        accelerometer.registerListener(rawListener);
+        accelerometer.setSensorSource(new SensorSourceSynthetic(SAMPLE_RATE_HZ, 2));
+        rawFlowing.await();
+        anglesFlowing.await();
+        accelerometer.unregisterListener(rawListener);
+        inclinometer.unregisterListener(angleListener);
+    }
+}
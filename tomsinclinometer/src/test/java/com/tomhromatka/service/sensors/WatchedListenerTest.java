@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.sensors;
+
+import com.tomhromatka.service.HromatkaLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks AbstractSensor's listener watchdog: a listener that keeps overrunning its budget or
+ * keeps throwing is unregistered, a single good callback forgives it, and the other listeners
+ * get every sample throughout.
+ */
+public class WatchedListenerTest {
+    /* comfortably over WatchedListener.LISTENER_BUDGET_NS */
+    private static final long SLOW_CALLBACK_NS = 2 * WatchedListener.LISTENER_BUDGET_NS;
+
+    private final TestSensor sensor = new TestSensor();
+    private final CountingListener healthy = new CountingListener();
+    private final CountingListener misbehaving = new CountingListener();
+    private final float[] values = new float[3];
+    private long timestamp = 0;
+    private boolean loggingWasEnabled;
+
+    /**
+     * A sensor with nothing behind it, publishing whatever the test gives it
+     */
+    private static class TestSensor extends AbstractSensor {
+        boolean enabled = false;
+
+        @Override
+        protected void enableSensor() {
+            enabled = true;
+        }
+
+        @Override
+        protected void disableSensor() {
+            enabled = false;
+        }
+
+        void publish(long timestamp, float[] values) {
+            notifyListenersDataReceived(timestamp, values);
+        }
+    }
+
+    /**
+     * Counts its callbacks, and is slow or throws when told to
+     */
+    private static class CountingListener implements SensorApi {
+        int dataCount = 0;
+        boolean slow = false;
+        boolean throwing = false;
+
+        @Override
+        public void onDataReceived(long timestamp, float[] values) {
+            dataCount++;
+            if (slow) {
+                long deadline = System.nanoTime() + SLOW_CALLBACK_NS;
+                while (System.nanoTime() < deadline) {
+                    /* busy wait, so the overrun doesn't depend on the scheduler */
+                }
+            }
+            if (throwing) {
+                throw new IllegalStateException("test listener failure");
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(int accuracy) {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        /* the watchdog logs every failure; keep the test output readable */
+        loggingWasEnabled = HromatkaLog.getInstance().isLoggingEnabled();
+        HromatkaLog.getInstance().setLoggingEnabled(false);
+
+        sensor.registerListener(misbehaving);
+        sensor.registerListener(healthy);
+    }
+
+    @After
+    public void tearDown() {
+        sensor.destroySensor();
+        HromatkaLog.getInstance().setLoggingEnabled(loggingWasEnabled);
+    }
+
+    @Test
+    public void listenerIsUnregisteredAfterConsecutiveOverruns() {
+        misbehaving.slow = true;
+        publish(WatchedListener.OVERRUN_LIMIT - 1);
+        assertEquals(2, sensor.getListenerCount());
+
+        publish(1);
+        assertEquals(1, sensor.getListenerCount());
+        assertEquals(WatchedListener.OVERRUN_LIMIT, misbehaving.dataCount);
+
+        /* the slow listener no longer holds up the others */
+        publish(5);
+        assertEquals(WatchedListener.OVERRUN_LIMIT, misbehaving.dataCount);
+        assertEquals(WatchedListener.OVERRUN_LIMIT + 5, healthy.dataCount);
+    }
+
+    @Test
+    public void callbackWithinBudgetResetsTheOverruns() {
+        misbehaving.slow = true;
+        publish(WatchedListener.OVERRUN_LIMIT - 1);
+        misbehaving.slow = false;
+        publish(1);
+        misbehaving.slow = true;
+        publish(WatchedListener.OVERRUN_LIMIT - 1);
+
+        assertEquals(2, sensor.getListenerCount());
+
+        ListenerStats[] stats = {new ListenerStats(), new ListenerStats()};
+        assertEquals(2, sensor.readListenerStats(stats));
+        assertEquals(2 * (WatchedListener.OVERRUN_LIMIT - 1), stats[0].getOverrunCount());
+        assertEquals(0, stats[1].getOverrunCount());
+    }
+
+    @Test
+    public void listenerIsUnregisteredAfterConsecutiveExceptions() {
+        misbehaving.throwing = true;
+        publish(WatchedListener.EXCEPTION_LIMIT - 1);
+        assertEquals(2, sensor.getListenerCount());
+
+        publish(1);
+        assertEquals(1, sensor.getListenerCount());
+
+        publish(5);
+        assertEquals(WatchedListener.EXCEPTION_LIMIT, misbehaving.dataCount);
+        assertEquals(WatchedListener.EXCEPTION_LIMIT + 5, healthy.dataCount);
+    }
+
+    @Test
+    public void occasionalExceptionsAreTolerated() {
+        for (int i = 0; i < 10; i++) {
+            misbehaving.throwing = true;
+            publish(WatchedListener.EXCEPTION_LIMIT - 1);
+            misbehaving.throwing = false;
+            publish(1);
+        }
+
+        assertEquals(2, sensor.getListenerCount());
+        assertEquals(10 * WatchedListener.EXCEPTION_LIMIT, healthy.dataCount);
+    }
+
+    @Test
+    public void sensorIsDisabledWhenItsLastListenerFails() {
+        sensor.unregisterListener(healthy);
+        misbehaving.throwing = true;
+        publish(WatchedListener.EXCEPTION_LIMIT);
+
+        assertEquals(0, sensor.getListenerCount());
+        assertFalse(sensor.enabled);
+    }
+
+    private void publish(int samples) {
+        for (int i = 0; i < samples; i++) {
+            sensor.publish(timestamp += 1000000L, values);
+        }
+    }
+}
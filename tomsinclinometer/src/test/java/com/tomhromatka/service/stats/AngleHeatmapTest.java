@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.stats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Feeds AngleHeatmap inclinometer readings as the live stream would and checks where the time
+ * lands, and that a saved grid reads back the same.
+ */
+public class AngleHeatmapTest {
+    private static final long PERIOD_NS = 20000000L;
+
+    private final float[] angles = new float[2];
+    private long timestamp = 10000000000L;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("trip", AngleHeatmap.FILE_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(!file.exists() || file.delete());
+    }
+
+    @Test
+    public void timeLandsInTheReadingsBin() {
+        AngleHeatmap heatmap = new AngleHeatmap();
+
+        /* the first reading only starts the clock */
+        feed(heatmap, 10.5f, -3.2f, 51);
+        feed(heatmap, -20.0f, 45.9f, 25);
+
+        assertEquals(50 * PERIOD_NS, heatmap.getNanoseconds(bin(10.5f), bin(-3.2f)));
+        assertEquals(25 * PERIOD_NS, heatmap.getNanoseconds(bin(-20.0f), bin(45.9f)));
+        assertEquals(75 * PERIOD_NS, heatmap.getTotalNanoseconds());
+        assertEquals(50 * PERIOD_NS, heatmap.getMaxNanoseconds());
+    }
+
+    @Test
+    public void anglesBeyondTheRangeCountInTheEdgeBins() {
+        AngleHeatmap heatmap = new AngleHeatmap();
+        feed(heatmap, 120.0f, -135.0f, 11);
+
+        assertEquals(10 * PERIOD_NS, heatmap.getNanoseconds(AngleHeatmap.BINS - 1, 0));
+    }
+
+    @Test
+    public void gapsAreNotCredited() {
+        AngleHeatmap heatmap = new AngleHeatmap();
+        feed(heatmap, 5.0f, 5.0f, 11);
+
+        /* the sensor was stopped for a minute */
+        timestamp += 60000000000L;
+        feed(heatmap, 5.0f, 5.0f, 1);
+
+        assertEquals(10 * PERIOD_NS, heatmap.getTotalNanoseconds());
+    }
+
+    @Test
+    public void clearStartsOver() {
+        AngleHeatmap heatmap = new AngleHeatmap();
+        feed(heatmap, 5.0f, 5.0f, 11);
+        heatmap.clear();
+        feed(heatmap, 5.0f, 5.0f, 1);
+
+        assertEquals(0, heatmap.getTotalNanoseconds());
+        assertEquals(0, heatmap.getMaxNanoseconds());
+    }
+
+    @Test
+    public void snapshotAndSavedGridMatchTheOriginal() throws IOException {
+        AngleHeatmap heatmap = new AngleHeatmap();
+        for (int step = 0; step < 100; step++) {
+            feed(heatmap, (float) (30.0 * Math.sin(step / 10.0)), (float) (step % 40 - 20), 3);
+        }
+
+        AngleHeatmap snapshot = new AngleHeatmap();
+        snapshot.copyFrom(heatmap);
+        heatmap.write(file);
+        AngleHeatmap saved = new AngleHeatmap();
+        saved.read(file);
+
+        assertEquals(heatmap.getTotalNanoseconds(), snapshot.getTotalNanoseconds());
+        assertEquals(heatmap.getTotalNanoseconds(), saved.getTotalNanoseconds());
+        for (int pitchBin = 0; pitchBin < AngleHeatmap.BINS; pitchBin++) {
+            for (int rollBin = 0; rollBin < AngleHeatmap.BINS; rollBin++) {
+                long expected = heatmap.getNanoseconds(pitchBin, rollBin);
+                assertEquals(expected, snapshot.getNanoseconds(pitchBin, rollBin));
+                assertEquals(expected, saved.getNanoseconds(pitchBin, rollBin));
+            }
+        }
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        AngleHeatmap heatmap = new AngleHeatmap();
+        feed(heatmap, 5.0f, 5.0f, 11);
+        heatmap.write(file);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        }
+        finally {
+            raf.close();
+        }
+
+        try {
+            new AngleHeatmap().read(file);
+            fail("read a truncated heatmap");
+        }
+        catch (IOException expected) {
+            /* expected */
+        }
+    }
+
+    private void feed(AngleHeatmap heatmap, float pitch, float roll, int count) {
+        angles[0] = pitch;
+        angles[1] = roll;
+        for (int index = 0; index < count; index++) {
+            heatmap.onDataReceived(timestamp, angles);
+            timestamp += PERIOD_NS;
+        }
+    }
+
+    private static int bin(float degrees) {
+        return (int) Math.floor((degrees - AngleHeatmap.MIN_DEGREES) / AngleHeatmap.BIN_DEGREES);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares AngleHistogram's percentiles against the exact nearest-rank percentiles of the same
+ * angles.  Every reported percentile must be within half a bucket of the exact one.
+ */
+public class AngleHistogramTest {
+    private static final double[] PERCENTILES = {50.0, 95.0, 99.0};
+
+    /* half a bucket, plus the rounding of degrees / BUCKET_DEGREES at a bucket's edge */
+    private static final double TOLERANCE_DEG = AngleHistogram.BUCKET_DEGREES / 2 + 1e-9;
+
+    private static double exactPercentile(double[] sorted, double percentile) {
+        int rank = (int) Math.max(1, Math.ceil(percentile / 100.0 * sorted.length));
+        return sorted[rank - 1];
+    }
+
+    private static void assertQuantileError(String distribution, double[] angles) {
+        AngleHistogram histogram = new AngleHistogram();
+        for (double angle : angles) {
+            histogram.add(angle);
+        }
+
+        double[] sorted = angles.clone();
+        Arrays.sort(sorted);
+        for (double percentile : PERCENTILES) {
+            double exact = exactPercentile(sorted, percentile);
+            double error = histogram.getPercentile(percentile) - exact;
+            assertEquals(distribution + " p" + percentile + " (exact " + exact + ")", 0.0, error, TOLERANCE_DEG);
+        }
+    }
+
+    @Test
+    public void uniformAnglesAreWithinHalfABucket() {
+        Random random = new Random(35);
+        double[] angles = new double[100000];
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = random.nextDouble() * 45.0;
+        }
+
+        assertQuantileError("uniform", angles);
+    }
+
+    @Test
+    public void heavyTailedRollIsWithinHalfABucket() {
+        /* |roll| of a vehicle: mostly a couple of degrees, with rare large excursions */
+        Random random = new Random(36);
+        double[] angles = new double[100000];
+        for (int i = 0; i < angles.length; i++) {
+            double roll = 2.0 * random.nextGaussian();
+            if (0 == random.nextInt(50)) {
+                roll += 20.0 * random.nextGaussian();
+            }
+            angles[i] = Math.abs(roll);
+        }
+
+        assertQuantileError("heavy tailed", angles);
+    }
+
+    @Test
+    public void anglesOnBucketEdgesAreWithinHalfABucket() {
+        double[] angles = new double[2000];
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = (i % 400) * AngleHistogram.BUCKET_DEGREES;
+        }
+
+        assertQuantileError("bucket edges", angles);
+    }
+
+    @Test
+    public void smallSamplesUseNearestRank() {
+        assertQuantileError("single", new double[]{12.34});
+        assertQuantileError("few", new double[]{1.0, 7.5, 3.25, 30.0, 0.1});
+    }
+
+    @Test
+    public void mergedHistogramsMatchTheCombinedAngles() {
+        Random random = new Random(37);
+        double[] angles = new double[20000];
+        AngleHistogram first = new AngleHistogram();
+        AngleHistogram second = new AngleHistogram();
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = Math.abs(5.0 * random.nextGaussian());
+            ((i < angles.length / 3) ? first : second).add(angles[i]);
+        }
+        first.merge(second);
+
+        double[] sorted = angles.clone();
+        Arrays.sort(sorted);
+        assertEquals(angles.length, first.getCount());
+        for (double percentile : PERCENTILES) {
+            assertEquals(exactPercentile(sorted, percentile), first.getPercentile(percentile), TOLERANCE_DEG);
+        }
+    }
+
+    @Test
+    public void emptyHistogramHasNoPercentiles() {
+        assertTrue(Double.isNaN(new AngleHistogram().getPercentile(50.0)));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Appends and reads across the boundary between spilled and resident chunks, and finds samples
+ * by time on both sides of it
+ */
+public class SessionSampleStoreTest {
+    private static final int CHUNK = SessionSampleStore.CHUNK_SAMPLES;
+    private static final long PERIOD_NS = 5000000L;
+    private static final long START_NS = 123456789L;
+
+    /* one resident chunk, so everything older is spilled */
+    private static final long ONE_CHUNK = SessionSampleStore.CHUNK_BYTES;
+
+    private File spillFile;
+    private SessionSampleStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        spillFile = File.createTempFile("session", ".spill");
+    }
+
+    @After
+    public void tearDown() {
+        if (null != store) {
+            store.close();
+        }
+        assertTrue(!spillFile.exists() || spillFile.delete());
+    }
+
+    private static long timestampOf(long index) {
+        return START_NS + index * PERIOD_NS;
+    }
+
+    private static float pitchOf(long index) {
+        return (index % 1000) * 0.01f;
+    }
+
+    private static float rollOf(long index) {
+        return -(index % 777) * 0.02f;
+    }
+
+    private void append(long count) {
+        for (long index = store.size(), end = store.size() + count; index < end; index++) {
+            store.append(timestampOf(index), pitchOf(index), rollOf(index));
+        }
+    }
+
+    private void assertSamples(long fromIndex, int stride, int count, int expected) {
+        long[] timestamps = new long[count];
+        float[] pitches = new float[count];
+        float[] rolls = new float[count];
+
+        assertEquals(expected, store.read(fromIndex, stride, count, timestamps, pitches, rolls));
+        for (int i = 0; i < expected; i++) {
+            long index = fromIndex + (long) i * stride;
+            assertEquals(timestampOf(index), timestamps[i]);
+            assertEquals(pitchOf(index), pitches[i], 0.0f);
+            assertEquals(rollOf(index), rolls[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void readsAcrossTheSpillBoundary() {
+        store = new SessionSampleStore(ONE_CHUNK, spillFile);
+        append(3 * CHUNK + CHUNK / 2);
+
+        assertEquals(3 * CHUNK + CHUNK / 2, store.size());
+        assertEquals(0, store.getFirstIndex());
+        assertEquals(store.getDroppedFromIndex(), store.getDroppedToIndex());
+
+        /* spilled -> spilled -> resident, one sample at a time */
+        assertSamples(CHUNK - 10, 1, 2 * CHUNK + 20, 2 * CHUNK + 20);
+
+        /* zoomed out over the whole session */
+        assertSamples(3, 997, 100, (3 * CHUNK + CHUNK / 2 - 3 + 996) / 997);
+
+        /* back and forth between two spilled chunks through the one cache buffer */
+        assertSamples(5, 1, 1, 1);
+        assertSamples(CHUNK + 5, 1, 1, 1);
+        assertSamples(5, 1, 1, 1);
+
+        /* reading stops at the end of the store */
+        assertSamples(store.size() - 3, 1, 10, 3);
+    }
+
+    @Test
+    public void appendsAfterReadingSpilledChunks() {
+        store = new SessionSampleStore(ONE_CHUNK, spillFile);
+        append(CHUNK + 1);
+        assertSamples(0, 1, 1, 1);
+
+        append(2 * CHUNK);
+        assertSamples(0, CHUNK, 4, 4);
+        assertSamples(2 * CHUNK - 1, 1, CHUNK + 2, CHUNK + 2);
+    }
+
+    @Test
+    public void findsSamplesByTime() {
+        store = new SessionSampleStore(ONE_CHUNK, spillFile);
+        assertEquals(0, store.indexOf(START_NS));
+
+        long size = 2 * CHUNK + 100;
+        append(size);
+
+        long[] indices = {0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 2 * CHUNK, size - 1};
+        for (long index : indices) {
+            assertEquals(index, store.indexOf(timestampOf(index)));
+
+            /* between two samples: the later one */
+            assertEquals(index, store.indexOf(timestampOf(index) - PERIOD_NS / 2));
+        }
+
+        assertEquals(0, store.indexOf(Long.MIN_VALUE));
+        assertEquals(size, store.indexOf(timestampOf(size - 1) + 1));
+    }
+
+    @Test
+    public void dropsChunksWithoutASpillFile() {
+        store = new SessionSampleStore(ONE_CHUNK, null);
+        append(2 * CHUNK + 10);
+
+        assertEquals(0, store.getDroppedFromIndex());
+        assertEquals(2 * CHUNK, store.getDroppedToIndex());
+        assertEquals(2 * CHUNK, store.getFirstIndex());
+
+        /* dropped samples are skipped, keeping to the stride */
+        long[] timestamps = new long[4];
+        assertEquals(4, store.read(3, 2, 4, timestamps, null, null));
+        assertEquals(timestampOf(2 * CHUNK + 1), timestamps[0]);
+        assertEquals(timestampOf(2 * CHUNK + 7), timestamps[3]);
+
+        assertEquals(2 * CHUNK, store.indexOf(timestampOf(5)));
+        assertEquals(2 * CHUNK + 5, store.indexOf(timestampOf(2 * CHUNK + 5)));
+    }
+
+    @Test
+    public void dropsFromTheFirstFailedSpill() {
+        /* a directory can't be opened as the spill file, so every spill fails */
+        File directory = new File(spillFile.getPath() + ".d");
+        assertTrue(directory.mkdir());
+        try {
+            store = new SessionSampleStore(2 * ONE_CHUNK, directory);
+            append(3 * CHUNK + 10);
+            assertEquals(0, store.getDroppedFromIndex());
+            assertEquals(2 * CHUNK, store.getDroppedToIndex());
+            assertSamples(2 * CHUNK, 1, CHUNK + 10, CHUNK + 10);
+
+            /* a new session starts with nothing dropped */
+            store.clear();
+            append(2 * CHUNK);
+            assertSamples(0, 1, 2 * CHUNK, 2 * CHUNK);
+            assertEquals(store.getDroppedFromIndex(), store.getDroppedToIndex());
+        }
+        finally {
+            store.close();
+            store = null;
+            assertTrue(!directory.exists() || directory.delete());
+        }
+    }
+}
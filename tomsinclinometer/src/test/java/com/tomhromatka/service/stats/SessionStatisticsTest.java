@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.stats;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SessionStatistics is written on the sensor thread and read on others, so what it hands out
+ * must be snapshots rather than its live state.  Its RunningMoments must give the same answer
+ * whether a stream is summarized in one pass or in merged segments.
+ */
+public class SessionStatisticsTest {
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void momentsAreSnapshots() {
+        SessionStatistics statistics = new SessionStatistics();
+        statistics.onDataReceived(0, new float[]{1.0f, -2.0f});
+        statistics.onDataReceived(1, new float[]{3.0f, -4.0f});
+
+        RunningMoments pitch = statistics.getPitch();
+        RunningMoments roll = statistics.getRoll();
+        assertNotSame(pitch, statistics.getPitch());
+
+        statistics.onDataReceived(2, new float[]{50.0f, 60.0f});
+        pitch.add(1000.0);
+
+        /* later readings don't reach the snapshot... */
+        assertEquals(2, roll.getCount());
+        assertEquals(-3.0, roll.getMean(), 0.0);
+
+        /* ...and changing the snapshot doesn't reach the statistics */
+        RunningMoments current = statistics.getPitch();
+        assertEquals(3, current.getCount());
+        assertEquals(18.0, current.getMean(), 1e-9);
+        assertEquals(50.0, current.getMax(), 0.0);
+    }
+
+    @Test
+    public void mergedSegmentsMatchASinglePass() {
+        Random random = new Random(35);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            /* a large offset, where the naive sum-of-squares formula would lose the variance */
+            values[i] = 1.0e6 + 20.0 * random.nextGaussian();
+        }
+
+        RunningMoments singlePass = new RunningMoments();
+        for (double value : values) {
+            singlePass.add(value);
+        }
+
+        /* uneven segments, including empty ones, merged in order */
+        int[] boundaries = {0, 0, 1, 17, 17, 4000, 9999, values.length};
+        RunningMoments merged = new RunningMoments();
+        for (int segment = 0; segment + 1 < boundaries.length; segment++) {
+            RunningMoments moments = new RunningMoments();
+            for (int i = boundaries[segment]; i < boundaries[segment + 1]; i++) {
+                moments.add(values[i]);
+            }
+            merged.merge(moments);
+        }
+
+        assertEquals(singlePass.getCount(), merged.getCount());
+        assertEquals(singlePass.getMean(), merged.getMean(), TOLERANCE * Math.abs(singlePass.getMean()));
+        assertEquals(singlePass.getStandardDeviation(), merged.getStandardDeviation(),
+                TOLERANCE * singlePass.getStandardDeviation());
+        assertEquals(singlePass.getMin(), merged.getMin(), 0.0);
+        assertEquals(singlePass.getMax(), merged.getMax(), 0.0);
+        assertEquals(20.0, singlePass.getStandardDeviation(), 0.5);
+    }
+
+    @Test
+    public void emptyMomentsAreUndefined() {
+        RunningMoments moments = new RunningMoments();
+        assertEquals(0, moments.getCount());
+        assertTrue(Double.isNaN(moments.getMean()));
+        assertTrue(Double.isNaN(moments.getStandardDeviation()));
+        assertTrue(Double.isNaN(moments.getMin()));
+        assertTrue(Double.isNaN(moments.getMax()));
+
+        /* merging nothing into nothing is still nothing */
+        moments.merge(new RunningMoments());
+        assertEquals(0, moments.getCount());
+        assertTrue(Double.isNaN(moments.getMean()));
+    }
+
+    @Test
+    public void oneSampleHasAMeanButNoDeviation() {
+        RunningMoments moments = new RunningMoments();
+        moments.add(-7.5);
+        assertEquals(1, moments.getCount());
+        assertEquals(-7.5, moments.getMean(), 0.0);
+        assertEquals(-7.5, moments.getMin(), 0.0);
+        assertEquals(-7.5, moments.getMax(), 0.0);
+        assertTrue(Double.isNaN(moments.getStandardDeviation()));
+
+        /* merged either way round, a single sample is the same as adding it */
+        RunningMoments into = new RunningMoments();
+        into.merge(moments);
+        assertEquals(1, into.getCount());
+        assertEquals(-7.5, into.getMean(), 0.0);
+
+        RunningMoments pair = new RunningMoments();
+        pair.add(2.5);
+        pair.merge(moments);
+        assertEquals(2, pair.getCount());
+        assertEquals(-2.5, pair.getMean(), 0.0);
+        assertEquals(Math.sqrt(50.0), pair.getStandardDeviation(), TOLERANCE);
+    }
+
+    @Test
+    public void clearedMomentsStartOver() {
+        RunningMoments moments = new RunningMoments();
+        moments.add(100.0);
+        moments.add(200.0);
+        moments.clear();
+        moments.add(1.0);
+
+        assertEquals(1, moments.getCount());
+        assertEquals(1.0, moments.getMin(), 0.0);
+        assertEquals(1.0, moments.getMax(), 0.0);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.IBinder;
+
+import com.tomhromatka.service.HromatkaService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ActivityController;
+import org.robolectric.util.ServiceController;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rotates and finishes ActivityInclinometer many times against a bound HromatkaService and
+ * checks that none of the old activities, their pages or their service managers stay
+ * reachable once they have been destroyed.
+ *
+ * Like the system, Robolectric keeps every unbound ServiceConnection reachable (for
+ * inspection, in its case).  The connections are left there, so the test also checks that a
+ * retained connection doesn't keep anything else alive.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ActivityLifecycleLeakTest {
+    private static final int ROTATIONS = 10;
+    private static final int LAUNCHES = 10;
+    private static final int GC_ATTEMPTS = 20;
+    private static final int GC_GARBAGE_BYTES = 1 << 20;
+
+    private ServiceController<HromatkaService> serviceController;
+    private final List<WeakReference<Object>> destroyed = new ArrayList<WeakReference<Object>>();
+    private int destroyedActivities = 0;
+
+    @Before
+    public void setUp() {
+        serviceController = Robolectric.buildService(HromatkaService.class).create();
+        Intent intent = new Intent(RuntimeEnvironment.application, HromatkaService.class);
+        IBinder binder = serviceController.get().onBind(intent);
+        ShadowApplication.getInstance().setComponentNameAndServiceForBindService(
+                new ComponentName(RuntimeEnvironment.application, HromatkaService.class), binder);
+    }
+
+    @After
+    public void tearDown() {
+        serviceController.destroy();
+    }
+
+    @Test
+    public void rotatedActivitiesAreCollected() throws Exception {
+        Bundle state = new Bundle();
+        ActivityController<ActivityInclinometer> controller =
+                Robolectric.buildActivity(ActivityInclinometer.class)
+                        .create().start().resume().visible();
+
+        for (int i = 0; i < ROTATIONS; i++) {
+            /* a configuration change destroys the activity and creates a new instance */
+            watch(controller.get());
+            controller.pause().saveInstanceState(state).stop().destroy();
+            controller = Robolectric.buildActivity(ActivityInclinometer.class)
+                    .create(state).start().restoreInstanceState(state).resume().visible();
+            assertNotNull(controller.get().findViewById(R.id.wPitchText));
+        }
+
+        controller.pause().stop().destroy();
+        controller = null;
+
+        assertCollected();
+    }
+
+    @Test
+    public void finishedActivitiesAreCollected() throws Exception {
+        for (int i = 0; i < LAUNCHES; i++) {
+            ActivityController<ActivityInclinometer> controller =
+                    Robolectric.buildActivity(ActivityInclinometer.class)
+                            .create().start().resume().visible();
+            watch(controller.get());
+            controller.get().finish();
+            controller.pause().stop().destroy();
+        }
+
+        assertCollected();
+    }
+
+    /**
+     * Remember the activity, its page and its service manager, which must all be collectable
+     * once the activity has been destroyed
+     *
+     * @param activity activity that is about to be destroyed
+     */
+    private void watch(ActivityInclinometer activity) throws Exception {
+        destroyed.add(new WeakReference<Object>(activity));
+        destroyed.add(new WeakReference<Object>(readField(activity, "page")));
+        destroyed.add(new WeakReference<Object>(readField(activity, "hromatkaServiceManager")));
+        destroyedActivities++;
+    }
+
+    private void assertCollected() {
+        /* drain anything the pages posted to the main thread before they were destroyed */
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        /* every destroyed activity's connection is still reachable */
+        assertTrue(ShadowApplication.getInstance().getUnboundServiceConnections().size() >= destroyedActivities);
+
+        for (int attempt = 0; attempt < GC_ATTEMPTS && !allCleared(); attempt++) {
+            byte[] garbage = new byte[GC_GARBAGE_BYTES];
+            garbage[attempt] = 1;
+            System.gc();
+            System.runFinalization();
+        }
+
+        for (WeakReference<Object> reference : destroyed) {
+            assertNull("Leaked " + reference.get(), reference.get());
+        }
+    }
+
+    private boolean allCleared() {
+        for (WeakReference<Object> reference : destroyed) {
+            if (null != reference.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object readField(Object object, String name) throws Exception {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(object);
+    }
+}
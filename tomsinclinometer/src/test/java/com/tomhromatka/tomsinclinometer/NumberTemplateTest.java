@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.tomsinclinometer;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * NumberTemplate must render exactly what String.format() would
+ */
+public class NumberTemplateTest {
+    private static final String STATUS_FORMAT = "Settling: %1$.0f%%, movement %2$.3f m/s\u00b2";
+
+    private static String render(NumberTemplate template, double first, double second) {
+        int length = template.render(first, second);
+        return new String(template.getChars(), 0, length);
+    }
+
+    @Test
+    public void matchesStringFormat() {
+        double[] values = {0.0, 0.0004, 0.0005, 0.049, 0.5, 1.25, 9.99951, 42.0, 99.5, 100.0, 12345.678};
+        for (Locale locale : new Locale[]{Locale.US, Locale.GERMANY}) {
+            NumberTemplate template = new NumberTemplate(STATUS_FORMAT, locale);
+            for (double first : values) {
+                for (double second : values) {
+                    assertEquals(String.format(locale, STATUS_FORMAT, first, second),
+                            render(template, first, second));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rendersNegativeValuesAndReorderedArguments() {
+        String format = "%2$.2f|%1$.1f";
+        NumberTemplate template = new NumberTemplate(format, Locale.US);
+        double[] values = {-0.25, -1.5, -0.01, -0.001, -7.0};
+        for (double first : values) {
+            for (double second : values) {
+                assertEquals(String.format(Locale.US, format, first, second), render(template, first, second));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedFormats() {
+        new NumberTemplate("%d samples", Locale.US);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Command line tool that summarizes trip logs on a workstation:
+ *
+ *   java com.tomhromatka.service.triplog.TripAnalyzer [options] trip.log ...
+ *
+ *   --pitch-limit DEG   pitch counted as beyond limits (default 30)
+ *   --roll-limit DEG    roll counted as beyond limits (default 30)
+ *   --sustain SEC       window for the worst sustained side-slope (default 5)
+ *
+ * Each log is memory mapped in record-aligned chunks.  A fork/join pool summarizes the chunks in
+ * parallel and merges the partial TripSummary objects in file order.  The per-record work is a
+ * handful of additions, so the scan is bound by how fast the disk can page the log in.
+ */
+public class TripAnalyzer {
+    /* 4M records (80 MB) per chunk keeps each mapping well under the 2 GB limit */
+    private static final long CHUNK_RECORDS = 4L * 1024 * 1024;
+
+    private final double pitchLimit;
+    private final double rollLimit;
+    private final long sustainNs;
+    private final ForkJoinPool pool;
+    private final long chunkRecords;
+
+    public TripAnalyzer(double pitchLimit, double rollLimit, long sustainNs, ForkJoinPool pool) {
+        this(pitchLimit, rollLimit, sustainNs, pool, CHUNK_RECORDS);
+    }
+
+    /**
+     * For tests, which need logs of many chunks without writing gigabytes
+     *
+     * @param chunkRecords records per chunk
+     */
+    TripAnalyzer(double pitchLimit, double rollLimit, long sustainNs, ForkJoinPool pool, long chunkRecords) {
+        this.pitchLimit = pitchLimit;
+        this.rollLimit = rollLimit;
+        this.sustainNs = sustainNs;
+        this.pool = pool;
+        this.chunkRecords = chunkRecords;
+    }
+
+    /** summarizes the chunks [firstChunk, lastChunk) of one log */
+    private class ChunkTask extends RecursiveTask<TripSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final TripLog.Header header;
+        private final long recordCount;
+        private final long firstChunk;
+        private final long lastChunk;
+
+        ChunkTask(FileChannel channel, TripLog.Header header, long recordCount, long firstChunk, long lastChunk) {
+            this.channel = channel;
+            this.header = header;
+            this.recordCount = recordCount;
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+        }
+
+        @Override
+        protected TripSummary compute() {
+            if (lastChunk - firstChunk > 1) {
+                long middle = (firstChunk + lastChunk) >>> 1;
+                ChunkTask earlier = new ChunkTask(channel, header, recordCount, firstChunk, middle);
+                ChunkTask later = new ChunkTask(channel, header, recordCount, middle, lastChunk);
+                earlier.fork();
+                TripSummary laterSummary = later.compute();
+                return earlier.join().merge(laterSummary);
+            }
+
+            try {
+                return summarizeChunk(firstChunk);
+            }
+            catch (IOException ioe) {
+                throw new RuntimeException(ioe);
+            }
+        }
+
+        private TripSummary summarizeChunk(long chunk) throws IOException {
+            TripSummary summary = newSummary(header);
+            long firstRecord = chunk * chunkRecords;
+            long records = Math.min(chunkRecords, recordCount - firstRecord);
+            if (records <= 0) {
+                return summary;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    TripLog.HEADER_SIZE + firstRecord * TripLog.RECORD_SIZE, records * TripLog.RECORD_SIZE);
+            buffer.order(TripLog.BYTE_ORDER);
+
+            int limit = (int) (records * TripLog.RECORD_SIZE);
+            for (int offset = 0; offset < limit; offset += TripLog.RECORD_SIZE) {
+                summary.add(
+                        buffer.getLong(offset + TripLog.TIMESTAMP_OFFSET),
+                        buffer.getFloat(offset + TripLog.X_OFFSET),
+                        buffer.getFloat(offset + TripLog.Y_OFFSET),
+                        buffer.getFloat(offset + TripLog.Z_OFFSET));
+            }
+
+            return summary;
+        }
+    }
+
+    /**
+     * Summarize one trip log
+     *
+     * @param path path of the trip log
+     * @return the finished summary
+     * @throws IOException if the log can't be read
+     */
+    public TripSummary analyze(String path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            TripLog.Header header = TripLog.readHeader(channel);
+            long recordCount = TripLog.recordCount(channel.size());
+            long chunkCount = (recordCount + chunkRecords - 1) / chunkRecords;
+
+            if (0 == chunkCount) {
+                return newSummary(header).finish();
+            }
+
+            try {
+                return pool.invoke(new ChunkTask(channel, header, recordCount, 0, chunkCount)).finish();
+            }
+            catch (RuntimeException re) {
+                if (re.getCause() instanceof IOException) {
+                    throw (IOException) re.getCause();
+                }
+                throw re;
+            }
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    private TripSummary newSummary(TripLog.Header header) {
+        return new TripSummary(pitchLimit, rollLimit, sustainNs, header.getPitchOffset(), header.getRollOffset());
+    }
+
+    public static void main(String[] args) {
+        double pitchLimit = 30.0;
+        double rollLimit = 30.0;
+        double sustainSec = 5.0;
+        int argIndex = 0;
+
+        try {
+            for (; argIndex < args.length && args[argIndex].startsWith("--"); argIndex += 2) {
+                String option = args[argIndex];
+                double value = Double.parseDouble(args[argIndex + 1]);
+
+                if ("--pitch-limit".equals(option)) {
+                    pitchLimit = value;
+                }
+                else if ("--roll-limit".equals(option)) {
+                    rollLimit = value;
+                }
+                else if ("--sustain".equals(option)) {
+                    sustainSec = value;
+                }
+                else {
+                    throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            }
+        }
+        catch (RuntimeException re) {
+            System.err.println(re.getMessage());
+            argIndex = args.length;
+        }
+
+        if (argIndex >= args.length) {
+            System.err.println("usage: TripAnalyzer [--pitch-limit DEG] [--roll-limit DEG] [--sustain SEC] trip.log ...");
+            System.exit(2);
+        }
+
+        TripAnalyzer analyzer = new TripAnalyzer(pitchLimit, rollLimit, (long) (sustainSec * 1e9), new ForkJoinPool());
+        int status = 0;
+
+        for (; argIndex < args.length; argIndex++) {
+            String path = args[argIndex];
+            try {
+                long start = System.nanoTime();
+                TripSummary summary = analyzer.analyze(path);
+                double elapsedSec = (System.nanoTime() - start) / 1e9;
+                double megabytes = summary.getRecordCount() * (double) TripLog.RECORD_SIZE / (1024 * 1024);
+
+                System.out.println(String.format(Locale.US,
+                        "%s: %d records, %.1f s, max |pitch| %.1f, max |roll| %.1f, " +
+                                "%.1f s beyond limits, worst sustained side-slope %.1f " +
+                                "(%.0f MB/s)",
+                        path, summary.getRecordCount(), summary.getDurationSeconds(),
+                        summary.getMaxAbsPitch(), summary.getMaxAbsRoll(),
+                        summary.getSecondsBeyondLimits(), summary.getMaxSustainedAbsRoll(),
+                        megabytes / elapsedSec));
+            }
+            catch (IOException ioe) {
+                System.err.println(path + ": " + ioe.getMessage());
+                status = 1;
+            }
+        }
+
+        System.exit(status);
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import com.tomhromatka.service.sensors.FilterDecimator;
+import com.tomhromatka.service.sensors.InclinometerMath;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Exports trip logs for analysis, either as CSV or in a simple columnar format:
+ *
+ *   java com.tomhromatka.service.triplog.TripExporter [options] trip.log output
+ *
+ *   --format csv|columnar  output format (default csv)
+ *   --from SEC             start of the range, relative to the first record (default 0)
+ *   --to SEC               end of the range, relative to the first record (default end of trip)
+ *   --decimate N           keep every Nth sample, low-pass filtered first (default 1)
+ *
+ * Every row holds the sensor timestamp (ns), the oriented acceleration (m/s^2) and the pitch
+ * and roll (degrees, with the calibration offsets from the trip log's header applied).
+ *
+ * The log is streamed through a TripLogReader, which maps it one window at a time, and rows are
+ * encoded straight into a fixed output buffer that is written to the output channel whenever it
+ * fills up.  CSV numbers are formatted digit by digit into that buffer rather than through
+ * String.format() or Float.toString(), so nothing is allocated per row and heap use is the same
+ * for any length of trip.  Most of the per-row CPU time goes to the two atan2() calls for pitch
+ * and roll; the encoding itself is a few dozen array stores.
+ *
+ * Decimation uses the same anti-aliased FilterDecimator as the live inclinometer.  The filter
+ * delays its output by half its length, so each output row gets the timestamp of the input
+ * sample at the filter's center.  The filter starts from the first sample of the range as if it
+ * had always been the input.
+ *
+ * The columnar format keeps each column contiguous so analysis tools can load a column straight
+ * into an array.  Rows are grouped so the exporter only has to buffer one group.  All little
+ * endian:
+ *
+ * Header (COLUMNAR_HEADER_SIZE bytes)
+ *   0  long   COLUMNAR_MAGIC
+ *   8  int    COLUMNAR_VERSION
+ *   12 int    number of columns (COLUMN_COUNT)
+ *   16 int    maximum rows per group (ROWS_PER_GROUP)
+ *   20 int    reserved (zero)
+ *   24 long   wall clock time the trip log was started (ms since the epoch)
+ *
+ * Row group, repeated until the end of the file
+ *   0  int    rows in this group (n)
+ *   4  int    reserved (zero)
+ *   8  long[n]  timestamps (ns)
+ *      float[n] x, then float[n] y, float[n] z, float[n] pitch, float[n] roll
+ *
+ * This class has no Android dependencies so it can be run on a workstation.
+ */
+public class TripExporter {
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_COLUMNAR = "columnar";
+
+    /* "HRMTKCOL" when read as little endian ASCII */
+    public static final long COLUMNAR_MAGIC = 0x4c4f434b544d5248L;
+    public static final int COLUMNAR_VERSION = 1;
+    public static final int COLUMNAR_HEADER_SIZE = 32;
+    public static final int COLUMN_COUNT = 6;
+    public static final int ROWS_PER_GROUP = 65536;
+
+    private static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+
+    private static final String CSV_HEADER = "timestamp_ns,x,y,z,pitch,roll\n";
+    private static final int ACCELERATION_DECIMALS = 4;
+    private static final int ANGLE_DECIMALS = 3;
+
+    /* longest CSV row: a 20 character timestamp and five numbers that fit in MAX_FIXED_INTEGER */
+    private static final int MAX_CSV_ROW_SIZE = 128;
+    private static final double MAX_FIXED_INTEGER = 1e12;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L};
+
+    /* the tens and ones digits of 0 - 99 */
+    private static final byte[] DIGIT_TENS = new byte[100];
+    private static final byte[] DIGIT_ONES = new byte[100];
+
+    static {
+        for (int value = 0; value < 100; value++) {
+            DIGIT_TENS[value] = (byte) ('0' + value / 10);
+            DIGIT_ONES[value] = (byte) ('0' + value % 10);
+        }
+    }
+
+    private final String format;
+    private final int decimation;
+
+    /**
+     * @param format     FORMAT_CSV or FORMAT_COLUMNAR
+     * @param decimation keep every decimation'th sample (1 keeps them all)
+     */
+    public TripExporter(String format, int decimation) {
+        if (!FORMAT_CSV.equals(format) && !FORMAT_COLUMNAR.equals(format)) {
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        if (decimation < 1) {
+            throw new IllegalArgumentException("Decimation must be at least 1");
+        }
+
+        this.format = format;
+        this.decimation = decimation;
+    }
+
+    /** receives the exported rows */
+    private interface RowSink {
+        void add(long timestamp, float x, float y, float z, float pitch, float roll) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    /**
+     * Export the records of a trip log in [startTimestamp, endTimestamp)
+     *
+     * @param logFile        trip log to export
+     * @param startTimestamp first time to export (ns, on the log's sensor clock)
+     * @param endTimestamp   time to stop at (ns, exclusive)
+     * @param outputFile     file to write (replaced if it exists)
+     * @return number of rows written
+     * @throws IOException if the log can't be read or the output can't be written
+     */
+    public long export(File logFile, long startTimestamp, long endTimestamp, File outputFile) throws IOException {
+        TripLogReader reader = new TripLogReader(logFile);
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(outputFile);
+            FileChannel channel = output.getChannel();
+            TripLog.Header header = reader.getHeader();
+            RowSink sink = FORMAT_CSV.equals(format) ?
+                    new CsvSink(channel) : new ColumnarSink(channel, header.getStartWallClockMs());
+
+            long rows = exportRows(reader, startTimestamp, endTimestamp, header, sink);
+            sink.finish();
+            return rows;
+        }
+        finally {
+            if (null != output) {
+                output.close();
+            }
+            reader.close();
+        }
+    }
+
+    /**
+     * Stream the records in range through the decimator (if any) to the sink
+     */
+    private long exportRows(TripLogReader reader, long startTimestamp, long endTimestamp,
+                            TripLog.Header header, RowSink sink) throws IOException {
+        FilterDecimator decimator = null;
+        long[] timestampHistory = null;
+        int delay = 0;
+        float[] filtered = new float[3];
+        if (decimation > 1) {
+            decimator = new FilterDecimator(decimation, 3, FilterDecimator.DEFAULT_TAPS_PER_PHASE);
+            delay = (int) Math.round(decimator.getGroupDelaySamples());
+            timestampHistory = new long[delay + 1];
+        }
+
+        double pitchOffset = header.getPitchOffset();
+        double rollOffset = header.getRollOffset();
+        long inputCount = 0;
+        long rows = 0;
+
+        reader.seek(startTimestamp);
+        while (reader.next()) {
+            long timestamp = reader.getTimestamp();
+            if (timestamp >= endTimestamp) {
+                break;
+            }
+
+            float[] values = reader.getValues();
+            if (null != decimator) {
+                int slot = (int) (inputCount % timestampHistory.length);
+                timestampHistory[slot] = timestamp;
+                inputCount++;
+                if (!decimator.add(values, filtered)) {
+                    continue;
+                }
+
+                /* the sample at the filter's center, or the first one while the filter fills */
+                long centerSample = Math.max(0, inputCount - 1 - delay);
+                timestamp = timestampHistory[(int) (centerSample % timestampHistory.length)];
+                values = filtered;
+            }
+
+            sink.add(timestamp, values[0], values[1], values[2],
+                    (float) (InclinometerMath.computePitch(values[1], values[2]) + pitchOffset),
+                    (float) (InclinometerMath.computeRoll(values[0], values[1]) + rollOffset));
+            rows++;
+        }
+
+        return rows;
+    }
+
+    /**
+     * Comma separated values, one row per line, with a header line.  Rows are encoded into a
+     * byte array with plain index arithmetic, which is several times faster than a put() per
+     * byte, and the array is written through a ByteBuffer that wraps it.
+     */
+    private static class CsvSink implements RowSink {
+        private final FileChannel channel;
+        private final byte[] output = new byte[OUTPUT_BUFFER_SIZE];
+        private final ByteBuffer outputBuffer = ByteBuffer.wrap(output);
+        private int position = 0;
+
+        CsvSink(FileChannel channel) {
+            this.channel = channel;
+            byte[] header = CSV_HEADER.getBytes(Charset.forName("US-ASCII"));
+            System.arraycopy(header, 0, output, 0, header.length);
+            position = header.length;
+        }
+
+        @Override
+        public void add(long timestamp, float x, float y, float z, float pitch, float roll) throws IOException {
+            if (output.length - position < MAX_CSV_ROW_SIZE) {
+                drain();
+            }
+
+            putLong(timestamp);
+            output[position++] = ',';
+            putFixed(x, ACCELERATION_DECIMALS);
+            output[position++] = ',';
+            putFixed(y, ACCELERATION_DECIMALS);
+            output[position++] = ',';
+            putFixed(z, ACCELERATION_DECIMALS);
+            output[position++] = ',';
+            putFixed(pitch, ANGLE_DECIMALS);
+            output[position++] = ',';
+            putFixed(roll, ANGLE_DECIMALS);
+            output[position++] = '\n';
+        }
+
+        @Override
+        public void finish() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            outputBuffer.clear();
+            outputBuffer.limit(position);
+            while (outputBuffer.hasRemaining()) {
+                channel.write(outputBuffer);
+            }
+            position = 0;
+        }
+
+        /**
+         * Encode a long in decimal ASCII
+         */
+        private void putLong(long value) {
+            if (value < 0) {
+                output[position++] = '-';
+                if (Long.MIN_VALUE == value) {
+                    /* can't be negated.  emit it as -(922337203685477580 * 10 + 8) */
+                    putLong(-(value / 10));
+                    output[position++] = '8';
+                    return;
+                }
+                value = -value;
+            }
+
+            /* count the digits, then fill them in from the right two at a time */
+            int length = 1;
+            for (long bound = 10; length < 19 && value >= bound; bound *= 10) {
+                length++;
+            }
+
+            int index = position + length;
+            while (value >= 100) {
+                int pair = (int) (value % 100);
+                value /= 100;
+                output[--index] = DIGIT_ONES[pair];
+                output[--index] = DIGIT_TENS[pair];
+            }
+            output[--index] = DIGIT_ONES[(int) value];
+            if (value >= 10) {
+                output[--index] = DIGIT_TENS[(int) value];
+            }
+
+            position += length;
+        }
+
+        /**
+         * Encode a non-negative int in decimal ASCII
+         */
+        private void putInt(int value) {
+            int length = 1;
+            for (int bound = 10; length < 10 && value >= bound; bound *= 10) {
+                length++;
+            }
+
+            int index = position + length;
+            while (value >= 100) {
+                int pair = value % 100;
+                value /= 100;
+                output[--index] = DIGIT_ONES[pair];
+                output[--index] = DIGIT_TENS[pair];
+            }
+            output[--index] = DIGIT_ONES[value];
+            if (value >= 10) {
+                output[--index] = DIGIT_TENS[value];
+            }
+
+            position += length;
+        }
+
+        /**
+         * Encode the digits after the decimal point, with leading zeros
+         */
+        private void putFraction(int fraction, int decimals) {
+            for (int index = position + decimals - 1; index >= position; index--) {
+                output[index] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            position += decimals;
+        }
+
+        /**
+         * Encode a number in decimal ASCII with a fixed number of decimals, rounded half up.
+         * Values too large for fixed notation (never seen in trip logs) fall back to
+         * Double.toString().
+         */
+        private void putFixed(double value, int decimals) {
+            if (Double.isNaN(value) || Math.abs(value) >= MAX_FIXED_INTEGER) {
+                byte[] text = Double.toString(value).getBytes(Charset.forName("US-ASCII"));
+                System.arraycopy(text, 0, output, position, text.length);
+                position += text.length;
+                return;
+            }
+
+            long scaled = (long) (Math.abs(value) * POWERS_OF_TEN[decimals] + 0.5);
+            if (value < 0 && 0 != scaled) {
+                output[position++] = '-';
+            }
+
+            /* sensor values are small, so this is almost always done in (faster) int arithmetic */
+            if (scaled <= Integer.MAX_VALUE) {
+                int scaledInt = (int) scaled;
+                int scale = (int) POWERS_OF_TEN[decimals];
+                putInt(scaledInt / scale);
+                output[position++] = '.';
+                putFraction(scaledInt % scale, decimals);
+            }
+            else {
+                putLong(scaled / POWERS_OF_TEN[decimals]);
+                output[position++] = '.';
+                putFraction((int) (scaled % POWERS_OF_TEN[decimals]), decimals);
+            }
+        }
+    }
+
+    /** one direct buffer per column, written out a row group at a time with a gathering write */
+    private static class ColumnarSink implements RowSink {
+        private final FileChannel channel;
+        private final ByteBuffer groupHeader = ByteBuffer.allocateDirect(8).order(TripLog.BYTE_ORDER);
+        private final ByteBuffer[] columns = new ByteBuffer[COLUMN_COUNT + 1];
+        private final ByteBuffer timestamps;
+        private final ByteBuffer x;
+        private final ByteBuffer y;
+        private final ByteBuffer z;
+        private final ByteBuffer pitch;
+        private final ByteBuffer roll;
+        private int rows = 0;
+
+        ColumnarSink(FileChannel channel, long startWallClockMs) throws IOException {
+            this.channel = channel;
+            timestamps = ByteBuffer.allocateDirect(ROWS_PER_GROUP * 8).order(TripLog.BYTE_ORDER);
+            x = ByteBuffer.allocateDirect(ROWS_PER_GROUP * 4).order(TripLog.BYTE_ORDER);
+            y = ByteBuffer.allocateDirect(ROWS_PER_GROUP * 4).order(TripLog.BYTE_ORDER);
+            z = ByteBuffer.allocateDirect(ROWS_PER_GROUP * 4).order(TripLog.BYTE_ORDER);
+            pitch = ByteBuffer.allocateDirect(ROWS_PER_GROUP * 4).order(TripLog.BYTE_ORDER);
+            roll = ByteBuffer.allocateDirect(ROWS_PER_GROUP * 4).order(TripLog.BYTE_ORDER);
+
+            columns[0] = groupHeader;
+            columns[1] = timestamps;
+            columns[2] = x;
+            columns[3] = y;
+            columns[4] = z;
+            columns[5] = pitch;
+            columns[6] = roll;
+
+            ByteBuffer header = ByteBuffer.allocate(COLUMNAR_HEADER_SIZE).order(TripLog.BYTE_ORDER);
+            header.putLong(COLUMNAR_MAGIC);
+            header.putInt(COLUMNAR_VERSION);
+            header.putInt(COLUMN_COUNT);
+            header.putInt(ROWS_PER_GROUP);
+            header.putInt(0);
+            header.putLong(startWallClockMs);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+
+        @Override
+        public void add(long timestamp, float xValue, float yValue, float zValue, float pitchValue,
+                        float rollValue) throws IOException {
+            timestamps.putLong(timestamp);
+            x.putFloat(xValue);
+            y.putFloat(yValue);
+            z.putFloat(zValue);
+            pitch.putFloat(pitchValue);
+            roll.putFloat(rollValue);
+
+            if (++rows == ROWS_PER_GROUP) {
+                writeGroup();
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (rows > 0) {
+                writeGroup();
+            }
+        }
+
+        private void writeGroup() throws IOException {
+            groupHeader.clear();
+            groupHeader.putInt(rows);
+            groupHeader.putInt(0);
+
+            long total = 0;
+            for (ByteBuffer column : columns) {
+                column.flip();
+                total += column.remaining();
+            }
+            while (total > 0) {
+                total -= channel.write(columns);
+            }
+
+            for (ByteBuffer column : columns) {
+                column.clear();
+            }
+            rows = 0;
+        }
+    }
+
+    public static void main(String[] args) {
+        String format = FORMAT_CSV;
+        double fromSec = 0.0;
+        double toSec = Double.POSITIVE_INFINITY;
+        int decimation = 1;
+        int argIndex = 0;
+
+        try {
+            for (; argIndex < args.length && args[argIndex].startsWith("--"); argIndex += 2) {
+                String option = args[argIndex];
+                String value = args[argIndex + 1];
+
+                if ("--format".equals(option)) {
+                    format = value;
+                }
+                else if ("--from".equals(option)) {
+                    fromSec = Double.parseDouble(value);
+                }
+                else if ("--to".equals(option)) {
+                    toSec = Double.parseDouble(value);
+                }
+                else if ("--decimate".equals(option)) {
+                    decimation = Integer.parseInt(value);
+                }
+                else {
+                    throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            }
+        }
+        catch (RuntimeException re) {
+            System.err.println(re.getMessage());
+            argIndex = args.length;
+        }
+
+        if (args.length - argIndex != 2) {
+            System.err.println("usage: TripExporter [--format csv|columnar] [--from SEC] [--to SEC] " +
+                    "[--decimate N] trip.log output");
+            System.exit(2);
+        }
+
+        File logFile = new File(args[argIndex]);
+        File outputFile = new File(args[argIndex + 1]);
+        try {
+            TripExporter exporter = new TripExporter(format, decimation);
+
+            TripLogReader reader = new TripLogReader(logFile);
+            long firstTimestamp = reader.getFirstTimestamp();
+            reader.close();
+
+            long start = System.nanoTime();
+            long rows = exporter.export(logFile,
+                    firstTimestamp + (long) (fromSec * 1e9),
+                    Double.isInfinite(toSec) ? Long.MAX_VALUE : firstTimestamp + (long) (toSec * 1e9),
+                    outputFile);
+            double elapsedSec = (System.nanoTime() - start) / 1e9;
+
+            System.out.println(String.format(Locale.US, "%s: %d rows, %.1f MB in %.1f s (%.0f MB/s)",
+                    outputFile, rows, outputFile.length() / (1024.0 * 1024.0), elapsedSec,
+                    outputFile.length() / (1024.0 * 1024.0) / elapsedSec));
+        }
+        catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.exit(2);
+        }
+        catch (IOException ioe) {
+            System.err.println(logFile + ": " + ioe.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import com.tomhromatka.service.sensors.InclinometerMath;
+
+/**
+ * Summary of a contiguous run of trip log records.  Summaries of adjacent runs can be merged,
+ * and merging is associative, so a log can be split into chunks, summarized in parallel and
+ * the pieces combined in any grouping that preserves their order.
+ *
+ * Angles are computed the way SensorInclinometer computes them: the accelerations are averaged
+ * over a window and the average is run through InclinometerMath.  Windows are aligned to the
+ * sensor clock (timestamp / window length), not to the chunk boundaries, which is what makes
+ * the merge exact.  The first and last window of a summary may continue into its neighbours,
+ * so they are kept open until a merge or finish() closes them.
+ *
+ * - max tilt and time beyond limits use TILT_WINDOW_NS windows, the app's display average.
+ * - the worst sustained side-slope is the largest |roll| averaged over a sustain window.
+ */
+public class TripSummary {
+    /* same window as FilterMovingAverage.DEFAULT_SAMPLE_EXPIRATION_NS */
+    public static final long TILT_WINDOW_NS = 500000000L;
+
+    private final double pitchLimit;
+    private final double rollLimit;
+    private final double pitchOffset;
+    private final double rollOffset;
+
+    private long recordCount = 0;
+    private long firstTimestamp = 0;
+    private long lastTimestamp = 0;
+
+    private double maxAbsPitch = 0.0;
+    private double maxAbsRoll = 0.0;
+    private long recordsBeyondLimits = 0;
+    private double maxSustainedAbsRoll = 0.0;
+
+    private final WindowChain tiltWindows;
+    private final WindowChain sustainWindows;
+
+    /** accumulated accelerations of one time-aligned window */
+    private static class Window {
+        private long id;
+        private double sumX;
+        private double sumY;
+        private double sumZ;
+        private long count;
+
+        private void reset(long id) {
+            this.id = id;
+            this.sumX = 0.0;
+            this.sumY = 0.0;
+            this.sumZ = 0.0;
+            this.count = 0;
+        }
+
+        private void add(Window other) {
+            sumX += other.sumX;
+            sumY += other.sumY;
+            sumZ += other.sumZ;
+            count += other.count;
+        }
+    }
+
+    /**
+     * The open first and last windows of a summary.  Windows in between have already been
+     * closed and folded into the summary's statistics.
+     */
+    private abstract class WindowChain {
+        private final long windowNs;
+        private Window head = null;
+        private Window tail = null;
+
+        WindowChain(long windowNs) {
+            this.windowNs = windowNs;
+        }
+
+        /** fold a window that can no longer grow into the summary's statistics */
+        abstract void close(Window window);
+
+        void add(long timestamp, float x, float y, float z) {
+            long id = timestamp / windowNs;
+            Window current = (null == tail) ? head : tail;
+
+            if (null == current) {
+                head = new Window();
+                head.reset(id);
+                current = head;
+            }
+            else if (current.id != id) {
+                if (null == tail) {
+                    /* the head window stays open; it may continue in the previous chunk */
+                    tail = new Window();
+                }
+                else {
+                    close(tail);
+                }
+                tail.reset(id);
+                current = tail;
+            }
+
+            current.sumX += x;
+            current.sumY += y;
+            current.sumZ += z;
+            current.count++;
+        }
+
+        /** append the (later) chain of another summary to this one */
+        void merge(WindowChain later) {
+            if (null == later.head) {
+                return;
+            }
+            if (null == head) {
+                head = later.head;
+                tail = later.tail;
+                return;
+            }
+
+            Window last = (null == tail) ? head : tail;
+            if (last.id == later.head.id) {
+                /* the window straddles the chunk boundary */
+                last.add(later.head);
+                if (null != later.tail) {
+                    if (null != tail) {
+                        close(tail);
+                    }
+                    tail = later.tail;
+                }
+            }
+            else {
+                /* everything between our head and the later tail is now interior */
+                if (null != tail) {
+                    close(tail);
+                }
+                if (null != later.tail) {
+                    close(later.head);
+                    tail = later.tail;
+                }
+                else {
+                    tail = later.head;
+                }
+            }
+        }
+
+        void finish() {
+            if (null != head) {
+                close(head);
+            }
+            if (null != tail) {
+                close(tail);
+            }
+            head = null;
+            tail = null;
+        }
+    }
+
+    /**
+     * @param pitchLimit  |pitch| above which time counts as beyond limits (degrees)
+     * @param rollLimit   |roll| above which time counts as beyond limits (degrees)
+     * @param sustainNs   length of the window for the sustained side-slope (ns)
+     * @param pitchOffset pitch calibration offset from the trip log header (degrees)
+     * @param rollOffset  roll calibration offset from the trip log header (degrees)
+     */
+    public TripSummary(double pitchLimit, double rollLimit, long sustainNs, double pitchOffset, double rollOffset) {
+        this.pitchLimit = pitchLimit;
+        this.rollLimit = rollLimit;
+        this.pitchOffset = pitchOffset;
+        this.rollOffset = rollOffset;
+
+        this.tiltWindows = new WindowChain(TILT_WINDOW_NS) {
+            @Override
+            void close(Window window) {
+                double pitch = Math.abs(pitchOf(window));
+                double roll = Math.abs(rollOf(window));
+                maxAbsPitch = Math.max(maxAbsPitch, pitch);
+                maxAbsRoll = Math.max(maxAbsRoll, roll);
+                if (pitch > TripSummary.this.pitchLimit || roll > TripSummary.this.rollLimit) {
+                    recordsBeyondLimits += window.count;
+                }
+            }
+        };
+        this.sustainWindows = new WindowChain(sustainNs) {
+            @Override
+            void close(Window window) {
+                maxSustainedAbsRoll = Math.max(maxSustainedAbsRoll, Math.abs(rollOf(window)));
+            }
+        };
+    }
+
+    /**
+     * Add the next record of the run
+     *
+     * @param timestamp sensor timestamp (ns)
+     * @param x         oriented x acceleration (m/s^2)
+     * @param y         oriented y acceleration (m/s^2)
+     * @param z         oriented z acceleration (m/s^2)
+     */
+    public void add(long timestamp, float x, float y, float z) {
+        if (0 == recordCount) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+        recordCount++;
+
+        tiltWindows.add(timestamp, x, y, z);
+        sustainWindows.add(timestamp, x, y, z);
+    }
+
+    /**
+     * Append the summary of the run that immediately follows this one.  The other summary must
+     * not be used afterwards.
+     *
+     * @param later summary of the following run
+     * @return this summary
+     */
+    public TripSummary merge(TripSummary later) {
+        if (0 == later.recordCount) {
+            return this;
+        }
+        if (0 == recordCount) {
+            firstTimestamp = later.firstTimestamp;
+        }
+        lastTimestamp = later.lastTimestamp;
+        recordCount += later.recordCount;
+
+        maxAbsPitch = Math.max(maxAbsPitch, later.maxAbsPitch);
+        maxAbsRoll = Math.max(maxAbsRoll, later.maxAbsRoll);
+        recordsBeyondLimits += later.recordsBeyondLimits;
+        maxSustainedAbsRoll = Math.max(maxSustainedAbsRoll, later.maxSustainedAbsRoll);
+
+        tiltWindows.merge(later.tiltWindows);
+        sustainWindows.merge(later.sustainWindows);
+        return this;
+    }
+
+    /**
+     * Close the open windows at either end of the log.  Call once, after the last merge.
+     *
+     * @return this summary
+     */
+    public TripSummary finish() {
+        tiltWindows.finish();
+        sustainWindows.finish();
+        return this;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public double getDurationSeconds() {
+        return (lastTimestamp - firstTimestamp) / 1e9;
+    }
+
+    public double getMaxAbsPitch() {
+        return maxAbsPitch;
+    }
+
+    public double getMaxAbsRoll() {
+        return maxAbsRoll;
+    }
+
+    public double getMaxSustainedAbsRoll() {
+        return maxSustainedAbsRoll;
+    }
+
+    /**
+     * @return time spent beyond the pitch or roll limit (seconds), based on the average sample
+     * period of the run
+     */
+    public double getSecondsBeyondLimits() {
+        if (recordCount < 2) {
+            return 0.0;
+        }
+
+        return recordsBeyondLimits * getDurationSeconds() / (recordCount - 1);
+    }
+
+    private double pitchOf(Window window) {
+        return InclinometerMath.computePitch(window.sumY / window.count, window.sumZ / window.count) + pitchOffset;
+    }
+
+    private double rollOf(Window window) {
+        return InclinometerMath.computeRoll(window.sumX / window.count, window.sumY / window.count) + rollOffset;
+    }
+}
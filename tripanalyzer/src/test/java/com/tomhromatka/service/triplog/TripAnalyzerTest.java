@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.triplog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The parallel analyzer must report what a single TripSummary fed every record in order reports,
+ * however the log is split into chunks.
+ */
+public class TripAnalyzerTest {
+    private static final int RECORDS = 20000;
+    private static final double PITCH_LIMIT = 30.0;
+    private static final double ROLL_LIMIT = 25.0;
+    private static final long SUSTAIN_NS = 5000000000L;
+
+    /* the merge adds the same sums in another order */
+    private static final double TOLERANCE = 1e-9;
+
+    private final TripLogFixture fixture = new TripLogFixture(RECORDS);
+    private File logFile;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("trip", ".log");
+        fixture.write(logFile);
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(!logFile.exists() || logFile.delete());
+    }
+
+    @Test
+    public void parallelSummaryMatchesASinglePass() throws IOException {
+        TripSummary expected = singlePass();
+
+        /* chunk sizes that don't line up with the windows, down to one record per chunk */
+        long[] chunkSizes = {RECORDS, 4999, 777, 50, 1};
+        for (long chunkRecords : chunkSizes) {
+            TripAnalyzer analyzer = new TripAnalyzer(PITCH_LIMIT, ROLL_LIMIT, SUSTAIN_NS, new ForkJoinPool(4),
+                    chunkRecords);
+            assertSummariesEqual("chunks of " + chunkRecords, expected, analyzer.analyze(logFile.getPath()));
+        }
+    }
+
+    @Test
+    public void tripIsPartlyBeyondTheLimits() throws IOException {
+        TripSummary summary = new TripAnalyzer(PITCH_LIMIT, ROLL_LIMIT, SUSTAIN_NS, new ForkJoinPool(4), 777)
+                .analyze(logFile.getPath());
+        assertEquals(RECORDS, summary.getRecordCount());
+        assertTrue(summary.getSecondsBeyondLimits() > 0.0);
+        assertTrue(summary.getSecondsBeyondLimits() < summary.getDurationSeconds());
+        assertTrue(summary.getMaxAbsPitch() > PITCH_LIMIT);
+        assertTrue(summary.getMaxAbsRoll() > ROLL_LIMIT);
+    }
+
+    @Test
+    public void emptyLogHasAnEmptySummary() throws IOException {
+        new TripLogFixture(0).write(logFile);
+
+        TripSummary summary = new TripAnalyzer(PITCH_LIMIT, ROLL_LIMIT, SUSTAIN_NS, new ForkJoinPool(2))
+                .analyze(logFile.getPath());
+        assertEquals(0, summary.getRecordCount());
+        assertEquals(0.0, summary.getSecondsBeyondLimits(), 0.0);
+    }
+
+    private TripSummary singlePass() {
+        TripSummary summary = new TripSummary(PITCH_LIMIT, ROLL_LIMIT, SUSTAIN_NS,
+                TripLogFixture.PITCH_OFFSET, TripLogFixture.ROLL_OFFSET);
+        for (int record = 0; record < fixture.size(); record++) {
+            summary.add(fixture.timestamps[record], fixture.x[record], fixture.y[record], fixture.z[record]);
+        }
+        return summary.finish();
+    }
+
+    private static void assertSummariesEqual(String message, TripSummary expected, TripSummary actual) {
+        assertEquals(message, expected.getRecordCount(), actual.getRecordCount());
+        assertEquals(message, expected.getDurationSeconds(), actual.getDurationSeconds(), 0.0);
+        assertEquals(message, expected.getMaxAbsPitch(), actual.getMaxAbsPitch(), TOLERANCE);
+        assertEquals(message, expected.getMaxAbsRoll(), actual.getMaxAbsRoll(), TOLERANCE);
+        assertEquals(message, expected.getMaxSustainedAbsRoll(), actual.getMaxSustainedAbsRoll(), TOLERANCE);
+        assertEquals(message, expected.getSecondsBeyondLimits(), actual.getSecondsBeyondLimits(), TOLERANCE);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.triplog;
+
+import com.tomhromatka.service.sensors.InclinometerMath;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exports a trip log and reads the output back, checking every row against the records it came
+ * from and the angles against InclinometerMath with the header's offsets applied.
+ */
+public class TripExporterTest {
+    private static final int RECORDS = 3000;
+
+    /* export records [FIRST, LAST) */
+    private static final int FIRST = 500;
+    private static final int LAST = 2500;
+
+    private static final double ACCELERATION_TOLERANCE = 0.5e-4 + 1e-6;
+    private static final double ANGLE_TOLERANCE = 0.5e-3 + 1e-4;
+
+    private final TripLogFixture fixture = new TripLogFixture(RECORDS);
+    private File logFile;
+    private File outputFile;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("trip", ".log");
+        outputFile = File.createTempFile("trip", ".out");
+        fixture.write(logFile);
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(!logFile.exists() || logFile.delete());
+        assertTrue(!outputFile.exists() || outputFile.delete());
+    }
+
+    @Test
+    public void csvRowsMatchTheRecords() throws IOException {
+        long rows = new TripExporter(TripExporter.FORMAT_CSV, 1).export(logFile,
+                fixture.timestamps[FIRST], fixture.timestamps[LAST], outputFile);
+        assertEquals(LAST - FIRST, rows);
+
+        BufferedReader reader = new BufferedReader(new FileReader(outputFile));
+        try {
+            assertEquals("timestamp_ns,x,y,z,pitch,roll", reader.readLine());
+            for (int record = FIRST; record < LAST; record++) {
+                String[] fields = reader.readLine().split(",");
+                assertEquals(6, fields.length);
+                assertEquals(fixture.timestamps[record], Long.parseLong(fields[0]));
+                assertEquals(fixture.x[record], Double.parseDouble(fields[1]), ACCELERATION_TOLERANCE);
+                assertEquals(fixture.y[record], Double.parseDouble(fields[2]), ACCELERATION_TOLERANCE);
+                assertEquals(fixture.z[record], Double.parseDouble(fields[3]), ACCELERATION_TOLERANCE);
+                assertEquals(pitchOf(record), Double.parseDouble(fields[4]), ANGLE_TOLERANCE);
+                assertEquals(rollOf(record), Double.parseDouble(fields[5]), ANGLE_TOLERANCE);
+            }
+            assertNull(reader.readLine());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void columnarColumnsMatchTheRecords() throws IOException {
+        long rows = new TripExporter(TripExporter.FORMAT_COLUMNAR, 1).export(logFile,
+                fixture.timestamps[FIRST], fixture.timestamps[LAST], outputFile);
+        assertEquals(LAST - FIRST, rows);
+
+        ByteBuffer output = readOutput();
+        assertEquals(TripExporter.COLUMNAR_MAGIC, output.getLong());
+        assertEquals(TripExporter.COLUMNAR_VERSION, output.getInt());
+        assertEquals(TripExporter.COLUMN_COUNT, output.getInt());
+        assertEquals(TripExporter.ROWS_PER_GROUP, output.getInt());
+        assertEquals(0, output.getInt());
+        assertEquals(TripLogFixture.START_WALL_CLOCK_MS, output.getLong());
+
+        /* fewer rows than a group, so one group */
+        int count = LAST - FIRST;
+        assertEquals(count, output.getInt());
+        assertEquals(0, output.getInt());
+        int timestamps = output.position();
+        int floats = timestamps + count * 8;
+        for (int row = 0; row < count; row++) {
+            int record = FIRST + row;
+            assertEquals(fixture.timestamps[record], output.getLong(timestamps + row * 8));
+            assertEquals(fixture.x[record], output.getFloat(floats + row * 4), 0.0f);
+            assertEquals(fixture.y[record], output.getFloat(floats + (count + row) * 4), 0.0f);
+            assertEquals(fixture.z[record], output.getFloat(floats + (2 * count + row) * 4), 0.0f);
+            assertEquals((float) pitchOf(record), output.getFloat(floats + (3 * count + row) * 4), 0.0f);
+            assertEquals((float) rollOf(record), output.getFloat(floats + (4 * count + row) * 4), 0.0f);
+        }
+        assertEquals(floats + 5 * count * 4, output.limit());
+    }
+
+    @Test
+    public void decimationKeepsEveryNthRowWithinTheRange() throws IOException {
+        int decimation = 4;
+        long rows = new TripExporter(TripExporter.FORMAT_COLUMNAR, decimation).export(logFile,
+                fixture.timestamps[FIRST], fixture.timestamps[LAST], outputFile);
+        assertEquals((LAST - FIRST) / decimation, rows);
+
+        ByteBuffer output = readOutput();
+        output.position(TripExporter.COLUMNAR_HEADER_SIZE);
+        assertEquals(rows, output.getInt());
+        output.getInt();
+        /* rows get the first sample's timestamp until the filter has filled */
+        long previous = Long.MIN_VALUE;
+        for (int row = 0; row < rows; row++) {
+            long timestamp = output.getLong();
+            assertTrue(timestamp >= previous);
+            assertTrue(timestamp >= fixture.timestamps[FIRST] && timestamp < fixture.timestamps[LAST]);
+            previous = timestamp;
+        }
+
+        /* the tilt only changes slowly, so each filtered row stays close to the record it is timed at */
+        int timestamps = TripExporter.COLUMNAR_HEADER_SIZE + 8;
+        int x = timestamps + (int) rows * 8;
+        for (int row = 0; row < rows; row++) {
+            int record = Arrays.binarySearch(fixture.timestamps, output.getLong(timestamps + row * 8));
+            assertTrue(record >= FIRST);
+            assertEquals(fixture.x[record], output.getFloat(x + row * 4), 0.05f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFormatIsRejected() {
+        new TripExporter("xml", 1);
+    }
+
+
+    private double pitchOf(int record) {
+        return InclinometerMath.computePitch(fixture.y[record], fixture.z[record]) + TripLogFixture.PITCH_OFFSET;
+    }
+
+    private double rollOf(int record) {
+        return InclinometerMath.computeRoll(fixture.x[record], fixture.y[record]) + TripLogFixture.ROLL_OFFSET;
+    }
+
+    private ByteBuffer readOutput() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(outputFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer output = ByteBuffer.allocate((int) channel.size()).order(TripLog.BYTE_ORDER);
+            while (output.hasRemaining()) {
+                if (channel.read(output) < 0) {
+                    break;
+                }
+            }
+            output.flip();
+            return output;
+        }
+        finally {
+            file.close();
+        }
+    }
+}
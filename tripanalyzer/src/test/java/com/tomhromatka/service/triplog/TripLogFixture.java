@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.triplog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a trip log of a vehicle rocking slowly in pitch and roll, as TripLogWriter would have
+ * recorded it, and remembers its records so tests can recompute what the tools should report.
+ */
+class TripLogFixture {
+    static final long START_WALL_CLOCK_MS = 1444000000000L;
+    static final double PITCH_OFFSET = 1.5;
+    static final double ROLL_OFFSET = -2.5;
+    static final long FIRST_TIMESTAMP = 3000000000L;
+
+    private static final double GRAVITY = 9.80665;
+    private static final long PERIOD_NS = 10000000L;
+
+    final long[] timestamps;
+    final float[] x;
+    final float[] y;
+    final float[] z;
+
+    /**
+     * @param records number of records to generate
+     */
+    TripLogFixture(int records) {
+        timestamps = new long[records];
+        x = new float[records];
+        y = new float[records];
+        z = new float[records];
+
+        long timestamp = FIRST_TIMESTAMP;
+        for (int record = 0; record < records; record++) {
+            /* up to 40 degrees either way, so some of the trip is beyond the default limits */
+            double pitch = Math.toRadians(40.0 * Math.sin(record / 900.0));
+            double roll = Math.toRadians(40.0 * Math.sin(record / 1300.0 + 1.0));
+
+            /* a little timing jitter, as from a real sensor */
+            timestamps[record] = timestamp;
+            timestamp += PERIOD_NS + (record % 7) * 100000L;
+
+            x[record] = (float) (-GRAVITY * Math.cos(pitch) * Math.sin(roll));
+            y[record] = (float) (GRAVITY * Math.cos(pitch) * Math.cos(roll));
+            z[record] = (float) (GRAVITY * Math.sin(pitch));
+        }
+    }
+
+    int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * @param logFile file to write the trip log to (replaced if it exists)
+     * @throws IOException if the log could not be written
+     */
+    void write(File logFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            TripLog.writeHeader(channel, new TripLog.Header(START_WALL_CLOCK_MS, PITCH_OFFSET, ROLL_OFFSET));
+
+            ByteBuffer records = ByteBuffer.allocate(size() * TripLog.RECORD_SIZE).order(TripLog.BYTE_ORDER);
+            for (int record = 0; record < size(); record++) {
+                records.putLong(timestamps[record]);
+                records.putFloat(x[record]);
+                records.putFloat(y[record]);
+                records.putFloat(z[record]);
+            }
+            records.flip();
+
+            channel.position(TripLog.HEADER_SIZE);
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        }
+        finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * Low-pass filters a stream of samples and keeps every factor'th one, so vibration above the
+ * output rate's Nyquist frequency is removed instead of aliasing into the output the way it
+ * does when samples are simply dropped.
+ *
+ * This is a polyphase FIR decimator: the filter is evaluated only at output instants, where
+ * each of its factor phases (taps p, p + factor, p + 2 * factor, ...) meets the samples it
+ * applies to.  Adding a sample only stores it, so the multiply-accumulates are spent once per
+ * output sample rather than once per input sample; that is factor times cheaper than filtering
+ * every sample and then discarding most of them.
+ *
+ * The coefficients are a Blackman windowed sinc, computed once in the constructor and
+ * normalized to unity gain at DC.  The history is a primitive circular buffer that stores
+ * every sample twice, taps apart, so the newest taps samples are always contiguous and the dot
+ * product needs no wrap-around.  Nothing is allocated after construction.
+ *
+ * This class has no Android dependencies so offline tools can replay trip logs through it.
+ */
+public class FilterDecimator {
+    /* taps per phase.  more taps give a sharper transition band and better stopband */
+    public static final int DEFAULT_TAPS_PER_PHASE = 16;
+
+    /*
+     * cutoff as a fraction of the output rate.  the Blackman window's transition band is about
+     * 5.5 / taps wide, so with the default taps the stopband starts a little above the output
+     * Nyquist frequency (0.5), and anything that still aliases lands in the top of the output
+     * band, well away from the slowly changing angles.
+     */
+    private static final double CUTOFF = 0.35;
+
+    private final int factor;
+    private final int channels;
+    private final int taps;
+    private final float[] coefficients;
+
+    /* channel c's history occupies [c * 2 * taps, (c + 1) * 2 * taps) */
+    private final float[] history;
+    private int writeIndex = 0;
+    private int phase = 0;
+    private boolean primed = false;
+
+    /**
+     * @param factor       number of input samples per output sample
+     * @param channels     number of values in each sample
+     * @param tapsPerPhase filter length per phase, e.g. DEFAULT_TAPS_PER_PHASE
+     */
+    public FilterDecimator(int factor, int channels, int tapsPerPhase) {
+        if (factor < 1 || channels < 1 || tapsPerPhase < 1) {
+            throw new IllegalArgumentException("Invalid decimator: factor " + factor +
+                    ", channels " + channels + ", taps per phase " + tapsPerPhase);
+        }
+
+        this.factor = factor;
+        this.channels = channels;
+        this.taps = factor * tapsPerPhase;
+        this.coefficients = designLowPass(taps, CUTOFF / factor);
+        this.history = new float[channels * 2 * taps];
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    public int getTaps() {
+        return taps;
+    }
+
+    /**
+     * @return the filter's delay in input samples.  The filter is linear phase, so every
+     * frequency is delayed by the same amount.
+     */
+    public double getGroupDelaySamples() {
+        return (taps - 1) / 2.0;
+    }
+
+    /**
+     * @return the filter coefficients.  Exposed for analysis; do not modify.
+     */
+    public float[] getCoefficients() {
+        return coefficients;
+    }
+
+    /**
+     * Forget all history.  The next sample primes the filter again.
+     */
+    public void reset() {
+        writeIndex = 0;
+        phase = 0;
+        primed = false;
+    }
+
+    /**
+     * Add an input sample and, if this sample completes an output period, compute the output.
+     * The first sample after construction or reset() fills the whole history, so there's no
+     * start-up transient from zeros, and produces an output immediately.
+     *
+     * @param data   input sample, channels values
+     * @param output receives the filtered sample when true is returned
+     * @return true if output was written
+     */
+    public boolean add(float[] data, float[] output) {
+        if (!primed) {
+            prime(data);
+        }
+        else {
+            writeIndex = (writeIndex + 1) % taps;
+            for (int channel = 0; channel < channels; channel++) {
+                int base = channel * 2 * taps;
+                history[base + writeIndex] = data[channel];
+                history[base + writeIndex + taps] = data[channel];
+            }
+        }
+
+        if (0 != phase) {
+            phase--;
+            return false;
+        }
+        phase = factor - 1;
+
+        /* the newest taps samples are [writeIndex + 1, writeIndex + taps] */
+        for (int channel = 0; channel < channels; channel++) {
+            int start = channel * 2 * taps + writeIndex + 1;
+            float sum = 0.0f;
+            for (int tap = 0; tap < taps; tap++) {
+                sum += coefficients[tap] * history[start + tap];
+            }
+            output[channel] = sum;
+        }
+
+        return true;
+    }
+
+    /**
+     * Fill the whole history with one value, as if it had been the input forever, e.g. to
+     * start a rebuilt decimator from a known average rather than from a single noisy sample.
+     * The next add() produces an output.
+     *
+     * @param data value to fill the history with, channels values
+     */
+    public void prime(float[] data) {
+        for (int channel = 0; channel < channels; channel++) {
+            int base = channel * 2 * taps;
+            for (int index = 0; index < 2 * taps; index++) {
+                history[base + index] = data[channel];
+            }
+        }
+        /* every slot holds the same value, so the write position doesn't matter */
+        writeIndex = 0;
+        phase = 0;
+        primed = true;
+    }
+
+    /**
+     * Design a Blackman windowed sinc low-pass filter
+     *
+     * @param taps   filter length
+     * @param cutoff cutoff frequency as a fraction of the input rate (0 to 0.5)
+     * @return coefficients normalized to unity gain at DC
+     */
+    private static float[] designLowPass(int taps, double cutoff) {
+        double[] design = new double[taps];
+        double center = (taps - 1) / 2.0;
+        double sum = 0.0;
+
+        for (int tap = 0; tap < taps; tap++) {
+            double offset = tap - center;
+            double sinc = (0.0 == offset) ? 2.0 * cutoff :
+                    Math.sin(2.0 * Math.PI * cutoff * offset) / (Math.PI * offset);
+            double window = (1 == taps) ? 1.0 :
+                    0.42 - 0.5 * Math.cos(2.0 * Math.PI * tap / (taps - 1)) +
+                            0.08 * Math.cos(4.0 * Math.PI * tap / (taps - 1));
+            design[tap] = sinc * window;
+            sum += design[tap];
+        }
+
+        float[] coefficients = new float[taps];
+        for (int tap = 0; tap < taps; tap++) {
+            coefficients[tap] = (float) (design[tap] / sum);
+        }
+        return coefficients;
+    }
+}
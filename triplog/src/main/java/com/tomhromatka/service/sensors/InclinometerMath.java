@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+/**
+ * The pitch and roll math used by SensorInclinometer.  This class has no Android dependencies so
+ * offline tools (e.g. the trip analyzer) compute angles exactly the way the app does.
+ */
+public final class InclinometerMath {
+    private static final double RAD_TO_DEG = 180.0f / Math.PI;
+    private static final double ROLL_X_ZERO_THRESH  = 0.25f;
+    private static final double ROLL_Y_ZERO_THRESH  = 0.25f;
+
+    private InclinometerMath() {
+    }
+
+    /**
+     * Method to compute the pitch of the device
+     *
+     * @param y oriented accelerometer value in the y axis (m/s^2)
+     * @param z oriented accelerometer value in the z axis (m/s^2)
+     * @return the pitch of the phone in degrees
+     */
+    public static double computePitch(double y, double z) {
+        double pitch = 90.0f - (Math.atan2(y, z) * RAD_TO_DEG);
+
+        if (pitch < -180.0f) {
+            pitch += 360.0f;
+        }
+        else if (pitch > 180.0f) {
+            pitch -= 360.0f;
+        }
+
+        return pitch;
+    }
+
+    /**
+     * Method to compute the roll of the device
+     *
+     * @param x oriented accelerometer value in the x axis (m/s^2)
+     * @param y oriented accelerometer value in the y axis (m/s^2)
+     * @return the roll of the phone in degrees
+     */
+    public static double computeRoll(double x, double y) {
+        double roll = (Math.atan2(y, x) * RAD_TO_DEG) - 90.0f;
+
+        if (roll < -180.0f) {
+            roll += 360.0f;
+        }
+        else if (roll > 180.0f) {
+            roll -= 360.0f;
+        }
+
+        if (x < ROLL_X_ZERO_THRESH && y < ROLL_Y_ZERO_THRESH) {
+            /* zero out roll when both x and y are near-zero. */
+            roll = 0.0f;
+        }
+
+        return roll;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * On-disk format of a trip log.  A trip log is a fixed-size header followed by fixed-size
+ * records of oriented accelerometer samples, all little endian:
+ *
+ * Header (HEADER_SIZE bytes)
+ *   0  long   MAGIC
+ *   8  int    VERSION
+ *   12 int    RECORD_SIZE
+ *   16 long   wall clock time the log was started (ms since the epoch)
+ *   24 double pitch offset in effect when the log was started (degrees)
+ *   32 double roll offset in effect when the log was started (degrees)
+ *   40        reserved (zero)
+ *
+ * Record (RECORD_SIZE bytes)
+ *   0  long   sensor timestamp (ns)
+ *   8  float  oriented x acceleration (m/s^2)
+ *   12 float  oriented y acceleration (m/s^2)
+ *   16 float  oriented z acceleration (m/s^2)
+ *
+ * Fixed-size records let readers find record boundaries anywhere in the file by arithmetic
+ * alone.  TripLogWriter also saves a seek index next to the log (see TripLogIndex) that
+ * TripLogReader uses to jump to a time.  This class has no Android dependencies so it can be
+ * shared with offline tools.
+ */
+public final class TripLog {
+    /* "HRMTKLOG" when read as little endian ASCII */
+    public static final long MAGIC = 0x474f4c4b544d5248L;
+    public static final int VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 20;
+
+    public static final int TIMESTAMP_OFFSET = 0;
+    public static final int X_OFFSET = 8;
+    public static final int Y_OFFSET = 12;
+    public static final int Z_OFFSET = 16;
+
+    private static final int HEADER_MAGIC_OFFSET = 0;
+    private static final int HEADER_VERSION_OFFSET = 8;
+    private static final int HEADER_RECORD_SIZE_OFFSET = 12;
+    private static final int HEADER_START_TIME_OFFSET = 16;
+    private static final int HEADER_PITCH_OFFSET_OFFSET = 24;
+    private static final int HEADER_ROLL_OFFSET_OFFSET = 32;
+
+    /** class that holds the contents of a trip log header */
+    public static class Header {
+        private long startWallClockMs;
+        private double pitchOffset;
+        private double rollOffset;
+
+        public Header(long startWallClockMs, double pitchOffset, double rollOffset) {
+            this.startWallClockMs = startWallClockMs;
+            this.pitchOffset = pitchOffset;
+            this.rollOffset = rollOffset;
+        }
+
+        public long getStartWallClockMs() {
+            return startWallClockMs;
+        }
+
+        public double getPitchOffset() {
+            return pitchOffset;
+        }
+
+        public double getRollOffset() {
+            return rollOffset;
+        }
+    }
+
+    private TripLog() {
+    }
+
+    /**
+     * Write a header to the start of the channel
+     *
+     * @param channel channel positioned at the start of the file
+     * @param header  header to write
+     * @throws IOException if the header could not be written
+     */
+    public static void writeHeader(FileChannel channel, Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+        buffer.putLong(HEADER_MAGIC_OFFSET, MAGIC);
+        buffer.putInt(HEADER_VERSION_OFFSET, VERSION);
+        buffer.putInt(HEADER_RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putLong(HEADER_START_TIME_OFFSET, header.getStartWallClockMs());
+        buffer.putDouble(HEADER_PITCH_OFFSET_OFFSET, header.getPitchOffset());
+        buffer.putDouble(HEADER_ROLL_OFFSET_OFFSET, header.getRollOffset());
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * Read and validate the header of a trip log
+     *
+     * @param channel channel of the trip log
+     * @return the header
+     * @throws IOException if the header could not be read or this isn't a trip log
+     */
+    public static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new IOException("Truncated trip log header");
+            }
+        }
+
+        if (MAGIC != buffer.getLong(HEADER_MAGIC_OFFSET)) {
+            throw new IOException("Not a trip log");
+        }
+        if (VERSION != buffer.getInt(HEADER_VERSION_OFFSET) ||
+                RECORD_SIZE != buffer.getInt(HEADER_RECORD_SIZE_OFFSET)) {
+            throw new IOException("Unsupported trip log version " + buffer.getInt(HEADER_VERSION_OFFSET));
+        }
+
+        return new Header(
+                buffer.getLong(HEADER_START_TIME_OFFSET),
+                buffer.getDouble(HEADER_PITCH_OFFSET_OFFSET),
+                buffer.getDouble(HEADER_ROLL_OFFSET_OFFSET));
+    }
+
+    /**
+     * Number of complete records in a trip log.  A partially written trailing record is ignored.
+     *
+     * @param fileSize size of the trip log (bytes)
+     * @return number of complete records
+     */
+    public static long recordCount(long fileSize) {
+        return Math.max(0, fileSize - HEADER_SIZE) / RECORD_SIZE;
+    }
+}
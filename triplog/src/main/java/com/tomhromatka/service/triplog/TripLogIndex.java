@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * On-disk format of a trip log's seek index.  The index is saved next to the trip log, in a file
+ * named after it with FILE_SUFFIX appended, and holds one entry per block of records the writer
+ * flushed: the timestamp of the block's first record and that record's number.  A fixed-size
+ * header is followed by fixed-size entries, all little endian:
+ *
+ * Header (HEADER_SIZE bytes)
+ *   0  long   MAGIC
+ *   8  int    VERSION
+ *   12 int    ENTRY_SIZE
+ *   16 int    records per entry, i.e. the writer's block size
+ *   20        reserved (zero)
+ *
+ * Entry (ENTRY_SIZE bytes)
+ *   0  long   sensor timestamp of the first record of the block (ns)
+ *   8  long   number of the first record of the block
+ *
+ * An entry is 16 bytes per block of thousands of records, so even the index of a multi-gigabyte
+ * log is small enough to binary search without touching the log itself.  The index is only an
+ * accelerator: a log without one (or with a truncated one) can still be searched record by
+ * record.  This class has no Android dependencies so it can be shared with offline tools.
+ */
+public final class TripLogIndex {
+    /* "HRMTKIDX" when read as little endian ASCII */
+    public static final long MAGIC = 0x5844494b544d5248L;
+    public static final int VERSION = 1;
+    public static final String FILE_SUFFIX = ".index";
+
+    public static final int HEADER_SIZE = 32;
+    public static final int ENTRY_SIZE = 16;
+
+    public static final int TIMESTAMP_OFFSET = 0;
+    public static final int RECORD_OFFSET = 8;
+
+    private static final int HEADER_MAGIC_OFFSET = 0;
+    private static final int HEADER_VERSION_OFFSET = 8;
+    private static final int HEADER_ENTRY_SIZE_OFFSET = 12;
+    private static final int HEADER_INTERVAL_OFFSET = 16;
+
+    private TripLogIndex() {
+    }
+
+    /**
+     * Write a header to the start of the channel
+     *
+     * @param channel        channel of the index
+     * @param recordsPerEntry number of records between entries
+     * @throws IOException if the header could not be written
+     */
+    public static void writeHeader(FileChannel channel, int recordsPerEntry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(TripLog.BYTE_ORDER);
+        buffer.putLong(HEADER_MAGIC_OFFSET, MAGIC);
+        buffer.putInt(HEADER_VERSION_OFFSET, VERSION);
+        buffer.putInt(HEADER_ENTRY_SIZE_OFFSET, ENTRY_SIZE);
+        buffer.putInt(HEADER_INTERVAL_OFFSET, recordsPerEntry);
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * Read and validate the header of an index
+     *
+     * @param channel channel of the index
+     * @return number of records between entries
+     * @throws IOException if the header could not be read or this isn't a trip log index
+     */
+    public static int readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(TripLog.BYTE_ORDER);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new IOException("Truncated trip log index header");
+            }
+        }
+
+        if (MAGIC != buffer.getLong(HEADER_MAGIC_OFFSET)) {
+            throw new IOException("Not a trip log index");
+        }
+        if (VERSION != buffer.getInt(HEADER_VERSION_OFFSET) ||
+                ENTRY_SIZE != buffer.getInt(HEADER_ENTRY_SIZE_OFFSET)) {
+            throw new IOException("Unsupported trip log index version " + buffer.getInt(HEADER_VERSION_OFFSET));
+        }
+
+        return buffer.getInt(HEADER_INTERVAL_OFFSET);
+    }
+
+    /**
+     * Number of complete entries in an index.  A partially written trailing entry is ignored.
+     *
+     * @param fileSize size of the index (bytes)
+     * @return number of complete entries
+     */
+    public static long entryCount(long fileSize) {
+        return Math.max(0, fileSize - HEADER_SIZE) / ENTRY_SIZE;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.triplog;
+
+import com.tomhromatka.service.sensors.SensorApi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access reader for trip logs.  seek() finds the first record at or after a timestamp
+ * in O(log n) and next() streams forward from there, so e.g. minute 47 of a long trip can be
+ * read without scanning the 46 minutes before it.
+ *
+ * The log is memory mapped one window of WINDOW_RECORDS records at a time, so the reader's
+ * footprint doesn't depend on the size of the log.  Sensor timestamps only increase, so a
+ * search is a binary search of the seek index (see TripLogIndex), which narrows the answer down
+ * to one block, followed by a binary search of the records in that block.  Logs without a
+ * usable index are binary searched record by record, which touches more of the log but is still
+ * O(log n).
+ *
+ * A reader sees the records that were in the log when it was opened.  It isn't thread safe.
+ * This class has no Android dependencies so it can be shared with offline tools.
+ */
+public class TripLogReader {
+    /* 1M records (20 MB) per mapping keeps each mapping small however large the log is */
+    private static final long WINDOW_RECORDS = 1024L * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final TripLog.Header header;
+    private final long recordCount;
+
+    /* null if the log has no usable index */
+    private MappedByteBuffer index = null;
+    private int indexEntryCount = 0;
+
+    private MappedByteBuffer window = null;
+    private long windowFirstRecord = 0;
+    private long windowRecordCount = 0;
+
+    private long position = 0;
+    private long timestamp = 0;
+    private final float[] values = new float[3];
+
+    /**
+     * Open a trip log and its index, if it has one
+     *
+     * @param logFile trip log to read
+     * @throws IOException if the log can't be read or isn't a trip log
+     */
+    public TripLogReader(File logFile) throws IOException {
+        file = new RandomAccessFile(logFile, "r");
+        try {
+            channel = file.getChannel();
+            header = TripLog.readHeader(channel);
+            recordCount = TripLog.recordCount(channel.size());
+        }
+        catch (IOException ioe) {
+            file.close();
+            throw ioe;
+        }
+
+        openIndex(new File(logFile.getPath() + TripLogIndex.FILE_SUFFIX));
+    }
+
+    /**
+     * Close the log.  The reader can't be used afterwards.
+     *
+     * @throws IOException if the log could not be closed
+     */
+    public void close() throws IOException {
+        index = null;
+        window = null;
+        file.close();
+    }
+
+    public TripLog.Header getHeader() {
+        return header;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return true if seeks are narrowed down by the log's index
+     */
+    public boolean isIndexed() {
+        return null != index;
+    }
+
+    /**
+     * @return timestamp of the first record (ns), or 0 if the log is empty
+     * @throws IOException if the log can't be read
+     */
+    public long getFirstTimestamp() throws IOException {
+        return (0 == recordCount) ? 0 : timestampAt(0);
+    }
+
+    /**
+     * @return timestamp of the last record (ns), or 0 if the log is empty
+     * @throws IOException if the log can't be read
+     */
+    public long getLastTimestamp() throws IOException {
+        return (0 == recordCount) ? 0 : timestampAt(recordCount - 1);
+    }
+
+    /**
+     * Move to the first record whose timestamp is at or after the given time
+     *
+     * @param targetTimestamp time to seek to (ns, on the log's sensor clock)
+     * @return number of the record next() will read, or the record count if every record is
+     * earlier than targetTimestamp
+     * @throws IOException if the log can't be read
+     */
+    public long seek(long targetTimestamp) throws IOException {
+        long low = 0;
+        long high = recordCount;
+
+        if (null != index) {
+            /* first entry that starts after the target.  the answer is in the block before it */
+            int lowEntry = 0;
+            int highEntry = indexEntryCount;
+            while (lowEntry < highEntry) {
+                int middle = (lowEntry + highEntry) >>> 1;
+                if (entryTimestamp(middle) <= targetTimestamp) {
+                    lowEntry = middle + 1;
+                }
+                else {
+                    highEntry = middle;
+                }
+            }
+
+            if (lowEntry > 0) {
+                low = entryRecord(lowEntry - 1);
+            }
+            if (lowEntry < indexEntryCount) {
+                high = entryRecord(lowEntry);
+            }
+        }
+
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (timestampAt(middle) < targetTimestamp) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+
+        position = low;
+        return position;
+    }
+
+    /**
+     * Move to a record
+     *
+     * @param record number of the record next() will read (0 - record count)
+     */
+    public void setPosition(long record) {
+        if (record < 0 || record > recordCount) {
+            throw new IllegalArgumentException("Record " + record + " is outside the log");
+        }
+        position = record;
+    }
+
+    /**
+     * @return number of the record next() will read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Read the record at the current position and move past it.  The record's contents are
+     * then available from getTimestamp() and getValues().
+     *
+     * @return false if there are no more records
+     * @throws IOException if the log can't be read
+     */
+    public boolean next() throws IOException {
+        if (position >= recordCount) {
+            return false;
+        }
+
+        int offset = mapRecord(position);
+        timestamp = window.getLong(offset + TripLog.TIMESTAMP_OFFSET);
+        values[0] = window.getFloat(offset + TripLog.X_OFFSET);
+        values[1] = window.getFloat(offset + TripLog.Y_OFFSET);
+        values[2] = window.getFloat(offset + TripLog.Z_OFFSET);
+        position++;
+        return true;
+    }
+
+    /**
+     * @return sensor timestamp of the record last read by next() (ns)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return oriented acceleration of the record last read by next() (x == 0, y == 1, z == 2).
+     * The array is reused by every call to next(); copy the values you want to keep.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * Replay the records in [startTimestamp, endTimestamp) to a listener, exactly like the
+     * oriented accelerometer would have delivered them.  The values[] array is reused between
+     * records.
+     *
+     * @param startTimestamp first time to replay (ns, inclusive)
+     * @param endTimestamp   time to stop at (ns, exclusive)
+     * @param listener       listener to replay the records to
+     * @return number of records replayed
+     * @throws IOException if the log can't be read
+     */
+    public long readRange(long startTimestamp, long endTimestamp, SensorApi listener) throws IOException {
+        long count = 0;
+
+        seek(startTimestamp);
+        while (next()) {
+            if (timestamp >= endTimestamp) {
+                position--;
+                break;
+            }
+
+            listener.onDataReceived(timestamp, values);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Map the log's index if it exists and matches the log.  Entries for records that aren't in
+     * the log (e.g. the log was truncated) are ignored.
+     */
+    private void openIndex(File indexPath) {
+        if (!indexPath.isFile()) {
+            return;
+        }
+
+        try {
+            RandomAccessFile indexFile = new RandomAccessFile(indexPath, "r");
+            try {
+                FileChannel indexChannel = indexFile.getChannel();
+                TripLogIndex.readHeader(indexChannel);
+                long entries = TripLogIndex.entryCount(indexChannel.size());
+                if (entries * TripLogIndex.ENTRY_SIZE > Integer.MAX_VALUE) {
+                    return;
+                }
+
+                /* the mapping stays valid after the file is closed */
+                index = indexChannel.map(FileChannel.MapMode.READ_ONLY, TripLogIndex.HEADER_SIZE,
+                        entries * TripLogIndex.ENTRY_SIZE);
+                index.order(TripLog.BYTE_ORDER);
+                indexEntryCount = (int) entries;
+                while (indexEntryCount > 0 && entryRecord(indexEntryCount - 1) >= recordCount) {
+                    indexEntryCount--;
+                }
+            }
+            finally {
+                indexFile.close();
+            }
+        }
+        catch (IOException ioe) {
+            /* the index is only an accelerator.  fall back to searching the log itself */
+            index = null;
+            indexEntryCount = 0;
+        }
+
+        if (0 == indexEntryCount) {
+            index = null;
+        }
+    }
+
+    private long entryTimestamp(int entry) {
+        return index.getLong(entry * TripLogIndex.ENTRY_SIZE + TripLogIndex.TIMESTAMP_OFFSET);
+    }
+
+    private long entryRecord(int entry) {
+        return index.getLong(entry * TripLogIndex.ENTRY_SIZE + TripLogIndex.RECORD_OFFSET);
+    }
+
+    private long timestampAt(long record) throws IOException {
+        int offset = mapRecord(record);
+        return window.getLong(offset + TripLog.TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * Make sure the window covers a record
+     *
+     * @param record number of the record
+     * @return offset of the record in the window
+     * @throws IOException if the log can't be mapped
+     */
+    private int mapRecord(long record) throws IOException {
+        if (null == window || record < windowFirstRecord || record >= windowFirstRecord + windowRecordCount) {
+            windowFirstRecord = record - record % WINDOW_RECORDS;
+            windowRecordCount = Math.min(WINDOW_RECORDS, recordCount - windowFirstRecord);
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    TripLog.HEADER_SIZE + windowFirstRecord * TripLog.RECORD_SIZE,
+                    windowRecordCount * TripLog.RECORD_SIZE);
+            window.order(TripLog.BYTE_ORDER);
+        }
+
+        return (int) ((record - windowFirstRecord) * TripLog.RECORD_SIZE);
+    }
+}
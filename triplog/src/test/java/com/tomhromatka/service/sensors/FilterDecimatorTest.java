@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.tomhromatka.service.sensors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frequency response and throughput of FilterDecimator.  Frequencies are fractions of the
+ * output rate, so the output Nyquist frequency is 0.5 whatever the factor.
+ */
+public class FilterDecimatorTest {
+    private static final int[] FACTORS = {2, 8, 40, 128};
+
+    /* the cutoff is 0.35 of the output rate; well below it the gain is flat */
+    private static final double PASSBAND_EDGE = 0.2;
+    private static final double PASSBAND_RIPPLE_DB = 0.1;
+    private static final double STOPBAND_ATTENUATION_DB = 60.0;
+
+    /**
+     * Gain of the filter at a frequency, from its coefficients
+     *
+     * @param frequency fraction of the output rate
+     */
+    private static double gainDb(FilterDecimator decimator, double frequency) {
+        float[] coefficients = decimator.getCoefficients();
+        double omega = 2.0 * Math.PI * frequency / decimator.getFactor();
+        double real = 0.0;
+        double imaginary = 0.0;
+        for (int tap = 0; tap < coefficients.length; tap++) {
+            real += coefficients[tap] * Math.cos(omega * tap);
+            imaginary -= coefficients[tap] * Math.sin(omega * tap);
+        }
+        return 20.0 * Math.log10(Math.hypot(real, imaginary));
+    }
+
+    @Test
+    public void passbandIsFlat() {
+        for (int factor : FACTORS) {
+            FilterDecimator decimator = new FilterDecimator(factor, 1, FilterDecimator.DEFAULT_TAPS_PER_PHASE);
+            assertEquals("DC gain at factor " + factor, 0.0, gainDb(decimator, 0.0), 1e-4);
+            for (double frequency = 0.0; frequency <= PASSBAND_EDGE; frequency += 0.01) {
+                assertEquals("gain at " + frequency + " with factor " + factor,
+                        0.0, gainDb(decimator, frequency), PASSBAND_RIPPLE_DB);
+            }
+        }
+    }
+
+    @Test
+    public void everythingThatWouldAliasIsAttenuated() {
+        for (int factor : FACTORS) {
+            FilterDecimator decimator = new FilterDecimator(factor, 1, FilterDecimator.DEFAULT_TAPS_PER_PHASE);
+
+            /* from a little above the output Nyquist frequency up to the input Nyquist frequency */
+            for (double frequency = 0.6; frequency <= factor / 2.0; frequency += 0.05) {
+                double gain = gainDb(decimator, frequency);
+                assertTrue("gain " + gain + " dB at " + frequency + " with factor " + factor,
+                        gain <= -STOPBAND_ATTENUATION_DB);
+            }
+        }
+    }
+
+    @Test
+    public void vibrationDoesNotAliasIntoTheOutput() {
+        /* 3 g of 20.5 Hz vibration sampled at 120 Hz, decimated 40x to 3 Hz */
+        int factor = 40;
+        double inputRateHz = 120.0;
+        double vibrationHz = 20.5;
+        FilterDecimator decimator = new FilterDecimator(factor, 1, FilterDecimator.DEFAULT_TAPS_PER_PHASE);
+        float[] sample = new float[1];
+        float[] output = new float[1];
+
+        double maxDeviation = 0.0;
+        int outputs = 0;
+        for (int index = 0; index < 120 * 60; index++) {
+            sample[0] = (float) (1.0 + 3.0 * Math.sin(2.0 * Math.PI * vibrationHz * index / inputRateHz));
+            if (decimator.add(sample, output)) {
+                outputs++;
+                /* skip the outputs whose history still holds the priming sample */
+                if (index >= decimator.getTaps()) {
+                    maxDeviation = Math.max(maxDeviation, Math.abs(output[0] - 1.0));
+                }
+            }
+        }
+
+        assertEquals(120 * 60 / factor, outputs);
+        assertTrue("output deviates by " + maxDeviation, maxDeviation < 3.0 * 1e-3);
+    }
+
+    @Test
+    public void costFollowsTheOutputRate() {
+        /* the same input at two factors 16x apart costs about the same per input sample */
+        double lowFactorNs = nsPerInputSample(8);
+        double highFactorNs = nsPerInputSample(128);
+
+        assertTrue("factor 8: " + lowFactorNs + " ns, factor 128: " + highFactorNs + " ns per sample",
+                highFactorNs < 4.0 * lowFactorNs);
+        assertTrue("factor 128: " + highFactorNs + " ns per sample", highFactorNs < 2000.0);
+    }
+
+    /**
+     * @return the best of several timed runs, in ns per 3-channel input sample
+     */
+    private static double nsPerInputSample(int factor) {
+        FilterDecimator decimator = new FilterDecimator(factor, 3, FilterDecimator.DEFAULT_TAPS_PER_PHASE);
+        float[] sample = new float[3];
+        float[] output = new float[3];
+        int samples = 200000;
+
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            for (int index = 0; index < samples; index++) {
+                sample[0] = index & 0xff;
+                sample[1] = 9.8f;
+                sample[2] = -sample[0];
+                decimator.add(sample, output);
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / samples);
+        }
+        return best;
+    }
+}
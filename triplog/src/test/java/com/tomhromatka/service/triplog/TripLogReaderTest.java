@@ -0,0 +1,231 @@
+/*
+ * Copyright 2011-2015 Tom Hromatka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomhromatka.service.triplog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes a trip log and its index the way TripLogWriter lays them out, one index entry per
+ * block, and checks that TripLogReader.seek() lands on the first record at or after the target
+ * with a whole, a truncated and a missing index.
+ */
+public class TripLogReaderTest {
+    private static final int BLOCK_RECORDS = 64;
+    private static final int BLOCKS = 5;
+
+    /* a partial last block, as when the log is closed mid block */
+    private static final int RECORDS = BLOCKS * BLOCK_RECORDS + 17;
+
+    private static final long FIRST_TIMESTAMP = 7000000000L;
+    private static final long PERIOD_NS = 5000000L;
+
+    private File logFile;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("trip", ".log");
+        indexFile = new File(logFile.getPath() + TripLogIndex.FILE_SUFFIX);
+        writeLog();
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(!logFile.exists() || logFile.delete());
+        assertTrue(!indexFile.exists() || indexFile.delete());
+    }
+
+    @Test
+    public void seekBeforeTheFirstRecordReadsFromTheStart() throws IOException {
+        TripLogReader reader = new TripLogReader(logFile);
+        try {
+            assertTrue(reader.isIndexed());
+            assertEquals(0, reader.seek(0));
+            assertEquals(0, reader.seek(FIRST_TIMESTAMP - 1));
+            assertTrue(reader.next());
+            assertEquals(FIRST_TIMESTAMP, reader.getTimestamp());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void seekAfterTheLastRecordReadsNothing() throws IOException {
+        TripLogReader reader = new TripLogReader(logFile);
+        try {
+            assertEquals(RECORDS, reader.seek(timestampOf(RECORDS - 1) + 1));
+            assertFalse(reader.next());
+            assertEquals(RECORDS, reader.seek(Long.MAX_VALUE));
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void exactHitsLandOnTheRecord() throws IOException {
+        TripLogReader reader = new TripLogReader(logFile);
+        try {
+            assertSeeksEveryRecord(reader);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void truncatedIndexStillFindsEveryRecord() throws IOException {
+        /* two whole entries and half of the third, as if the app died while writing it */
+        truncate(indexFile, TripLogIndex.HEADER_SIZE + 2 * TripLogIndex.ENTRY_SIZE + TripLogIndex.ENTRY_SIZE / 2);
+
+        TripLogReader reader = new TripLogReader(logFile);
+        try {
+            assertTrue(reader.isIndexed());
+            assertSeeksEveryRecord(reader);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void indexEntriesPastATruncatedLogAreIgnored() throws IOException {
+        int records = 2 * BLOCK_RECORDS + 5;
+        truncate(logFile, TripLog.HEADER_SIZE + (long) records * TripLog.RECORD_SIZE);
+
+        TripLogReader reader = new TripLogReader(logFile);
+        try {
+            assertEquals(records, reader.getRecordCount());
+            assertEquals(records - 1, reader.seek(timestampOf(records - 1)));
+            assertEquals(records, reader.seek(timestampOf(records)));
+            assertEquals(records, reader.seek(timestampOf(RECORDS - 1)));
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void missingIndexFallsBackToSearchingTheLog() throws IOException {
+        assertTrue(indexFile.delete());
+
+        TripLogReader reader = new TripLogReader(logFile);
+        try {
+            assertFalse(reader.isIndexed());
+            assertEquals(0, reader.seek(0));
+            assertEquals(RECORDS, reader.seek(Long.MAX_VALUE));
+            assertSeeksEveryRecord(reader);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void corruptIndexFallsBackToSearchingTheLog() throws IOException {
+        truncate(indexFile, TripLogIndex.HEADER_SIZE / 2);
+
+        TripLogReader reader = new TripLogReader(logFile);
+        try {
+            assertFalse(reader.isIndexed());
+            assertSeeksEveryRecord(reader);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Seek to every record's timestamp and to just after it, and read the record found
+     */
+    private static void assertSeeksEveryRecord(TripLogReader reader) throws IOException {
+        for (int record = 0; record < RECORDS; record++) {
+            assertEquals(record, reader.seek(timestampOf(record)));
+            assertTrue(reader.next());
+            assertEquals(timestampOf(record), reader.getTimestamp());
+            assertEquals(record, reader.getValues()[0], 0.0f);
+
+            assertEquals(record + 1, reader.seek(timestampOf(record) + 1));
+        }
+    }
+
+    private static long timestampOf(int record) {
+        return FIRST_TIMESTAMP + record * PERIOD_NS;
+    }
+
+    private void writeLog() throws IOException {
+        RandomAccessFile log = new RandomAccessFile(logFile, "rw");
+        RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        try {
+            FileChannel logChannel = log.getChannel();
+            FileChannel indexChannel = index.getChannel();
+            TripLog.writeHeader(logChannel, new TripLog.Header(1234567890000L, 1.5, -2.5));
+            TripLogIndex.writeHeader(indexChannel, BLOCK_RECORDS);
+
+            ByteBuffer records = ByteBuffer.allocate(RECORDS * TripLog.RECORD_SIZE).order(TripLog.BYTE_ORDER);
+            ByteBuffer entries = ByteBuffer.allocate((BLOCKS + 1) * TripLogIndex.ENTRY_SIZE).order(TripLog.BYTE_ORDER);
+            for (int record = 0; record < RECORDS; record++) {
+                if (0 == record % BLOCK_RECORDS) {
+                    entries.putLong(timestampOf(record));
+                    entries.putLong(record);
+                }
+                records.putLong(timestampOf(record));
+                records.putFloat(record);
+                records.putFloat(0.0f);
+                records.putFloat(9.8f);
+            }
+            records.flip();
+            entries.flip();
+
+            logChannel.position(TripLog.HEADER_SIZE);
+            while (records.hasRemaining()) {
+                logChannel.write(records);
+            }
+            indexChannel.position(TripLogIndex.HEADER_SIZE);
+            while (entries.hasRemaining()) {
+                indexChannel.write(entries);
+            }
+        }
+        finally {
+            index.close();
+            log.close();
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        }
+        finally {
+            raf.close();
+        }
+    }
+}